@@ -0,0 +1,159 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.guid.core;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * 号段分配配置，见{@link SegmentGuidGenerator}。
+ * <p>
+ * 当前号段使用了{@link #getPrefetchRatio()}时，在后台预取下一个号段。
+ * 每个号段用完时，会根据其使用时长调整下一次申请的号段大小：使用时长小于{@link #getTargetSegmentDurationMs()}的一半时翻倍，
+ * 大于两倍时减半，且始终在[{@link #getMinSegmentSize()}, {@link #getMaxSegmentSize()}]区间内。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/2
+ * github - https://github.com/hl845740757
+ */
+@Immutable
+public class SegmentConfig {
+
+    private final long initialSegmentSize;
+    private final long minSegmentSize;
+    private final long maxSegmentSize;
+    private final double prefetchRatio;
+    private final long targetSegmentDurationMs;
+
+    private SegmentConfig(Builder builder) {
+        this.initialSegmentSize = builder.initialSegmentSize;
+        this.minSegmentSize = builder.minSegmentSize;
+        this.maxSegmentSize = builder.maxSegmentSize;
+        this.prefetchRatio = builder.prefetchRatio;
+        this.targetSegmentDurationMs = builder.targetSegmentDurationMs;
+    }
+
+    /**
+     * 创建一个固定号段大小的配置
+     *
+     * @param segmentSize 每次申请的号段大小
+     */
+    public static SegmentConfig fixedSize(long segmentSize) {
+        return newBuilder()
+                .setInitialSegmentSize(segmentSize)
+                .setMinSegmentSize(segmentSize)
+                .setMaxSegmentSize(segmentSize)
+                .build();
+    }
+
+    /**
+     * @return 首次申请的号段大小
+     */
+    public long getInitialSegmentSize() {
+        return initialSegmentSize;
+    }
+
+    /**
+     * @return 号段大小的下限
+     */
+    public long getMinSegmentSize() {
+        return minSegmentSize;
+    }
+
+    /**
+     * @return 号段大小的上限
+     */
+    public long getMaxSegmentSize() {
+        return maxSegmentSize;
+    }
+
+    /**
+     * @return 当前号段使用了该比例时，开始预取下一个号段
+     */
+    public double getPrefetchRatio() {
+        return prefetchRatio;
+    }
+
+    /**
+     * @return 期望的单个号段的使用时长，毫秒
+     */
+    public long getTargetSegmentDurationMs() {
+        return targetSegmentDurationMs;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private long initialSegmentSize = 1000_000;
+        private long minSegmentSize = 100_000;
+        private long maxSegmentSize = 10_000_000;
+        private double prefetchRatio = 0.5;
+        private long targetSegmentDurationMs = 5 * 60 * 1000;
+
+        public Builder setInitialSegmentSize(long initialSegmentSize) {
+            this.initialSegmentSize = requirePositive(initialSegmentSize, "initialSegmentSize");
+            return this;
+        }
+
+        public Builder setMinSegmentSize(long minSegmentSize) {
+            this.minSegmentSize = requirePositive(minSegmentSize, "minSegmentSize");
+            return this;
+        }
+
+        public Builder setMaxSegmentSize(long maxSegmentSize) {
+            this.maxSegmentSize = requirePositive(maxSegmentSize, "maxSegmentSize");
+            return this;
+        }
+
+        public Builder setPrefetchRatio(double prefetchRatio) {
+            if (prefetchRatio <= 0 || prefetchRatio >= 1) {
+                throw new IllegalArgumentException("prefetchRatio " + prefetchRatio + " must between (0, 1)");
+            }
+            this.prefetchRatio = prefetchRatio;
+            return this;
+        }
+
+        public Builder setTargetSegmentDurationMs(long targetSegmentDurationMs) {
+            this.targetSegmentDurationMs = requirePositive(targetSegmentDurationMs, "targetSegmentDurationMs");
+            return this;
+        }
+
+        public SegmentConfig build() {
+            checkParam();
+            return new SegmentConfig(this);
+        }
+
+        private void checkParam() {
+            if (minSegmentSize > maxSegmentSize) {
+                throw new IllegalArgumentException("minSegmentSize " + minSegmentSize + " > maxSegmentSize " + maxSegmentSize);
+            }
+            if (initialSegmentSize < minSegmentSize || initialSegmentSize > maxSegmentSize) {
+                throw new IllegalArgumentException("initialSegmentSize " + initialSegmentSize + " must between [minSegmentSize, maxSegmentSize]");
+            }
+        }
+
+        private static long requirePositive(long value, String name) {
+            if (value <= 0) {
+                throw new IllegalArgumentException(name + ": " + value + " (expected: > 0)");
+            }
+            return value;
+        }
+    }
+}
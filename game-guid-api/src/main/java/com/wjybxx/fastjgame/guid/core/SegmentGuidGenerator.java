@@ -0,0 +1,217 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.guid.core;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于号段预分配的guid生成器。
+ * <p>
+ * 子类只需要实现{@link #allocateSegment(long)}，从redis、zookeeper等申请一个号段。
+ * 当前号段使用了一定比例后，会在后台线程中预取下一个号段，号段用完时直接切换，因此调用{@link #next()}的线程通常不会等待网络请求。
+ * 只有在首次分配、预取尚未完成或预取失败时，才会在调用线程中等待或同步申请。
+ * <p>
+ * 号段大小会根据消耗速度自动调整，见{@link SegmentConfig}。
+ * 预取线程池由创建者提供并负责关闭，每个生成器同一时刻最多只有一个预取任务，因此多个生成器可以共享一个很小的线程池。
+ * 注意：预取的号段如果没有使用(如：进程关闭)，则会被浪费，guid不保证连续，这是号段方案的固有代价。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/2
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public abstract class SegmentGuidGenerator implements GuidGenerator {
+
+    private final String name;
+    private final SegmentConfig config;
+    private final Executor prefetchExecutor;
+
+    private long curGuid = 1;
+    private long curBarrier = 0;
+    private long curSegmentSize;
+    private long segmentStartNanos;
+    /**
+     * 分配到该值时开始预取下一个号段
+     */
+    private long prefetchGuid;
+    /**
+     * 下一次申请的号段大小
+     */
+    private long nextSegmentSize;
+    /**
+     * 正在预取(或已预取完成)的号段
+     */
+    private CompletableFuture<Segment> prefetchFuture;
+
+    /**
+     * @param name             生成器名字(命名空间)
+     * @param config           号段配置
+     * @param prefetchExecutor 执行预取的线程池，可以被多个生成器共享，应该在关闭所有使用它的生成器之后关闭
+     */
+    protected SegmentGuidGenerator(String name, SegmentConfig config, Executor prefetchExecutor) {
+        this.name = name;
+        this.config = config;
+        this.prefetchExecutor = Objects.requireNonNull(prefetchExecutor, "prefetchExecutor");
+        this.nextSegmentSize = config.getInitialSegmentSize();
+    }
+
+    @Override
+    public final String nameSpace() {
+        return name;
+    }
+
+    @Override
+    public final long next() {
+        if (curGuid > curBarrier) {
+            switchSegment();
+        }
+        if (curGuid == prefetchGuid) {
+            startPrefetch();
+        }
+        return curGuid++;
+    }
+
+    private void switchSegment() {
+        final Segment segment = takeNextSegment();
+        curGuid = segment.firstGuid;
+        curBarrier = segment.lastGuid;
+        curSegmentSize = segment.lastGuid - segment.firstGuid + 1;
+        segmentStartNanos = System.nanoTime();
+        prefetchGuid = curGuid + Math.min(curSegmentSize - 1, (long) (curSegmentSize * config.getPrefetchRatio()));
+    }
+
+    private Segment takeNextSegment() {
+        final CompletableFuture<Segment> future = prefetchFuture;
+        prefetchFuture = null;
+        if (future != null) {
+            try {
+                // 通常已经完成，不会阻塞
+                return future.join();
+            } catch (CompletionException e) {
+                onPrefetchFailure(e.getCause());
+            }
+        }
+        // 首次分配或预取失败，同步申请
+        try {
+            return allocate(nextSegmentSize);
+        } catch (Exception e) {
+            return rethrow(e);
+        }
+    }
+
+    private void startPrefetch() {
+        adjustNextSegmentSize();
+
+        final long segmentSize = nextSegmentSize;
+        prefetchFuture = CompletableFuture.supplyAsync(() -> {
+            try {
+                return allocate(segmentSize);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, prefetchExecutor);
+    }
+
+    /**
+     * 根据当前号段的消耗速度，估算当前号段的使用时长，调整下一次申请的号段大小
+     */
+    private void adjustNextSegmentSize() {
+        final long usedGuids = curGuid - (curBarrier - curSegmentSize + 1) + 1;
+        final long elapsedNanos = System.nanoTime() - segmentStartNanos;
+        final long estimatedDurationMs = TimeUnit.NANOSECONDS.toMillis((long) ((double) elapsedNanos * curSegmentSize / usedGuids));
+
+        final long targetDurationMs = config.getTargetSegmentDurationMs();
+        if (estimatedDurationMs < targetDurationMs / 2) {
+            // 消耗太快，扩大号段，减少申请次数
+            nextSegmentSize = Math.min(config.getMaxSegmentSize(), curSegmentSize * 2);
+        } else if (estimatedDurationMs > targetDurationMs * 2) {
+            // 消耗太慢，缩小号段，减少浪费
+            nextSegmentSize = Math.max(config.getMinSegmentSize(), curSegmentSize / 2);
+        } else {
+            nextSegmentSize = Math.max(config.getMinSegmentSize(), Math.min(config.getMaxSegmentSize(), curSegmentSize));
+        }
+    }
+
+    private Segment allocate(long segmentSize) throws Exception {
+        final long lastGuid = allocateSegment(segmentSize);
+        return new Segment(lastGuid - segmentSize + 1, lastGuid);
+    }
+
+    /**
+     * 申请一个号段，可能运行在预取线程中，也可能运行在调用{@link #next()}的线程中，但同一时刻最多只有一个申请。
+     *
+     * @param segmentSize 号段大小
+     * @return 号段的最后一个guid(包含)，号段为[返回值 - segmentSize + 1, 返回值]
+     * @throws Exception 申请失败
+     */
+    protected abstract long allocateSegment(long segmentSize) throws Exception;
+
+    /**
+     * 预取失败时调用，之后会在调用线程中同步申请号段。
+     * 子类可以记录日志。
+     *
+     * @param cause 失败原因
+     */
+    protected void onPrefetchFailure(Throwable cause) {
+
+    }
+
+    /**
+     * 等待正在执行的预取完成。
+     * 子类在释放{@link #allocateSegment(long)}使用的资源前应该调用该方法，避免预取任务使用已释放的资源。
+     */
+    protected final void awaitPrefetch() {
+        final CompletableFuture<Segment> future = prefetchFuture;
+        if (future == null) {
+            return;
+        }
+        try {
+            future.join();
+        } catch (CompletionException ignore) {
+
+        }
+    }
+
+    /**
+     * @return 当前号段的大小，如果尚未分配号段，则返回0
+     */
+    public final long getCurSegmentSize() {
+        return curSegmentSize;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable, R> R rethrow(Throwable cause) throws T {
+        throw (T) cause;
+    }
+
+    private static class Segment {
+
+        final long firstGuid;
+        final long lastGuid;
+
+        Segment(long firstGuid, long lastGuid) {
+            this.firstGuid = firstGuid;
+            this.lastGuid = lastGuid;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.guid.core;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * snowflake风格的guid生成器，不依赖redis、zookeeper等外部服务，线程安全且无锁。
+ * <p>
+ * id格式：1位符号位(恒为0) + 41位毫秒时间戳(相对于{@code epochMillis}) + 10位workerId + 12位序号。
+ * 每个workerId每毫秒可以生成4096个id，时间戳可以使用约69年。
+ * <p>
+ * 时间戳和序号合并为一个逻辑时钟，使用CAS更新，因此多线程可以共享同一个实例：
+ * <li>1. 当前毫秒的序号用完时，会借用下一毫秒的序号，但最多领先系统时钟{@link #MAX_BORROW_MILLIS}毫秒，超过时等待时钟追上。</li>
+ * <li>2. 系统时钟回拨时，继续在逻辑时钟上递增，回拨不超过{@code maxBackwardMillis}时等待时钟追上，超过时抛出异常。</li>
+ * <p>
+ * 注意：
+ * 1. workerId必须在所有共享命名空间的进程中唯一，可以由配置指定，或通过{@link WorkerIdAllocator}租用。
+ * 2. 进程重启期间的时钟回拨是无法检测的。
+ * 3. 同一进程内同一命名空间只能有一个实例，否则会生成重复的id，见{@link SnowflakeGuidGeneratorFactory}。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/4
+ * github - https://github.com/hl845740757
+ */
+@ThreadSafe
+public class SnowflakeGuidGenerator implements GuidGenerator {
+
+    /**
+     * 默认的起始时间：2020-01-01 00:00:00 UTC
+     */
+    public static final long DEFAULT_EPOCH_MILLIS = 1577836800000L;
+    /**
+     * 默认允许的时钟回拨时间
+     */
+    public static final long DEFAULT_MAX_BACKWARD_MILLIS = 1000;
+    /**
+     * 序号用完时，最多借用未来多少毫秒的序号
+     */
+    public static final long MAX_BORROW_MILLIS = 5;
+
+    public static final int WORKER_ID_BITS = 10;
+    public static final int SEQUENCE_BITS = 12;
+    public static final int MAX_WORKER_ID = (1 << WORKER_ID_BITS) - 1;
+    /**
+     * {@link #next(int)}单次最多分配的数量
+     */
+    public static final int MAX_BATCH_SIZE = 1 << SEQUENCE_BITS;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int TIMESTAMP_SHIFT = WORKER_ID_BITS + SEQUENCE_BITS;
+    private static final long MAX_TIMESTAMP = (1L << (Long.SIZE - 1 - TIMESTAMP_SHIFT)) - 1;
+    private static final long WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final String name;
+    private final int workerId;
+    private final long epochMillis;
+    private final long maxBackwardMillis;
+    /**
+     * 逻辑时钟：(timestamp << SEQUENCE_BITS) | sequence，记录的是最后一个分配出去的值
+     */
+    private final AtomicLong lastState = new AtomicLong();
+
+    public SnowflakeGuidGenerator(String name, int workerId) {
+        this(name, workerId, DEFAULT_EPOCH_MILLIS, DEFAULT_MAX_BACKWARD_MILLIS);
+    }
+
+    /**
+     * @param name              生成器名字(命名空间)
+     * @param workerId          workerId，[0, {@link #MAX_WORKER_ID}]
+     * @param epochMillis       起始时间，一旦使用就不可以修改
+     * @param maxBackwardMillis 允许的时钟回拨时间，在该范围内的回拨会等待时钟追上
+     */
+    public SnowflakeGuidGenerator(String name, int workerId, long epochMillis, long maxBackwardMillis) {
+        if (workerId < 0 || workerId > MAX_WORKER_ID) {
+            throw new IllegalArgumentException("workerId: " + workerId + " (expected: 0-" + MAX_WORKER_ID + ")");
+        }
+        if (epochMillis < 0 || epochMillis > System.currentTimeMillis()) {
+            throw new IllegalArgumentException("epochMillis: " + epochMillis + " (expected: 0-now)");
+        }
+        if (maxBackwardMillis < MAX_BORROW_MILLIS) {
+            throw new IllegalArgumentException("maxBackwardMillis: " + maxBackwardMillis + " (expected: >= " + MAX_BORROW_MILLIS + ")");
+        }
+        this.name = name;
+        this.workerId = workerId;
+        this.epochMillis = epochMillis;
+        this.maxBackwardMillis = maxBackwardMillis;
+    }
+
+    @Override
+    public String nameSpace() {
+        return name;
+    }
+
+    public int getWorkerId() {
+        return workerId;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 同一个实例分配的id是递增的。
+     */
+    @Override
+    public long next() {
+        return toGuid(reserve(1));
+    }
+
+    /**
+     * 一次分配多个id，只需要一次CAS操作。
+     *
+     * @param n 分配数量，[1, {@link #MAX_BATCH_SIZE}]
+     * @return 递增的id数组
+     */
+    public long[] next(int n) {
+        if (n <= 0 || n > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("n: " + n + " (expected: 1-" + MAX_BATCH_SIZE + ")");
+        }
+        final long first = reserve(n);
+        final long[] result = new long[n];
+        for (int index = 0; index < n; index++) {
+            result[index] = toGuid(first + index);
+        }
+        return result;
+    }
+
+    /**
+     * 在逻辑时钟上预留n个连续的值
+     *
+     * @return 预留的第一个值
+     */
+    private long reserve(int n) {
+        while (true) {
+            final long last = lastState.get();
+            final long lastTimestamp = last >>> SEQUENCE_BITS;
+            final long now = currentTimestamp();
+            final long ahead = lastTimestamp - now;
+
+            final long first;
+            if (ahead < 0) {
+                // 进入新的毫秒
+                first = now << SEQUENCE_BITS;
+            } else if (ahead < MAX_BORROW_MILLIS) {
+                // 同一毫秒，或借用未来的序号
+                first = last + 1;
+            } else if (ahead <= maxBackwardMillis) {
+                // 借用太多，或时钟小幅回拨，等待时钟追上
+                LockSupport.parkNanos(WAIT_NANOS);
+                continue;
+            } else {
+                throw new IllegalStateException("clock moved backwards, lastTimestamp " + lastTimestamp + ", now " + now);
+            }
+
+            final long end = first + n - 1;
+            if ((end >>> SEQUENCE_BITS) > MAX_TIMESTAMP) {
+                throw new IllegalStateException("timestamp overflow, epochMillis " + epochMillis);
+            }
+            if (lastState.compareAndSet(last, end)) {
+                return first;
+            }
+        }
+    }
+
+    private long currentTimestamp() {
+        return currentTimeMillis() - epochMillis;
+    }
+
+    /**
+     * 获取当前时间，子类可以重写以使用其它时钟
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private long toGuid(long state) {
+        final long timestamp = state >>> SEQUENCE_BITS;
+        final long sequence = state & SEQUENCE_MASK;
+        return (timestamp << TIMESTAMP_SHIFT) | ((long) workerId << SEQUENCE_BITS) | sequence;
+    }
+
+    /**
+     * 解析id中的时间戳
+     *
+     * @return 生成id时的毫秒时间(借用序号时可能略大于真实时间)
+     */
+    public long getTimeMillis(long guid) {
+        return (guid >>> TIMESTAMP_SHIFT) + epochMillis;
+    }
+
+    @Override
+    public void close() {
+        // 没有需要释放的资源
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.guid.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link SnowflakeGuidGenerator}的工厂。
+ * 由于{@link SnowflakeGuidGenerator}是线程安全的，且同一命名空间只能有一个实例，因此相同名字返回的是同一个实例。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/4
+ * github - https://github.com/hl845740757
+ */
+public class SnowflakeGuidGeneratorFactory implements GuidGeneratorFactory {
+
+    private final int workerId;
+    private final ConcurrentMap<String, SnowflakeGuidGenerator> generatorMap = new ConcurrentHashMap<>();
+
+    /**
+     * @param workerId 由配置指定的workerId
+     */
+    public SnowflakeGuidGeneratorFactory(int workerId) {
+        if (workerId < 0 || workerId > SnowflakeGuidGenerator.MAX_WORKER_ID) {
+            throw new IllegalArgumentException("workerId: " + workerId + " (expected: 0-" + SnowflakeGuidGenerator.MAX_WORKER_ID + ")");
+        }
+        this.workerId = workerId;
+    }
+
+    /**
+     * @param workerIdAllocator 用于租用workerId，只在构造时调用一次
+     * @throws Exception 租用workerId失败
+     */
+    public SnowflakeGuidGeneratorFactory(WorkerIdAllocator workerIdAllocator) throws Exception {
+        this(workerIdAllocator.allocate(SnowflakeGuidGenerator.MAX_WORKER_ID));
+    }
+
+    public int getWorkerId() {
+        return workerId;
+    }
+
+    @Override
+    public SnowflakeGuidGenerator newInstance(String name) {
+        return generatorMap.computeIfAbsent(name, k -> new SnowflakeGuidGenerator(k, workerId));
+    }
+
+}
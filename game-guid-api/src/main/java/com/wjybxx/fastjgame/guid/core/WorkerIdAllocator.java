@@ -0,0 +1,40 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.guid.core;
+
+/**
+ * workerId分配器，为{@link SnowflakeGuidGenerator}租用一个进程内唯一的workerId。
+ * 它只在启动时调用一次，因此可以是阻塞的，如：通过zookeeper的临时节点抢占。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/4
+ * github - https://github.com/hl845740757
+ */
+@FunctionalInterface
+public interface WorkerIdAllocator {
+
+    /**
+     * 租用一个workerId，在租约有效期间，其它进程不可以获得相同的workerId。
+     *
+     * @param maxWorkerId 最大的workerId(包含)
+     * @return [0, maxWorkerId]之间的workerId
+     * @throws Exception 没有可用的workerId，或网络错误
+     */
+    int allocate(int maxWorkerId) throws Exception;
+
+}
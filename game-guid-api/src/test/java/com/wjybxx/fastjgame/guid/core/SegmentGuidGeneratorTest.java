@@ -0,0 +1,212 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.guid.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link SegmentGuidGenerator}测试：预取时机、号段切换、号段大小调整及预取失败。
+ * 预取线程池由测试手动执行，以控制预取完成的时机。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/12
+ * github - https://github.com/hl845740757
+ */
+class SegmentGuidGeneratorTest {
+
+    /**
+     * 号段之间的间隔，用于区分号段
+     */
+    private static final long SEGMENT_GAP = 1000;
+
+    private final List<Runnable> prefetchTasks = new ArrayList<>();
+
+    private void runPrefetchTasks() {
+        final List<Runnable> tasks = new ArrayList<>(prefetchTasks);
+        prefetchTasks.clear();
+        tasks.forEach(Runnable::run);
+    }
+
+    @Test
+    void prefetchAtRatio() {
+        final StubGenerator generator = new StubGenerator(SegmentConfig.newBuilder()
+                .setInitialSegmentSize(10)
+                .setMinSegmentSize(10)
+                .setMaxSegmentSize(10)
+                .setPrefetchRatio(0.5)
+                .build());
+
+        // 首次分配在调用线程中同步申请
+        Assertions.assertEquals(SEGMENT_GAP + 1, generator.next());
+        Assertions.assertEquals(1, generator.segmentSizes.size());
+        Assertions.assertTrue(prefetchTasks.isEmpty());
+
+        for (int index = 1; index < 5; index++) {
+            generator.next();
+        }
+        Assertions.assertTrue(prefetchTasks.isEmpty());
+
+        // 使用一半时开始预取
+        generator.next();
+        Assertions.assertEquals(1, prefetchTasks.size());
+        Assertions.assertEquals(1, generator.segmentSizes.size());
+    }
+
+    @Test
+    void switchToPrefetchedSegment() {
+        final StubGenerator generator = new StubGenerator(SegmentConfig.fixedSize(10));
+        long lastGuid = 0;
+        for (int index = 0; index < 10; index++) {
+            lastGuid = generator.next();
+            runPrefetchTasks();
+        }
+        Assertions.assertEquals(SEGMENT_GAP + 10, lastGuid);
+        Assertions.assertEquals(2, generator.segmentSizes.size());
+
+        // 号段用完时直接切换到预取的号段，不再同步申请
+        Assertions.assertEquals(2 * SEGMENT_GAP + 10 + 1, generator.next());
+        Assertions.assertEquals(2, generator.segmentSizes.size());
+        Assertions.assertEquals(10, generator.getCurSegmentSize());
+    }
+
+    @Test
+    void growWhenConsumedFast() {
+        final StubGenerator generator = new StubGenerator(SegmentConfig.newBuilder()
+                .setInitialSegmentSize(20)
+                .setMinSegmentSize(10)
+                .setMaxSegmentSize(40)
+                .setTargetSegmentDurationMs(60 * 1000)
+                .build());
+
+        // 立即用完，估算的使用时长远小于期望时长，号段翻倍，但不超过上限
+        for (int round = 0; round < 3; round++) {
+            final long size = generator.getCurSegmentSize() == 0 ? 20 : generator.getCurSegmentSize();
+            for (int index = 0; index < size; index++) {
+                generator.next();
+                runPrefetchTasks();
+            }
+        }
+        Assertions.assertEquals(List.of(20L, 40L, 40L), generator.segmentSizes.subList(0, 3));
+    }
+
+    @Test
+    void shrinkWhenConsumedSlowly() throws Exception {
+        final StubGenerator generator = new StubGenerator(SegmentConfig.newBuilder()
+                .setInitialSegmentSize(20)
+                .setMinSegmentSize(10)
+                .setMaxSegmentSize(40)
+                .setPrefetchRatio(0.5)
+                .setTargetSegmentDurationMs(1)
+                .build());
+
+        // 估算的使用时长远大于期望时长，号段减半，但不低于下限
+        generator.next();
+        Thread.sleep(20);
+        for (int index = 1; index <= 10; index++) {
+            generator.next();
+        }
+        runPrefetchTasks();
+        Assertions.assertEquals(List.of(20L, 10L), generator.segmentSizes);
+    }
+
+    @Test
+    void allocateSyncWhenPrefetchFailed() {
+        final StubGenerator generator = new StubGenerator(SegmentConfig.fixedSize(10));
+        generator.next();
+
+        generator.failNext = true;
+        for (int index = 1; index < 10; index++) {
+            generator.next();
+            runPrefetchTasks();
+        }
+        // 切换号段时才检查预取结果
+        Assertions.assertEquals(0, generator.prefetchFailures.size());
+        Assertions.assertEquals(1, generator.segmentSizes.size());
+
+        // 预取失败时在调用线程中同步申请
+        Assertions.assertEquals(2 * SEGMENT_GAP + 10 + 1, generator.next());
+        Assertions.assertEquals(2, generator.segmentSizes.size());
+        Assertions.assertEquals(1, generator.prefetchFailures.size());
+    }
+
+    @Test
+    void rethrowSyncAllocateFailure() {
+        final StubGenerator generator = new StubGenerator(SegmentConfig.fixedSize(10));
+        generator.failNext = true;
+        Assertions.assertThrows(IllegalStateException.class, generator::next);
+
+        // 之后可以恢复
+        Assertions.assertEquals(SEGMENT_GAP + 1, generator.next());
+    }
+
+    @Test
+    void requirePrefetchExecutor() {
+        Assertions.assertThrows(NullPointerException.class,
+                () -> new SegmentGuidGenerator("test", SegmentConfig.fixedSize(10), null) {
+                    @Override
+                    protected long allocateSegment(long segmentSize) {
+                        return segmentSize;
+                    }
+
+                    @Override
+                    public void close() {
+
+                    }
+                });
+    }
+
+    /**
+     * 每次申请的号段之间间隔{@link #SEGMENT_GAP}，模拟其它进程也在申请号段
+     */
+    private class StubGenerator extends SegmentGuidGenerator {
+
+        final List<Long> segmentSizes = new ArrayList<>();
+        final List<Throwable> prefetchFailures = new ArrayList<>();
+        boolean failNext;
+        private long barrier;
+
+        StubGenerator(SegmentConfig config) {
+            super("test", config, prefetchTasks::add);
+        }
+
+        @Override
+        protected long allocateSegment(long segmentSize) {
+            if (failNext) {
+                failNext = false;
+                throw new IllegalStateException("allocate failure");
+            }
+            segmentSizes.add(segmentSize);
+            barrier += SEGMENT_GAP + segmentSize;
+            return barrier;
+        }
+
+        @Override
+        protected void onPrefetchFailure(Throwable cause) {
+            prefetchFailures.add(cause);
+        }
+
+        @Override
+        public void close() {
+            awaitPrefetch();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.guid.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link SnowflakeGuidGenerator}测试，使用可控制的时钟模拟借用序号和时钟回拨。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/12
+ * github - https://github.com/hl845740757
+ */
+class SnowflakeGuidGeneratorTest {
+
+    private static final int WORKER_ID = 7;
+    private static final long SEQUENCE_MASK = (1L << SnowflakeGuidGenerator.SEQUENCE_BITS) - 1;
+
+    private final AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+
+    private SnowflakeGuidGenerator newGenerator(long maxBackwardMillis) {
+        return new SnowflakeGuidGenerator("test", WORKER_ID, SnowflakeGuidGenerator.DEFAULT_EPOCH_MILLIS, maxBackwardMillis) {
+            @Override
+            protected long currentTimeMillis() {
+                return clock.get();
+            }
+        };
+    }
+
+    private static long sequenceOf(long guid) {
+        return guid & SEQUENCE_MASK;
+    }
+
+    private static int workerIdOf(long guid) {
+        return (int) ((guid >>> SnowflakeGuidGenerator.SEQUENCE_BITS) & SnowflakeGuidGenerator.MAX_WORKER_ID);
+    }
+
+    /**
+     * 在另一个线程中分配一个id，以测试等待时钟追上的情况
+     */
+    private static FutureTask<Long> nextAsync(SnowflakeGuidGenerator generator) {
+        final FutureTask<Long> task = new FutureTask<>(generator::next);
+        final Thread thread = new Thread(task, "NEXT_ASYNC");
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    private static void assertBlocked(FutureTask<Long> task) throws Exception {
+        Assertions.assertThrows(TimeoutException.class, () -> task.get(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void sequenceWithinMillis() {
+        final SnowflakeGuidGenerator generator = newGenerator(SnowflakeGuidGenerator.DEFAULT_MAX_BACKWARD_MILLIS);
+        final long first = generator.next();
+        final long second = generator.next();
+
+        Assertions.assertEquals(first + 1, second);
+        Assertions.assertEquals(0, sequenceOf(first));
+        Assertions.assertEquals(clock.get(), generator.getTimeMillis(first));
+        Assertions.assertEquals(WORKER_ID, workerIdOf(first));
+
+        // 进入新的毫秒，序号从0开始
+        clock.incrementAndGet();
+        final long third = generator.next();
+        Assertions.assertEquals(0, sequenceOf(third));
+        Assertions.assertEquals(clock.get(), generator.getTimeMillis(third));
+    }
+
+    @Test
+    void borrowNextMillis() throws Exception {
+        final SnowflakeGuidGenerator generator = newGenerator(SnowflakeGuidGenerator.DEFAULT_MAX_BACKWARD_MILLIS);
+        final long now = clock.get();
+
+        // 用完当前毫秒的序号，借用下一毫秒
+        generator.next(SnowflakeGuidGenerator.MAX_BATCH_SIZE);
+        final long borrowed = generator.next();
+        Assertions.assertEquals(now + 1, generator.getTimeMillis(borrowed));
+        Assertions.assertEquals(0, sequenceOf(borrowed));
+
+        // 最多借用MAX_BORROW_MILLIS毫秒
+        generator.next(SnowflakeGuidGenerator.MAX_BATCH_SIZE - 1);
+        for (int index = 2; index < SnowflakeGuidGenerator.MAX_BORROW_MILLIS + 1; index++) {
+            generator.next(SnowflakeGuidGenerator.MAX_BATCH_SIZE);
+        }
+        final FutureTask<Long> task = nextAsync(generator);
+        assertBlocked(task);
+
+        // 时钟追上之后继续分配
+        clock.addAndGet(SnowflakeGuidGenerator.MAX_BORROW_MILLIS);
+        final long guid = task.get(1, TimeUnit.SECONDS);
+        Assertions.assertEquals(now + SnowflakeGuidGenerator.MAX_BORROW_MILLIS + 1, generator.getTimeMillis(guid));
+    }
+
+    @Test
+    void smallClockRollback() throws Exception {
+        final SnowflakeGuidGenerator generator = newGenerator(SnowflakeGuidGenerator.DEFAULT_MAX_BACKWARD_MILLIS);
+        final long first = generator.next();
+
+        // 回拨小于借用上限，继续在逻辑时钟上递增
+        clock.addAndGet(-(SnowflakeGuidGenerator.MAX_BORROW_MILLIS - 1));
+        Assertions.assertEquals(first + 1, generator.next());
+
+        // 回拨超过借用上限但在容忍范围内，等待时钟追上
+        final long rollbackMillis = 100;
+        clock.addAndGet(SnowflakeGuidGenerator.MAX_BORROW_MILLIS - 1 - rollbackMillis);
+        final FutureTask<Long> task = nextAsync(generator);
+        assertBlocked(task);
+
+        clock.addAndGet(rollbackMillis);
+        Assertions.assertEquals(first + 2, (long) task.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void largeClockRollback() {
+        final long maxBackwardMillis = 10;
+        final SnowflakeGuidGenerator generator = newGenerator(maxBackwardMillis);
+        generator.next();
+
+        clock.addAndGet(-(maxBackwardMillis + 1));
+        Assertions.assertThrows(IllegalStateException.class, generator::next);
+
+        // 时钟恢复之后可以继续分配
+        clock.addAndGet(maxBackwardMillis + 1);
+        Assertions.assertDoesNotThrow(generator::next);
+    }
+
+    @Test
+    void nextBatch() {
+        final SnowflakeGuidGenerator generator = newGenerator(SnowflakeGuidGenerator.DEFAULT_MAX_BACKWARD_MILLIS);
+        final long before = generator.next();
+        final long[] batch = generator.next(10);
+        final long after = generator.next();
+
+        Assertions.assertEquals(10, batch.length);
+        Assertions.assertEquals(before + 1, batch[0]);
+        for (int index = 1; index < batch.length; index++) {
+            Assertions.assertEquals(batch[index - 1] + 1, batch[index]);
+        }
+        Assertions.assertEquals(batch[batch.length - 1] + 1, after);
+
+        // 跨越毫秒边界的批次仍然是递增的
+        generator.next(SnowflakeGuidGenerator.MAX_BATCH_SIZE - 20);
+        final long[] crossBatch = generator.next(20);
+        for (int index = 1; index < crossBatch.length; index++) {
+            Assertions.assertTrue(crossBatch[index] > crossBatch[index - 1]);
+        }
+        Assertions.assertEquals(clock.get() + 1, generator.getTimeMillis(crossBatch[crossBatch.length - 1]));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> generator.next(0));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> generator.next(SnowflakeGuidGenerator.MAX_BATCH_SIZE + 1));
+    }
+
+    @Test
+    void uniqueAcrossThreads() throws Exception {
+        final SnowflakeGuidGenerator generator = new SnowflakeGuidGenerator("test", WORKER_ID);
+        final int threadCount = 8;
+        final int countPerThread = 50000;
+        final long[][] results = new long[threadCount][countPerThread];
+        final CountDownLatch startLatch = new CountDownLatch(1);
+
+        final List<Thread> threads = new ArrayList<>(threadCount);
+        for (int threadIndex = 0; threadIndex < threadCount; threadIndex++) {
+            final long[] result = results[threadIndex];
+            final Thread thread = new Thread(() -> {
+                try {
+                    startLatch.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int index = 0; index < countPerThread; index++) {
+                    result[index] = generator.next();
+                }
+            }, "GUID-" + threadIndex);
+            thread.start();
+            threads.add(thread);
+        }
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        }
+
+        final Set<Long> guidSet = new HashSet<>(threadCount * countPerThread * 4 / 3 + 1);
+        for (long[] result : results) {
+            for (int index = 0; index < countPerThread; index++) {
+                // 同一线程内递增
+                if (index > 0) {
+                    Assertions.assertTrue(result[index] > result[index - 1]);
+                }
+                guidSet.add(result[index]);
+            }
+        }
+        Assertions.assertEquals(threadCount * countPerThread, guidSet.size());
+    }
+}
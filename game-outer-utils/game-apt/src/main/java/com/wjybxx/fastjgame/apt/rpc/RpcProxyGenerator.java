@@ -16,13 +16,11 @@
 
 package com.wjybxx.fastjgame.apt.rpc;
 
-import com.squareup.javapoet.ClassName;
-import com.squareup.javapoet.MethodSpec;
-import com.squareup.javapoet.ParameterSpec;
-import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.*;
 import com.wjybxx.fastjgame.apt.core.AbstractGenerator;
 import com.wjybxx.fastjgame.apt.serializer.SerializableClassProcessor;
 import com.wjybxx.fastjgame.apt.utils.AutoUtils;
+import com.wjybxx.fastjgame.apt.utils.BeanUtils;
 
 import javax.lang.model.element.*;
 import javax.lang.model.type.DeclaredType;
@@ -33,6 +31,7 @@ import javax.tools.Diagnostic;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * 为客户端生成代理文件 XXXRpcProxy
@@ -43,6 +42,9 @@ import java.util.List;
  */
 class RpcProxyGenerator extends AbstractGenerator<RpcServiceProcessor> {
 
+    private static final TypeName STRING_TYPE_NAME = ClassName.get(String.class);
+    private static final TypeName BYTES_TYPE_NAME = ArrayTypeName.of(TypeName.BYTE);
+
     private final short serviceId;
     private final List<ExecutableElement> rpcMethods;
 
@@ -61,14 +63,19 @@ class RpcProxyGenerator extends AbstractGenerator<RpcServiceProcessor> {
 
         // 生成代理方法
         for (final ExecutableElement method : rpcMethods) {
-            typeBuilder.addMethod(genClientMethodProxy(method));
+            if (processor.isTypedMethodSpecSupported(typeElement, method)) {
+                typeBuilder.addType(genTypedMethodSpec(method));
+                typeBuilder.addMethod(genTypedClientMethodProxy(method));
+            } else {
+                typeBuilder.addMethod(genClientMethodProxy(method));
+            }
         }
 
         // 写入文件
         AutoUtils.writeToFile(typeElement, typeBuilder, elementUtils, messager, filer);
     }
 
-    private static String getClientProxyClassName(TypeElement typeElement) {
+    static String getClientProxyClassName(TypeElement typeElement) {
         return typeElement.getSimpleName().toString() + "RpcProxy";
     }
 
@@ -83,6 +90,7 @@ class RpcProxyGenerator extends AbstractGenerator<RpcServiceProcessor> {
      *        }
      * }
      * </pre>
+     * 如果方法是可缓存的，则会在末尾追加缓存时间参数。
      */
     private MethodSpec genClientMethodProxy(ExecutableElement method) {
         // 工具方法 public static RpcMethodSpec<V>
@@ -106,13 +114,16 @@ class RpcProxyGenerator extends AbstractGenerator<RpcServiceProcessor> {
         // 是否是变长参数类型
         builder.varargs(method.isVarArgs());
 
+        final int cacheTtlMs = processor.getCacheTtlMs(method);
+        final String cacheTtlArg = cacheTtlMs > 0 ? ", " + cacheTtlMs : "";
+
         if (realParameters.size() == 0) {
             // 无参时，使用 Collections.emptyList();
-            builder.addStatement("return new $T<>((short)$L, (short)$L, $T.emptyList(), $L, $L)",
+            builder.addStatement("return new $T<>((short)$L, (short)$L, $T.emptyList(), $L, $L$L)",
                     processor.defaultMethodSpecRawTypeName,
                     serviceId, processor.getMethodId(method),
                     Collections.class,
-                    parseResult.lazyIndexes, parseResult.preIndexes);
+                    parseResult.lazyIndexes, parseResult.preIndexes, cacheTtlArg);
         } else {
             builder.addStatement("$T<Object> methodParams = new $T<>($L)", ArrayList.class,
                     ArrayList.class, realParameters.size());
@@ -120,15 +131,234 @@ class RpcProxyGenerator extends AbstractGenerator<RpcServiceProcessor> {
             for (ParameterSpec parameterSpec : realParameters) {
                 builder.addStatement("methodParams.add($L)", parameterSpec.name);
             }
-            builder.addStatement("return new $T<>((short)$L, (short)$L, methodParams, $L, $L)",
+            builder.addStatement("return new $T<>((short)$L, (short)$L, methodParams, $L, $L$L)",
                     processor.defaultMethodSpecRawTypeName,
                     serviceId, processor.getMethodId(method),
-                    parseResult.lazyIndexes, parseResult.preIndexes);
+                    parseResult.lazyIndexes, parseResult.preIndexes, cacheTtlArg);
         }
 
         return builder.build();
     }
 
+    /**
+     * 为客户端生成类型化的代理方法，参数直接保存到生成的方法描述信息的字段中，不装箱。
+     * <pre>{@code
+     * 		public static RpcMethodSpec<String> method1(int id, String param) {
+     * 			return new Method1Spec_2(id, param);
+     *        }
+     * }
+     * </pre>
+     */
+    private MethodSpec genTypedClientMethodProxy(ExecutableElement method) {
+        final MethodSpec.Builder builder = MethodSpec.methodBuilder(method.getSimpleName().toString())
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC);
+
+        final List<ParameterSpec> realParameters = parseParameters(method).realParameters;
+
+        final TypeMirror returnType = getNonPrimitiveReturnType(method);
+        final DeclaredType realReturnType = typeUtils.getDeclaredType(processor.methodSpecElement, returnType);
+        builder.returns(ClassName.get(realReturnType));
+
+        builder.addParameters(realParameters);
+        builder.varargs(method.isVarArgs());
+
+        builder.addStatement("return new $T($L)",
+                processor.getTypedMethodSpecClassName(typeElement, method),
+                joinParameterNames(realParameters));
+        return builder.build();
+    }
+
+    private static String joinParameterNames(List<ParameterSpec> parameters) {
+        return parameters.stream()
+                .map(parameterSpec -> parameterSpec.name)
+                .collect(Collectors.joining(", "));
+    }
+
+    /**
+     * 为rpc方法生成类型化的方法描述信息及其编解码器，参数保存为具体类型的字段。
+     * 对象类型的参数可能被延迟解码，字段声明为Object，通过同名的访问方法获取。
+     * <pre>{@code
+     * 		public static final class Method1Spec_2 extends TypedRpcMethodSpec<String> {
+     * 		    final int id;
+     * 		    Object bean;
+     *
+     * 		    Method1Spec_2(int id, Bean bean) {...}
+     * 		    private Method1Spec_2(ObjectReader reader) throws Exception {
+     * 		        this.id = reader.readInt();
+     * 		        this.bean = readObjectParam(reader);
+     *          }
+     *
+     * 		    Bean bean() {
+     * 		        final Bean result = decodeObjectParam(this.bean);
+     * 		        this.bean = result;
+     * 		        return result;
+     *          }
+     *
+     * 		    public short getServiceId() { return 1; }
+     * 		    public short getMethodId() { return 2; }
+     *
+     * 		    private static final class Codec implements PojoCodecImpl<Method1Spec_2> {
+     * 		        public void writeObject(Method1Spec_2 instance, ObjectWriter writer) {
+     * 		            writer.writeInt(instance.id);
+     * 		            writer.writeObject(instance.bean);
+     *              }
+     * 		        public Method1Spec_2 readObject(ObjectReader reader) {
+     * 		            return new Method1Spec_2(reader);
+     *              }
+     *          }
+     *      }
+     * }
+     * </pre>
+     */
+    private TypeSpec genTypedMethodSpec(ExecutableElement method) {
+        final ClassName specClassName = processor.getTypedMethodSpecClassName(typeElement, method);
+        final List<ParameterSpec> realParameters = parseParameters(method).realParameters;
+        final TypeName returnTypeName = TypeName.get(getNonPrimitiveReturnType(method));
+
+        final TypeSpec.Builder typeBuilder = TypeSpec.classBuilder(specClassName.simpleName())
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                .superclass(ParameterizedTypeName.get(processor.typedMethodSpecTypeName, returnTypeName));
+
+        // 字段与构造方法
+        final MethodSpec.Builder constructorBuilder = MethodSpec.constructorBuilder()
+                .addParameters(realParameters);
+        // 解码使用的构造方法，参数的读取顺序与写入顺序一致
+        final MethodSpec.Builder readerConstructorBuilder = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(processor.objectReaderTypeName, "reader")
+                .addException(Exception.class);
+        for (ParameterSpec parameterSpec : realParameters) {
+            if (isObjectParameter(parameterSpec.type)) {
+                typeBuilder.addField(TypeName.OBJECT, parameterSpec.name);
+                typeBuilder.addMethod(genObjectParameterAccessor(parameterSpec));
+                readerConstructorBuilder.addStatement("this.$L = readObjectParam(reader)", parameterSpec.name);
+            } else {
+                typeBuilder.addField(parameterSpec.type, parameterSpec.name, Modifier.FINAL);
+                readerConstructorBuilder.addStatement("this.$L = reader.read$L()", parameterSpec.name, getReadWriteTypeName(parameterSpec.type));
+            }
+            constructorBuilder.addStatement("this.$L = $L", parameterSpec.name, parameterSpec.name);
+        }
+        typeBuilder.addMethod(constructorBuilder.build());
+        typeBuilder.addMethod(readerConstructorBuilder.build());
+
+        typeBuilder.addMethod(MethodSpec.methodBuilder("getServiceId")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.SHORT)
+                .addStatement("return (short)$L", serviceId)
+                .build());
+
+        typeBuilder.addMethod(MethodSpec.methodBuilder("getMethodId")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.SHORT)
+                .addStatement("return (short)$L", processor.getMethodId(method))
+                .build());
+
+        typeBuilder.addMethod(genTypedMethodSpecToString(specClassName, realParameters));
+        typeBuilder.addType(genTypedMethodSpecCodec(specClassName, realParameters));
+        return typeBuilder.build();
+    }
+
+    /**
+     * 生成对象类型参数的访问方法，第一次访问时解码并缓存
+     */
+    private static MethodSpec genObjectParameterAccessor(ParameterSpec parameterSpec) {
+        return MethodSpec.methodBuilder(parameterSpec.name)
+                .returns(parameterSpec.type)
+                .addStatement("final $T result = decodeObjectParam(this.$L)", parameterSpec.type, parameterSpec.name)
+                .addStatement("this.$L = result", parameterSpec.name)
+                .addStatement("return result")
+                .build();
+    }
+
+    private static MethodSpec genTypedMethodSpecToString(ClassName specClassName, List<ParameterSpec> realParameters) {
+        final StringBuilder format = new StringBuilder("return $S");
+        final List<Object> params = new ArrayList<>(realParameters.size() * 2 + 1);
+        params.add(specClassName.simpleName() + "{");
+        for (int index = 0; index < realParameters.size(); index++) {
+            final String name = realParameters.get(index).name;
+            format.append(" + $S + $L");
+            params.add((index == 0 ? "" : ", ") + name + "=");
+            params.add(name);
+        }
+        format.append(" + '}'");
+
+        return MethodSpec.methodBuilder("toString")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(String.class)
+                .addStatement(format.toString(), params.toArray())
+                .build();
+    }
+
+    /**
+     * 生成方法描述信息的编解码器 - 会被自动扫描到。
+     */
+    private TypeSpec genTypedMethodSpecCodec(ClassName specClassName, List<ParameterSpec> realParameters) {
+        final MethodSpec getEncoderClassMethod = MethodSpec.methodBuilder("getEncoderClass")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(ParameterizedTypeName.get(ClassName.get(Class.class), specClassName))
+                .addStatement("return $T.class", specClassName)
+                .build();
+
+        final MethodSpec.Builder writeObjectBuilder = MethodSpec.methodBuilder("writeObject")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.VOID)
+                .addParameter(specClassName, "instance")
+                .addParameter(processor.objectWriterTypeName, "writer")
+                .addException(Exception.class);
+
+        for (ParameterSpec parameterSpec : realParameters) {
+            // 尚未解码的对象参数(EncodedValue)由writeObject直接写入原始内容
+            writeObjectBuilder.addStatement("writer.write$L(instance.$L)", getReadWriteTypeName(parameterSpec.type), parameterSpec.name);
+        }
+
+        final MethodSpec readObjectMethod = MethodSpec.methodBuilder("readObject")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(specClassName)
+                .addParameter(processor.objectReaderTypeName, "reader")
+                .addException(Exception.class)
+                .addStatement("return new $T(reader)", specClassName)
+                .build();
+
+        return TypeSpec.classBuilder("Codec")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .addAnnotation(AnnotationSpec.builder(SuppressWarnings.class).addMember("value", "$S", "unused").build())
+                .addSuperinterface(ParameterizedTypeName.get(processor.codecTypeName, specClassName))
+                .addMethod(getEncoderClassMethod)
+                .addMethod(writeObjectBuilder.build())
+                .addMethod(readObjectMethod)
+                .build();
+    }
+
+    /**
+     * 是否是对象类型的参数，对象类型的参数支持延迟解码
+     */
+    static boolean isObjectParameter(TypeName parameterTypeName) {
+        return "Object".equals(getReadWriteTypeName(parameterTypeName));
+    }
+
+    /**
+     * 获取读写方法的类型部分，基本类型、字符串、字节数组直接读写，其它类型走{@code readObject/writeObject}。
+     */
+    private static String getReadWriteTypeName(TypeName parameterTypeName) {
+        final TypeName typeName = parameterTypeName.withoutAnnotations();
+        if (typeName.isPrimitive()) {
+            return BeanUtils.firstCharToUpperCase(typeName.toString());
+        }
+        if (typeName.equals(STRING_TYPE_NAME)) {
+            return "String";
+        }
+        if (typeName.equals(BYTES_TYPE_NAME)) {
+            return "Bytes";
+        }
+        return "Object";
+    }
+
     @SuppressWarnings("unchecked")
     private ParseResult parseParameters(ExecutableElement method) {
         // 原始参数列表
@@ -16,6 +16,7 @@
 
 package com.wjybxx.fastjgame.apt.rpc;
 
+import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
@@ -47,6 +48,8 @@ class RpcRegisterGenerator extends AbstractGenerator<RpcServiceProcessor> {
 
     private static final String context = "context";
     private static final String methodParams = "methodParams";
+    private static final String methodSpec = "methodSpec";
+    private static final String spec = "spec";
 
     private final short serviceId;
     private final List<ExecutableElement> rpcMethods;
@@ -159,9 +162,77 @@ class RpcRegisterGenerator extends AbstractGenerator<RpcServiceProcessor> {
         }
 
         builder.addStatement("})");
+
+        if (processor.isTypedMethodSpecSupported(typeElement, method)) {
+            addTypedRegisterStatement(builder, method, serviceId, methodId);
+        }
         return builder.build();
     }
 
+    /**
+     * 为支持类型化描述信息的方法额外注册一个类型化的代理，直接从生成的字段中读取参数，没有拆箱。
+     * 旧的注册代码保留，以兼容仍然发送{@code DefaultRpcMethodSpec}的调用方。
+     * <pre>
+     * {@code
+     * 		registry.registerTyped(1, 2, (context, methodSpec) -> {
+     * 		    final XXXRpcProxy.Method1Spec_2 spec = (XXXRpcProxy.Method1Spec_2) methodSpec;
+     * 		    return instance.method1(spec.id, spec.bean());
+     *      }
+     * }
+     * </pre>
+     */
+    private void addTypedRegisterStatement(MethodSpec.Builder builder, ExecutableElement method, short serviceId, short methodId) {
+        builder.addCode("$L.registerTyped((short)$L, (short)$L, ($L, $L) -> {\n",
+                registry,
+                serviceId, methodId,
+                context, methodSpec);
+
+        final ClassName specClassName = processor.getTypedMethodSpecClassName(typeElement, method);
+        builder.addStatement("    final $T $L = ($T) $L", specClassName, spec, specClassName, methodSpec);
+
+        final InvokeStatement invokeStatement = genTypedInvokeStatement(method);
+        if (method.getReturnType().getKind() != TypeKind.VOID) {
+            builder.addStatement("    return " + invokeStatement.format, invokeStatement.params.toArray());
+        } else {
+            builder.addStatement("    " + invokeStatement.format, invokeStatement.params.toArray());
+            builder.addStatement("    return null");
+        }
+
+        builder.addStatement("})");
+    }
+
+    /**
+     * 生成类型化的方法调用代码，没有分号和换行符，对象类型的参数通过访问方法获取。
+     * {@code instance.rpcMethod(spec.a, context, spec.b())}
+     */
+    private InvokeStatement genTypedInvokeStatement(ExecutableElement method) {
+        final StringBuilder format = new StringBuilder();
+        final List<Object> params = new ArrayList<>(method.getParameters().size());
+
+        format.append("$L.$L(");
+        params.add(instance);
+        params.add(method.getSimpleName().toString());
+
+        boolean needDelimiter = false;
+        for (VariableElement variableElement : method.getParameters()) {
+            if (needDelimiter) {
+                format.append(", ");
+            } else {
+                needDelimiter = true;
+            }
+
+            if (processor.isContext(variableElement)) {
+                format.append(context);
+            } else {
+                format.append(RpcProxyGenerator.isObjectParameter(TypeName.get(variableElement.asType())) ? "$L.$L()" : "$L.$L");
+                params.add(spec);
+                params.add(variableElement.getSimpleName().toString());
+            }
+        }
+        format.append(")");
+        return new InvokeStatement(format.toString(), params);
+    }
+
     /**
      * 加上methodId防止重复
      *
@@ -22,6 +22,7 @@ import com.squareup.javapoet.TypeName;
 import com.wjybxx.fastjgame.apt.core.MyAbstractProcessor;
 import com.wjybxx.fastjgame.apt.serializer.SerializableClassProcessor;
 import com.wjybxx.fastjgame.apt.utils.AutoUtils;
+import com.wjybxx.fastjgame.apt.utils.BeanUtils;
 
 import javax.annotation.processing.Processor;
 import javax.annotation.processing.RoundEnvironment;
@@ -53,9 +54,15 @@ public class RpcServiceProcessor extends MyAbstractProcessor {
 
     private static final String RPC_SERVICE_CANONICAL_NAME = "com.wjybxx.fastjgame.net.rpc.RpcService";
     private static final String RPC_METHOD_CANONICAL_NAME = "com.wjybxx.fastjgame.net.rpc.RpcMethod";
+    private static final String RPC_CACHEABLE_CANONICAL_NAME = "com.wjybxx.fastjgame.net.rpc.RpcCacheable";
 
     private static final String METHOD_SPEC_CANONICAL_NAME = "com.wjybxx.fastjgame.net.rpc.RpcMethodSpec";
     private static final String DEFAULT_METHOD_SPEC_CANONICAL_NAME = "com.wjybxx.fastjgame.net.rpc.DefaultRpcMethodSpec";
+    private static final String TYPED_METHOD_SPEC_CANONICAL_NAME = "com.wjybxx.fastjgame.net.rpc.TypedRpcMethodSpec";
+
+    private static final String CODEC_CANONICAL_NAME = "com.wjybxx.fastjgame.net.binary.PojoCodecImpl";
+    private static final String OBJECT_READER_CANONICAL_NAME = "com.wjybxx.fastjgame.net.binary.ObjectReader";
+    private static final String OBJECT_WRITER_CANONICAL_NAME = "com.wjybxx.fastjgame.net.binary.ObjectWriter";
 
     private static final String METHOD_REGISTRY_CANONICAL_NAME = "com.wjybxx.fastjgame.net.rpc.RpcMethodProxyRegistry";
 
@@ -64,6 +71,7 @@ public class RpcServiceProcessor extends MyAbstractProcessor {
 
     private static final String SERVICE_ID_METHOD_NAME = "serviceId";
     private static final String METHOD_ID_METHOD_NAME = "methodId";
+    private static final String TTL_MS_METHOD_NAME = "ttlMs";
 
     TypeMirror voidBoxTypeMirror;
 
@@ -72,6 +80,11 @@ public class RpcServiceProcessor extends MyAbstractProcessor {
 
     TypeElement methodSpecElement;
     TypeName defaultMethodSpecRawTypeName;
+    ClassName typedMethodSpecTypeName;
+
+    ClassName codecTypeName;
+    ClassName objectReaderTypeName;
+    ClassName objectWriterTypeName;
 
     DeclaredType lazySerializableDeclaredType;
     DeclaredType preDeserializeDeclaredType;
@@ -79,6 +92,7 @@ public class RpcServiceProcessor extends MyAbstractProcessor {
     private TypeElement rpcServiceElement;
     private DeclaredType rpcServiceDeclaredType;
     private DeclaredType rpcMethodDeclaredType;
+    private DeclaredType rpcCacheableDeclaredType;
 
     ClassName methodRegistryTypeName;
 
@@ -104,6 +118,7 @@ public class RpcServiceProcessor extends MyAbstractProcessor {
         rpcServiceElement = elementUtils.getTypeElement(RPC_SERVICE_CANONICAL_NAME);
         rpcServiceDeclaredType = typeUtils.getDeclaredType(rpcServiceElement);
         rpcMethodDeclaredType = typeUtils.getDeclaredType(elementUtils.getTypeElement(RPC_METHOD_CANONICAL_NAME));
+        rpcCacheableDeclaredType = typeUtils.getDeclaredType(elementUtils.getTypeElement(RPC_CACHEABLE_CANONICAL_NAME));
 
         methodRegistryTypeName = ClassName.get(elementUtils.getTypeElement(METHOD_REGISTRY_CANONICAL_NAME));
 
@@ -112,6 +127,11 @@ public class RpcServiceProcessor extends MyAbstractProcessor {
 
         methodSpecElement = elementUtils.getTypeElement(METHOD_SPEC_CANONICAL_NAME);
         defaultMethodSpecRawTypeName = TypeName.get(typeUtils.getDeclaredType(elementUtils.getTypeElement(DEFAULT_METHOD_SPEC_CANONICAL_NAME)));
+        typedMethodSpecTypeName = ClassName.get(elementUtils.getTypeElement(TYPED_METHOD_SPEC_CANONICAL_NAME));
+
+        codecTypeName = ClassName.get(elementUtils.getTypeElement(CODEC_CANONICAL_NAME));
+        objectReaderTypeName = ClassName.get(elementUtils.getTypeElement(OBJECT_READER_CANONICAL_NAME));
+        objectWriterTypeName = ClassName.get(elementUtils.getTypeElement(OBJECT_WRITER_CANONICAL_NAME));
 
         lazySerializableDeclaredType = typeUtils.getDeclaredType(elementUtils.getTypeElement(SerializableClassProcessor.LAZY_SERIALIZABLE_CANONICAL_NAME));
         preDeserializeDeclaredType = typeUtils.getDeclaredType(elementUtils.getTypeElement(SerializableClassProcessor.PRE_DESERIALIZE_CANONICAL_NAME));
@@ -196,6 +216,12 @@ public class RpcServiceProcessor extends MyAbstractProcessor {
                 continue;
             }
 
+            if (AutoUtils.isAnnotationPresent(typeUtils, method, rpcCacheableDeclaredType) && getCacheTtlMs(method) <= 0) {
+                // 缓存时间非法
+                messager.printMessage(Diagnostic.Kind.ERROR, "RpcCacheable ttlMs must be greater than 0!", method);
+                continue;
+            }
+
             checkParameters(method);
         }
     }
@@ -266,6 +292,52 @@ public class RpcServiceProcessor extends MyAbstractProcessor {
                 .get();
     }
 
+    /**
+     * 获取方法结果的缓存时间，如果方法没有{@code RpcCacheable}注解，则返回0
+     */
+    int getCacheTtlMs(ExecutableElement method) {
+        // 基本类型会被包装，Object不能直接转int
+        return AutoUtils.findAnnotation(typeUtils, method, rpcCacheableDeclaredType)
+                .map(annotationMirror -> (Integer) AutoUtils.getAnnotationValueValue(annotationMirror, TTL_MS_METHOD_NAME))
+                .orElse(0);
+    }
+
+    /**
+     * 是否为该方法生成类型化的方法描述信息{@code TypedRpcMethodSpec}。
+     * 1. 泛型类和泛型方法不生成，因为生成的具体类无法表达方法级别的泛型变量。
+     * 2. 包含延迟序列化或提前反序列化参数的方法不生成，这两类参数需要网络层的特殊处理，仍由{@code DefaultRpcMethodSpec}负责。
+     * 3. 可缓存的方法不生成，缓存的键依赖{@code DefaultRpcMethodSpec}的参数列表。
+     */
+    boolean isTypedMethodSpecSupported(TypeElement typeElement, ExecutableElement method) {
+        if (!typeElement.getTypeParameters().isEmpty() || !method.getTypeParameters().isEmpty()) {
+            return false;
+        }
+        if (AutoUtils.isAnnotationPresent(typeUtils, method, rpcCacheableDeclaredType)) {
+            return false;
+        }
+        for (VariableElement variableElement : method.getParameters()) {
+            if (AutoUtils.isAnnotationPresent(typeUtils, variableElement, lazySerializableDeclaredType)
+                    || AutoUtils.isAnnotationPresent(typeUtils, variableElement, preDeserializeDeclaredType)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 获取类型化的方法描述信息的类名，它是客户端代理类的内部类。
+     * XXXRpcProxy.MethodSpec_1
+     */
+    ClassName getTypedMethodSpecClassName(TypeElement typeElement, ExecutableElement method) {
+        final String packageName = elementUtils.getPackageOf(typeElement).getQualifiedName().toString();
+        return ClassName.get(packageName, RpcProxyGenerator.getClientProxyClassName(typeElement),
+                getTypedMethodSpecSimpleName(method));
+    }
+
+    String getTypedMethodSpecSimpleName(ExecutableElement method) {
+        return BeanUtils.firstCharToUpperCase(method.getSimpleName().toString()) + "Spec_" + getMethodId(method);
+    }
+
     /**
      * 为客户端生成代理文件
      * XXXRpcProxy
@@ -0,0 +1,39 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.redis.cache;
+
+/**
+ * 缓存失效监听器，由{@link RedisInvalidationSubscriber}在订阅线程中调用，实现类需要自己切换到合适的线程。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/8
+ * github - https://github.com/hl845740757
+ */
+public interface InvalidationListener {
+
+    /**
+     * 某个key被修改或删除
+     */
+    void onInvalidate(String key);
+
+    /**
+     * 订阅连接建立或断开，期间可能丢失了通知，需要使全部缓存失效
+     */
+    void onInvalidateAll();
+
+}
@@ -0,0 +1,281 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.redis.cache;
+
+import com.wjybxx.fastjgame.redis.db.PipelineCommand;
+import com.wjybxx.fastjgame.redis.db.RedisClient;
+import com.wjybxx.fastjgame.util.concurrent.ConcurrentUtils;
+import com.wjybxx.fastjgame.util.concurrent.EventLoop;
+import com.wjybxx.fastjgame.util.concurrent.FluentFuture;
+import com.wjybxx.fastjgame.util.concurrent.FutureUtils;
+import com.wjybxx.fastjgame.util.concurrent.ListenableFuture;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 应用线程内的redis近端缓存(read-through)，适用于读多写少的数据，如：玩家简要信息、公会数据。
+ * <p>
+ * 1. 缓存以redis key为单位，按照最近最少使用淘汰，同时每个值有过期时间，见{@link NearCacheConfig}。
+ * 容量限制的是所有key缓存的值的总数(包括每个{@code subKey})，超出时淘汰最久未访问的key(及其所有的值)。
+ * 2. 同一个key可以缓存多个命令的结果(如：HGET不同的field)，以{@code subKey}区分，key失效时所有的{@code subKey}都失效。
+ * 3. 同一个key的并发未命中会合并为一个请求。
+ * 4. 注册到{@link RedisInvalidationSubscriber}后，会在收到失效通知时移除对应的key；本地修改数据后也可以调用{@link #invalidate(String)}。
+ * <p>
+ * 注意：只能在应用线程使用，且{@link RedisClient}的回调必须在应用线程执行(如：{@link com.wjybxx.fastjgame.redis.db.DefaultRedisClient})。
+ * 缓存的值会被多个调用者共享，不可以修改。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/8
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public class NearCache implements InvalidationListener {
+
+    private static final String DEFAULT_SUB_KEY = "";
+
+    private final RedisClient redisClient;
+    private final EventLoop appEventLoop;
+    private final int maxSize;
+    private final long ttlMs;
+
+    /**
+     * redis key -> (subKey -> value)，按访问顺序排序
+     */
+    private final LinkedHashMap<String, Map<String, CacheEntry>> cacheMap;
+    /**
+     * redis key -> (subKey -> 正在执行的请求)
+     */
+    private final Map<String, Map<String, FluentFuture<?>>> inflightMap = new HashMap<>();
+    /**
+     * 缓存的值的总数
+     */
+    private int entryCount;
+
+    private long hits;
+    private long misses;
+    private long coalesced;
+    private long evictions;
+    private long expirations;
+    private long invalidations;
+
+    public NearCache(RedisClient redisClient, EventLoop appEventLoop) {
+        this(redisClient, appEventLoop, NearCacheConfig.newBuilder().build());
+    }
+
+    public NearCache(RedisClient redisClient, EventLoop appEventLoop, NearCacheConfig config) {
+        this.redisClient = redisClient;
+        this.appEventLoop = appEventLoop;
+        this.maxSize = config.getMaxSize();
+        this.ttlMs = config.getTtlMs();
+        this.cacheMap = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * 读取一个key，未命中时执行loader并缓存结果
+     *
+     * @param key    redis key，用于失效
+     * @param loader 加载数据的命令，它只能读取该key
+     */
+    public <T> FluentFuture<T> get(@Nonnull String key, @Nonnull PipelineCommand<T> loader) {
+        return get(key, DEFAULT_SUB_KEY, loader);
+    }
+
+    /**
+     * 读取一个key的一部分数据，未命中时执行loader并缓存结果
+     *
+     * @param key    redis key，用于失效
+     * @param subKey 区分同一个key的不同命令，如：hash的field
+     * @param loader 加载数据的命令，它只能读取该key
+     */
+    @SuppressWarnings("unchecked")
+    public <T> FluentFuture<T> get(@Nonnull String key, @Nonnull String subKey, @Nonnull PipelineCommand<T> loader) {
+        final Map<String, CacheEntry> entryMap = cacheMap.get(key);
+        if (entryMap != null) {
+            final CacheEntry cacheEntry = entryMap.get(subKey);
+            if (cacheEntry != null) {
+                if (cacheEntry.expireMillis > System.currentTimeMillis()) {
+                    hits++;
+                    return FutureUtils.newSucceedFuture((T) cacheEntry.value);
+                }
+                expirations++;
+                removeEntry(key, entryMap, subKey);
+            }
+        }
+
+        final Map<String, FluentFuture<?>> keyInflightMap = inflightMap.computeIfAbsent(key, k -> new HashMap<>(4));
+        final FluentFuture<?> inflight = keyInflightMap.get(subKey);
+        if (inflight != null) {
+            coalesced++;
+            return (FluentFuture<T>) inflight;
+        }
+
+        misses++;
+        final FluentFuture<T> future = redisClient.call(loader);
+        keyInflightMap.put(subKey, future);
+        future.addListener(f -> onLoaded(key, subKey, f));
+        return future;
+    }
+
+    private <T> void onLoaded(String key, String subKey, ListenableFuture<T> future) {
+        final Map<String, FluentFuture<?>> keyInflightMap = inflightMap.get(key);
+        if (keyInflightMap == null || keyInflightMap.get(subKey) != future) {
+            // 请求期间key已失效，结果可能是旧数据，不缓存
+            return;
+        }
+        keyInflightMap.remove(subKey);
+        if (keyInflightMap.isEmpty()) {
+            inflightMap.remove(key);
+        }
+
+        if (future.isCompletedExceptionally()) {
+            return;
+        }
+        final CacheEntry cacheEntry = new CacheEntry(future.getNow(), System.currentTimeMillis() + ttlMs);
+        if (cacheMap.computeIfAbsent(key, k -> new HashMap<>(4)).put(subKey, cacheEntry) == null) {
+            entryCount++;
+            evictIfNecessary();
+        }
+    }
+
+    /**
+     * 淘汰最久未访问的key，直到值的总数不超过上限
+     */
+    private void evictIfNecessary() {
+        final Iterator<Map<String, CacheEntry>> itr = cacheMap.values().iterator();
+        while (entryCount > maxSize && itr.hasNext()) {
+            final Map<String, CacheEntry> entryMap = itr.next();
+            itr.remove();
+            entryCount -= entryMap.size();
+            evictions += entryMap.size();
+        }
+    }
+
+    private void removeEntry(String key, Map<String, CacheEntry> entryMap, String subKey) {
+        if (entryMap.remove(subKey) != null) {
+            entryCount--;
+        }
+        if (entryMap.isEmpty()) {
+            cacheMap.remove(key);
+        }
+    }
+
+    /**
+     * 使一个key的所有缓存失效，正在执行的请求的结果也不会被缓存
+     */
+    public void invalidate(String key) {
+        final Map<String, CacheEntry> entryMap = cacheMap.remove(key);
+        if (entryMap != null) {
+            entryCount -= entryMap.size();
+            invalidations++;
+        }
+        inflightMap.remove(key);
+    }
+
+    /**
+     * 使所有缓存失效
+     */
+    public void invalidateAll() {
+        invalidations += cacheMap.size();
+        cacheMap.clear();
+        inflightMap.clear();
+        entryCount = 0;
+    }
+
+    // ------------------------------------------------ 订阅线程回调 ------------------------------------
+
+    @Override
+    public void onInvalidate(String key) {
+        ConcurrentUtils.safeExecute(appEventLoop, () -> invalidate(key));
+    }
+
+    @Override
+    public void onInvalidateAll() {
+        ConcurrentUtils.safeExecute(appEventLoop, this::invalidateAll);
+    }
+
+    // ------------------------------------------------ 统计信息 ------------------------------------
+
+    /**
+     * @return 当前缓存的key数量
+     */
+    public int size() {
+        return cacheMap.size();
+    }
+
+    /**
+     * @return 当前缓存的值的总数(包括所有的subKey)，不超过{@link NearCacheConfig#getMaxSize()}
+     */
+    public int entryCount() {
+        return entryCount;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return 合并到正在执行的请求的次数
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * @return 因容量不足淘汰的值的数量
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getExpirations() {
+        return expirations;
+    }
+
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return 命中率(包括合并的请求)，没有访问时返回0
+     */
+    public double getHitRate() {
+        final long served = hits + coalesced;
+        final long total = served + misses;
+        return total == 0 ? 0 : (double) served / total;
+    }
+
+    private static class CacheEntry {
+
+        final Object value;
+        final long expireMillis;
+
+        CacheEntry(Object value, long expireMillis) {
+            this.value = value;
+            this.expireMillis = expireMillis;
+        }
+    }
+}
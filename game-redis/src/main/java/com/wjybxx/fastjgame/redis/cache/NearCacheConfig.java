@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.redis.cache;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * {@link NearCache}的配置
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/8
+ * github - https://github.com/hl845740757
+ */
+@Immutable
+public class NearCacheConfig {
+
+    private final int maxSize;
+    private final long ttlMs;
+
+    private NearCacheConfig(Builder builder) {
+        this.maxSize = builder.maxSize;
+        this.ttlMs = builder.ttlMs;
+    }
+
+    /**
+     * @return 最多缓存多少个值(所有key的所有subKey的总数)，超过时淘汰最久未访问的key
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return 缓存的有效时间，毫秒。即使丢失了失效通知，数据最多也只会过期这么久
+     */
+    public long getTtlMs() {
+        return ttlMs;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private int maxSize = 10_000;
+        private long ttlMs = 60 * 1000;
+
+        public Builder setMaxSize(int maxSize) {
+            if (maxSize <= 0) {
+                throw new IllegalArgumentException("maxSize: " + maxSize + " (expected: > 0)");
+            }
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        public Builder setTtlMs(long ttlMs) {
+            if (ttlMs <= 0) {
+                throw new IllegalArgumentException("ttlMs: " + ttlMs + " (expected: > 0)");
+            }
+            this.ttlMs = ttlMs;
+            return this;
+        }
+
+        public NearCacheConfig build() {
+            return new NearCacheConfig(this);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.redis.cache;
+
+import com.wjybxx.fastjgame.util.concurrent.ConcurrentUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPoolAbstract;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+
+import static com.wjybxx.fastjgame.util.ThreadUtils.sleepQuietly;
+
+/**
+ * 缓存失效通知的订阅者，使用一个独立的连接和线程订阅redis，并将失效的key通知给{@link InvalidationListener}。
+ * <p>
+ * Q: 为什么不使用{@link com.wjybxx.fastjgame.redis.db.RedisEventLoop}？
+ * A: 订阅会独占连接并阻塞线程，无法与管道命令共用一个连接和线程。
+ * <p>
+ * 支持两种通知来源：
+ * 1. keyspace通知 - 需要redis开启{@code notify-keyspace-events}(如：{@code K$hgx})，任意修改都会通知。
+ * 2. 自定义频道 - 写入方修改数据之后，向频道发布被修改的key。
+ * <p>
+ * 连接建立和断开时都会调用{@link InvalidationListener#onInvalidateAll()}，因为期间可能丢失了通知。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/8
+ * github - https://github.com/hl845740757
+ */
+public class RedisInvalidationSubscriber implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisInvalidationSubscriber.class);
+
+    private final JedisPoolAbstract jedisPool;
+    /**
+     * keyspace模式下是频道前缀，否则是频道名
+     */
+    private final String channel;
+    private final boolean keyspace;
+    private final Thread thread;
+    private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean closed;
+    private volatile JedisPubSub pubSub;
+
+    private RedisInvalidationSubscriber(JedisPoolAbstract jedisPool, String channel, boolean keyspace, ThreadFactory threadFactory) {
+        this.jedisPool = jedisPool;
+        this.channel = channel;
+        this.keyspace = keyspace;
+        this.thread = threadFactory.newThread(this::subscribeLoop);
+    }
+
+    /**
+     * 订阅指定数据库的keyspace通知
+     *
+     * @param database 数据库编号
+     */
+    public static RedisInvalidationSubscriber newKeyspaceSubscriber(JedisPoolAbstract jedisPool, int database, ThreadFactory threadFactory) {
+        return new RedisInvalidationSubscriber(jedisPool, "__keyspace@" + database + "__:", true, threadFactory);
+    }
+
+    /**
+     * 订阅自定义频道，频道消息的内容为失效的key
+     *
+     * @param channel 频道名
+     */
+    public static RedisInvalidationSubscriber newChannelSubscriber(JedisPoolAbstract jedisPool, String channel, ThreadFactory threadFactory) {
+        return new RedisInvalidationSubscriber(jedisPool, channel, false, threadFactory);
+    }
+
+    public void addListener(InvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(InvalidationListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 启动订阅线程
+     */
+    public void start() {
+        thread.start();
+    }
+
+    private void subscribeLoop() {
+        while (!closed) {
+            try (Jedis jedis = jedisPool.getResource()) {
+                final JedisPubSub handler = new InvalidationHandler();
+                pubSub = handler;
+                if (keyspace) {
+                    jedis.psubscribe(handler, channel + "*");
+                } else {
+                    jedis.subscribe(handler, channel);
+                }
+            } catch (Throwable t) {
+                if (!closed) {
+                    logger.warn("subscribe caught exception", t);
+                }
+            } finally {
+                pubSub = null;
+                notifyInvalidateAll();
+            }
+
+            if (!closed) {
+                // 等待一段时间再重连，避免频繁出现异常
+                sleepQuietly(1000);
+            }
+        }
+    }
+
+    private void notifyInvalidate(String key) {
+        for (InvalidationListener listener : listeners) {
+            ConcurrentUtils.safeExecute(() -> listener.onInvalidate(key));
+        }
+    }
+
+    private void notifyInvalidateAll() {
+        for (InvalidationListener listener : listeners) {
+            ConcurrentUtils.safeExecute(listener::onInvalidateAll);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        final JedisPubSub handler = pubSub;
+        if (handler != null && handler.isSubscribed()) {
+            unsubscribe(handler);
+        }
+    }
+
+    private void unsubscribe(JedisPubSub handler) {
+        if (keyspace) {
+            handler.punsubscribe();
+        } else {
+            handler.unsubscribe();
+        }
+    }
+
+    private class InvalidationHandler extends JedisPubSub {
+
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            onSubscribed(this);
+        }
+
+        @Override
+        public void onPSubscribe(String pattern, int subscribedChannels) {
+            onSubscribed(this);
+        }
+
+        @Override
+        public void onMessage(String channel, String message) {
+            // 自定义频道：消息内容为key
+            notifyInvalidate(message);
+        }
+
+        @Override
+        public void onPMessage(String pattern, String channel, String message) {
+            // keyspace通知：频道为前缀 + key，消息内容为事件名
+            notifyInvalidate(channel.substring(RedisInvalidationSubscriber.this.channel.length()));
+        }
+    }
+
+    private void onSubscribed(JedisPubSub handler) {
+        if (closed) {
+            unsubscribe(handler);
+            return;
+        }
+        logger.info("subscribe success, channel {}", channel);
+        notifyInvalidateAll();
+    }
+}
@@ -0,0 +1,469 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.redis.cache;
+
+import com.wjybxx.fastjgame.redis.db.PipelineCommand;
+import com.wjybxx.fastjgame.redis.db.RedisClient;
+import com.wjybxx.fastjgame.util.concurrent.FluentFuture;
+import com.wjybxx.fastjgame.util.misc.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 延迟合并写入的redis缓存(write-behind)。
+ * <p>
+ * 热点字段(如：金币、经验、位置)每秒可能修改数百次，如果每次修改都执行一次HSET，绝大部分写入都是无意义的。
+ * 该缓存在应用线程记录每个key的脏字段，同一字段的多次写入只保留最后一次，然后按固定间隔使用HSET/HDEL/MSET批量写入redis。
+ * <p>
+ * 使用方式：在应用线程的每一帧调用{@link #tick()}，关闭时调用{@link #close()}刷新剩余的数据。
+ * <p>
+ * 写入失败：失败命令包含的字段会重新放回缓存，但不会覆盖之后的新值(缓存中的值，或之后已发出的批次中的值)，
+ * 然后按指数退避重试，退避时间从{@link WriteBehindConfig#getFlushIntervalMs()}开始，最大为{@link WriteBehindConfig#getMaxRetryBackoffMs()}，
+ * 任意一个批次全部成功后恢复正常的刷新间隔。
+ * <p>
+ * 注意：
+ * 1. 只能在应用线程使用，{@link RedisClient#call(PipelineCommand)}返回的future必须在应用线程通知(如{@link com.wjybxx.fastjgame.redis.db.DefaultRedisClient})。
+ * 2. 数据在刷新之前只存在于本地内存，进程崩溃时会丢失最近{@link WriteBehindConfig#getFlushIntervalMs()}内的修改，
+ * {@link #close()}之后失败的写入虽然会放回缓存，但不会再自动重试，除非再次调用{@link #flush()}。
+ * 3. 不同key之间的写入顺序不保证，不要对同一个key混用该缓存和{@link RedisClient}直接写入。
+ * 4. 读取时数据可能尚未写入redis，需要最新数据时应先调用{@link #flush()}。
+ * 5. 每个命令的结果单独监听，不依赖"最后一个命令完成时整批命令都已完成"；但同一个字段的新值不会被重试的旧值覆盖，
+ * 依赖{@link RedisClient}按提交顺序执行命令，{@link com.wjybxx.fastjgame.redis.db.DefaultRedisClient}和
+ * {@link com.wjybxx.fastjgame.redis.db.ShardedRedisClient}的不带key的方法都使用单个连接，满足该条件。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/7
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public class WriteBehindCache implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindCache.class);
+
+    private final RedisClient redisClient;
+    private final WriteBehindConfig config;
+
+    /**
+     * hash类型的脏数据，key -> (field -> value)，value为null表示删除
+     */
+    private Map<String, Map<String, String>> dirtyHashes = new LinkedHashMap<>();
+    /**
+     * string类型的脏数据
+     */
+    private Map<String, String> dirtyStrings = new LinkedHashMap<>();
+    /**
+     * 当前缓存的待写入字段数(合并后)
+     */
+    private int pendingWrites;
+    private long lastFlushMillis = System.currentTimeMillis();
+
+    /**
+     * 已发出但尚未完成的批次，按发出顺序排列。
+     * 只有队首的批次完成后才移除，以便失败的命令判断之后的批次是否已包含更新的值。
+     */
+    private final ArrayDeque<FlushBatch> inflightBatches = new ArrayDeque<>();
+    /**
+     * 当前的重试退避时间，0表示没有失败
+     */
+    private long retryBackoffMs;
+    private long nextRetryMillis;
+
+    private long writeCount;
+    private long flushedWriteCount;
+    private long writeCountAtLastFlush;
+    private long flushCount;
+    private long failedCommandCount;
+    private final Histogram flushLatency = new Histogram();
+
+    public WriteBehindCache(RedisClient redisClient) {
+        this(redisClient, WriteBehindConfig.newBuilder().build());
+    }
+
+    public WriteBehindCache(RedisClient redisClient, WriteBehindConfig config) {
+        this.redisClient = redisClient;
+        this.config = config;
+    }
+
+    /**
+     * 延迟写入一个hash字段(HSET)
+     */
+    public void hset(@Nonnull String key, @Nonnull String field, @Nonnull String value) {
+        putHashField(key, field, Objects.requireNonNull(value, "value"));
+    }
+
+    /**
+     * 延迟写入多个hash字段(HSET)
+     */
+    public void hset(@Nonnull String key, @Nonnull Map<String, String> fieldValues) {
+        for (Map.Entry<String, String> entry : fieldValues.entrySet()) {
+            hset(key, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * 延迟删除一个hash字段(HDEL)
+     */
+    public void hdel(@Nonnull String key, @Nonnull String field) {
+        putHashField(key, field, null);
+    }
+
+    /**
+     * 延迟写入一个string(SET)
+     */
+    public void set(@Nonnull String key, @Nonnull String value) {
+        Objects.requireNonNull(value, "value");
+        writeCount++;
+        if (dirtyStrings.put(key, value) == null) {
+            onNewPendingWrite();
+        }
+    }
+
+    private void putHashField(String key, String field, @Nullable String value) {
+        writeCount++;
+        final Map<String, String> dirtyFields = dirtyHashes.computeIfAbsent(key, k -> new HashMap<>());
+        final boolean exist = dirtyFields.containsKey(field);
+        dirtyFields.put(field, value);
+        if (!exist) {
+            onNewPendingWrite();
+        }
+    }
+
+    private void onNewPendingWrite() {
+        if (++pendingWrites >= config.getMaxPendingWrites() && !isBackingOff()) {
+            // 限制内存占用；退避期间允许超出上限，否则每次写入都会把所有数据重新发给不可用的redis
+            flush();
+        }
+    }
+
+    private boolean isBackingOff() {
+        return retryBackoffMs > 0 && System.currentTimeMillis() < nextRetryMillis;
+    }
+
+    /**
+     * 应用线程每帧调用，达到刷新间隔时刷新，写入失败后按退避时间重试
+     */
+    public void tick() {
+        final long curTimeMillis = System.currentTimeMillis();
+        if (curTimeMillis - lastFlushMillis >= config.getFlushIntervalMs() && !isBackingOff()) {
+            flush();
+        }
+    }
+
+    /**
+     * 立即将缓存的数据写入redis管道
+     */
+    public void flush() {
+        doFlush(false);
+    }
+
+    /**
+     * 刷新缓存的数据，同时刷新redis管道
+     */
+    @Override
+    public void close() {
+        doFlush(true);
+    }
+
+    private void doFlush(boolean flushPipeline) {
+        lastFlushMillis = System.currentTimeMillis();
+        if (pendingWrites == 0) {
+            return;
+        }
+
+        final FlushBatch batch = new FlushBatch(dirtyHashes, dirtyStrings);
+        final List<FlushCommand> commands = new ArrayList<>();
+        for (Map.Entry<String, Map<String, String>> entry : dirtyHashes.entrySet()) {
+            addHashCommands(commands, entry.getKey(), entry.getValue());
+        }
+        addStringCommands(commands);
+
+        flushedWriteCount += pendingWrites;
+        writeCountAtLastFlush = writeCount;
+        flushCount++;
+        pendingWrites = 0;
+        // 发出的数据由批次持有，失败时需要用到
+        dirtyHashes = new LinkedHashMap<>();
+        dirtyStrings = new LinkedHashMap<>();
+
+        batch.remainCommands = commands.size();
+        inflightBatches.addLast(batch);
+
+        final int lastIndex = commands.size() - 1;
+        for (int index = 0; index <= lastIndex; index++) {
+            final FlushCommand command = commands.get(index);
+            final FluentFuture<?> future = (flushPipeline && index == lastIndex) ?
+                    redisClient.callAndFlush(command.pipelineCommand) : redisClient.call(command.pipelineCommand);
+            future.addListener(f -> onCommandDone(batch, command, f.cause()));
+        }
+    }
+
+    /**
+     * 命令完成，运行在应用线程
+     */
+    private void onCommandDone(FlushBatch batch, FlushCommand command, @Nullable Throwable cause) {
+        if (cause != null) {
+            failedCommandCount++;
+            batch.failed = true;
+            logger.warn("write-behind flush caught exception, requeue {} writes", command.entries.size(), cause);
+            requeue(batch, command);
+            increaseRetryBackoff();
+        }
+
+        if (--batch.remainCommands > 0) {
+            return;
+        }
+        flushLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - batch.startNanos));
+        if (!batch.failed) {
+            retryBackoffMs = 0;
+            nextRetryMillis = 0;
+        }
+        while (!inflightBatches.isEmpty() && inflightBatches.peekFirst().remainCommands == 0) {
+            inflightBatches.pollFirst();
+        }
+    }
+
+    private void increaseRetryBackoff() {
+        retryBackoffMs = retryBackoffMs == 0 ? config.getFlushIntervalMs() : Math.min(retryBackoffMs * 2, config.getMaxRetryBackoffMs());
+        nextRetryMillis = System.currentTimeMillis() + retryBackoffMs;
+    }
+
+    /**
+     * 将失败命令的数据放回缓存，已有更新值的字段不放回
+     */
+    private void requeue(FlushBatch batch, FlushCommand command) {
+        int requeued = 0;
+        if (command.hashKey != null) {
+            final String key = command.hashKey;
+            for (Map.Entry<String, String> entry : command.entries.entrySet()) {
+                if (hasNewerHashField(batch, key, entry.getKey())) {
+                    continue;
+                }
+                dirtyHashes.computeIfAbsent(key, k -> new HashMap<>()).put(entry.getKey(), entry.getValue());
+                requeued++;
+            }
+        } else {
+            for (Map.Entry<String, String> entry : command.entries.entrySet()) {
+                if (hasNewerString(batch, entry.getKey())) {
+                    continue;
+                }
+                dirtyStrings.put(entry.getKey(), entry.getValue());
+                requeued++;
+            }
+        }
+        // 不触发立即刷新，等待退避时间
+        pendingWrites += requeued;
+        flushedWriteCount -= requeued;
+    }
+
+    private boolean hasNewerHashField(FlushBatch batch, String key, String field) {
+        final Map<String, String> dirtyFields = dirtyHashes.get(key);
+        if (dirtyFields != null && dirtyFields.containsKey(field)) {
+            return true;
+        }
+        final Iterator<FlushBatch> itr = inflightBatches.descendingIterator();
+        FlushBatch laterBatch;
+        while (itr.hasNext() && (laterBatch = itr.next()) != batch) {
+            final Map<String, String> laterFields = laterBatch.hashes.get(key);
+            if (laterFields != null && laterFields.containsKey(field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasNewerString(FlushBatch batch, String key) {
+        if (dirtyStrings.containsKey(key)) {
+            return true;
+        }
+        final Iterator<FlushBatch> itr = inflightBatches.descendingIterator();
+        FlushBatch laterBatch;
+        while (itr.hasNext() && (laterBatch = itr.next()) != batch) {
+            if (laterBatch.strings.containsKey(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addHashCommands(List<FlushCommand> commands, String key, Map<String, String> dirtyFields) {
+        final int maxFields = config.getMaxFieldsPerCommand();
+        Map<String, String> setFields = new HashMap<>();
+        Map<String, String> delFields = new HashMap<>();
+        for (Map.Entry<String, String> entry : dirtyFields.entrySet()) {
+            if (entry.getValue() != null) {
+                setFields.put(entry.getKey(), entry.getValue());
+                if (setFields.size() >= maxFields) {
+                    commands.add(new FlushCommand(key, setFields, newHsetCommand(key, setFields)));
+                    setFields = new HashMap<>();
+                }
+            } else {
+                delFields.put(entry.getKey(), null);
+                if (delFields.size() >= maxFields) {
+                    commands.add(new FlushCommand(key, delFields, newHdelCommand(key, delFields.keySet())));
+                    delFields = new HashMap<>();
+                }
+            }
+        }
+        if (setFields.size() > 0) {
+            commands.add(new FlushCommand(key, setFields, newHsetCommand(key, setFields)));
+        }
+        if (delFields.size() > 0) {
+            commands.add(new FlushCommand(key, delFields, newHdelCommand(key, delFields.keySet())));
+        }
+    }
+
+    private static PipelineCommand<Long> newHsetCommand(String key, Map<String, String> fields) {
+        return pipeline -> pipeline.hset(key, fields);
+    }
+
+    private static PipelineCommand<Long> newHdelCommand(String key, Collection<String> fields) {
+        final String[] fieldArray = fields.toArray(new String[0]);
+        return pipeline -> pipeline.hdel(key, fieldArray);
+    }
+
+    private void addStringCommands(List<FlushCommand> commands) {
+        if (dirtyStrings.isEmpty()) {
+            return;
+        }
+        final int maxFields = config.getMaxFieldsPerCommand();
+        Map<String, String> keyValues = new HashMap<>();
+        for (Map.Entry<String, String> entry : dirtyStrings.entrySet()) {
+            keyValues.put(entry.getKey(), entry.getValue());
+            if (keyValues.size() >= maxFields) {
+                commands.add(new FlushCommand(null, keyValues, newMsetCommand(keyValues)));
+                keyValues = new HashMap<>();
+            }
+        }
+        if (keyValues.size() > 0) {
+            commands.add(new FlushCommand(null, keyValues, newMsetCommand(keyValues)));
+        }
+    }
+
+    private static PipelineCommand<String> newMsetCommand(Map<String, String> keyValues) {
+        final String[] keysValuesArray = new String[keyValues.size() * 2];
+        int index = 0;
+        for (Map.Entry<String, String> entry : keyValues.entrySet()) {
+            keysValuesArray[index++] = entry.getKey();
+            keysValuesArray[index++] = entry.getValue();
+        }
+        return pipeline -> pipeline.mset(keysValuesArray);
+    }
+
+    /**
+     * 一次刷新发出的所有数据
+     */
+    private static class FlushBatch {
+
+        final Map<String, Map<String, String>> hashes;
+        final Map<String, String> strings;
+        final long startNanos = System.nanoTime();
+        /**
+         * 尚未完成的命令数
+         */
+        int remainCommands;
+        boolean failed;
+
+        FlushBatch(Map<String, Map<String, String>> hashes, Map<String, String> strings) {
+            this.hashes = hashes;
+            this.strings = strings;
+        }
+    }
+
+    /**
+     * 一个命令及其包含的数据
+     */
+    private static class FlushCommand {
+
+        /**
+         * hash命令的key，MSET命令为null
+         */
+        final String hashKey;
+        /**
+         * hash命令为 field -> value(HDEL的value为null)，MSET命令为 key -> value
+         */
+        final Map<String, String> entries;
+        final PipelineCommand<?> pipelineCommand;
+
+        FlushCommand(@Nullable String hashKey, Map<String, String> entries, PipelineCommand<?> pipelineCommand) {
+            this.hashKey = hashKey;
+            this.entries = entries;
+            this.pipelineCommand = pipelineCommand;
+        }
+    }
+
+    // ------------------------------------------------ 统计信息 ------------------------------------
+
+    /**
+     * @return 当前缓存的待写入字段数
+     */
+    public int getPendingWrites() {
+        return pendingWrites;
+    }
+
+    /**
+     * @return 调用写入方法的总次数
+     */
+    public long getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * @return 真正写入redis的字段数(失败后放回缓存的字段不计入)
+     */
+    public long getFlushedWriteCount() {
+        return flushedWriteCount;
+    }
+
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * @return 执行失败的命令数
+     */
+    public long getFailedCommandCount() {
+        return failedCommandCount;
+    }
+
+    /**
+     * @return 当前的重试退避时间，毫秒，0表示最近没有失败
+     */
+    public long getRetryBackoffMs() {
+        return retryBackoffMs;
+    }
+
+    /**
+     * @return 已刷新的写入中被合并掉的比例，没有刷新时返回0
+     */
+    public double getCoalescingRatio() {
+        return writeCountAtLastFlush == 0 ? 0 : 1 - (double) flushedWriteCount / writeCountAtLastFlush;
+    }
+
+    /**
+     * @return 每次刷新从发出命令到所有命令完成的延迟，微秒
+     */
+    public Histogram.Snapshot getFlushLatency() {
+        return flushLatency.snapshot();
+    }
+}
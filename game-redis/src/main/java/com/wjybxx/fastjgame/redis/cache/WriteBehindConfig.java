@@ -0,0 +1,120 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.redis.cache;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * {@link WriteBehindCache}的配置
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/7
+ * github - https://github.com/hl845740757
+ */
+@Immutable
+public class WriteBehindConfig {
+
+    private final long flushIntervalMs;
+    private final int maxPendingWrites;
+    private final int maxFieldsPerCommand;
+    private final long maxRetryBackoffMs;
+
+    private WriteBehindConfig(Builder builder) {
+        this.flushIntervalMs = builder.flushIntervalMs;
+        this.maxPendingWrites = builder.maxPendingWrites;
+        this.maxFieldsPerCommand = builder.maxFieldsPerCommand;
+        this.maxRetryBackoffMs = builder.maxRetryBackoffMs;
+    }
+
+    /**
+     * @return 定时刷新的间隔，毫秒
+     */
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+
+    /**
+     * @return 最多缓存多少个待写入的字段(合并后的数量)，超过时立即刷新，用于限制内存占用。
+     * 注意：写入失败后的退避期间不会因为超出上限而刷新，此时缓存的字段数可能超过该值。
+     */
+    public int getMaxPendingWrites() {
+        return maxPendingWrites;
+    }
+
+    /**
+     * @return 单个HSET/MSET命令最多包含多少个字段，避免单个命令过大阻塞redis
+     */
+    public int getMaxFieldsPerCommand() {
+        return maxFieldsPerCommand;
+    }
+
+    /**
+     * @return 写入失败后重试的最大退避时间，毫秒。退避时间从{@link #getFlushIntervalMs()}开始，每次失败翻倍
+     */
+    public long getMaxRetryBackoffMs() {
+        return maxRetryBackoffMs;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private long flushIntervalMs = 1000;
+        private int maxPendingWrites = 100_000;
+        private int maxFieldsPerCommand = 512;
+        private long maxRetryBackoffMs = 30_000;
+
+        public Builder setFlushIntervalMs(long flushIntervalMs) {
+            if (flushIntervalMs <= 0) {
+                throw new IllegalArgumentException("flushIntervalMs: " + flushIntervalMs + " (expected: > 0)");
+            }
+            this.flushIntervalMs = flushIntervalMs;
+            return this;
+        }
+
+        public Builder setMaxPendingWrites(int maxPendingWrites) {
+            if (maxPendingWrites <= 0) {
+                throw new IllegalArgumentException("maxPendingWrites: " + maxPendingWrites + " (expected: > 0)");
+            }
+            this.maxPendingWrites = maxPendingWrites;
+            return this;
+        }
+
+        public Builder setMaxFieldsPerCommand(int maxFieldsPerCommand) {
+            if (maxFieldsPerCommand <= 0) {
+                throw new IllegalArgumentException("maxFieldsPerCommand: " + maxFieldsPerCommand + " (expected: > 0)");
+            }
+            this.maxFieldsPerCommand = maxFieldsPerCommand;
+            return this;
+        }
+
+        public Builder setMaxRetryBackoffMs(long maxRetryBackoffMs) {
+            if (maxRetryBackoffMs <= 0) {
+                throw new IllegalArgumentException("maxRetryBackoffMs: " + maxRetryBackoffMs + " (expected: > 0)");
+            }
+            this.maxRetryBackoffMs = maxRetryBackoffMs;
+            return this;
+        }
+
+        public WriteBehindConfig build() {
+            return new WriteBehindConfig(this);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.redis.db;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import redis.clients.jedis.Response;
+
+/**
+ * 在获取结果时解码的{@link Response}。
+ * {@link RedisEventLoop}在redis线程获取结果，因此解码发生在redis线程，而不是应用线程。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/9
+ * github - https://github.com/hl845740757
+ */
+class DecodedResponse<T> extends Response<T> {
+
+    private final Response<byte[]> rawResponse;
+    private final RedisObjectCodec codec;
+
+    DecodedResponse(Response<byte[]> rawResponse, RedisObjectCodec codec) {
+        super(null);
+        this.rawResponse = rawResponse;
+        this.codec = codec;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T get() {
+        try {
+            return (T) codec.decode(rawResponse.get());
+        } catch (Exception e) {
+            return ExceptionUtils.rethrow(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DecodedResponse{" + rawResponse + '}';
+    }
+}
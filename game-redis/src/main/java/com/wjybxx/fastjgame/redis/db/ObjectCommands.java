@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.redis.db;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import redis.clients.jedis.util.SafeEncoder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * 二进制对象命令工厂，使用{@link RedisObjectCodec}编解码redis的值，使用jedis的byte[]接口读写。
+ * <p>
+ * 编码在创建命令时执行(调用线程)，因此写入的是调用时的快照；解码在redis线程执行，应用线程拿到的是解码后的对象。
+ *
+ * <pre>{@code
+ *     redisClient.call(objectCommands.hgetObject("player:1", "brief"))
+ *          .addListener(future -> onLoaded((PlayerBrief) future.getNow()));
+ * }</pre>
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/9
+ * github - https://github.com/hl845740757
+ */
+@ThreadSafe
+public class ObjectCommands {
+
+    private final RedisObjectCodec codec;
+
+    public ObjectCommands(RedisObjectCodec codec) {
+        this.codec = codec;
+    }
+
+    public <T> PipelineCommand<T> getObject(@Nonnull String key) {
+        final byte[] keyBytes = SafeEncoder.encode(key);
+        return pipeline -> new DecodedResponse<>(pipeline.get(keyBytes), codec);
+    }
+
+    public PipelineCommand<String> setObject(@Nonnull String key, Object value) {
+        final byte[] keyBytes = SafeEncoder.encode(key);
+        final byte[] valueBytes = encode(value);
+        return pipeline -> pipeline.set(keyBytes, valueBytes);
+    }
+
+    /**
+     * @param expireSeconds 过期时间，秒
+     */
+    public PipelineCommand<String> setObject(@Nonnull String key, Object value, int expireSeconds) {
+        final byte[] keyBytes = SafeEncoder.encode(key);
+        final byte[] valueBytes = encode(value);
+        return pipeline -> pipeline.setex(keyBytes, expireSeconds, valueBytes);
+    }
+
+    public <T> PipelineCommand<T> hgetObject(@Nonnull String key, @Nonnull String field) {
+        final byte[] keyBytes = SafeEncoder.encode(key);
+        final byte[] fieldBytes = SafeEncoder.encode(field);
+        return pipeline -> new DecodedResponse<>(pipeline.hget(keyBytes, fieldBytes), codec);
+    }
+
+    public PipelineCommand<Long> hsetObject(@Nonnull String key, @Nonnull String field, Object value) {
+        final byte[] keyBytes = SafeEncoder.encode(key);
+        final byte[] fieldBytes = SafeEncoder.encode(field);
+        final byte[] valueBytes = encode(value);
+        return pipeline -> pipeline.hset(keyBytes, fieldBytes, valueBytes);
+    }
+
+    private byte[] encode(Object value) {
+        try {
+            return codec.encode(value);
+        } catch (Exception e) {
+            return ExceptionUtils.rethrow(e);
+        }
+    }
+}
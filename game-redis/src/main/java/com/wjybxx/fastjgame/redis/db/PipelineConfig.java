@@ -0,0 +1,117 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.redis.db;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RedisEventLoop}的管道配置，决定何时调用{@link redis.clients.jedis.Pipeline#sync()}。
+ * <p>
+ * 自适应模式下，{@link RedisEventLoop}会统计sync的耗时和命令的到达间隔：
+ * 如果预计在{@link #getLatencyTargetMicros()}内还会有新命令到达，则推迟sync以合并更多的命令，否则立即sync。
+ * 单次sync的命令数不超过{@link #getMaxBatchSize()}。
+ * <p>
+ * 非自适应模式下，每处理一批任务sync一次，或待sync的命令数达到{@link #getMaxBatchSize()}时sync。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/6
+ * github - https://github.com/hl845740757
+ */
+@Immutable
+public class PipelineConfig {
+
+    private final boolean adaptive;
+    private final int maxBatchSize;
+    private final long latencyTargetMicros;
+
+    private PipelineConfig(Builder builder) {
+        this.adaptive = builder.adaptive;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.latencyTargetMicros = builder.latencyTargetMicros;
+    }
+
+    /**
+     * 创建一个非自适应的配置，它等同于旧版本的固定行为
+     *
+     * @param maxBatchSize 单次sync的最大命令数
+     */
+    public static PipelineConfig fixed(int maxBatchSize) {
+        return newBuilder()
+                .setAdaptive(false)
+                .setMaxBatchSize(maxBatchSize)
+                .build();
+    }
+
+    /**
+     * @return 是否根据负载自动调整sync的时机
+     */
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * @return 单次sync的最大命令数
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @return 命令从进入管道到获得结果的期望延迟上限，微秒，只在自适应模式下有效
+     */
+    public long getLatencyTargetMicros() {
+        return latencyTargetMicros;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private boolean adaptive = true;
+        private int maxBatchSize = 4096;
+        private long latencyTargetMicros = TimeUnit.MILLISECONDS.toMicros(2);
+
+        public Builder setAdaptive(boolean adaptive) {
+            this.adaptive = adaptive;
+            return this;
+        }
+
+        public Builder setMaxBatchSize(int maxBatchSize) {
+            if (maxBatchSize <= 0) {
+                throw new IllegalArgumentException("maxBatchSize: " + maxBatchSize + " (expected: > 0)");
+            }
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        public Builder setLatencyTargetMicros(long latencyTargetMicros) {
+            if (latencyTargetMicros <= 0) {
+                throw new IllegalArgumentException("latencyTargetMicros: " + latencyTargetMicros + " (expected: > 0)");
+            }
+            this.latencyTargetMicros = latencyTargetMicros;
+            return this;
+        }
+
+        public PipelineConfig build() {
+            return new PipelineConfig(this);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.redis.db;
+
+import com.wjybxx.fastjgame.util.annotation.VisibleForTesting;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 管道刷新策略，决定{@link RedisEventLoop}何时sync，见{@link PipelineConfig}。
+ * <p>
+ * 使用指数加权移动平均统计sync耗时(往返时间)和命令的到达间隔。
+ * 待sync的命令数达到上限，或者推迟sync会超出延迟目标时，才sync。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/6
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+class PipelineFlushPolicy {
+
+    /**
+     * 新样本的权重
+     */
+    private static final double ALPHA = 0.2;
+
+    private final boolean adaptive;
+    private final int maxBatchSize;
+    private final long latencyTargetNanos;
+
+    /**
+     * sync耗时的平均值
+     */
+    private double avgRttNanos;
+    /**
+     * 命令到达间隔的平均值
+     */
+    private double avgArrivalIntervalNanos;
+    private long lastArrivalNanos;
+
+    /**
+     * 当前批次第一个命令的进入时间，0表示当前没有待sync的命令
+     */
+    private long batchStartNanos;
+    /**
+     * 当前批次的命令数
+     */
+    private int batchSize;
+    /**
+     * 当前批次是否有命令要求刷新
+     */
+    private boolean flushRequested;
+
+    PipelineFlushPolicy(PipelineConfig config) {
+        this.adaptive = config.isAdaptive();
+        this.maxBatchSize = config.getMaxBatchSize();
+        this.latencyTargetNanos = TimeUnit.MICROSECONDS.toNanos(config.getLatencyTargetMicros());
+        this.avgArrivalIntervalNanos = latencyTargetNanos;
+    }
+
+    @VisibleForTesting
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    int maxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * 一个命令进入了管道
+     *
+     * @param flush 命令是否要求刷新
+     * @return 是否需要立即sync
+     */
+    boolean onCommandAdded(boolean flush) {
+        final long now = nanoTime();
+        if (lastArrivalNanos != 0) {
+            avgArrivalIntervalNanos += ALPHA * ((now - lastArrivalNanos) - avgArrivalIntervalNanos);
+        }
+        lastArrivalNanos = now;
+
+        if (batchSize++ == 0) {
+            batchStartNanos = now;
+        }
+
+        if (batchSize >= maxBatchSize) {
+            return true;
+        }
+        if (!adaptive) {
+            return flush;
+        }
+        // 自适应模式下，刷新请求推迟到处理完这一批任务之后，从而将多个刷新请求合并为一次sync
+        flushRequested |= flush;
+        return false;
+    }
+
+    /**
+     * 处理完一批任务或等待任务时调用
+     *
+     * @return 是否需要sync
+     */
+    boolean shouldSyncOnLoop() {
+        if (batchSize == 0) {
+            return false;
+        }
+        if (!adaptive || flushRequested) {
+            return true;
+        }
+        // 如果下一个命令预计在延迟目标内到达，则推迟sync以合并更多的命令
+        final long batchAgeNanos = nanoTime() - batchStartNanos;
+        return batchAgeNanos + avgArrivalIntervalNanos + avgRttNanos >= latencyTargetNanos;
+    }
+
+    /**
+     * 完成了一次sync(无论成功或失败)
+     *
+     * @param syncNanos sync的耗时，负数表示连接不可用，没有真正执行sync
+     */
+    void onSynced(long syncNanos) {
+        if (syncNanos >= 0) {
+            avgRttNanos += ALPHA * (syncNanos - avgRttNanos);
+        }
+        batchSize = 0;
+        batchStartNanos = 0;
+        flushRequested = false;
+    }
+
+    /**
+     * 当前批次的命令已全部获得结果(如：连接断开)，但没有执行sync
+     */
+    void onBatchDiscarded() {
+        batchSize = 0;
+        batchStartNanos = 0;
+        flushRequested = false;
+    }
+}
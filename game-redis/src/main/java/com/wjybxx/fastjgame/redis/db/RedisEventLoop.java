@@ -50,6 +50,9 @@ import static com.wjybxx.fastjgame.util.ThreadUtils.sleepQuietly;
  * Q: 它为什么不继承{@link DisruptorEventLoop}？
  * A: 它属于中间件，应用层与它之间是双向交互，使用{@link DisruptorEventLoop}可能导致死锁。
  * <p>
+ * 何时调用{@link Pipeline#sync()}由{@link PipelineConfig}决定，默认根据sync耗时和命令到达速度自适应。
+ * 注意：jedis只能在sync时读取全部响应，因此命令的结果是按批次完成的，批次越小，结果返回越及时。
+ * <p>
  * pipeline的缺陷：由于多个指令是批量执行的，因此不是原子的。
  * 当{@link #pipelineSync()}出现异常时：可能部分成功，部分失败，部分未执行。
  * <p>
@@ -69,12 +72,12 @@ public class RedisEventLoop extends TemplateEventLoop {
     private static final int TASK_BATCH_SIZE = 1024;
 
     /**
-     * 它决定了最多多少个命令执行一次{@link #pipelineSync()}。
-     * 不宜太大，太大时，一旦出现异常，破坏太大。
-     * 不宜太小，太小时，无法充分利用网络。
+     * 它决定了何时执行{@link #pipelineSync()}。
+     * 批次不宜太大，太大时，一旦出现异常，破坏太大。
+     * 批次不宜太小，太小时，无法充分利用网络。
      */
-    private static final int MAX_WAIT_RESPONSE_TASK = 512;
-    private final Deque<PipelineTask<?>> waitResponseTasks = new ArrayDeque<>(MAX_WAIT_RESPONSE_TASK);
+    private final PipelineFlushPolicy flushPolicy;
+    private final Deque<PipelineTask<?>> waitResponseTasks;
 
     private final JedisPoolAbstract jedisPool;
     /**
@@ -87,8 +90,18 @@ public class RedisEventLoop extends TemplateEventLoop {
                           @Nonnull ThreadFactory threadFactory,
                           @Nonnull RejectedExecutionHandler rejectedExecutionHandler,
                           @Nonnull JedisPoolAbstract jedisPool) {
+        this(parent, threadFactory, rejectedExecutionHandler, jedisPool, PipelineConfig.newBuilder().build());
+    }
+
+    public RedisEventLoop(@Nullable RedisEventLoopGroup parent,
+                          @Nonnull ThreadFactory threadFactory,
+                          @Nonnull RejectedExecutionHandler rejectedExecutionHandler,
+                          @Nonnull JedisPoolAbstract jedisPool,
+                          @Nonnull PipelineConfig pipelineConfig) {
         super(parent, threadFactory, rejectedExecutionHandler, TASK_BATCH_SIZE);
         this.jedisPool = jedisPool;
+        this.flushPolicy = new PipelineFlushPolicy(pipelineConfig);
+        this.waitResponseTasks = new ArrayDeque<>(Math.min(pipelineConfig.getMaxBatchSize(), TASK_BATCH_SIZE));
     }
 
     @Nullable
@@ -125,7 +138,9 @@ public class RedisEventLoop extends TemplateEventLoop {
 
     @Override
     protected void loopOnce() throws Exception {
-        pipelineSync();
+        if (flushPolicy.shouldSyncOnLoop()) {
+            pipelineSync();
+        }
 
         checkConnection();
     }
@@ -138,8 +153,10 @@ public class RedisEventLoop extends TemplateEventLoop {
             return;
         }
 
+        final boolean connected = pipeline != null;
+        final long startNanos = System.nanoTime();
         try {
-            if (pipeline != null) {
+            if (connected) {
                 pipeline.sync();
             }
         } catch (Throwable t) {
@@ -147,6 +164,7 @@ public class RedisEventLoop extends TemplateEventLoop {
 
             closeConnection();
         } finally {
+            flushPolicy.onSynced(connected ? System.nanoTime() - startNanos : -1);
             generateResponses();
         }
     }
@@ -303,11 +321,11 @@ public class RedisEventLoop extends TemplateEventLoop {
          * 检查是否需要调用sync
          */
         private void checkSync() {
-            if (waitResponseTasks.size() > MAX_WAIT_RESPONSE_TASK) {
+            if (waitResponseTasks.size() > flushPolicy.maxBatchSize()) {
                 logger.warn("unexpected waitResponseTasks.size {}", waitResponseTasks.size());
             }
 
-            if (flush || waitResponseTasks.size() >= MAX_WAIT_RESPONSE_TASK) {
+            if (flushPolicy.onCommandAdded(flush)) {
                 pipelineSync();
             }
         }
@@ -322,6 +340,7 @@ public class RedisEventLoop extends TemplateEventLoop {
 
                 // 等同于调用sync
                 generateResponses();
+                flushPolicy.onBatchDiscarded();
 
                 // 尝试一次恢复连接
                 connectSafely();
@@ -40,7 +40,7 @@ public class RedisEventLoopGroup extends AbstractFixedEventLoopGroup {
                                @Nonnull ThreadFactory threadFactory,
                                @Nonnull RejectedExecutionHandler rejectedExecutionHandler,
                                @Nonnull JedisPoolAbstract jedisPool) {
-        super(nThreads, threadFactory, rejectedExecutionHandler, jedisPool);
+        this(nThreads, threadFactory, rejectedExecutionHandler, null, jedisPool);
     }
 
     public RedisEventLoopGroup(int nThreads,
@@ -48,7 +48,16 @@ public class RedisEventLoopGroup extends AbstractFixedEventLoopGroup {
                                @Nonnull RejectedExecutionHandler rejectedExecutionHandler,
                                @Nullable EventLoopChooserFactory chooserFactory,
                                @Nonnull JedisPoolAbstract jedisPool) {
-        super(nThreads, threadFactory, rejectedExecutionHandler, chooserFactory, jedisPool);
+        this(nThreads, threadFactory, rejectedExecutionHandler, chooserFactory, jedisPool, PipelineConfig.newBuilder().build());
+    }
+
+    public RedisEventLoopGroup(int nThreads,
+                               @Nonnull ThreadFactory threadFactory,
+                               @Nonnull RejectedExecutionHandler rejectedExecutionHandler,
+                               @Nullable EventLoopChooserFactory chooserFactory,
+                               @Nonnull JedisPoolAbstract jedisPool,
+                               @Nonnull PipelineConfig pipelineConfig) {
+        super(nThreads, threadFactory, rejectedExecutionHandler, chooserFactory, new GroupConfig(jedisPool, pipelineConfig));
     }
 
     @Nonnull
@@ -66,7 +75,19 @@ public class RedisEventLoopGroup extends AbstractFixedEventLoopGroup {
     @Nonnull
     @Override
     protected RedisEventLoop newChild(int childIndex, ThreadFactory threadFactory, RejectedExecutionHandler rejectedExecutionHandler, Object context) {
-        return new RedisEventLoop(this, threadFactory, rejectedExecutionHandler, (JedisPoolAbstract) context);
+        final GroupConfig groupConfig = (GroupConfig) context;
+        return new RedisEventLoop(this, threadFactory, rejectedExecutionHandler, groupConfig.jedisPool, groupConfig.pipelineConfig);
+    }
+
+    private static class GroupConfig {
+
+        final JedisPoolAbstract jedisPool;
+        final PipelineConfig pipelineConfig;
+
+        GroupConfig(JedisPoolAbstract jedisPool, PipelineConfig pipelineConfig) {
+            this.jedisPool = jedisPool;
+            this.pipelineConfig = pipelineConfig;
+        }
     }
 
 }
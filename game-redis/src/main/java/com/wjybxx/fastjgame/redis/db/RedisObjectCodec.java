@@ -0,0 +1,182 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.redis.db;
+
+import com.wjybxx.fastjgame.net.binary.BinarySerializer;
+import com.wjybxx.fastjgame.net.misc.BufferPool;
+import com.wjybxx.fastjgame.net.serialization.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * redis值的二进制编解码器，使用{@link Serializer}(通常是{@link BinarySerializer})代替json字符串，以减少redis内存和解析开销。
+ * <p>
+ * 格式：format(1) + content。
+ * 1. {@link #FORMAT_RAW}：content为序列化后的字节数组。
+ * 2. {@link #FORMAT_DEFLATE}：content为原始长度(4字节大端) + deflate压缩后的数据。
+ * 序列化后的数据超过压缩阈值，且压缩后更小时，才使用压缩格式。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/9
+ * github - https://github.com/hl845740757
+ */
+@ThreadSafe
+public class RedisObjectCodec {
+
+    static final byte FORMAT_RAW = 0;
+    static final byte FORMAT_DEFLATE = 1;
+
+    /**
+     * 默认不压缩
+     */
+    private static final int NO_COMPRESSION = Integer.MAX_VALUE;
+
+    /**
+     * 压缩器和解压器的创建开销较大，每个线程缓存一个
+     */
+    private static final ThreadLocal<Deflater> LOCAL_DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> LOCAL_INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private final Serializer serializer;
+    private final int compressThreshold;
+
+    public RedisObjectCodec(Serializer serializer) {
+        this(serializer, NO_COMPRESSION);
+    }
+
+    /**
+     * @param serializer        序列化实现
+     * @param compressThreshold 序列化后的字节数大于等于该值时尝试压缩
+     */
+    public RedisObjectCodec(Serializer serializer, int compressThreshold) {
+        if (compressThreshold <= 0) {
+            throw new IllegalArgumentException("compressThreshold: " + compressThreshold + " (expected: > 0)");
+        }
+        this.serializer = serializer;
+        this.compressThreshold = compressThreshold;
+    }
+
+    /**
+     * 编码一个对象。
+     * 注意：应该在修改对象的线程编码，这样写入redis的是调用时的快照。
+     */
+    public byte[] encode(@Nullable Object value) throws Exception {
+        // 格式字节直接写入缓冲区，序列化结果紧随其后，不压缩时只需要一次拷贝
+        final byte[] localBuffer = BufferPool.allocateBuffer();
+        try {
+            final ByteBuf byteBuf = Unpooled.wrappedBuffer(localBuffer);
+            byteBuf.writerIndex(0);
+            byteBuf.writeByte(FORMAT_RAW);
+            serializer.writeObject(byteBuf, value);
+
+            final int length = byteBuf.writerIndex() - 1;
+            if (length >= compressThreshold) {
+                final byte[] compressed = tryCompress(localBuffer, 1, length);
+                if (compressed != null) {
+                    return compressed;
+                }
+            }
+            return Arrays.copyOf(localBuffer, 1 + length);
+        } finally {
+            BufferPool.releaseBuffer(localBuffer);
+        }
+    }
+
+    /**
+     * @return 如果压缩后没有变小，则返回null
+     */
+    @Nullable
+    private static byte[] tryCompress(byte[] data, int offset, int length) {
+        final int headerLength = 1 + 4;
+        // 压缩后必须更小，否则没有意义
+        final byte[] buffer = new byte[headerLength + length];
+        final Deflater deflater = LOCAL_DEFLATER.get();
+        try {
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            final int compressedLength = deflater.deflate(buffer, headerLength, length);
+            if (!deflater.finished() || compressedLength >= length - headerLength) {
+                return null;
+            }
+            buffer[0] = FORMAT_DEFLATE;
+            buffer[1] = (byte) (length >>> 24);
+            buffer[2] = (byte) (length >>> 16);
+            buffer[3] = (byte) (length >>> 8);
+            buffer[4] = (byte) length;
+            return Arrays.copyOf(buffer, headerLength + compressedLength);
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    /**
+     * 解码一个对象
+     *
+     * @param data redis返回的数据，null表示key或field不存在
+     */
+    @Nullable
+    public Object decode(@Nullable byte[] data) throws Exception {
+        if (data == null) {
+            return null;
+        }
+        if (data.length == 0) {
+            throw new IllegalArgumentException("empty data");
+        }
+        switch (data[0]) {
+            case FORMAT_RAW: {
+                // 包装即可，避免拷贝
+                return serializer.readObject(Unpooled.wrappedBuffer(data, 1, data.length - 1));
+            }
+            case FORMAT_DEFLATE: {
+                return serializer.fromBytes(decompress(data));
+            }
+            default: {
+                throw new IllegalArgumentException("unknown format " + data[0]);
+            }
+        }
+    }
+
+    private static byte[] decompress(byte[] data) throws DataFormatException {
+        if (data.length < 5) {
+            throw new DataFormatException("truncated header, length " + data.length);
+        }
+        final int rawLength = ((data[1] & 0xFF) << 24) | ((data[2] & 0xFF) << 16) | ((data[3] & 0xFF) << 8) | (data[4] & 0xFF);
+        if (rawLength < 0) {
+            throw new DataFormatException("invalid length " + rawLength);
+        }
+        final byte[] result = new byte[rawLength];
+        final Inflater inflater = LOCAL_INFLATER.get();
+        try {
+            inflater.setInput(data, 5, data.length - 5);
+            final int length = inflater.inflate(result);
+            if (length != rawLength || !inflater.finished()) {
+                throw new DataFormatException("expected length " + rawLength + ", but " + length);
+            }
+            return result;
+        } finally {
+            inflater.reset();
+        }
+    }
+}
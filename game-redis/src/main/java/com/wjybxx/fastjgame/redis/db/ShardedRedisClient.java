@@ -0,0 +1,262 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.redis.db;
+
+import com.wjybxx.fastjgame.util.concurrent.EventLoop;
+import com.wjybxx.fastjgame.util.concurrent.FluentFuture;
+import com.wjybxx.fastjgame.util.concurrent.FutureUtils;
+import com.wjybxx.fastjgame.util.concurrent.Promise;
+import com.wjybxx.fastjgame.util.function.FunctionUtils;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * 按key分片的redis客户端，回调环境为用户所在线程{@link #appEventLoop}。
+ * <p>
+ * {@link DefaultRedisClient}绑定在一个{@link RedisEventLoop}上，所有命令都经过同一个连接。
+ * 该实现根据key的hash选择{@link RedisEventLoopGroup}中的一个{@link RedisEventLoop}，每个{@link RedisEventLoop}持有一个连接，
+ * 因此相同key的命令是有序的，而不同key的命令可以在多个连接上并行的使用管道。
+ * <p>
+ * 与redis集群相同，如果key中包含{@code {tag}}，则只使用tag计算hash，这样可以让相关的key分配到同一个连接上，从而保证它们之间的时序。
+ * <p>
+ * 注意：
+ * 1. {@link RedisClient}中不带key的方法，统一在第一个{@link RedisEventLoop}上执行，它们与带key的命令之间不保证时序。
+ * 2. jedis连接池的最大连接数不能小于{@link RedisEventLoopGroup}的线程数。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/5
+ * github - https://github.com/hl845740757
+ */
+public class ShardedRedisClient implements RedisClient {
+
+    private final RedisEventLoopGroup redisEventLoopGroup;
+    private final EventLoop appEventLoop;
+    private final RedisEventLoop defaultRedisEventLoop;
+
+    public ShardedRedisClient(RedisEventLoopGroup redisEventLoopGroup, EventLoop appEventLoop) {
+        this.redisEventLoopGroup = redisEventLoopGroup;
+        this.appEventLoop = appEventLoop;
+        this.defaultRedisEventLoop = redisEventLoopGroup.select(0);
+    }
+
+    /**
+     * 选择key所属的{@link RedisEventLoop}
+     */
+    public RedisEventLoop select(String key) {
+        return redisEventLoopGroup.select(hash(key));
+    }
+
+    /**
+     * 计算key的hash值，如果包含非空的{@code {tag}}，则只使用tag计算。
+     */
+    static int hash(String key) {
+        int h = 0;
+        final int start = key.indexOf('{');
+        if (start >= 0) {
+            final int end = key.indexOf('}', start + 1);
+            if (end > start + 1) {
+                for (int index = start + 1; index < end; index++) {
+                    h = 31 * h + key.charAt(index);
+                }
+                return spread(h);
+            }
+        }
+        return spread(key.hashCode());
+    }
+
+    /**
+     * 与HashMap相同，将高位扩散到低位，且保证非负
+     */
+    private static int spread(int h) {
+        return (h ^ (h >>> 16)) & Integer.MAX_VALUE;
+    }
+
+    // ------------------------------------------------ 带key的命令 ------------------------------------
+
+    /**
+     * 异步执行一个命令，并不监听结果
+     *
+     * @param key     命令操作的key，用于选择连接
+     * @param command 待执行的命令
+     */
+    public void execute(String key, @Nonnull PipelineCommand<?> command) {
+        select(key).execute(command, false);
+    }
+
+    /**
+     * 异步执行一个命令，同时刷新命令队列，并不监听结果。
+     *
+     * @param key     命令操作的key，用于选择连接
+     * @param command 待执行的命令
+     */
+    public void executeAndFlush(String key, @Nonnull PipelineCommand<?> command) {
+        select(key).execute(command, true);
+    }
+
+    /**
+     * 异步执行一个redis命令，并在完成时通知指定的监听器。
+     *
+     * @param key     命令操作的key，用于选择连接
+     * @param command 待执行的命令
+     * @return future
+     */
+    public <T> FluentFuture<T> call(String key, @Nonnull PipelineCommand<T> command) {
+        return select(key).call(command, false)
+                .whenCompleteAsync(FunctionUtils.emptyBiConsumer(), appEventLoop);
+    }
+
+    /**
+     * 异步执行一个redis命令，同时刷新命令队列，并在完成时通知指定的监听器。
+     *
+     * @param key     命令操作的key，用于选择连接
+     * @param command 待执行的命令
+     * @return future
+     */
+    public <T> FluentFuture<T> callAndFlush(String key, @Nonnull PipelineCommand<T> command) {
+        return select(key).call(command, true)
+                .whenCompleteAsync(FunctionUtils.emptyBiConsumer(), appEventLoop);
+    }
+
+    /**
+     * 执行一个redis命令，并阻塞到命令完成。
+     *
+     * @param key     命令操作的key，用于选择连接
+     * @param command 待执行的命令
+     * @return 解码后的结果
+     */
+    public <T> T syncCall(String key, @Nonnull RedisCommand<T> command) throws CompletionException {
+        return select(key).syncCall(command);
+    }
+
+    /**
+     * 多key命令的分发与合并(如：MGET)。
+     * 先将key按连接分组，每组执行一个命令，所有命令完成后在用户线程合并结果。
+     * 任意一个命令失败，则返回的future失败。
+     *
+     * <pre>{@code
+     *     client.callMulti(keys, shardKeys -> pipeline -> pipeline.mget(shardKeys.toArray(new String[0])), true)
+     * }</pre>
+     *
+     * @param keys           所有的key
+     * @param commandFactory 为一组key创建命令，命令返回的结果必须与该组key一一对应
+     * @param flush          是否刷新管道
+     * @return key -> value，迭代顺序与keys相同
+     */
+    public <T> FluentFuture<Map<String, T>> callMulti(Collection<String> keys,
+                                                      Function<List<String>, PipelineCommand<List<T>>> commandFactory,
+                                                      boolean flush) {
+        if (keys.isEmpty()) {
+            return FutureUtils.newSucceedFuture(new LinkedHashMap<>());
+        }
+
+        final Map<RedisEventLoop, List<String>> shardKeysMap = new IdentityHashMap<>();
+        for (String key : keys) {
+            shardKeysMap.computeIfAbsent(select(key), k -> new ArrayList<>()).add(key);
+        }
+
+        final Promise<Map<String, T>> promise = FutureUtils.newPromise();
+        final MultiCallContext<T> context = new MultiCallContext<>(keys, shardKeysMap.size(), promise);
+        for (Map.Entry<RedisEventLoop, List<String>> entry : shardKeysMap.entrySet()) {
+            final List<String> shardKeys = entry.getValue();
+            entry.getKey().call(commandFactory.apply(shardKeys), flush)
+                    .addListener(future -> context.onShardComplete(shardKeys, future.getNow(), future.cause()), appEventLoop);
+        }
+        return promise;
+    }
+
+    /**
+     * 多key命令的合并上下文，只在用户线程访问
+     */
+    private static class MultiCallContext<T> {
+
+        private final Collection<String> keys;
+        private final Promise<Map<String, T>> promise;
+        private final Map<String, T> resultMap;
+        private int remainShards;
+
+        MultiCallContext(Collection<String> keys, int shardCount, Promise<Map<String, T>> promise) {
+            this.keys = keys;
+            this.promise = promise;
+            this.resultMap = new HashMap<>(keys.size() * 4 / 3 + 1);
+            this.remainShards = shardCount;
+        }
+
+        void onShardComplete(List<String> shardKeys, List<T> shardResult, Throwable cause) {
+            if (promise.isDone()) {
+                return;
+            }
+            if (cause != null) {
+                promise.tryFailure(cause);
+                return;
+            }
+            if (shardResult == null || shardResult.size() != shardKeys.size()) {
+                promise.tryFailure(new IllegalStateException("expected " + shardKeys.size() + " results, but " +
+                        (shardResult == null ? "null" : shardResult.size())));
+                return;
+            }
+            for (int index = 0; index < shardKeys.size(); index++) {
+                resultMap.put(shardKeys.get(index), shardResult.get(index));
+            }
+            if (--remainShards == 0) {
+                // 按照用户传入的顺序返回
+                final Map<String, T> orderedMap = new LinkedHashMap<>(resultMap.size() * 4 / 3 + 1);
+                for (String key : keys) {
+                    orderedMap.put(key, resultMap.get(key));
+                }
+                promise.trySuccess(orderedMap);
+            }
+        }
+    }
+
+    // ------------------------------------------------ 不带key的命令 ------------------------------------
+
+    @Override
+    public void execute(@Nonnull PipelineCommand<?> command) {
+        defaultRedisEventLoop.execute(command, false);
+    }
+
+    @Override
+    public void executeAndFlush(@Nonnull PipelineCommand<?> command) {
+        defaultRedisEventLoop.execute(command, true);
+    }
+
+    @Override
+    public <T> FluentFuture<T> call(@Nonnull PipelineCommand<T> command) {
+        return defaultRedisEventLoop.call(command, false)
+                .whenCompleteAsync(FunctionUtils.emptyBiConsumer(), appEventLoop);
+    }
+
+    @Override
+    public <T> FluentFuture<T> callAndFlush(@Nonnull PipelineCommand<T> command) {
+        return defaultRedisEventLoop.call(command, true)
+                .whenCompleteAsync(FunctionUtils.emptyBiConsumer(), appEventLoop);
+    }
+
+    @Override
+    public <T> T syncCall(@Nonnull RedisCommand<T> command) throws CompletionException {
+        return defaultRedisEventLoop.syncCall(command);
+    }
+
+    @Override
+    public void close() throws Exception {
+        redisEventLoopGroup.shutdown();
+    }
+}
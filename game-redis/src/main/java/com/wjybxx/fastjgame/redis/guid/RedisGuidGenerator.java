@@ -16,80 +16,75 @@
 
 package com.wjybxx.fastjgame.redis.guid;
 
-import com.wjybxx.fastjgame.guid.core.GuidGenerator;
+import com.wjybxx.fastjgame.guid.core.SegmentConfig;
+import com.wjybxx.fastjgame.guid.core.SegmentGuidGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPoolAbstract;
 
+import java.util.concurrent.Executor;
+
 /**
- * 基于redis实现的guid生成方案
+ * 基于redis实现的guid生成方案。
+ * 号段在后台预取，见{@link SegmentGuidGenerator}。
  *
  * @author wjybxx
  * @version 1.0
  * date - 2020/2/13
  * github - https://github.com/hl845740757
  */
-public class RedisGuidGenerator implements GuidGenerator {
+public class RedisGuidGenerator extends SegmentGuidGenerator {
 
     private static final Logger logger = LoggerFactory.getLogger(RedisGuidGenerator.class);
 
     private static final String GUID_HASH_KEY = "_guid";
-    private static final int DEFAULT_CACHE_SIZ = 1000_000;
 
     private final JedisPoolAbstract jedisPool;
-    private final String name;
-    private final long cacheSize;
-
-    private long curGuid = 0;
-    private long curBarrier = 0;
 
-    public RedisGuidGenerator(JedisPoolAbstract jedisPool, String name) {
-        this(jedisPool, name, DEFAULT_CACHE_SIZ);
+    /**
+     * @param name             生成器名字
+     * @param prefetchExecutor 预取号段的线程池，见{@link SegmentGuidGenerator}
+     */
+    public RedisGuidGenerator(JedisPoolAbstract jedisPool, String name, Executor prefetchExecutor) {
+        this(jedisPool, name, SegmentConfig.newBuilder().build(), prefetchExecutor);
     }
 
     /**
-     * @param name      生成器名字
-     * @param cacheSize 每次缓存大小
+     * @param name             生成器名字
+     * @param cacheSize        每次缓存大小
+     * @param prefetchExecutor 预取号段的线程池，见{@link SegmentGuidGenerator}
      */
-    public RedisGuidGenerator(JedisPoolAbstract jedisPool, String name, long cacheSize) {
-        if (cacheSize <= 0) {
-            throw new IllegalArgumentException("cacheSize: " + cacheSize + " (expected: > 0)");
-        }
-        this.jedisPool = jedisPool;
-        this.name = name;
-        this.cacheSize = cacheSize;
+    public RedisGuidGenerator(JedisPoolAbstract jedisPool, String name, long cacheSize, Executor prefetchExecutor) {
+        this(jedisPool, name, SegmentConfig.fixedSize(cacheSize), prefetchExecutor);
     }
 
-    @Override
-    public String nameSpace() {
-        return name;
+    /**
+     * @param name             生成器名字
+     * @param config           号段配置
+     * @param prefetchExecutor 预取号段的线程池，见{@link SegmentGuidGenerator}
+     */
+    public RedisGuidGenerator(JedisPoolAbstract jedisPool, String name, SegmentConfig config, Executor prefetchExecutor) {
+        super(name, config, prefetchExecutor);
+        this.jedisPool = jedisPool;
     }
 
     @Override
-    public long next() {
-        checkCache();
-
-        return curGuid++;
-    }
-
-    private void checkCache() {
-        if (curGuid > 0 && curGuid <= curBarrier) {
-            return;
+    protected long allocateSegment(long segmentSize) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            final long curBarrier = jedis.hincrBy(GUID_HASH_KEY, nameSpace(), segmentSize);
+            logger.info("update guid cache, curGuid={}, curBarrier={}", curBarrier - segmentSize + 1, curBarrier);
+            return curBarrier;
         }
-        refreshCache();
     }
 
-    private void refreshCache() {
-        try (Jedis jedis = jedisPool.getResource()) {
-            curBarrier = jedis.hincrBy(GUID_HASH_KEY, name, cacheSize);
-            curGuid = curBarrier - cacheSize + 1;
-            logger.info("update guid cache, curGuid={}, curBarrier={}", curGuid, curBarrier);
-        }
+    @Override
+    protected void onPrefetchFailure(Throwable cause) {
+        logger.warn("prefetch guid segment caught exception, name {}", nameSpace(), cause);
     }
 
     @Override
     public void close() {
-        // do nothing
+        awaitPrefetch();
     }
 }
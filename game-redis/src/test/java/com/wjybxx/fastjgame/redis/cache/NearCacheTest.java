@@ -0,0 +1,257 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.redis.cache;
+
+import com.wjybxx.fastjgame.redis.db.PipelineCommand;
+import com.wjybxx.fastjgame.redis.db.RedisClient;
+import com.wjybxx.fastjgame.redis.db.RedisCommand;
+import com.wjybxx.fastjgame.util.concurrent.FluentFuture;
+import com.wjybxx.fastjgame.util.concurrent.FutureUtils;
+import com.wjybxx.fastjgame.util.concurrent.Promise;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link NearCache}测试：命中、未命中、合并、过期、淘汰及请求期间失效
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/12
+ * github - https://github.com/hl845740757
+ */
+class NearCacheTest {
+
+    /**
+     * 测试中命令的结果由{@link FakeRedisClient}手动完成，不会真正执行
+     */
+    private static final PipelineCommand<String> LOADER = pipeline -> null;
+
+    private static NearCache newCache(FakeRedisClient redisClient, int maxSize, long ttlMs) {
+        return new NearCache(redisClient, null, NearCacheConfig.newBuilder()
+                .setMaxSize(maxSize)
+                .setTtlMs(ttlMs)
+                .build());
+    }
+
+    private static String load(NearCache cache, FakeRedisClient redisClient, String key, String subKey) {
+        final FluentFuture<String> future = cache.get(key, subKey, LOADER);
+        redisClient.completeAll(key + "/" + subKey);
+        Assertions.assertTrue(future.isDone());
+        return future.getNow();
+    }
+
+    @Test
+    void hitAfterLoad() {
+        final FakeRedisClient redisClient = new FakeRedisClient();
+        final NearCache cache = newCache(redisClient, 100, 60_000);
+
+        Assertions.assertEquals("player:1/", load(cache, redisClient, "player:1", ""));
+        final FluentFuture<String> future = cache.get("player:1", LOADER);
+        Assertions.assertTrue(future.isDone());
+        Assertions.assertEquals("player:1/", future.getNow());
+
+        Assertions.assertEquals(1, redisClient.calls.size());
+        Assertions.assertEquals(1, cache.getHits());
+        Assertions.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void coalesceConcurrentMisses() {
+        final FakeRedisClient redisClient = new FakeRedisClient();
+        final NearCache cache = newCache(redisClient, 100, 60_000);
+
+        final FluentFuture<String> first = cache.get("player:1", "name", LOADER);
+        final FluentFuture<String> second = cache.get("player:1", "name", LOADER);
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(1, redisClient.calls.size());
+        Assertions.assertEquals(1, cache.getCoalesced());
+
+        // 不同的subKey不合并
+        cache.get("player:1", "level", LOADER);
+        Assertions.assertEquals(2, redisClient.calls.size());
+
+        redisClient.completeAll("value");
+        Assertions.assertEquals("value", second.getNow());
+        Assertions.assertEquals(1, cache.size());
+        Assertions.assertEquals(2, cache.entryCount());
+    }
+
+    @Test
+    void failureNotCached() {
+        final FakeRedisClient redisClient = new FakeRedisClient();
+        final NearCache cache = newCache(redisClient, 100, 60_000);
+
+        final FluentFuture<String> future = cache.get("player:1", LOADER);
+        redisClient.failAll();
+        Assertions.assertTrue(future.isCompletedExceptionally());
+        Assertions.assertEquals(0, cache.entryCount());
+
+        load(cache, redisClient, "player:1", "");
+        Assertions.assertEquals(2, redisClient.calls.size());
+    }
+
+    @Test
+    void expireAfterTtl() throws InterruptedException {
+        final FakeRedisClient redisClient = new FakeRedisClient();
+        final NearCache cache = newCache(redisClient, 100, 50);
+
+        load(cache, redisClient, "player:1", "");
+        Thread.sleep(100);
+
+        load(cache, redisClient, "player:1", "");
+        Assertions.assertEquals(2, redisClient.calls.size());
+        Assertions.assertEquals(0, cache.getHits());
+        Assertions.assertEquals(1, cache.getExpirations());
+        Assertions.assertEquals(1, cache.entryCount());
+    }
+
+    @Test
+    void evictLeastRecentlyUsed() {
+        final FakeRedisClient redisClient = new FakeRedisClient();
+        final NearCache cache = newCache(redisClient, 2, 60_000);
+
+        load(cache, redisClient, "player:1", "");
+        load(cache, redisClient, "player:2", "");
+        // 访问player:1，使player:2成为最久未访问的key
+        load(cache, redisClient, "player:1", "");
+        load(cache, redisClient, "player:3", "");
+        Assertions.assertEquals(2, cache.size());
+        Assertions.assertEquals(1, cache.getEvictions());
+
+        final int calls = redisClient.calls.size();
+        load(cache, redisClient, "player:1", "");
+        Assertions.assertEquals(calls, redisClient.calls.size());
+        load(cache, redisClient, "player:2", "");
+        Assertions.assertEquals(calls + 1, redisClient.calls.size());
+    }
+
+    @Test
+    void boundSubKeys() {
+        final FakeRedisClient redisClient = new FakeRedisClient();
+        final NearCache cache = newCache(redisClient, 3, 60_000);
+
+        load(cache, redisClient, "player:1", "name");
+        load(cache, redisClient, "player:1", "level");
+        load(cache, redisClient, "player:2", "name");
+        Assertions.assertEquals(3, cache.entryCount());
+
+        // 值的总数超出上限，淘汰最久未访问的key及其所有的值
+        load(cache, redisClient, "player:2", "level");
+        Assertions.assertEquals(1, cache.size());
+        Assertions.assertEquals(2, cache.entryCount());
+        Assertions.assertEquals(2, cache.getEvictions());
+
+        // 单个key的subKey也不能超过上限
+        for (int index = 0; index < 10; index++) {
+            load(cache, redisClient, "player:3", "field" + index);
+            Assertions.assertTrue(cache.entryCount() <= 3);
+        }
+    }
+
+    @Test
+    void invalidatedInflightNotCached() {
+        final FakeRedisClient redisClient = new FakeRedisClient();
+        final NearCache cache = newCache(redisClient, 100, 60_000);
+
+        final FluentFuture<String> future = cache.get("player:1", LOADER);
+        cache.invalidate("player:1");
+        redisClient.completeAll("stale");
+        // 调用者仍然得到结果，但结果可能是旧数据，不缓存
+        Assertions.assertEquals("stale", future.getNow());
+        Assertions.assertEquals(0, cache.entryCount());
+
+        Assertions.assertEquals("player:1/", load(cache, redisClient, "player:1", ""));
+        Assertions.assertEquals(2, redisClient.calls.size());
+    }
+
+    @Test
+    void invalidate() {
+        final FakeRedisClient redisClient = new FakeRedisClient();
+        final NearCache cache = newCache(redisClient, 100, 60_000);
+
+        load(cache, redisClient, "player:1", "name");
+        load(cache, redisClient, "player:1", "level");
+        load(cache, redisClient, "player:2", "name");
+
+        cache.invalidate("player:1");
+        Assertions.assertEquals(1, cache.size());
+        Assertions.assertEquals(1, cache.entryCount());
+        Assertions.assertEquals(1, cache.getInvalidations());
+
+        cache.invalidateAll();
+        Assertions.assertEquals(0, cache.size());
+        Assertions.assertEquals(0, cache.entryCount());
+    }
+
+    /**
+     * 记录命令，由测试决定命令何时完成以及结果
+     */
+    private static class FakeRedisClient implements RedisClient {
+
+        final List<Promise<Object>> calls = new ArrayList<>();
+
+        void completeAll(Object result) {
+            for (Promise<Object> promise : calls) {
+                promise.trySuccess(result);
+            }
+        }
+
+        void failAll() {
+            for (Promise<Object> promise : calls) {
+                promise.tryFailure(new IOException("connection reset"));
+            }
+        }
+
+        @Override
+        public void execute(@Nonnull PipelineCommand<?> command) {
+            call(command);
+        }
+
+        @Override
+        public void executeAndFlush(@Nonnull PipelineCommand<?> command) {
+            callAndFlush(command);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T> FluentFuture<T> call(@Nonnull PipelineCommand<T> command) {
+            final Promise<Object> promise = FutureUtils.newPromise();
+            calls.add(promise);
+            return (FluentFuture<T>) promise;
+        }
+
+        @Override
+        public <T> FluentFuture<T> callAndFlush(@Nonnull PipelineCommand<T> command) {
+            return call(command);
+        }
+
+        @Override
+        public <T> T syncCall(@Nonnull RedisCommand<T> command) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.redis.cache;
+
+import com.wjybxx.fastjgame.redis.db.PipelineCommand;
+import com.wjybxx.fastjgame.redis.db.RedisClient;
+import com.wjybxx.fastjgame.redis.db.RedisCommand;
+import com.wjybxx.fastjgame.util.concurrent.FluentFuture;
+import com.wjybxx.fastjgame.util.concurrent.FutureUtils;
+import com.wjybxx.fastjgame.util.concurrent.Promise;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link WriteBehindCache}测试：合并写入、按数量/间隔刷新、写入失败后的重试
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/12
+ * github - https://github.com/hl845740757
+ */
+class WriteBehindCacheTest {
+
+    @Test
+    void coalescing() {
+        final FakeRedisClient redisClient = new FakeRedisClient();
+        final WriteBehindCache cache = new WriteBehindCache(redisClient);
+
+        for (int i = 0; i < 100; i++) {
+            cache.hset("player:1", "gold", String.valueOf(i));
+            cache.hset("player:1", "exp", String.valueOf(i));
+            cache.set("online", String.valueOf(i));
+        }
+        Assertions.assertEquals(3, cache.getPendingWrites());
+        Assertions.assertEquals(300, cache.getWriteCount());
+
+        cache.flush();
+        redisClient.completeAll();
+
+        Assertions.assertEquals(0, cache.getPendingWrites());
+        Assertions.assertEquals(1, cache.getFlushCount());
+        Assertions.assertEquals(3, cache.getFlushedWriteCount());
+        Assertions.assertEquals(0.99, cache.getCoalescingRatio(), 0.0001);
+        Assertions.assertEquals("99", redisClient.hashes.get("player:1").get("gold"));
+        Assertions.assertEquals("99", redisClient.hashes.get("player:1").get("exp"));
+        Assertions.assertEquals("99", redisClient.strings.get("online"));
+    }
+
+    @Test
+    void hdelAfterHset() {
+        final FakeRedisClient redisClient = new FakeRedisClient();
+        redisClient.hashes.computeIfAbsent("player:1", k -> new HashMap<>()).put("buff", "1");
+        final WriteBehindCache cache = new WriteBehindCache(redisClient);
+
+        cache.hset("player:1", "buff", "2");
+        cache.hdel("player:1", "buff");
+        Assertions.assertEquals(1, cache.getPendingWrites());
+
+        cache.flush();
+        redisClient.completeAll();
+        Assertions.assertFalse(redisClient.hashes.get("player:1").containsKey("buff"));
+    }
+
+    @Test
+    void flushOnThreshold() {
+        final FakeRedisClient redisClient = new FakeRedisClient();
+        final WriteBehindCache cache = new WriteBehindCache(redisClient, WriteBehindConfig.newBuilder()
+                .setFlushIntervalMs(60_000)
+                .setMaxPendingWrites(3)
+                .build());
+
+        cache.hset("player:1", "gold", "1");
+        cache.hset("player:1", "gold", "2");
+        cache.hset("player:1", "exp", "1");
+        Assertions.assertEquals(0, redisClient.calls.size());
+
+        cache.hset("player:2", "gold", "1");
+        Assertions.assertEquals(1, cache.getFlushCount());
+        Assertions.assertEquals(0, cache.getPendingWrites());
+        Assertions.assertEquals(2, redisClient.calls.size());
+    }
+
+    @Test
+    void flushOnInterval() throws InterruptedException {
+        final FakeRedisClient redisClient = new FakeRedisClient();
+        final WriteBehindCache cache = new WriteBehindCache(redisClient, WriteBehindConfig.newBuilder()
+                .setFlushIntervalMs(50)
+                .build());
+
+        cache.set("online", "1");
+        cache.tick();
+        Assertions.assertEquals(0, cache.getFlushCount());
+
+        Thread.sleep(100);
+        cache.tick();
+        Assertions.assertEquals(1, cache.getFlushCount());
+        redisClient.completeAll();
+        Assertions.assertEquals("1", redisClient.strings.get("online"));
+    }
+
+    @Test
+    void closeFlushPipeline() {
+        final FakeRedisClient redisClient = new FakeRedisClient();
+        final WriteBehindCache cache = new WriteBehindCache(redisClient);
+
+        cache.hset("player:1", "gold", "1");
+        cache.set("online", "1");
+        cache.close();
+
+        Assertions.assertEquals(2, redisClient.calls.size());
+        Assertions.assertFalse(redisClient.calls.get(0).flush);
+        Assertions.assertTrue(redisClient.calls.get(1).flush);
+    }
+
+    @Test
+    void requeueFailedWrites() {
+        final FakeRedisClient redisClient = new FakeRedisClient();
+        final WriteBehindCache cache = new WriteBehindCache(redisClient);
+
+        cache.hset("player:1", "gold", "1");
+        cache.hset("player:1", "exp", "1");
+        cache.set("online", "1");
+        cache.flush();
+        Assertions.assertEquals(2, redisClient.calls.size());
+
+        // 失败之前有新的写入
+        cache.hset("player:1", "gold", "2");
+        redisClient.failAll();
+
+        Assertions.assertEquals(2, cache.getFailedCommandCount());
+        Assertions.assertEquals(3, cache.getPendingWrites());
+        Assertions.assertEquals(0, cache.getFlushedWriteCount());
+
+        cache.flush();
+        redisClient.completeAll();
+        Assertions.assertEquals(0, cache.getPendingWrites());
+        Assertions.assertEquals(3, cache.getFlushedWriteCount());
+        Assertions.assertEquals("2", redisClient.hashes.get("player:1").get("gold"));
+        Assertions.assertEquals("1", redisClient.hashes.get("player:1").get("exp"));
+        Assertions.assertEquals("1", redisClient.strings.get("online"));
+    }
+
+    @Test
+    void notRequeueIfLaterBatchHasNewerValue() {
+        final FakeRedisClient redisClient = new FakeRedisClient();
+        final WriteBehindCache cache = new WriteBehindCache(redisClient);
+
+        cache.hset("player:1", "gold", "1");
+        cache.hset("player:1", "exp", "1");
+        cache.flush();
+        cache.hset("player:1", "gold", "2");
+        cache.flush();
+        Assertions.assertEquals(2, redisClient.calls.size());
+
+        // 第一个批次失败时，第二个批次已包含gold的新值
+        redisClient.fail(0);
+        Assertions.assertEquals(1, cache.getPendingWrites());
+
+        redisClient.completeAll();
+        cache.flush();
+        redisClient.completeAll();
+        Assertions.assertEquals("2", redisClient.hashes.get("player:1").get("gold"));
+        Assertions.assertEquals("1", redisClient.hashes.get("player:1").get("exp"));
+    }
+
+    @Test
+    void retryWithBackoff() throws InterruptedException {
+        final FakeRedisClient redisClient = new FakeRedisClient();
+        final WriteBehindCache cache = new WriteBehindCache(redisClient, WriteBehindConfig.newBuilder()
+                .setFlushIntervalMs(20)
+                .setMaxRetryBackoffMs(100)
+                .build());
+
+        cache.set("online", "1");
+        final long[] expectedBackoffs = {20, 40, 80, 100};
+        for (long expectedBackoff : expectedBackoffs) {
+            cache.flush();
+            redisClient.failAll();
+            Assertions.assertEquals(expectedBackoff, cache.getRetryBackoffMs());
+        }
+        Assertions.assertEquals(1, cache.getPendingWrites());
+
+        // 刷新间隔已到，但仍在退避时间内
+        Thread.sleep(40);
+        cache.tick();
+        Assertions.assertEquals(4, cache.getFlushCount());
+
+        Thread.sleep(100);
+        cache.tick();
+        Assertions.assertEquals(5, cache.getFlushCount());
+        redisClient.completeAll();
+        Assertions.assertEquals(0, cache.getRetryBackoffMs());
+        Assertions.assertEquals(0, cache.getPendingWrites());
+        Assertions.assertEquals("1", redisClient.strings.get("online"));
+    }
+
+    @Test
+    void thresholdRespectsBackoff() throws InterruptedException {
+        final FakeRedisClient redisClient = new FakeRedisClient();
+        final WriteBehindCache cache = new WriteBehindCache(redisClient, WriteBehindConfig.newBuilder()
+                .setFlushIntervalMs(100)
+                .setMaxPendingWrites(3)
+                .build());
+
+        for (int index = 1; index <= 3; index++) {
+            cache.hset("player:1", "field" + index, "1");
+        }
+        Assertions.assertEquals(1, redisClient.calls.size());
+        redisClient.failAll();
+        Assertions.assertEquals(3, cache.getPendingWrites());
+
+        // 退避期间超出上限也不刷新，不会反复把所有数据发给不可用的redis
+        for (int index = 4; index <= 9; index++) {
+            cache.hset("player:1", "field" + index, "1");
+        }
+        Assertions.assertEquals(1, redisClient.calls.size());
+        Assertions.assertEquals(9, cache.getPendingWrites());
+
+        // 退避结束后，超出上限的写入立即触发刷新
+        Thread.sleep(150);
+        cache.hset("player:1", "field10", "1");
+        Assertions.assertEquals(2, redisClient.calls.size());
+        redisClient.completeAll();
+        Assertions.assertEquals(0, cache.getPendingWrites());
+        Assertions.assertEquals(0, cache.getRetryBackoffMs());
+        Assertions.assertEquals(10, redisClient.hashes.get("player:1").size());
+    }
+
+    private static class Call {
+
+        final PipelineCommand<?> command;
+        final Promise<Object> promise = FutureUtils.newPromise();
+        final boolean flush;
+
+        Call(PipelineCommand<?> command, boolean flush) {
+            this.command = command;
+            this.flush = flush;
+        }
+    }
+
+    /**
+     * 记录命令，由测试决定命令何时完成以及是否成功，成功时将命令作用于内存中的数据
+     */
+    private static class FakeRedisClient implements RedisClient {
+
+        final Map<String, Map<String, String>> hashes = new HashMap<>();
+        final Map<String, String> strings = new HashMap<>();
+        final List<Call> calls = new ArrayList<>();
+        private final RecordingPipeline pipeline = new RecordingPipeline(hashes, strings);
+
+        void complete(int index) {
+            final Call call = calls.get(index);
+            call.command.execute(pipeline);
+            call.promise.trySuccess(null);
+        }
+
+        void fail(int index) {
+            calls.get(index).promise.tryFailure(new IOException("connection reset"));
+        }
+
+        void completeAll() {
+            for (int index = 0; index < calls.size(); index++) {
+                if (!calls.get(index).promise.isDone()) {
+                    complete(index);
+                }
+            }
+        }
+
+        void failAll() {
+            for (int index = 0; index < calls.size(); index++) {
+                fail(index);
+            }
+        }
+
+        @Override
+        public void execute(@Nonnull PipelineCommand<?> command) {
+            call(command);
+        }
+
+        @Override
+        public void executeAndFlush(@Nonnull PipelineCommand<?> command) {
+            callAndFlush(command);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T> FluentFuture<T> call(@Nonnull PipelineCommand<T> command) {
+            final Call call = new Call(command, false);
+            calls.add(call);
+            return (FluentFuture<T>) call.promise;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T> FluentFuture<T> callAndFlush(@Nonnull PipelineCommand<T> command) {
+            final Call call = new Call(command, true);
+            calls.add(call);
+            return (FluentFuture<T>) call.promise;
+        }
+
+        @Override
+        public <T> T syncCall(@Nonnull RedisCommand<T> command) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+
+    /**
+     * 将命令作用于内存中的数据，不连接redis
+     */
+    private static class RecordingPipeline extends Pipeline {
+
+        private final Map<String, Map<String, String>> hashes;
+        private final Map<String, String> strings;
+
+        RecordingPipeline(Map<String, Map<String, String>> hashes, Map<String, String> strings) {
+            this.hashes = hashes;
+            this.strings = strings;
+        }
+
+        @Override
+        public Response<Long> hset(String key, Map<String, String> hash) {
+            hashes.computeIfAbsent(key, k -> new HashMap<>()).putAll(hash);
+            return null;
+        }
+
+        @Override
+        public Response<Long> hdel(String key, String... field) {
+            final Map<String, String> fields = hashes.get(key);
+            if (fields != null) {
+                for (String f : field) {
+                    fields.remove(f);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Response<String> mset(String... keysvalues) {
+            for (int index = 0; index < keysvalues.length; index += 2) {
+                strings.put(keysvalues[index], keysvalues[index + 1]);
+            }
+            return null;
+        }
+    }
+}
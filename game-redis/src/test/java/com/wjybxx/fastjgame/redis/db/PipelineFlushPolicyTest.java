@@ -0,0 +1,220 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.redis.db;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PipelineFlushPolicy}测试：批次大小上限、延迟目标以及推迟sync后的重新判断
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/12
+ * github - https://github.com/hl845740757
+ */
+class PipelineFlushPolicyTest {
+
+    private static final long LATENCY_TARGET_MICROS = 1000;
+    private static final long ARRIVAL_INTERVAL_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+    private static ManualClockPolicy newAdaptivePolicy(int maxBatchSize) {
+        return new ManualClockPolicy(PipelineConfig.newBuilder()
+                .setAdaptive(true)
+                .setMaxBatchSize(maxBatchSize)
+                .setLatencyTargetMicros(LATENCY_TARGET_MICROS)
+                .build());
+    }
+
+    /**
+     * 以固定间隔提交命令，使平均到达间隔收敛到{@link #ARRIVAL_INTERVAL_NANOS}附近
+     */
+    private static void warmUp(ManualClockPolicy policy, long syncNanos) {
+        for (int index = 0; index < 50; index++) {
+            policy.advance(ARRIVAL_INTERVAL_NANOS);
+            policy.onCommandAdded(false);
+            policy.onSynced(syncNanos);
+        }
+    }
+
+    @Test
+    void emptyBatchNeverSyncs() {
+        final ManualClockPolicy policy = newAdaptivePolicy(16);
+        Assertions.assertFalse(policy.shouldSyncOnLoop());
+
+        final ManualClockPolicy fixedPolicy = new ManualClockPolicy(PipelineConfig.fixed(16));
+        Assertions.assertFalse(fixedPolicy.shouldSyncOnLoop());
+    }
+
+    @Test
+    void fixedModeSyncsOnFlushAndEveryLoop() {
+        final ManualClockPolicy policy = new ManualClockPolicy(PipelineConfig.fixed(16));
+        Assertions.assertFalse(policy.onCommandAdded(false));
+        Assertions.assertTrue(policy.onCommandAdded(true));
+        policy.onSynced(0);
+
+        Assertions.assertFalse(policy.onCommandAdded(false));
+        Assertions.assertTrue(policy.shouldSyncOnLoop());
+    }
+
+    @Test
+    void syncWhenBatchSizeReached() {
+        final ManualClockPolicy policy = newAdaptivePolicy(4);
+        for (int round = 0; round < 2; round++) {
+            for (int index = 1; index < 4; index++) {
+                Assertions.assertFalse(policy.onCommandAdded(false));
+            }
+            Assertions.assertTrue(policy.onCommandAdded(false));
+            policy.onSynced(0);
+        }
+
+        final ManualClockPolicy fixedPolicy = new ManualClockPolicy(PipelineConfig.fixed(2));
+        Assertions.assertFalse(fixedPolicy.onCommandAdded(false));
+        Assertions.assertTrue(fixedPolicy.onCommandAdded(false));
+    }
+
+    @Test
+    void syncImmediatelyBeforeArrivalRateLearned() {
+        // 初始的平均到达间隔等于延迟目标，不会推迟sync
+        final ManualClockPolicy policy = newAdaptivePolicy(16);
+        Assertions.assertFalse(policy.onCommandAdded(false));
+        Assertions.assertTrue(policy.shouldSyncOnLoop());
+    }
+
+    @Test
+    void deferUntilLatencyTarget() {
+        final ManualClockPolicy policy = newAdaptivePolicy(1024);
+        warmUp(policy, 0);
+
+        policy.advance(ARRIVAL_INTERVAL_NANOS);
+        Assertions.assertFalse(policy.onCommandAdded(false));
+        Assertions.assertFalse(policy.shouldSyncOnLoop());
+
+        // 推迟之后，每次循环重新判断，批次的等待时间接近延迟目标时sync
+        policy.advance(TimeUnit.MICROSECONDS.toNanos(LATENCY_TARGET_MICROS / 2));
+        Assertions.assertFalse(policy.shouldSyncOnLoop());
+        policy.advance(TimeUnit.MICROSECONDS.toNanos(LATENCY_TARGET_MICROS / 2));
+        Assertions.assertTrue(policy.shouldSyncOnLoop());
+
+        policy.onSynced(0);
+        Assertions.assertFalse(policy.shouldSyncOnLoop());
+    }
+
+    @Test
+    void batchAgeCountsFromFirstCommand() {
+        final ManualClockPolicy policy = newAdaptivePolicy(1024);
+        warmUp(policy, 0);
+
+        policy.advance(ARRIVAL_INTERVAL_NANOS);
+        policy.onCommandAdded(false);
+        // 后续命令不会重置批次的开始时间
+        for (int index = 0; index < 10; index++) {
+            policy.advance(TimeUnit.MICROSECONDS.toNanos(LATENCY_TARGET_MICROS / 10));
+            policy.onCommandAdded(false);
+        }
+        Assertions.assertTrue(policy.shouldSyncOnLoop());
+    }
+
+    @Test
+    void rttShortensDeferral() {
+        final long rttNanos = TimeUnit.MICROSECONDS.toNanos(LATENCY_TARGET_MICROS / 2);
+        final ManualClockPolicy policy = newAdaptivePolicy(1024);
+        warmUp(policy, rttNanos);
+
+        policy.advance(ARRIVAL_INTERVAL_NANOS);
+        policy.onCommandAdded(false);
+        Assertions.assertFalse(policy.shouldSyncOnLoop());
+
+        // 没有rtt时这个等待时间是允许的，但加上rtt后会超出延迟目标
+        policy.advance(rttNanos);
+        Assertions.assertTrue(policy.shouldSyncOnLoop());
+    }
+
+    @Test
+    void unavailableSyncResetsBatch() {
+        final ManualClockPolicy policy = newAdaptivePolicy(4);
+        policy.onCommandAdded(true);
+        policy.onCommandAdded(false);
+        // 连接不可用时没有真正执行sync，但批次同样结束
+        policy.onSynced(-1);
+        Assertions.assertFalse(policy.shouldSyncOnLoop());
+
+        for (int index = 1; index < 4; index++) {
+            Assertions.assertFalse(policy.onCommandAdded(false));
+        }
+        Assertions.assertTrue(policy.onCommandAdded(false));
+    }
+
+    @Test
+    void flushRequestDeferredToLoop() {
+        final ManualClockPolicy policy = newAdaptivePolicy(1024);
+        warmUp(policy, 0);
+
+        // 自适应模式下刷新请求不会立即sync，而是在处理完这一批任务之后sync
+        policy.advance(ARRIVAL_INTERVAL_NANOS);
+        Assertions.assertFalse(policy.onCommandAdded(true));
+        Assertions.assertFalse(policy.onCommandAdded(false));
+        Assertions.assertTrue(policy.shouldSyncOnLoop());
+
+        // 刷新请求只对当前批次有效
+        policy.onSynced(0);
+        policy.advance(ARRIVAL_INTERVAL_NANOS);
+        policy.onCommandAdded(false);
+        Assertions.assertFalse(policy.shouldSyncOnLoop());
+    }
+
+    @Test
+    void discardedBatchResetsState() {
+        final ManualClockPolicy policy = newAdaptivePolicy(4);
+        warmUp(policy, 0);
+
+        policy.onCommandAdded(true);
+        policy.onCommandAdded(false);
+        policy.onBatchDiscarded();
+        Assertions.assertFalse(policy.shouldSyncOnLoop());
+
+        // 批次大小重新计数
+        for (int index = 1; index < 4; index++) {
+            policy.advance(ARRIVAL_INTERVAL_NANOS);
+            Assertions.assertFalse(policy.onCommandAdded(false));
+        }
+        Assertions.assertTrue(policy.onCommandAdded(false));
+    }
+
+    private static class ManualClockPolicy extends PipelineFlushPolicy {
+
+        /**
+         * 不从0开始，0在策略中有特殊含义
+         */
+        private long nanoTime = TimeUnit.SECONDS.toNanos(1);
+
+        ManualClockPolicy(PipelineConfig config) {
+            super(config);
+        }
+
+        void advance(long nanos) {
+            nanoTime += nanos;
+        }
+
+        @Override
+        long nanoTime() {
+            return nanoTime;
+        }
+    }
+}
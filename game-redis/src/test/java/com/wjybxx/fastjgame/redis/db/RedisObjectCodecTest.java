@@ -0,0 +1,157 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.redis.db;
+
+import com.wjybxx.fastjgame.net.serialization.Serializer;
+import io.netty.buffer.ByteBuf;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+/**
+ * {@link RedisObjectCodec}测试：原始格式、压缩格式、压缩阈值边界、压缩无收益时回退以及非法数据
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/12
+ * github - https://github.com/hl845740757
+ */
+class RedisObjectCodecTest {
+
+    private static final int THRESHOLD = 64;
+
+    private static byte[] compressible(int length) {
+        final byte[] bytes = new byte[length];
+        for (int index = 0; index < length; index++) {
+            bytes[index] = (byte) ('a' + index % 4);
+        }
+        return bytes;
+    }
+
+    private static byte[] incompressible(int length) {
+        final byte[] bytes = new byte[length];
+        new Random(1).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void assertRoundTrip(RedisObjectCodec codec, byte[] value, byte expectedFormat) throws Exception {
+        final byte[] encoded = codec.encode(value);
+        Assertions.assertEquals(expectedFormat, encoded[0]);
+        if (expectedFormat == RedisObjectCodec.FORMAT_RAW) {
+            Assertions.assertEquals(1 + value.length, encoded.length);
+        } else {
+            Assertions.assertTrue(encoded.length < 1 + value.length);
+        }
+        Assertions.assertArrayEquals(value, (byte[]) codec.decode(encoded));
+    }
+
+    @Test
+    void rawRoundTrip() throws Exception {
+        final RedisObjectCodec codec = new RedisObjectCodec(new ByteArraySerializer());
+        assertRoundTrip(codec, new byte[0], RedisObjectCodec.FORMAT_RAW);
+        assertRoundTrip(codec, compressible(1024), RedisObjectCodec.FORMAT_RAW);
+    }
+
+    @Test
+    void deflateRoundTrip() throws Exception {
+        final RedisObjectCodec codec = new RedisObjectCodec(new ByteArraySerializer(), THRESHOLD);
+        assertRoundTrip(codec, compressible(4096), RedisObjectCodec.FORMAT_DEFLATE);
+    }
+
+    @Test
+    void thresholdBoundary() throws Exception {
+        final RedisObjectCodec codec = new RedisObjectCodec(new ByteArraySerializer(), THRESHOLD);
+        assertRoundTrip(codec, compressible(THRESHOLD - 1), RedisObjectCodec.FORMAT_RAW);
+        assertRoundTrip(codec, compressible(THRESHOLD), RedisObjectCodec.FORMAT_DEFLATE);
+    }
+
+    @Test
+    void fallbackToRawWhenNotSmaller() throws Exception {
+        final RedisObjectCodec codec = new RedisObjectCodec(new ByteArraySerializer(), THRESHOLD);
+        assertRoundTrip(codec, incompressible(THRESHOLD), RedisObjectCodec.FORMAT_RAW);
+        assertRoundTrip(codec, incompressible(4096), RedisObjectCodec.FORMAT_RAW);
+    }
+
+    @Test
+    void decodeNullAndEmpty() throws Exception {
+        final RedisObjectCodec codec = new RedisObjectCodec(new ByteArraySerializer());
+        Assertions.assertNull(codec.decode(null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> codec.decode(new byte[0]));
+    }
+
+    @Test
+    void unknownFormat() {
+        final RedisObjectCodec codec = new RedisObjectCodec(new ByteArraySerializer());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> codec.decode(new byte[]{2, 1, 2, 3}));
+    }
+
+    @Test
+    void truncatedDeflateData() throws Exception {
+        final RedisObjectCodec codec = new RedisObjectCodec(new ByteArraySerializer(), THRESHOLD);
+        final byte[] encoded = codec.encode(compressible(4096));
+        Assertions.assertEquals(RedisObjectCodec.FORMAT_DEFLATE, encoded[0]);
+
+        // 头部不完整
+        Assertions.assertThrows(DataFormatException.class, () -> codec.decode(Arrays.copyOf(encoded, 3)));
+        // 压缩数据不完整
+        Assertions.assertThrows(DataFormatException.class, () -> codec.decode(Arrays.copyOf(encoded, encoded.length - 1)));
+    }
+
+    /**
+     * 只支持byte[]的序列化实现，直接写入字节，便于断言编码后的长度
+     */
+    private static class ByteArraySerializer implements Serializer {
+
+        @Nonnull
+        @Override
+        public byte[] toBytes(@Nullable Object object) {
+            return ((byte[]) object).clone();
+        }
+
+        @Override
+        public Object fromBytes(@Nonnull byte[] data) {
+            return data;
+        }
+
+        @Override
+        public Object cloneObject(@Nullable Object object) {
+            return ((byte[]) object).clone();
+        }
+
+        @Override
+        public int estimateSerializedSize(@Nullable Object object) {
+            return ((byte[]) object).length;
+        }
+
+        @Override
+        public void writeObject(ByteBuf byteBuf, @Nullable Object object) {
+            byteBuf.writeBytes((byte[]) object);
+        }
+
+        @Override
+        public Object readObject(ByteBuf data) {
+            final byte[] result = new byte[data.readableBytes()];
+            data.readBytes(result);
+            return result;
+        }
+    }
+}
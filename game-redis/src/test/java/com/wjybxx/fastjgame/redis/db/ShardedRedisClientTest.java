@@ -0,0 +1,329 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.redis.db;
+
+import com.wjybxx.fastjgame.util.concurrent.DefaultThreadFactory;
+import com.wjybxx.fastjgame.util.concurrent.EventLoop;
+import com.wjybxx.fastjgame.util.concurrent.FluentFuture;
+import com.wjybxx.fastjgame.util.concurrent.FutureUtils;
+import com.wjybxx.fastjgame.util.concurrent.Promise;
+import com.wjybxx.fastjgame.util.concurrent.RejectedExecutionHandler;
+import com.wjybxx.fastjgame.util.concurrent.RejectedExecutionHandlers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.stream.Collectors;
+
+/**
+ * {@link ShardedRedisClient}测试：key到连接的路由、跨连接的多key命令以及单个连接失败
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/12
+ * github - https://github.com/hl845740757
+ */
+class ShardedRedisClientTest {
+
+    private static final int SHARD_COUNT = 4;
+
+    /**
+     * 命令不会真正执行，结果由测试手动完成
+     */
+    private static final PipelineCommand<String> COMMAND = pipeline -> null;
+
+    private static FakeRedisEventLoopGroup newGroup() {
+        return new FakeRedisEventLoopGroup(SHARD_COUNT);
+    }
+
+    private static ShardedRedisClient newClient(FakeRedisEventLoopGroup group) {
+        return new ShardedRedisClient(group, newDirectEventLoop());
+    }
+
+    private static FakeRedisEventLoop shard(FakeRedisEventLoopGroup group, int index) {
+        return (FakeRedisEventLoop) group.select(index);
+    }
+
+    /**
+     * @return 分布在不同连接上的key，每个连接一个
+     */
+    private static List<String> oneKeyPerShard(ShardedRedisClient client) {
+        final Map<RedisEventLoop, String> shardKeyMap = new IdentityHashMap<>();
+        for (int index = 0; shardKeyMap.size() < SHARD_COUNT; index++) {
+            shardKeyMap.putIfAbsent(client.select("player:" + index), "player:" + index);
+        }
+        return new ArrayList<>(shardKeyMap.values());
+    }
+
+    @Test
+    void routingIsStable() {
+        final FakeRedisEventLoopGroup group = newGroup();
+        final ShardedRedisClient client = newClient(group);
+        final ShardedRedisClient otherClient = newClient(group);
+
+        for (int index = 0; index < 1000; index++) {
+            final String key = "player:" + index;
+            Assertions.assertSame(client.select(key), client.select(key));
+            Assertions.assertSame(client.select(key), otherClient.select(key));
+            Assertions.assertSame(group.select(ShardedRedisClient.hash(key)), client.select(key));
+        }
+        // String.hashCode的算法是固定的，因此路由结果在进程重启后不变
+        Assertions.assertEquals(("player:1".hashCode() ^ ("player:1".hashCode() >>> 16)) & Integer.MAX_VALUE,
+                ShardedRedisClient.hash("player:1"));
+    }
+
+    @Test
+    void keysSpreadOverAllShards() {
+        final ShardedRedisClient client = newClient(newGroup());
+        final Set<RedisEventLoop> shards = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int index = 0; index < 1000; index++) {
+            shards.add(client.select("player:" + index));
+        }
+        Assertions.assertEquals(SHARD_COUNT, shards.size());
+    }
+
+    @Test
+    void hashTagRoutesToSameShard() {
+        final ShardedRedisClient client = newClient(newGroup());
+        Assertions.assertEquals(ShardedRedisClient.hash("user:1"), ShardedRedisClient.hash("{user:1}.following"));
+        Assertions.assertEquals(ShardedRedisClient.hash("{user:1}.following"), ShardedRedisClient.hash("{user:1}.followers"));
+        Assertions.assertSame(client.select("{user:1}.following"), client.select("{user:1}.followers"));
+
+        // 空的tag使用整个key计算
+        Assertions.assertEquals(("{}user:1".hashCode() ^ ("{}user:1".hashCode() >>> 16)) & Integer.MAX_VALUE,
+                ShardedRedisClient.hash("{}user:1"));
+    }
+
+    @Test
+    void hashIsNonNegative() {
+        // "polygenelubricants".hashCode() == Integer.MIN_VALUE
+        Assertions.assertTrue(ShardedRedisClient.hash("polygenelubricants") >= 0);
+        Assertions.assertTrue(ShardedRedisClient.hash("{polygenelubricants}") >= 0);
+    }
+
+    @Test
+    void keyedCallGoesToSelectedShard() {
+        final FakeRedisEventLoopGroup group = newGroup();
+        final ShardedRedisClient client = newClient(group);
+        final String key = "player:1";
+        final FakeRedisEventLoop selected = (FakeRedisEventLoop) client.select(key);
+
+        final FluentFuture<String> future = client.callAndFlush(key, COMMAND);
+        client.execute(key, COMMAND);
+        for (int index = 0; index < SHARD_COUNT; index++) {
+            final FakeRedisEventLoop shard = shard(group, index);
+            Assertions.assertEquals(shard == selected ? 2 : 0, shard.calls.size());
+        }
+        Assertions.assertTrue(selected.calls.get(0).flush);
+        Assertions.assertFalse(selected.calls.get(1).flush);
+
+        selected.complete(0, "value");
+        Assertions.assertTrue(future.isDone());
+        Assertions.assertEquals("value", future.getNow());
+    }
+
+    @Test
+    void commandsWithoutKeyGoToFirstShard() {
+        final FakeRedisEventLoopGroup group = newGroup();
+        final ShardedRedisClient client = newClient(group);
+        client.call(COMMAND);
+        client.executeAndFlush(COMMAND);
+        Assertions.assertEquals(2, shard(group, 0).calls.size());
+    }
+
+    @Test
+    void multiKeySpanningShards() {
+        final FakeRedisEventLoopGroup group = newGroup();
+        final ShardedRedisClient client = newClient(group);
+        final List<String> keys = new ArrayList<>(oneKeyPerShard(client));
+        // 再增加一些key，并打乱顺序
+        keys.addAll(keys.stream().map(key -> key + "-x").filter(key -> !keys.contains(key)).collect(Collectors.toList()));
+        Collections.shuffle(keys, new Random(1));
+
+        final List<List<String>> shardKeysList = new ArrayList<>();
+        final FluentFuture<Map<String, String>> future = client.callMulti(keys, shardKeys -> {
+            shardKeysList.add(shardKeys);
+            return pipeline -> null;
+        }, true);
+
+        // 每个连接执行一个命令，命令中只包含属于该连接的key
+        Assertions.assertEquals(SHARD_COUNT, shardKeysList.size());
+        for (List<String> shardKeys : shardKeysList) {
+            final RedisEventLoop shard = client.select(shardKeys.get(0));
+            for (String key : shardKeys) {
+                Assertions.assertSame(shard, client.select(key));
+            }
+        }
+        Assertions.assertEquals(keys.size(), shardKeysList.stream().mapToInt(List::size).sum());
+
+        // 逆序完成，所有连接都完成之前不能完成
+        for (int index = SHARD_COUNT - 1; index >= 0; index--) {
+            Assertions.assertFalse(future.isDone());
+            final FakeRedisEventLoop shard = shard(group, index);
+            Assertions.assertEquals(1, shard.calls.size());
+            Assertions.assertTrue(shard.calls.get(0).flush);
+            shard.complete(0, valuesOf(keysOf(client, keys, shard)));
+        }
+        Assertions.assertTrue(future.isDone());
+
+        final Map<String, String> result = future.getNow();
+        Assertions.assertEquals(keys, new ArrayList<>(result.keySet()));
+        for (String key : keys) {
+            Assertions.assertEquals("value-" + key, result.get(key));
+        }
+    }
+
+    @Test
+    void multiKeyEmpty() {
+        final FakeRedisEventLoopGroup group = newGroup();
+        final FluentFuture<Map<String, String>> future = newClient(group).callMulti(Collections.emptyList(), shardKeys -> pipeline -> null, true);
+        Assertions.assertTrue(future.isDone());
+        Assertions.assertTrue(future.getNow().isEmpty());
+        for (int index = 0; index < SHARD_COUNT; index++) {
+            Assertions.assertEquals(0, shard(group, index).calls.size());
+        }
+    }
+
+    @Test
+    void shardFailureFailsMultiCall() {
+        final FakeRedisEventLoopGroup group = newGroup();
+        final ShardedRedisClient client = newClient(group);
+        final List<String> keys = oneKeyPerShard(client);
+        final FluentFuture<Map<String, String>> future = client.callMulti(keys, shardKeys -> pipeline -> null, false);
+
+        shard(group, 0).complete(0, valuesOf(keysOf(client, keys, shard(group, 0))));
+        Assertions.assertFalse(future.isDone());
+
+        final RuntimeException cause = new RuntimeException("connection lost");
+        shard(group, 1).fail(0, cause);
+        Assertions.assertTrue(future.isDone());
+        Assertions.assertSame(cause, future.cause());
+
+        // 其它连接之后的结果被忽略
+        shard(group, 2).fail(0, new RuntimeException("late"));
+        shard(group, 3).complete(0, Collections.singletonList("late"));
+        Assertions.assertSame(cause, future.cause());
+    }
+
+    @Test
+    void shardResultSizeMismatchFailsMultiCall() {
+        final FakeRedisEventLoopGroup group = newGroup();
+        final ShardedRedisClient client = newClient(group);
+        final List<String> keys = oneKeyPerShard(client);
+        final FluentFuture<Map<String, String>> future = client.callMulti(keys, shardKeys -> pipeline -> null, false);
+
+        shard(group, 0).complete(0, Collections.emptyList());
+        Assertions.assertTrue(future.isDone());
+        Assertions.assertTrue(future.cause() instanceof IllegalStateException);
+    }
+
+    /**
+     * @return 属于指定连接的key，顺序与keys相同
+     */
+    private static List<String> keysOf(ShardedRedisClient client, List<String> keys, RedisEventLoop shard) {
+        return keys.stream().filter(key -> client.select(key) == shard).collect(Collectors.toList());
+    }
+
+    private static List<String> valuesOf(List<String> shardKeys) {
+        return shardKeys.stream().map(key -> "value-" + key).collect(Collectors.toList());
+    }
+
+    /**
+     * 直接在当前线程执行任务的应用线程
+     */
+    private static EventLoop newDirectEventLoop() {
+        return (EventLoop) Proxy.newProxyInstance(EventLoop.class.getClassLoader(), new Class<?>[]{EventLoop.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "inEventLoop":
+                            return true;
+                        case "execute":
+                            ((Runnable) args[0]).run();
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static class FakeRedisEventLoopGroup extends RedisEventLoopGroup {
+
+        FakeRedisEventLoopGroup(int nThreads) {
+            // 假的事件循环不会使用连接池
+            super(nThreads, new DefaultThreadFactory("FAKE-REDIS"), RejectedExecutionHandlers.abort(), null, null);
+        }
+
+        @Override
+        protected RedisEventLoop newChild(int childIndex, ThreadFactory threadFactory, RejectedExecutionHandler rejectedExecutionHandler, Object context) {
+            return new FakeRedisEventLoop(this, threadFactory, rejectedExecutionHandler);
+        }
+    }
+
+    /**
+     * 只记录命令，不启动线程，也不执行命令
+     */
+    private static class FakeRedisEventLoop extends RedisEventLoop {
+
+        final List<Call> calls = new ArrayList<>();
+
+        FakeRedisEventLoop(RedisEventLoopGroup parent, ThreadFactory threadFactory, RejectedExecutionHandler rejectedExecutionHandler) {
+            super(parent, threadFactory, rejectedExecutionHandler, null);
+        }
+
+        @Override
+        public void execute(PipelineCommand<?> command, boolean flush) {
+            calls.add(new Call(command, flush, null));
+        }
+
+        @Override
+        public <T> FluentFuture<T> call(PipelineCommand<T> command, boolean flush) {
+            final Promise<T> promise = FutureUtils.newPromise();
+            calls.add(new Call(command, flush, promise));
+            return promise;
+        }
+
+        @Override
+        public <T> T syncCall(RedisCommand<T> command) throws CompletionException {
+            throw new UnsupportedOperationException();
+        }
+
+        @SuppressWarnings("unchecked")
+        void complete(int index, Object result) {
+            ((Promise<Object>) calls.get(index).promise).trySuccess(result);
+        }
+
+        void fail(int index, Throwable cause) {
+            calls.get(index).promise.tryFailure(cause);
+        }
+    }
+
+    private static class Call {
+
+        final PipelineCommand<?> command;
+        final boolean flush;
+        final Promise<?> promise;
+
+        Call(PipelineCommand<?> command, boolean flush, Promise<?> promise) {
+            this.command = command;
+            this.flush = flush;
+            this.promise = promise;
+        }
+    }
+}
@@ -19,6 +19,9 @@ package com.wjybxx.fastjgame.redis.guid;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolAbstract;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /**
  * @author wjybxx
  * @version 1.0
@@ -28,10 +31,13 @@ import redis.clients.jedis.JedisPoolAbstract;
 public class JedisGuidGeneratorTest {
 
     public static void main(String[] args) {
+        final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor();
         try (JedisPoolAbstract jedisPool = newJedisPool()) {
-            doTest(jedisPool, "player");
+            doTest(jedisPool, prefetchExecutor, "player");
             System.out.println("-------------------------------------------");
-            doTest(jedisPool, "monster");
+            doTest(jedisPool, prefetchExecutor, "monster");
+        } finally {
+            prefetchExecutor.shutdownNow();
         }
     }
 
@@ -39,9 +45,9 @@ public class JedisGuidGeneratorTest {
         return new JedisPool("localhost", 6379);
     }
 
-    private static void doTest(JedisPoolAbstract jedisPool, String name) {
+    private static void doTest(JedisPoolAbstract jedisPool, ExecutorService prefetchExecutor, String name) {
         final int cacheSize = 100;
-        try (final RedisGuidGenerator guidGenerator = new RedisGuidGenerator(jedisPool, name, cacheSize)) {
+        try (final RedisGuidGenerator guidGenerator = new RedisGuidGenerator(jedisPool, name, cacheSize, prefetchExecutor)) {
             for (int index = 0; index < cacheSize * 3; index++) {
                 System.out.println("nameSpace: " + name + ", guid: " + guidGenerator.next());
             }
@@ -62,6 +62,10 @@ public class BinarySerializer implements Serializer {
     final Map<Class<?>, Internal.EnumLiteMap<? extends ProtocolMessageEnum>> protocolEnumMap;
 
     private final int defaultByteBufCapacity;
+    /**
+     * 是否延迟解码rpc方法参数，见{@link #withLazyDecodeRpcParams(boolean)}
+     */
+    private final boolean lazyDecodeRpcParams;
 
     private BinarySerializer(TypeIdMapper typeIdMapper, CodecRegistry codecRegistry,
                              Map<Class<?>, Supplier<? extends Collection<?>>> collectionFactoryMap,
@@ -77,6 +81,15 @@ public class BinarySerializer implements Serializer {
                             Map<Class<?>, Parser<? extends MessageLite>> parserMap,
                             Map<Class<?>, Internal.EnumLiteMap<? extends ProtocolMessageEnum>> protocolEnumMap,
                             int defaultByteBufCapacity) {
+        this(typeIdMapper, codecRegistry, collectionFactoryMap, mapFactoryMap, parserMap, protocolEnumMap, defaultByteBufCapacity, false);
+    }
+
+    private BinarySerializer(TypeIdMapper typeIdMapper, CodecRegistry codecRegistry,
+                             Map<Class<?>, Supplier<? extends Collection<?>>> collectionFactoryMap,
+                             Map<Class<?>, Supplier<? extends Map<?, ?>>> mapFactoryMap,
+                             Map<Class<?>, Parser<? extends MessageLite>> parserMap,
+                             Map<Class<?>, Internal.EnumLiteMap<? extends ProtocolMessageEnum>> protocolEnumMap,
+                             int defaultByteBufCapacity, boolean lazyDecodeRpcParams) {
         this.codecRegistry = codecRegistry;
         this.typeIdMapper = typeIdMapper;
         this.parserMap = parserMap;
@@ -84,6 +97,26 @@ public class BinarySerializer implements Serializer {
         this.collectionFactoryMap = collectionFactoryMap;
         this.mapFactoryMap = mapFactoryMap;
         this.defaultByteBufCapacity = defaultByteBufCapacity;
+        this.lazyDecodeRpcParams = lazyDecodeRpcParams;
+    }
+
+    /**
+     * 返回一个是否延迟解码rpc方法参数的序列化实现，其它配置与当前对象相同。
+     * <p>
+     * 开启后，{@link com.wjybxx.fastjgame.net.rpc.DefaultRpcMethodSpec}和{@link com.wjybxx.fastjgame.net.rpc.TypedRpcMethodSpec}的对象和protoBuf消息参数在网络层只拷贝内容，不解码，
+     * 在被调用的方法真正获取该参数时才解码(应用线程)，如果请求被转发，则直接写入原始内容。
+     * 适用于只根据serviceId转发消息的网关类进程，对于需要执行所有请求的进程，它只是将解码的开销从网络线程转移到了应用线程。
+     */
+    public BinarySerializer withLazyDecodeRpcParams(boolean lazyDecodeRpcParams) {
+        if (this.lazyDecodeRpcParams == lazyDecodeRpcParams) {
+            return this;
+        }
+        return new BinarySerializer(typeIdMapper, codecRegistry, collectionFactoryMap, mapFactoryMap, parserMap, protocolEnumMap,
+                defaultByteBufCapacity, lazyDecodeRpcParams);
+    }
+
+    public boolean isLazyDecodeRpcParams() {
+        return lazyDecodeRpcParams;
     }
 
     @Override
@@ -103,6 +136,10 @@ public class BinarySerializer implements Serializer {
             return 1 + 4 + ((byte[]) object).length;
         }
 
+        if (object instanceof EncodedValue) {
+            return ((EncodedValue) object).getSerializedSize();
+        }
+
         return defaultByteBufCapacity;
     }
 
@@ -191,6 +228,29 @@ public class BinarySerializer implements Serializer {
         return reader.readObject();
     }
 
+    /**
+     * 在不解码的情况下获取数据中的对象的类型id，不会修改{@code data}的读索引。
+     * 对象容器和protoBuf消息的格式为：tag(1) + length(4) + typeId(namespace(1) + classId(4)) + content
+     *
+     * @param data 序列化后的数据
+     * @return 如果数据不是对象容器或protoBuf消息，则返回null
+     */
+    @Nullable
+    public static TypeId peekTypeId(ByteBuf data) {
+        if (data.readableBytes() < 1 + 4 + 5) {
+            return null;
+        }
+        final int readerIndex = data.readerIndex();
+        final byte tag = data.getByte(readerIndex);
+        if (tag != BinaryValueType.OBJECT.getNumber() && tag != BinaryValueType.MESSAGE.getNumber()) {
+            return null;
+        }
+        // fixed32为小端格式
+        final byte nameSpace = data.getByte(readerIndex + 5);
+        final int classId = data.getIntLE(readerIndex + 6);
+        return new TypeId(nameSpace, classId);
+    }
+
     // ------------------------------------------------- 工厂方法 ------------------------------------------------------
 
     public static BinarySerializer newInstance(final TypeIdMappingStrategy typeIdMappingStrategy,
@@ -0,0 +1,80 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.binary;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * 一个尚未解码的值，保存的是该值序列化后的内容(不包括tag和length)。
+ * <p>
+ * 由{@link ObjectReader#readLazyDecodeObject()}创建，用于将对象容器和protoBuf消息的解码延迟到真正使用的时候。
+ * 如果该值没有被使用，而是被转发，那么{@link ObjectWriter#writeObject(Object)}会直接写入其内容，而不必再次编解码。
+ * <p>
+ * 注意：转发的前提是双方的类型映射({@link com.wjybxx.fastjgame.net.serialization.TypeIdMapper})是一致的，这和{@link LazySerializable}的要求相同。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/31
+ * github - https://github.com/hl845740757
+ */
+@Immutable
+public final class EncodedValue {
+
+    private final BinaryValueType valueType;
+    private final byte[] content;
+
+    EncodedValue(BinaryValueType valueType, byte[] content) {
+        this.valueType = valueType;
+        this.content = content;
+    }
+
+    /**
+     * @return {@link BinaryValueType#OBJECT}或{@link BinaryValueType#MESSAGE}
+     */
+    public BinaryValueType getValueType() {
+        return valueType;
+    }
+
+    /**
+     * @return 序列化后的字节数 tag + length + content
+     */
+    public int getSerializedSize() {
+        return 1 + 4 + content.length;
+    }
+
+    byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * 解码该值，每次调用都会创建一个新的对象，调用者应该缓存结果。
+     *
+     * @param serializer 解码使用的序列化实现，一般是读取该值时使用的{@link ObjectReader#serializer()}
+     */
+    public Object decode(BinarySerializer serializer) throws Exception {
+        final ObjectReaderImpl reader = new ObjectReaderImpl(serializer, CodedDataInputStream.newInstance(content));
+        return reader.readEncodedValue(this);
+    }
+
+    @Override
+    public String toString() {
+        return "EncodedValue{" +
+                "valueType=" + valueType +
+                ", size=" + content.length +
+                '}';
+    }
+}
@@ -74,6 +74,13 @@ public interface ObjectReader {
      */
     <T> T readPreDeserializeObject() throws Exception;
 
+    /**
+     * 读取一个需要延迟解码的对象。
+     * 如果读取到的是对象容器或protoBuf消息，则不解码，而是返回一个{@link EncodedValue}，其它值则正常解码。
+     * 主要目的：只转发而不使用的对象，可以避免解码和重新编码的开销。
+     */
+    <T> T readLazyDecodeObject() throws Exception;
+
     /**
      * 读取一个protoBuf消息
      */
@@ -153,7 +153,10 @@ public class ObjectReaderImpl implements ObjectReader {
 
     private <T extends MessageLite> T readMessageImpl() throws Exception {
         final int size = inputStream.readFixed32();
+        return readMessageContent(size);
+    }
 
+    private <T extends MessageLite> T readMessageContent(int size) throws Exception {
         final TypeId typeId = readTypeId();
         final Class<?> type = serializer.typeIdMapper.ofId(typeId);
         if (type == null) {
@@ -220,11 +223,15 @@ public class ObjectReaderImpl implements ObjectReader {
     }
 
     private <T> T readPojo(ContainerReader<T> reader) throws Exception {
+        final int size = inputStream.readFixed32();
+        return readPojoContent(size, reader);
+    }
+
+    private <T> T readPojoContent(int size, ContainerReader<T> reader) throws Exception {
         if (++recursionDepth > recursionLimit) {
             throw new IOException("Object had too many levels of nesting");
         }
 
-        final int size = inputStream.readFixed32();
         final int oldLimit = inputStream.pushLimit(size);
         final TypeId typeId = readTypeId();
         final T result = reader.accept(typeId);
@@ -395,6 +402,32 @@ public class ObjectReaderImpl implements ObjectReader {
         return result;
     }
 
+    @Override
+    public <T> T readLazyDecodeObject() throws Exception {
+        final BinaryValueType valueType = inputStream.readType();
+        if (valueType != BinaryValueType.OBJECT && valueType != BinaryValueType.MESSAGE) {
+            // 基本值的解码代价很小，直接解码
+            @SuppressWarnings("unchecked") final T result = (T) readObjectImpl(valueType);
+            return result;
+        }
+        // 只拷贝内容，不解码
+        final int size = inputStream.readFixed32();
+        @SuppressWarnings("unchecked") final T result = (T) new EncodedValue(valueType, inputStream.readRawBytes(size));
+        return result;
+    }
+
+    /**
+     * 解码{@link EncodedValue}的内容，当前输入流必须是{@link EncodedValue#getContent()}
+     */
+    Object readEncodedValue(EncodedValue encodedValue) throws Exception {
+        final int size = encodedValue.getContent().length;
+        if (encodedValue.getValueType() == BinaryValueType.MESSAGE) {
+            return readMessageContent(size);
+        } else {
+            return readPojoContent(size, this::readyPojoObject);
+        }
+    }
+
     // ------------------------------------------ 数组/集合等多态处理 ------------------------------------------
 
     private <T> T readNullablePojo(final BinaryValueType currentValueType, ContainerReader<T> reader) throws Exception {
@@ -212,6 +212,7 @@ public class ObjectWriterImpl implements ObjectWriter {
         // 第二梯队
         // 1. protoBuf消息
         // 2. 任意集合/Map/数组允许序列化，但不一定能精确反序列化
+        // 3. 尚未解码的值，直接写入其内容
         if (value instanceof MessageLite) {
             writeMessage((MessageLite) value);
             return;
@@ -228,6 +229,10 @@ public class ObjectWriterImpl implements ObjectWriter {
             writeArray(value);
             return;
         }
+        if (type == EncodedValue.class) {
+            writeEncodedValue((EncodedValue) value);
+            return;
+        }
 
         // 第三梯队
         if (type == Short.class) {
@@ -250,6 +255,14 @@ public class ObjectWriterImpl implements ObjectWriter {
         throw new IOException("Unsupported type " + type.getName());
     }
 
+    private void writeEncodedValue(EncodedValue encodedValue) throws Exception {
+        // type + length(fixed32) + content
+        final byte[] content = encodedValue.getContent();
+        outputStream.writeType(encodedValue.getValueType());
+        outputStream.writeFixed32(content.length);
+        outputStream.writeRawBytes(content);
+    }
+
     private <T> void writePojo(@Nonnull T value, @Nonnull Class<? super T> type, @Nonnull PojoCodec<? super T> pojoCodec) throws Exception {
         final TypeId typeId = getCheckedTypeId(type);
 
@@ -23,6 +23,8 @@ import com.wjybxx.fastjgame.net.manager.*;
 import com.wjybxx.fastjgame.net.misc.DefaultNetContext;
 import com.wjybxx.fastjgame.net.misc.NetContext;
 import com.wjybxx.fastjgame.net.module.NetEventLoopModule;
+import com.wjybxx.fastjgame.net.shm.ConnectShmRequest;
+import com.wjybxx.fastjgame.net.shm.DefaultShmPort;
 import com.wjybxx.fastjgame.net.socket.*;
 import com.wjybxx.fastjgame.util.CloseableUtils;
 import com.wjybxx.fastjgame.util.concurrent.EventLoop;
@@ -212,7 +214,8 @@ class NetEventLoopImp extends TemplateEventLoop implements NetEventLoop {
     @Subscribe(onlySubEvents = true, subEvents = {
             SocketPingPongEvent.class,
             SocketMessageEvent.class,
-            SocketChannelInactiveEvent.class
+            SocketChannelInactiveEvent.class,
+            SocketWritabilityChangedEvent.class
     })
     void fireSocketEvent(GenericSocketEvent<SocketEvent> event) {
         if (event.isForAcceptor()) {
@@ -232,6 +235,16 @@ class NetEventLoopImp extends TemplateEventLoop implements NetEventLoop {
         connectorManager.connectLocal(request);
     }
 
+    @Subscribe
+    void fireConnectShmRequest(ConnectShmRequest request) {
+        connectorManager.connectShm(request);
+    }
+
+    @Subscribe
+    void fireListenShmPort(DefaultShmPort shmPort) {
+        acceptorManager.listenShm(shmPort);
+    }
+
     @Subscribe
     void fireHttpRequest(HttpRequestEvent event) {
         httpSessionManager.onRcvHttpRequest(event);
@@ -21,6 +21,7 @@ import com.wjybxx.fastjgame.net.local.LocalSessionConfig;
 import com.wjybxx.fastjgame.net.misc.HostAndPort;
 import com.wjybxx.fastjgame.net.misc.NetContext;
 import com.wjybxx.fastjgame.net.rpc.DefaultRpcProcessor;
+import com.wjybxx.fastjgame.net.rpc.RpcStream;
 import com.wjybxx.fastjgame.net.session.Session;
 import com.wjybxx.fastjgame.net.session.SessionDisconnectAware;
 import com.wjybxx.fastjgame.net.socket.SocketSessionConfig;
@@ -142,11 +143,23 @@ class ExampleRpcClientLoop extends DisruptorEventLoop {
             e.printStackTrace();
         }
 
+        // 流式rpc，每次最多有16个元素在途
+        consumeStream(index, rpcClientMgr.callStream(session, ExampleRpcServiceRpcProxy.range(100), 16));
+
         // 阻塞到前面的rpc都返回，使得每次combine调用不被其它rpc调用影响
         // 因为调用的是sync(Session),对方的网络底层一定会返回一个结果，如果方法本身为void，那么返回的就是null。
         rpcClientMgr.syncCall(session, ExampleRpcServiceRpcProxy.sync());
     }
 
+    private static void consumeStream(int index, RpcStream<Integer> stream) {
+        stream.moveNext().addListener(future -> {
+            if (!future.isCompletedExceptionally() && future.getNow()) {
+                System.out.println("range - " + index + " - " + stream.current());
+                consumeStream(index, stream);
+            }
+        });
+    }
+
     @Override
     protected void clean() throws Exception {
         super.clean();
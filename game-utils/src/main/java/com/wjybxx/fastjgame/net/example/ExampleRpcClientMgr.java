@@ -19,6 +19,8 @@ package com.wjybxx.fastjgame.net.example;
 import com.wjybxx.fastjgame.net.rpc.DefaultRpcInvoker;
 import com.wjybxx.fastjgame.net.rpc.RpcInvoker;
 import com.wjybxx.fastjgame.net.rpc.RpcMethodSpec;
+import com.wjybxx.fastjgame.net.rpc.RpcStream;
+import com.wjybxx.fastjgame.net.rpc.RpcStreamSource;
 import com.wjybxx.fastjgame.net.session.Session;
 import com.wjybxx.fastjgame.util.concurrent.FluentFuture;
 
@@ -54,4 +56,8 @@ public class ExampleRpcClientMgr {
     public <V> V syncCall(@Nonnull Session session, @Nonnull RpcMethodSpec<V> request) throws CompletionException {
         return invoker.syncCall(session, request);
     }
+
+    public <E> RpcStream<E> callStream(@Nonnull Session session, @Nonnull RpcMethodSpec<? extends RpcStreamSource<E>> request, int window) {
+        return invoker.callStream(session, request, window);
+    }
 }
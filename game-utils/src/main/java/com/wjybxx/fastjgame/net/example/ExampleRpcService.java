@@ -21,9 +21,12 @@ import com.wjybxx.fastjgame.net.binary.PreDeserializable;
 import com.wjybxx.fastjgame.net.rpc.RpcMethod;
 import com.wjybxx.fastjgame.net.rpc.RpcProcessContext;
 import com.wjybxx.fastjgame.net.rpc.RpcService;
+import com.wjybxx.fastjgame.net.rpc.RpcStreamSource;
 import com.wjybxx.fastjgame.util.concurrent.FutureUtils;
 import com.wjybxx.fastjgame.util.concurrent.ListenableFuture;
 
+import java.util.stream.IntStream;
+
 /**
  * 示例rpcService
  *
@@ -128,4 +131,20 @@ public class ExampleRpcService {
     public String newException(String msg) {
         throw new RuntimeException(msg);
     }
+
+    /**
+     * 流式返回[0, count)，测试流式rpc
+     */
+    @RpcMethod(methodId = 14)
+    public RpcStreamSource<Integer> range(int count) {
+        return RpcStreamSource.fromStream(IntStream.range(0, count).boxed());
+    }
+
+    /**
+     * 拼接基本类型参数，测试基本类型参数的直接读写
+     */
+    @RpcMethod(methodId = 15)
+    public String joinNumbers(int intValue, long longValue, double doubleValue) {
+        return intValue + "," + longValue + "," + doubleValue;
+    }
 }
@@ -0,0 +1,155 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.example;
+
+import com.wjybxx.fastjgame.net.local.LocalPort;
+import com.wjybxx.fastjgame.net.local.LocalSessionConfig;
+import com.wjybxx.fastjgame.net.misc.HostAndPort;
+import com.wjybxx.fastjgame.net.misc.NetContext;
+import com.wjybxx.fastjgame.net.rpc.DefaultRpcInvoker;
+import com.wjybxx.fastjgame.net.rpc.DefaultRpcProcessor;
+import com.wjybxx.fastjgame.net.rpc.RpcInvoker;
+import com.wjybxx.fastjgame.net.session.Session;
+import com.wjybxx.fastjgame.net.session.SessionLifecycleAware;
+import com.wjybxx.fastjgame.net.socket.SocketSessionConfig;
+import com.wjybxx.fastjgame.net.utils.NetUtils;
+import com.wjybxx.fastjgame.util.concurrent.ConcurrentUtils;
+import com.wjybxx.fastjgame.util.concurrent.DefaultThreadFactory;
+import com.wjybxx.fastjgame.util.concurrent.FutureUtils;
+import com.wjybxx.fastjgame.util.concurrent.Promise;
+import com.wjybxx.fastjgame.util.concurrent.RejectedExecutionHandlers;
+import com.wjybxx.fastjgame.util.concurrent.disruptor.DisruptorEventLoop;
+import com.wjybxx.fastjgame.util.concurrent.disruptor.YieldWaitStrategyFactory;
+import com.wjybxx.fastjgame.util.misc.Histogram;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 同步rpc调用延迟测试，比较jvm内部、本机回环、跨主机三种情况下，自旋与不自旋的延迟。
+ * <p>
+ * 跨主机测试需要先在另一台主机上启动{@link ExampleRpcServerLoop}，然后以其地址({@code host:port})作为启动参数。
+ * 注意：{@link ExampleRpcServerLoop}运行一分钟后会自动关闭。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/29
+ * github - https://github.com/hl845740757
+ */
+public class SyncRpcLatencyBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 10_000;
+    private static final int ITERATIONS = 50_000;
+    private static final int SPIN_MICROS = 50;
+
+    public static void main(String[] args) {
+        // jvm内部服务器
+        final Promise<LocalPort> localPortPromise = FutureUtils.newPromise();
+        new ExampleRpcServerLoop(new DefaultThreadFactory("LOCAL_SERVER"), RejectedExecutionHandlers.discard(), localPortPromise)
+                .execute(ConcurrentUtils.NO_OP_TASK);
+        final LocalPort localPort = localPortPromise.join();
+
+        // 本机tcp服务器
+        new ExampleRpcServerLoop(new DefaultThreadFactory("TCP_SERVER"), RejectedExecutionHandlers.discard(), null)
+                .execute(ConcurrentUtils.NO_OP_TASK);
+
+        final HostAndPort loopbackAddress = new HostAndPort(NetUtils.getLocalIp(), ExampleConstants.tcpPort);
+        final HostAndPort remoteAddress = args.length > 0 ? HostAndPort.parseHostAndPort(args[0]) : null;
+
+        new BenchmarkLoop(localPort, loopbackAddress, remoteAddress)
+                .execute(ConcurrentUtils.NO_OP_TASK);
+    }
+
+    private static class BenchmarkLoop extends DisruptorEventLoop {
+
+        private final RpcInvoker rpcInvoker = new DefaultRpcInvoker();
+        private final LocalPort localPort;
+        private final HostAndPort loopbackAddress;
+        private final HostAndPort remoteAddress;
+
+        BenchmarkLoop(LocalPort localPort, HostAndPort loopbackAddress, @Nullable HostAndPort remoteAddress) {
+            super(null, new DefaultThreadFactory("BENCHMARK"), RejectedExecutionHandlers.discard(), new YieldWaitStrategyFactory(), 1024, 64);
+            this.localPort = localPort;
+            this.loopbackAddress = loopbackAddress;
+            this.remoteAddress = remoteAddress;
+        }
+
+        @Override
+        protected void loopOnce() {
+            try {
+                final NetContext netContext = ExampleConstants.netEventLoop.createContext(this);
+                for (int spinMicros : new int[]{0, SPIN_MICROS}) {
+                    final LocalSessionConfig localConfig = LocalSessionConfig.newBuilder()
+                            .setSerializer(ExampleConstants.BINARY_SERIALIZER)
+                            .setLifecycleAware(new NoOpLifecycleAware())
+                            .setRpcProcessor(new DefaultRpcProcessor())
+                            .setSyncRpcSpinMicros(spinMicros)
+                            .build();
+                    runBenchmark("local", spinMicros,
+                            netContext.connectLocal("local-" + spinMicros, localPort, localConfig).get());
+
+                    final SocketSessionConfig socketConfig = SocketSessionConfig.newBuilder()
+                            .setSerializer(ExampleConstants.BINARY_SERIALIZER)
+                            .setLifecycleAware(new NoOpLifecycleAware())
+                            .setRpcProcessor(new DefaultRpcProcessor())
+                            .setSyncRpcSpinMicros(spinMicros)
+                            .build();
+                    runBenchmark("loopback", spinMicros,
+                            netContext.connectTcp("loopback-" + spinMicros, loopbackAddress, socketConfig).get());
+
+                    if (remoteAddress != null) {
+                        runBenchmark("cross-host", spinMicros,
+                                netContext.connectTcp("remote-" + spinMicros, remoteAddress, socketConfig).get());
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                shutdown();
+            }
+        }
+
+        private void runBenchmark(String name, int spinMicros, Session session) {
+            for (int index = 0; index < WARMUP_ITERATIONS; index++) {
+                rpcInvoker.syncCall(session, ExampleRpcServiceRpcProxy.inc(index));
+            }
+
+            final Histogram histogram = new Histogram();
+            for (int index = 0; index < ITERATIONS; index++) {
+                final long startNanos = System.nanoTime();
+                rpcInvoker.syncCall(session, ExampleRpcServiceRpcProxy.inc(index));
+                histogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+            }
+            session.close();
+
+            System.out.println(name + ", spinMicros " + spinMicros + ", latency(us) " + histogram.snapshot());
+        }
+    }
+
+    private static class NoOpLifecycleAware implements SessionLifecycleAware {
+
+        @Override
+        public void onSessionConnected(Session session) {
+
+        }
+
+        @Override
+        public void onSessionDisconnected(Session session) {
+
+        }
+    }
+}
@@ -0,0 +1,760 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.kcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+/**
+ * KCP风格的ARQ协议实现（不包含FEC）。
+ * <p>
+ * 参考 - https://github.com/skywind3000/kcp ，算法部分与原版保持一致，区别在于：
+ * 1. 只支持消息模式，一个消息最多分为{@link #rcvWnd}-1个分片。
+ * 2. 数据使用{@link ByteBuf}的切片保存，发送时不拷贝用户数据。
+ * 3. 头部使用网络字节序（大端）。
+ * <p>
+ * 段格式：[conv 4][cmd 1][frg 1][wnd 2][ts 4][sn 4][una 4][len 4][data]
+ * <p>
+ * 该对象不是线程安全的，必须由同一个线程调用{@link #send(ByteBuf)}、{@link #input(ByteBuf)}、{@link #recv()}、{@link #update(int)}等方法。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/22
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public class Kcp {
+
+    public static final int CMD_PUSH = 81;
+    public static final int CMD_ACK = 82;
+    public static final int CMD_WASK = 83;
+    public static final int CMD_WINS = 84;
+
+    /**
+     * 段头部长度
+     */
+    public static final int OVERHEAD = 24;
+
+    private static final int ASK_SEND = 1;
+    private static final int ASK_TELL = 2;
+
+    private static final int RTO_NDL = 30;
+    private static final int RTO_MIN = 100;
+    private static final int RTO_DEF = 200;
+    private static final int RTO_MAX = 60000;
+
+    private static final int WND_SND = 32;
+    private static final int WND_RCV = 128;
+    private static final int MTU_DEF = 1400;
+
+    private static final int INTERVAL_DEF = 100;
+    private static final int THRESH_INIT = 2;
+    private static final int THRESH_MIN = 2;
+    private static final int PROBE_INIT = 7000;
+    private static final int PROBE_LIMIT = 120000;
+    private static final int DEAD_LINK = 20;
+    private static final int FASTACK_LIMIT = 5;
+
+    private final int conv;
+    private final KcpOutput output;
+    private final ByteBufAllocator allocator;
+
+    private int mtu = MTU_DEF;
+    private int mss = MTU_DEF - OVERHEAD;
+
+    private int sndUna;
+    private int sndNxt;
+    private int rcvNxt;
+
+    private int ssthresh = THRESH_INIT;
+    private int rxRttval;
+    private int rxSrtt;
+    private int rxRto = RTO_DEF;
+    private int rxMinRto = RTO_MIN;
+
+    private int sndWnd = WND_SND;
+    private int rcvWnd = WND_RCV;
+    private int rmtWnd = WND_RCV;
+    private int cwnd = 1;
+    private int incr;
+    private int probe;
+
+    private int current;
+    private int interval = INTERVAL_DEF;
+    private int tsFlush = INTERVAL_DEF;
+    private boolean updated;
+    private int tsProbe;
+    private int probeWait;
+
+    private int noDelay;
+    private int fastResend;
+    private int fastLimit = FASTACK_LIMIT;
+    private boolean noCwnd;
+    private int deadLink = DEAD_LINK;
+    private boolean dead;
+
+    private final ArrayDeque<Segment> sndQueue = new ArrayDeque<>();
+    private final ArrayDeque<Segment> rcvQueue = new ArrayDeque<>();
+    private final ArrayDeque<Segment> sndBuf = new ArrayDeque<>();
+    private final LinkedList<Segment> rcvBuf = new LinkedList<>();
+
+    /**
+     * 待确认的(sn, ts)对
+     */
+    private int[] ackList = new int[16];
+    private int ackCount;
+
+    public Kcp(int conv, KcpOutput output, ByteBufAllocator allocator) {
+        this.conv = conv;
+        this.output = output;
+        this.allocator = allocator;
+    }
+
+    /**
+     * 按照配置设置参数
+     */
+    public void applyOptions(KcpOptions options) {
+        setNoDelay(options.noDelay(), options.intervalMs(), options.fastResend(), options.noCwnd());
+        setWndSize(options.sndWnd(), options.rcvWnd());
+        setMtu(options.mtu());
+    }
+
+    /**
+     * @param noDelay    0不启用，1启用，2启用且重传时rto增长更慢
+     * @param interval   内部flush的时间间隔
+     * @param fastResend 快速重传阈值，收到多少个跨越该段的ack后立即重传，0表示不启用
+     * @param noCwnd     是否关闭拥塞控制
+     */
+    public void setNoDelay(int noDelay, int interval, int fastResend, boolean noCwnd) {
+        this.noDelay = noDelay;
+        this.rxMinRto = noDelay != 0 ? RTO_NDL : RTO_MIN;
+        this.interval = Math.min(5000, Math.max(1, interval));
+        this.fastResend = fastResend;
+        this.noCwnd = noCwnd;
+    }
+
+    public void setWndSize(int sndWnd, int rcvWnd) {
+        if (sndWnd > 0) {
+            this.sndWnd = sndWnd;
+        }
+        if (rcvWnd > 0) {
+            this.rcvWnd = Math.max(rcvWnd, WND_RCV);
+        }
+    }
+
+    public void setMtu(int mtu) {
+        if (mtu < 50) {
+            throw new IllegalArgumentException("mtu " + mtu);
+        }
+        this.mtu = mtu;
+        this.mss = mtu - OVERHEAD;
+    }
+
+    public int conv() {
+        return conv;
+    }
+
+    /**
+     * @return 等待发送的段数(包括未确认的段)
+     */
+    public int waitSnd() {
+        return sndBuf.size() + sndQueue.size();
+    }
+
+    /**
+     * @return 发送窗口大小
+     */
+    public int sndWnd() {
+        return sndWnd;
+    }
+
+    /**
+     * @return 是否有段重传次数达到上限，此时可认为连接已断开
+     */
+    public boolean isDead() {
+        return dead;
+    }
+
+    // ------------------------------------------------- 发送 --------------------------------------------------
+
+    /**
+     * 发送一个完整的消息，该方法不会立即发送数据，数据在{@link #update(int)}或{@link #flush(int)}时发送。
+     * 数据以切片的方式保存，调用方在此之后可以释放自己持有的引用。
+     *
+     * @param data 消息内容，方法返回时将被完全读取
+     * @throws IOException 消息过大时抛出
+     */
+    public void send(ByteBuf data) throws IOException {
+        int len = data.readableBytes();
+        if (len <= 0) {
+            throw new IOException("empty message");
+        }
+        final int count = (len + mss - 1) / mss;
+        if (count >= rcvWnd || count > 255) {
+            throw new IOException("message is too large, len " + len + ", fragments " + count);
+        }
+        for (int index = 0; index < count; index++) {
+            final int size = Math.min(len, mss);
+            final Segment segment = new Segment(data.readRetainedSlice(size));
+            segment.frg = count - index - 1;
+            sndQueue.add(segment);
+            len -= size;
+        }
+    }
+
+    // ------------------------------------------------- 接收 --------------------------------------------------
+
+    /**
+     * 取出一个完整的消息
+     *
+     * @return 如果没有完整的消息则返回null，返回的buf由调用方负责释放
+     */
+    @Nullable
+    public ByteBuf recv() {
+        if (rcvQueue.isEmpty()) {
+            return null;
+        }
+        final Segment first = rcvQueue.peekFirst();
+        if (first.frg + 1 > rcvQueue.size()) {
+            // 分片尚未完整
+            return null;
+        }
+        final boolean recover = rcvQueue.size() >= rcvWnd;
+
+        final ByteBuf result;
+        if (first.frg == 0) {
+            rcvQueue.pollFirst();
+            result = first.data;
+        } else {
+            int size = 0;
+            for (Segment segment : rcvQueue) {
+                size += segment.data.readableBytes();
+                if (segment.frg == 0) {
+                    break;
+                }
+            }
+            result = allocator.buffer(size);
+            Segment segment;
+            do {
+                segment = rcvQueue.pollFirst();
+                result.writeBytes(segment.data);
+                segment.release();
+            } while (segment.frg != 0);
+        }
+
+        moveRcvBufToQueue();
+
+        // 接收窗口从满变为不满，主动告知对方
+        if (recover && rcvQueue.size() < rcvWnd) {
+            probe |= ASK_TELL;
+        }
+        return result;
+    }
+
+    /**
+     * 输入收到的一个底层数据包
+     *
+     * @param data 数据包，方法返回时将被完全读取，PUSH段的数据以切片方式保存
+     * @throws IOException 数据包不合法时抛出
+     */
+    public void input(ByteBuf data) throws IOException {
+        final int prevUna = sndUna;
+        int maxAck = 0;
+        int latestTs = 0;
+        boolean flag = false;
+
+        if (data.readableBytes() < OVERHEAD) {
+            throw new IOException("bad packet, len " + data.readableBytes());
+        }
+
+        while (data.readableBytes() >= OVERHEAD) {
+            final int conv = data.readInt();
+            if (conv != this.conv) {
+                throw new IOException("bad conv " + conv + ", expected " + this.conv);
+            }
+            final int cmd = data.readUnsignedByte();
+            final int frg = data.readUnsignedByte();
+            final int wnd = data.readUnsignedShort();
+            final int ts = data.readInt();
+            final int sn = data.readInt();
+            final int una = data.readInt();
+            final int len = data.readInt();
+            if (len < 0 || data.readableBytes() < len) {
+                throw new IOException("bad segment len " + len);
+            }
+            if (cmd < CMD_PUSH || cmd > CMD_WINS) {
+                throw new IOException("bad cmd " + cmd);
+            }
+
+            rmtWnd = wnd;
+            parseUna(una);
+            shrinkBuf();
+
+            int consumed = 0;
+            if (cmd == CMD_ACK) {
+                if (current - ts >= 0) {
+                    updateAck(current - ts);
+                }
+                parseAck(sn);
+                shrinkBuf();
+                if (!flag) {
+                    flag = true;
+                    maxAck = sn;
+                    latestTs = ts;
+                } else if (sn - maxAck > 0) {
+                    maxAck = sn;
+                    latestTs = ts;
+                }
+            } else if (cmd == CMD_PUSH) {
+                if (sn - (rcvNxt + rcvWnd) < 0) {
+                    pushAck(sn, ts);
+                    if (sn - rcvNxt >= 0) {
+                        final Segment segment = new Segment(data.readRetainedSlice(len));
+                        segment.frg = frg;
+                        segment.sn = sn;
+                        consumed = len;
+                        parseData(segment);
+                    }
+                }
+            } else if (cmd == CMD_WASK) {
+                probe |= ASK_TELL;
+            }
+            // CMD_WINS 只需要更新rmtWnd
+            data.skipBytes(len - consumed);
+        }
+
+        if (flag) {
+            parseFastAck(maxAck);
+        }
+
+        if (sndUna - prevUna > 0 && cwnd < rmtWnd) {
+            // 拥塞窗口增长
+            if (cwnd < ssthresh) {
+                cwnd++;
+                incr += mss;
+            } else {
+                if (incr < mss) {
+                    incr = mss;
+                }
+                incr += (mss * mss) / incr + (mss / 16);
+                if ((cwnd + 1) * mss <= incr) {
+                    cwnd = (incr + mss - 1) / mss;
+                }
+            }
+            if (cwnd > rmtWnd) {
+                cwnd = rmtWnd;
+                incr = rmtWnd * mss;
+            }
+        }
+    }
+
+    private void updateAck(int rtt) {
+        if (rxSrtt == 0) {
+            rxSrtt = rtt;
+            rxRttval = rtt / 2;
+        } else {
+            final int delta = Math.abs(rtt - rxSrtt);
+            rxRttval = (3 * rxRttval + delta) / 4;
+            rxSrtt = (7 * rxSrtt + rtt) / 8;
+            if (rxSrtt < 1) {
+                rxSrtt = 1;
+            }
+        }
+        final int rto = rxSrtt + Math.max(interval, 4 * rxRttval);
+        rxRto = Math.min(RTO_MAX, Math.max(rxMinRto, rto));
+    }
+
+    private void shrinkBuf() {
+        final Segment first = sndBuf.peekFirst();
+        sndUna = first != null ? first.sn : sndNxt;
+    }
+
+    private void parseAck(int sn) {
+        if (sn - sndUna < 0 || sn - sndNxt >= 0) {
+            return;
+        }
+        for (Iterator<Segment> itr = sndBuf.iterator(); itr.hasNext(); ) {
+            final Segment segment = itr.next();
+            if (sn == segment.sn) {
+                itr.remove();
+                segment.release();
+                break;
+            }
+            if (sn - segment.sn < 0) {
+                break;
+            }
+        }
+    }
+
+    private void parseUna(int una) {
+        Segment segment;
+        while ((segment = sndBuf.peekFirst()) != null && una - segment.sn > 0) {
+            sndBuf.pollFirst();
+            segment.release();
+        }
+    }
+
+    private void parseFastAck(int sn) {
+        if (sn - sndUna < 0 || sn - sndNxt >= 0) {
+            return;
+        }
+        for (Segment segment : sndBuf) {
+            if (sn - segment.sn < 0) {
+                break;
+            }
+            if (sn != segment.sn) {
+                segment.fastAck++;
+            }
+        }
+    }
+
+    private void pushAck(int sn, int ts) {
+        if (ackCount * 2 == ackList.length) {
+            final int[] newAckList = new int[ackList.length * 2];
+            System.arraycopy(ackList, 0, newAckList, 0, ackList.length);
+            ackList = newAckList;
+        }
+        ackList[ackCount * 2] = sn;
+        ackList[ackCount * 2 + 1] = ts;
+        ackCount++;
+    }
+
+    private void parseData(Segment newSegment) {
+        final int sn = newSegment.sn;
+        if (sn - (rcvNxt + rcvWnd) >= 0 || sn - rcvNxt < 0) {
+            newSegment.release();
+            return;
+        }
+
+        // 从后向前查找插入位置，乱序一般发生在尾部
+        boolean repeat = false;
+        final ListIterator<Segment> itr = rcvBuf.listIterator(rcvBuf.size());
+        while (itr.hasPrevious()) {
+            final Segment segment = itr.previous();
+            if (segment.sn == sn) {
+                repeat = true;
+                break;
+            }
+            if (sn - segment.sn > 0) {
+                itr.next();
+                break;
+            }
+        }
+
+        if (repeat) {
+            newSegment.release();
+        } else {
+            itr.add(newSegment);
+        }
+
+        moveRcvBufToQueue();
+    }
+
+    private void moveRcvBufToQueue() {
+        Segment segment;
+        while ((segment = rcvBuf.peekFirst()) != null) {
+            if (segment.sn == rcvNxt && rcvQueue.size() < rcvWnd) {
+                rcvBuf.pollFirst();
+                rcvQueue.add(segment);
+                rcvNxt++;
+            } else {
+                break;
+            }
+        }
+    }
+
+    // ------------------------------------------------- 刷新 --------------------------------------------------
+
+    /**
+     * 更新时间并在到达刷新时间时发送数据，需要定时调用。
+     *
+     * @param current 当前时间戳（毫秒），允许溢出，只使用差值
+     */
+    public void update(int current) {
+        this.current = current;
+        if (!updated) {
+            updated = true;
+            tsFlush = current;
+        }
+
+        int slap = current - tsFlush;
+        if (slap >= 10000 || slap < -10000) {
+            tsFlush = current;
+            slap = 0;
+        }
+
+        if (slap >= 0) {
+            tsFlush += interval;
+            if (current - tsFlush >= 0) {
+                tsFlush = current + interval;
+            }
+            flush();
+        }
+    }
+
+    /**
+     * 立即发送确认、窗口探测以及窗口允许发送的数据，用于降低延迟，不影响{@link #update(int)}的刷新节奏。
+     *
+     * @param current 当前时间戳（毫秒）
+     */
+    public void flush(int current) {
+        this.current = current;
+        if (!updated) {
+            updated = true;
+            tsFlush = current;
+        }
+        flush();
+    }
+
+    private void flush() {
+        final int current = this.current;
+        final int wndUnused = rcvQueue.size() < rcvWnd ? rcvWnd - rcvQueue.size() : 0;
+        ByteBuf buffer = null;
+
+        // 确认
+        for (int index = 0; index < ackCount; index++) {
+            buffer = ensureWritable(buffer, OVERHEAD);
+            encodeHeader(buffer, CMD_ACK, 0, wndUnused, ackList[index * 2 + 1], ackList[index * 2], 0);
+        }
+        ackCount = 0;
+
+        // 对方接收窗口为0时，探测窗口
+        if (rmtWnd == 0) {
+            if (probeWait == 0) {
+                probeWait = PROBE_INIT;
+                tsProbe = current + probeWait;
+            } else if (current - tsProbe >= 0) {
+                if (probeWait < PROBE_INIT) {
+                    probeWait = PROBE_INIT;
+                }
+                probeWait += probeWait / 2;
+                if (probeWait > PROBE_LIMIT) {
+                    probeWait = PROBE_LIMIT;
+                }
+                tsProbe = current + probeWait;
+                probe |= ASK_SEND;
+            }
+        } else {
+            tsProbe = 0;
+            probeWait = 0;
+        }
+
+        if ((probe & ASK_SEND) != 0) {
+            buffer = ensureWritable(buffer, OVERHEAD);
+            encodeHeader(buffer, CMD_WASK, 0, wndUnused, 0, 0, 0);
+        }
+        if ((probe & ASK_TELL) != 0) {
+            buffer = ensureWritable(buffer, OVERHEAD);
+            encodeHeader(buffer, CMD_WINS, 0, wndUnused, 0, 0, 0);
+        }
+        probe = 0;
+
+        // 计算窗口
+        int cwnd = Math.min(sndWnd, rmtWnd);
+        if (!noCwnd) {
+            cwnd = Math.min(this.cwnd, cwnd);
+        }
+
+        // 将发送队列中的数据移入发送缓存
+        while (sndNxt - (sndUna + cwnd) < 0) {
+            final Segment segment = sndQueue.pollFirst();
+            if (segment == null) {
+                break;
+            }
+            segment.sn = sndNxt++;
+            segment.resendTs = current;
+            segment.rto = rxRto;
+            segment.fastAck = 0;
+            segment.xmit = 0;
+            sndBuf.add(segment);
+        }
+
+        final int resent = fastResend > 0 ? fastResend : Integer.MAX_VALUE;
+        final int rtoMin = noDelay == 0 ? (rxRto >> 3) : 0;
+        boolean change = false;
+        boolean lost = false;
+
+        for (Segment segment : sndBuf) {
+            boolean needSend = false;
+            if (segment.xmit == 0) {
+                // 首次发送
+                needSend = true;
+                segment.xmit++;
+                segment.rto = rxRto;
+                segment.resendTs = current + segment.rto + rtoMin;
+            } else if (current - segment.resendTs >= 0) {
+                // 超时重传
+                needSend = true;
+                segment.xmit++;
+                if (noDelay == 0) {
+                    segment.rto += Math.max(segment.rto, rxRto);
+                } else {
+                    final int step = noDelay < 2 ? segment.rto : rxRto;
+                    segment.rto += step / 2;
+                }
+                segment.resendTs = current + segment.rto;
+                lost = true;
+            } else if (segment.fastAck >= resent) {
+                // 快速重传
+                if (segment.xmit <= fastLimit || fastLimit <= 0) {
+                    needSend = true;
+                    segment.xmit++;
+                    segment.fastAck = 0;
+                    segment.resendTs = current + segment.rto;
+                    change = true;
+                }
+            }
+
+            if (needSend) {
+                final int len = segment.data.readableBytes();
+                buffer = ensureWritable(buffer, OVERHEAD + len);
+                encodeHeader(buffer, CMD_PUSH, segment.frg, wndUnused, current, segment.sn, len);
+                buffer.writeBytes(segment.data, segment.data.readerIndex(), len);
+                if (segment.xmit >= deadLink) {
+                    dead = true;
+                }
+            }
+        }
+
+        if (buffer != null) {
+            if (buffer.isReadable()) {
+                output.out(buffer, this);
+            } else {
+                buffer.release();
+            }
+        }
+
+        if (change) {
+            final int inflight = sndNxt - sndUna;
+            ssthresh = Math.max(THRESH_MIN, inflight / 2);
+            this.cwnd = ssthresh + resent;
+            incr = this.cwnd * mss;
+        }
+
+        if (lost) {
+            ssthresh = Math.max(THRESH_MIN, cwnd / 2);
+            this.cwnd = 1;
+            incr = mss;
+        }
+
+        if (this.cwnd < 1) {
+            this.cwnd = 1;
+            incr = mss;
+        }
+    }
+
+    /**
+     * 确保buffer可以写入指定字节数，如果当前buffer剩余空间不足一个mtu，则先输出当前buffer
+     */
+    private ByteBuf ensureWritable(@Nullable ByteBuf buffer, int need) {
+        if (buffer != null && buffer.readableBytes() + need > mtu) {
+            output.out(buffer, this);
+            buffer = null;
+        }
+        if (buffer == null) {
+            buffer = allocator.ioBuffer(mtu);
+        }
+        return buffer;
+    }
+
+    private void encodeHeader(ByteBuf buffer, int cmd, int frg, int wnd, int ts, int sn, int len) {
+        buffer.writeInt(conv);
+        buffer.writeByte(cmd);
+        buffer.writeByte(frg);
+        buffer.writeShort(wnd);
+        buffer.writeInt(ts);
+        buffer.writeInt(sn);
+        buffer.writeInt(rcvNxt);
+        buffer.writeInt(len);
+    }
+
+    /**
+     * 释放所有缓存的数据
+     */
+    public void release() {
+        releaseAll(sndQueue);
+        releaseAll(sndBuf);
+        releaseAll(rcvQueue);
+        releaseAll(rcvBuf);
+        ackCount = 0;
+    }
+
+    private static void releaseAll(Collection<Segment> segments) {
+        for (Segment segment : segments) {
+            segment.release();
+        }
+        segments.clear();
+    }
+
+    /**
+     * 读取数据包中第一个段的conv，不修改读索引
+     */
+    public static int getConv(ByteBuf data) {
+        return data.getInt(data.readerIndex());
+    }
+
+    /**
+     * 读取数据包中第一个段的cmd，不修改读索引
+     */
+    public static int getCmd(ByteBuf data) {
+        return data.getUnsignedByte(data.readerIndex() + 4);
+    }
+
+    /**
+     * 数据输出接口
+     */
+    @FunctionalInterface
+    public interface KcpOutput {
+
+        /**
+         * 输出一个数据包，数据包的所有权转移给实现者
+         *
+         * @param data 数据包，不超过mtu
+         * @param kcp  产生数据包的kcp对象
+         */
+        void out(ByteBuf data, Kcp kcp);
+    }
+
+    private static class Segment {
+
+        private final ByteBuf data;
+        private int frg;
+        private int sn;
+        private int resendTs;
+        private int rto;
+        private int fastAck;
+        private int xmit;
+
+        Segment(ByteBuf data) {
+            this.data = data;
+        }
+
+        void release() {
+            data.release();
+        }
+    }
+}
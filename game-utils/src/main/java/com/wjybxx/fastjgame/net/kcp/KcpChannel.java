@@ -0,0 +1,281 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.kcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.*;
+import io.netty.channel.socket.DatagramPacket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+/**
+ * 一个kcp连接，表现为udp channel的子channel。
+ * <p>
+ * 子channel注册在udp channel所在的{@link EventLoop}上，因此kcp对象只会被一个线程访问。
+ * 写入的每一个{@link ByteBuf}作为一个kcp消息发送，读取到的每一个{@link ByteBuf}是一个完整的kcp消息，
+ * 因此可以直接复用tcp的编解码器和session管道。
+ * <p>
+ * 背压：kcp中等待发送的段数超过发送窗口的2倍时，剩余的数据保留在{@link ChannelOutboundBuffer}中，
+ * 因此{@link Channel#isWritable()}和待发送字节数仍然有效。
+ * <p>
+ * 注意：kcp没有关闭握手，一方关闭后，另一方只能通过读超时或重传次数上限感知。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/22
+ * github - https://github.com/hl845740757
+ */
+public class KcpChannel extends AbstractChannel {
+
+    private static final Logger logger = LoggerFactory.getLogger(KcpChannel.class);
+
+    private static final ChannelMetadata METADATA = new ChannelMetadata(false);
+
+    private final KcpDatagramHandler owner;
+    private final InetSocketAddress remoteAddress;
+    private final ChannelConfig config;
+    private final Kcp kcp;
+
+    private volatile boolean open = true;
+    /**
+     * 是否有数据写入了udp channel但尚未flush
+     */
+    private boolean outputPending;
+
+    KcpChannel(Channel parent, KcpDatagramHandler owner, int conv, InetSocketAddress remoteAddress, KcpOptions options) {
+        super(parent);
+        this.owner = owner;
+        this.remoteAddress = remoteAddress;
+        this.config = new DefaultChannelConfig(this);
+        this.config.setAllocator(parent.alloc());
+        this.kcp = new Kcp(conv, this::output, parent.alloc());
+        this.kcp.applyOptions(options);
+    }
+
+    public int conv() {
+        return kcp.conv();
+    }
+
+    @Override
+    public InetSocketAddress remoteAddress() {
+        return (InetSocketAddress) super.remoteAddress();
+    }
+
+    @Override
+    public InetSocketAddress localAddress() {
+        return (InetSocketAddress) super.localAddress();
+    }
+
+    // ------------------------------------------------- 由KcpDatagramHandler调用 ---------------------------------
+
+    /**
+     * 输入一个udp包
+     */
+    void input(ByteBuf data) {
+        if (!isActive()) {
+            return;
+        }
+        try {
+            kcp.input(data);
+        } catch (IOException e) {
+            // 可能是伪造的包，丢弃即可，不关闭连接
+            logger.debug("bad kcp packet, remote {}", remoteAddress, e);
+            return;
+        }
+
+        ByteBuf msg;
+        boolean read = false;
+        while ((msg = kcp.recv()) != null) {
+            read = true;
+            pipeline().fireChannelRead(msg);
+            if (!isActive()) {
+                // 读取过程中被关闭
+                return;
+            }
+        }
+        if (read) {
+            pipeline().fireChannelReadComplete();
+        }
+
+        // 收到确认后发送窗口可能已空出
+        resumeWrite();
+        flushParentIfNeed();
+    }
+
+    /**
+     * 定时刷新
+     */
+    void update(int current) {
+        if (!isActive()) {
+            return;
+        }
+        kcp.update(current);
+        if (kcp.isDead()) {
+            logger.info("kcp dead link, remote {}, conv {}", remoteAddress, kcp.conv());
+            close();
+            return;
+        }
+        resumeWrite();
+    }
+
+    /**
+     * 由{@link KcpDatagramHandler}统一flush，减少系统调用
+     *
+     * @return 是否有数据需要flush
+     */
+    boolean clearOutputPending() {
+        final boolean result = outputPending;
+        outputPending = false;
+        return result;
+    }
+
+    private void output(ByteBuf data, Kcp kcp) {
+        outputPending = true;
+        parent().write(new DatagramPacket(data, remoteAddress), parent().voidPromise());
+    }
+
+    private void flushParentIfNeed() {
+        if (clearOutputPending()) {
+            parent().flush();
+        }
+    }
+
+    private void resumeWrite() {
+        final ChannelOutboundBuffer outboundBuffer = unsafe().outboundBuffer();
+        if (outboundBuffer != null && !outboundBuffer.isEmpty() && kcp.waitSnd() < maxWaitSnd()) {
+            unsafe().flush();
+        }
+    }
+
+    private int maxWaitSnd() {
+        return kcp.sndWnd() * 2;
+    }
+
+    /**
+     * kcp使用的时间戳，允许溢出
+     */
+    static int currentTimeMillis() {
+        return (int) System.currentTimeMillis();
+    }
+
+    // ------------------------------------------------- channel实现 ---------------------------------
+
+    @Override
+    protected AbstractUnsafe newUnsafe() {
+        return new KcpUnsafe();
+    }
+
+    @Override
+    protected boolean isCompatible(EventLoop loop) {
+        // 必须和udp channel在同一个线程
+        return loop == parent().eventLoop();
+    }
+
+    @Override
+    protected SocketAddress localAddress0() {
+        return parent().localAddress();
+    }
+
+    @Override
+    protected SocketAddress remoteAddress0() {
+        return remoteAddress;
+    }
+
+    @Override
+    protected void doBind(SocketAddress localAddress) throws Exception {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void doDisconnect() throws Exception {
+        doClose();
+    }
+
+    @Override
+    protected void doClose() throws Exception {
+        if (!open) {
+            return;
+        }
+        open = false;
+        kcp.release();
+        owner.removeChild(this);
+    }
+
+    @Override
+    protected void doBeginRead() throws Exception {
+        // 数据由udp channel推送，无需处理
+    }
+
+    @Override
+    protected Object filterOutboundMessage(Object msg) throws Exception {
+        if (msg instanceof ByteBuf) {
+            return msg;
+        }
+        throw new UnsupportedOperationException("unsupported message type: " + msg.getClass().getName());
+    }
+
+    @Override
+    protected void doWrite(ChannelOutboundBuffer in) throws Exception {
+        final int maxWaitSnd = maxWaitSnd();
+        Object msg;
+        while (kcp.waitSnd() < maxWaitSnd && (msg = in.current()) != null) {
+            try {
+                kcp.send((ByteBuf) msg);
+                in.remove();
+            } catch (IOException e) {
+                in.remove(e);
+            }
+        }
+        // 立即发送，不等待下一次刷新
+        kcp.flush(currentTimeMillis());
+        flushParentIfNeed();
+    }
+
+    @Override
+    public ChannelConfig config() {
+        return config;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean isActive() {
+        return open && isRegistered();
+    }
+
+    @Override
+    public ChannelMetadata metadata() {
+        return METADATA;
+    }
+
+    private class KcpUnsafe extends AbstractUnsafe {
+
+        @Override
+        public void connect(SocketAddress remoteAddress, SocketAddress localAddress, ChannelPromise promise) {
+            // 子channel在创建时就已确定远端地址
+            promise.setFailure(new UnsupportedOperationException());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.kcp;
+
+import com.wjybxx.fastjgame.net.eventloop.NetEventLoop;
+import com.wjybxx.fastjgame.net.socket.ClientSocketCodec;
+import com.wjybxx.fastjgame.net.socket.FrameCompressionHandler;
+import com.wjybxx.fastjgame.net.socket.SocketSessionConfig;
+import com.wjybxx.fastjgame.net.utils.NetUtils;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * kcp客户端initializer，kcp保留了消息边界，但仍然保留长度字段，以便和tcp使用相同的编解码器。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/22
+ * github - https://github.com/hl845740757
+ */
+@ThreadSafe
+public class KcpClientChannelInitializer extends ChannelInitializer<KcpChannel> {
+
+    private final String sessionId;
+    private final SocketSessionConfig config;
+    private final NetEventLoop netEventLoop;
+
+    public KcpClientChannelInitializer(String sessionId, SocketSessionConfig config, NetEventLoop netEventLoop) {
+        this.sessionId = sessionId;
+        this.config = config;
+        this.netEventLoop = netEventLoop;
+    }
+
+    @Override
+    protected void initChannel(KcpChannel ch) throws Exception {
+        ChannelPipeline pipeline = ch.pipeline();
+        // kcp没有关闭握手，读超时是感知对方断开的主要方式
+        pipeline.addLast(NetUtils.READ_TIMEOUT_HANDLER_NAME, new ReadTimeoutHandler(config.readTimeout()));
+        pipeline.addLast(new LengthFieldBasedFrameDecoder(config.maxFrameLength(), 0, 4, 0, 4));
+        if (config.compressThreshold() > 0) {
+            pipeline.addLast(new FrameCompressionHandler(config.compressThreshold(), config.maxFrameLength()));
+        }
+        pipeline.addLast(new ClientSocketCodec(config.serializer(), config.forwardTypes(), sessionId, netEventLoop));
+    }
+}
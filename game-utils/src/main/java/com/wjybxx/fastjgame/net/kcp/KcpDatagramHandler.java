@@ -0,0 +1,473 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.kcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.*;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * udp channel上的kcp连接管理器，负责将udp包分发给对应的{@link KcpChannel}，并定时刷新所有的kcp连接。
+ * <p>
+ * 服务端：握手成功后创建子channel，使用{@link #childHandler}初始化，未知连接的kcp包直接丢弃。
+ * 客户端：一个udp channel只有一个子channel，子channel关闭时同时关闭udp channel。
+ * <p>
+ * 握手：conv为0的包为控制包(kcp不会生成为0的conv)，流程为 SYN -> COOKIE -> CONNECT -> ACCEPTED。
+ * 服务端回复COOKIE时不保存任何状态，只有CONNECT携带了正确的cookie时才创建子channel，
+ * 因此伪造源地址的包无法占用服务端资源；控制包的请求和响应长度相同，也不会被用于反射放大。
+ * 客户端在收到ACCEPTED之前定时重发握手包，握手完成时连接的future才完成。
+ * <p>
+ * 所有的kcp连接共用一个定时任务，避免为每个连接创建定时任务。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/22
+ * github - https://github.com/hl845740757
+ */
+public class KcpDatagramHandler extends ChannelInboundHandlerAdapter {
+
+    private static final Logger logger = LoggerFactory.getLogger(KcpDatagramHandler.class);
+
+    /**
+     * 控制包的conv
+     */
+    static final int CONTROL_CONV = 0;
+    static final byte TYPE_SYN = 1;
+    static final byte TYPE_COOKIE = 2;
+    static final byte TYPE_CONNECT = 3;
+    static final byte TYPE_ACCEPTED = 4;
+    /**
+     * 控制包格式：conv(0) + type + conv + cookie，填充到和kcp头部一样长
+     */
+    static final int CONTROL_PACKET_SIZE = Kcp.OVERHEAD;
+
+    /**
+     * 客户端重发握手包的间隔
+     */
+    private static final int HANDSHAKE_RESEND_INTERVAL_MS = 200;
+    /**
+     * cookie的时间片长度，当前时间片和上一个时间片的cookie有效
+     */
+    private static final long COOKIE_SLOT_MS = 10_000;
+    private static final String COOKIE_ALGORITHM = "HmacSHA256";
+
+    private final KcpOptions options;
+    /**
+     * 子channel的handler，为null表示不接受新连接（客户端）
+     */
+    private final ChannelHandler childHandler;
+    /**
+     * 只在udp channel的线程访问
+     */
+    private final Map<ChildKey, KcpChannel> children = new HashMap<>();
+    /**
+     * 刷新时使用的临时列表，避免刷新过程中关闭连接导致并发修改
+     */
+    private final List<KcpChannel> tickList = new ArrayList<>();
+
+    /**
+     * 服务端计算cookie使用，密钥在创建时随机生成
+     */
+    private final Mac cookieMac;
+    private final ByteBuffer cookieInput = ByteBuffer.allocate(16);
+
+    private ChannelHandlerContext ctx;
+    private ScheduledFuture<?> tickFuture;
+
+    // ------------------------------------------------- 客户端握手状态 ---------------------------------
+    /**
+     * 正在握手的子channel，握手完成后置为null
+     */
+    private KcpChannel connectingChild;
+    private ChannelPromise connectPromise;
+    private boolean cookieReceived;
+    private long cookie;
+    private int handshakeStartTime;
+    private int lastHandshakeTime;
+
+    private KcpDatagramHandler(KcpOptions options, @Nullable ChannelHandler childHandler) {
+        this.options = options;
+        this.childHandler = childHandler;
+        this.cookieMac = childHandler == null ? null : newCookieMac();
+    }
+
+    private static Mac newCookieMac() {
+        final byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        try {
+            final Mac mac = Mac.getInstance(COOKIE_ALGORITHM);
+            mac.init(new SecretKeySpec(secret, COOKIE_ALGORITHM));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 创建一个服务端handler
+     *
+     * @param childHandler 新连接的初始化器
+     */
+    public static KcpDatagramHandler newServerHandler(KcpOptions options, ChannelHandler childHandler) {
+        return new KcpDatagramHandler(options, Objects.requireNonNull(childHandler, "childHandler"));
+    }
+
+    /**
+     * 创建一个客户端handler，需要在udp channel绑定后调用{@link #connect(ChannelFuture, InetSocketAddress, ChannelHandler)}
+     */
+    public static KcpDatagramHandler newClientHandler(KcpOptions options) {
+        return new KcpDatagramHandler(options, null);
+    }
+
+    /**
+     * 在udp channel绑定成功后创建到远程的kcp连接
+     *
+     * @param bindFuture    udp channel的绑定结果
+     * @param remoteAddress 远程地址
+     * @param handler       子channel的handler
+     * @return 握手完成时完成，握手超时或子channel关闭时失败
+     */
+    public ChannelFuture connect(ChannelFuture bindFuture, InetSocketAddress remoteAddress, ChannelHandler handler) {
+        final Channel parent = bindFuture.channel();
+        final KcpChannel child = new KcpChannel(parent, this, newConv(), remoteAddress, options);
+        child.pipeline().addLast(handler);
+
+        final ChannelPromise connectPromise = new DefaultChannelPromise(child, parent.eventLoop());
+        bindFuture.addListener((ChannelFutureListener) future -> {
+            if (!future.isSuccess()) {
+                connectPromise.tryFailure(future.cause());
+                return;
+            }
+            children.put(new ChildKey(remoteAddress, child.conv()), child);
+            parent.eventLoop().register(child).addListener((ChannelFutureListener) registerFuture -> {
+                if (registerFuture.isSuccess()) {
+                    startHandshake(child, connectPromise);
+                } else {
+                    connectPromise.tryFailure(registerFuture.cause());
+                    parent.close();
+                }
+            });
+        });
+        return connectPromise;
+    }
+
+    private static int newConv() {
+        int conv;
+        do {
+            conv = ThreadLocalRandom.current().nextInt();
+        } while (conv == 0);
+        return conv;
+    }
+
+    private void startHandshake(KcpChannel child, ChannelPromise connectPromise) {
+        if (!child.isActive()) {
+            connectPromise.tryFailure(new ClosedChannelException());
+            return;
+        }
+        this.connectingChild = child;
+        this.connectPromise = connectPromise;
+        this.handshakeStartTime = KcpChannel.currentTimeMillis();
+        sendHandshake(handshakeStartTime);
+    }
+
+    private void sendHandshake(int current) {
+        lastHandshakeTime = current;
+        if (cookieReceived) {
+            writeControl(connectingChild.remoteAddress(), TYPE_CONNECT, connectingChild.conv(), cookie);
+        } else {
+            writeControl(connectingChild.remoteAddress(), TYPE_SYN, connectingChild.conv(), 0);
+        }
+    }
+
+    private void tickHandshake(int current) {
+        if (current - handshakeStartTime >= options.handshakeTimeoutMs()) {
+            final KcpChannel child = connectingChild;
+            failHandshake(new ConnectTimeoutException("kcp handshake timeout, remote " + child.remoteAddress()));
+            child.close();
+            return;
+        }
+        if (current - lastHandshakeTime >= HANDSHAKE_RESEND_INTERVAL_MS) {
+            sendHandshake(current);
+        }
+    }
+
+    private void completeHandshake() {
+        final ChannelPromise promise = connectPromise;
+        connectingChild = null;
+        connectPromise = null;
+        promise.trySuccess();
+    }
+
+    private void failHandshake(Throwable cause) {
+        final ChannelPromise promise = connectPromise;
+        connectingChild = null;
+        connectPromise = null;
+        promise.tryFailure(cause);
+    }
+
+    /**
+     * 子channel关闭时调用
+     */
+    void removeChild(KcpChannel child) {
+        children.remove(new ChildKey(child.remoteAddress(), child.conv()));
+        if (child == connectingChild) {
+            failHandshake(new ClosedChannelException());
+        }
+        if (childHandler == null) {
+            // 客户端独占udp channel
+            ctx.close();
+        }
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        tickFuture = ctx.executor().scheduleAtFixedRate(this::tick, options.intervalMs(), options.intervalMs(), TimeUnit.MILLISECONDS);
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (tickFuture != null) {
+            tickFuture.cancel(false);
+            tickFuture = null;
+        }
+        tickList.addAll(children.values());
+        children.clear();
+        for (KcpChannel child : tickList) {
+            child.close();
+        }
+        tickList.clear();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        final DatagramPacket packet = (DatagramPacket) msg;
+        try {
+            final ByteBuf content = packet.content();
+            if (content.readableBytes() < Kcp.OVERHEAD) {
+                return;
+            }
+            final int conv = Kcp.getConv(content);
+            if (conv == CONTROL_CONV) {
+                readControl(packet.sender(), content);
+                return;
+            }
+            final KcpChannel child = children.get(new ChildKey(packet.sender(), conv));
+            if (child == null) {
+                // 未经握手的连接，直接丢弃，避免伪造的包占用资源
+                return;
+            }
+            if (child == connectingChild) {
+                // 服务端已创建连接，只是ACCEPTED包丢失了
+                completeHandshake();
+            }
+            child.input(content);
+        } finally {
+            packet.release();
+        }
+    }
+
+    private void readControl(InetSocketAddress sender, ByteBuf content) {
+        final int readerIndex = content.readerIndex();
+        final byte type = content.getByte(readerIndex + 4);
+        final int conv = content.getInt(readerIndex + 5);
+        final long cookie = content.getLong(readerIndex + 9);
+        if (conv == CONTROL_CONV) {
+            return;
+        }
+        if (childHandler != null) {
+            readServerControl(sender, type, conv, cookie);
+        } else {
+            readClientControl(sender, type, conv, cookie);
+        }
+    }
+
+    private void readServerControl(InetSocketAddress sender, byte type, int conv, long cookie) {
+        if (type == TYPE_SYN) {
+            // 不保存任何状态，只回复cookie
+            writeControl(sender, TYPE_COOKIE, conv, newCookie(sender, conv, currentCookieSlot()));
+            return;
+        }
+        if (type != TYPE_CONNECT) {
+            return;
+        }
+        final ChildKey key = new ChildKey(sender, conv);
+        if (children.containsKey(key)) {
+            // ACCEPTED包丢失，客户端重发了CONNECT
+            writeControl(sender, TYPE_ACCEPTED, conv, cookie);
+            return;
+        }
+        if (!checkCookie(sender, conv, cookie)) {
+            return;
+        }
+        if (children.size() >= options.maxChildren()) {
+            logger.debug("kcp children reach limit {}, reject remote {}", options.maxChildren(), sender);
+            return;
+        }
+        newChild(key);
+        writeControl(sender, TYPE_ACCEPTED, conv, cookie);
+    }
+
+    private void readClientControl(InetSocketAddress sender, byte type, int conv, long cookie) {
+        if (connectingChild == null
+                || conv != connectingChild.conv()
+                || !sender.equals(connectingChild.remoteAddress())) {
+            return;
+        }
+        if (type == TYPE_COOKIE) {
+            this.cookieReceived = true;
+            this.cookie = cookie;
+            sendHandshake(KcpChannel.currentTimeMillis());
+        } else if (type == TYPE_ACCEPTED) {
+            completeHandshake();
+        }
+    }
+
+    private void writeControl(InetSocketAddress recipient, byte type, int conv, long cookie) {
+        final ByteBuf packet = newControlPacket(ctx.alloc(), type, conv, cookie);
+        ctx.writeAndFlush(new DatagramPacket(packet, recipient), ctx.voidPromise());
+    }
+
+    static ByteBuf newControlPacket(ByteBufAllocator allocator, byte type, int conv, long cookie) {
+        final ByteBuf packet = allocator.buffer(CONTROL_PACKET_SIZE);
+        packet.writeInt(CONTROL_CONV);
+        packet.writeByte(type);
+        packet.writeInt(conv);
+        packet.writeLong(cookie);
+        packet.writeZero(CONTROL_PACKET_SIZE - packet.writerIndex());
+        return packet;
+    }
+
+    private static long currentCookieSlot() {
+        return System.currentTimeMillis() / COOKIE_SLOT_MS;
+    }
+
+    private boolean checkCookie(InetSocketAddress sender, int conv, long cookie) {
+        final long slot = currentCookieSlot();
+        return cookie == newCookie(sender, conv, slot) || cookie == newCookie(sender, conv, slot - 1);
+    }
+
+    /**
+     * cookie = HMAC(secret, 地址 + 端口 + conv + 时间片)的前8个字节
+     */
+    private long newCookie(InetSocketAddress sender, int conv, long slot) {
+        cookieInput.clear();
+        cookieInput.putInt(sender.getPort()).putInt(conv).putLong(slot);
+        cookieMac.update(sender.getAddress().getAddress());
+        cookieMac.update(cookieInput.array());
+        return ByteBuffer.wrap(cookieMac.doFinal()).getLong();
+    }
+
+    private void newChild(ChildKey key) {
+        final KcpChannel child = new KcpChannel(ctx.channel(), this, key.conv, key.remoteAddress, options);
+        child.pipeline().addLast(childHandler);
+        children.put(key, child);
+        // 在当前线程，注册会立即完成
+        ctx.channel().eventLoop().register(child).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+    }
+
+    /**
+     * @return 当前的连接数
+     */
+    int childCount() {
+        return children.size();
+    }
+
+    private void tick() {
+        final int current = KcpChannel.currentTimeMillis();
+        if (connectingChild != null) {
+            tickHandshake(current);
+        }
+        if (children.isEmpty()) {
+            return;
+        }
+        boolean flush = false;
+        tickList.addAll(children.values());
+        try {
+            for (KcpChannel child : tickList) {
+                child.update(current);
+                flush |= child.clearOutputPending();
+            }
+        } finally {
+            tickList.clear();
+        }
+        if (flush) {
+            ctx.flush();
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        // udp没有连接，单个包的错误(如: icmp端口不可达)不应该关闭channel
+        logger.debug("kcp udp channel caught exception", cause);
+    }
+
+    private static class ChildKey {
+
+        private final InetSocketAddress remoteAddress;
+        private final int conv;
+
+        ChildKey(InetSocketAddress remoteAddress, int conv) {
+            this.remoteAddress = remoteAddress;
+            this.conv = conv;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final ChildKey that = (ChildKey) o;
+            return conv == that.conv && remoteAddress.equals(that.remoteAddress);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * remoteAddress.hashCode() + conv;
+        }
+    }
+}
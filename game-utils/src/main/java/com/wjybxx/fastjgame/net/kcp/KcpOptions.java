@@ -0,0 +1,196 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.kcp;
+
+import com.wjybxx.fastjgame.util.CheckUtils;
+
+/**
+ * kcp参数配置，默认为游戏常用的极速模式(nodelay=1, interval=10, resend=2, nc=1)。
+ * <p>
+ * 参数含义可参考 - https://github.com/skywind3000/kcp/wiki/KCP-Best-Practice ，
+ * 注意：双方的{@link #rcvWnd}和{@link #mtu}应该保持一致，单个消息的分片数必须小于接收窗口。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/22
+ * github - https://github.com/hl845740757
+ */
+public final class KcpOptions {
+
+    private static final int MIN_MTU = 256;
+
+    private final int noDelay;
+    private final int intervalMs;
+    private final int fastResend;
+    private final boolean noCwnd;
+    private final int sndWnd;
+    private final int rcvWnd;
+    private final int mtu;
+    private final int maxChildren;
+    private final int handshakeTimeoutMs;
+
+    private KcpOptions(Builder builder) {
+        this.noDelay = builder.noDelay;
+        this.intervalMs = builder.intervalMs;
+        this.fastResend = builder.fastResend;
+        this.noCwnd = builder.noCwnd;
+        this.sndWnd = builder.sndWnd;
+        this.rcvWnd = builder.rcvWnd;
+        this.mtu = builder.mtu;
+        this.maxChildren = builder.maxChildren;
+        this.handshakeTimeoutMs = builder.handshakeTimeoutMs;
+    }
+
+    /**
+     * @return 0表示关闭nodelay模式，1表示开启，2表示开启且超时重传时rto增长更慢
+     */
+    public int noDelay() {
+        return noDelay;
+    }
+
+    /**
+     * @return 内部刷新间隔 - 毫秒，越小延迟越低，但cpu消耗越高
+     */
+    public int intervalMs() {
+        return intervalMs;
+    }
+
+    /**
+     * @return 快速重传阈值，一个段被跨越多少次ack后立即重传，0表示关闭快速重传
+     */
+    public int fastResend() {
+        return fastResend;
+    }
+
+    /**
+     * @return 是否关闭拥塞控制，关闭后只受发送窗口和对方接收窗口限制
+     */
+    public boolean noCwnd() {
+        return noCwnd;
+    }
+
+    /**
+     * @return 发送窗口大小(段数)
+     */
+    public int sndWnd() {
+        return sndWnd;
+    }
+
+    /**
+     * @return 接收窗口大小(段数)
+     */
+    public int rcvWnd() {
+        return rcvWnd;
+    }
+
+    /**
+     * @return 单个udp包的最大长度(包含kcp头部)
+     */
+    public int mtu() {
+        return mtu;
+    }
+
+    /**
+     * @return 服务端一个udp端口上允许的最大连接数，达到上限后拒绝新的握手
+     */
+    public int maxChildren() {
+        return maxChildren;
+    }
+
+    /**
+     * @return 客户端握手超时时间 - 毫秒，超时后连接失败
+     */
+    public int handshakeTimeoutMs() {
+        return handshakeTimeoutMs;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private int noDelay = 1;
+        private int intervalMs = 10;
+        private int fastResend = 2;
+        private boolean noCwnd = true;
+        private int sndWnd = 128;
+        private int rcvWnd = 128;
+        private int mtu = 1400;
+        private int maxChildren = 4096;
+        private int handshakeTimeoutMs = 10_000;
+
+        private Builder() {
+        }
+
+        public Builder setNoDelay(int noDelay) {
+            if (noDelay < 0 || noDelay > 2) {
+                throw new IllegalArgumentException("noDelay " + noDelay);
+            }
+            this.noDelay = noDelay;
+            return this;
+        }
+
+        public Builder setIntervalMs(int intervalMs) {
+            this.intervalMs = CheckUtils.requirePositive(intervalMs, "intervalMs");
+            return this;
+        }
+
+        public Builder setFastResend(int fastResend) {
+            if (fastResend < 0) {
+                throw new IllegalArgumentException("fastResend " + fastResend);
+            }
+            this.fastResend = fastResend;
+            return this;
+        }
+
+        public Builder setNoCwnd(boolean noCwnd) {
+            this.noCwnd = noCwnd;
+            return this;
+        }
+
+        public Builder setSndWnd(int sndWnd) {
+            this.sndWnd = CheckUtils.requirePositive(sndWnd, "sndWnd");
+            return this;
+        }
+
+        public Builder setRcvWnd(int rcvWnd) {
+            this.rcvWnd = CheckUtils.requirePositive(rcvWnd, "rcvWnd");
+            return this;
+        }
+
+        public Builder setMtu(int mtu) {
+            this.mtu = Math.max(MIN_MTU, CheckUtils.requirePositive(mtu, "mtu"));
+            return this;
+        }
+
+        public Builder setMaxChildren(int maxChildren) {
+            this.maxChildren = CheckUtils.requirePositive(maxChildren, "maxChildren");
+            return this;
+        }
+
+        public Builder setHandshakeTimeoutMs(int handshakeTimeoutMs) {
+            this.handshakeTimeoutMs = CheckUtils.requirePositive(handshakeTimeoutMs, "handshakeTimeoutMs");
+            return this;
+        }
+
+        public KcpOptions build() {
+            return new KcpOptions(this);
+        }
+    }
+}
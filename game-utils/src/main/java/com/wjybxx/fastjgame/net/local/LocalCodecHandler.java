@@ -17,6 +17,7 @@
 package com.wjybxx.fastjgame.net.local;
 
 import com.wjybxx.fastjgame.net.rpc.NetLogicMessage;
+import com.wjybxx.fastjgame.net.rpc.RawMessageBody;
 import com.wjybxx.fastjgame.net.serialization.Serializer;
 import com.wjybxx.fastjgame.net.session.SessionHandlerContext;
 import com.wjybxx.fastjgame.net.session.SessionOutboundHandlerAdapter;
@@ -47,7 +48,14 @@ public class LocalCodecHandler extends SessionOutboundHandlerAdapter {
         // msg不是共享的，但它持有的body可能是共享的
         if (msg instanceof NetLogicMessage) {
             final NetLogicMessage logicMessage = (NetLogicMessage) msg;
-            final Object newBody = serializer.cloneObject(logicMessage.getBody());
+            final Object body = logicMessage.getBody();
+            final Object newBody;
+            if (body instanceof RawMessageBody) {
+                // 转发的消息尚未解码，解码即可得到新的对象
+                newBody = serializer.fromBytes(((RawMessageBody) body).getBytes());
+            } else {
+                newBody = serializer.cloneObject(body);
+            }
             logicMessage.setBody(newBody);
         }
         // 传递给下一个handler
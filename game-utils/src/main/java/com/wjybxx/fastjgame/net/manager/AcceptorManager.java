@@ -27,6 +27,8 @@ import com.wjybxx.fastjgame.net.session.AbstractSession;
 import com.wjybxx.fastjgame.net.session.DefaultSessionRegistry;
 import com.wjybxx.fastjgame.net.session.Session;
 import com.wjybxx.fastjgame.net.session.SessionRegistry;
+import com.wjybxx.fastjgame.net.shm.DefaultShmPort;
+import com.wjybxx.fastjgame.net.shm.ShmAcceptorHandler;
 import com.wjybxx.fastjgame.net.socket.SocketConnectRequestEvent;
 import com.wjybxx.fastjgame.net.socket.SocketEvent;
 import com.wjybxx.fastjgame.net.socket.inner.InnerAcceptorHandler;
@@ -161,4 +163,15 @@ public class AcceptorManager implements SessionRegistry {
         return session;
     }
 
+    // -------------------------------------------------- 共享内存session支持 ------------------------------------------------
+
+    /**
+     * 开始监听一个共享内存端口
+     *
+     * @param shmPort 共享内存“端口”
+     */
+    public void listenShm(DefaultShmPort shmPort) {
+        ShmAcceptorHandler.listen(shmPort, netManagerWrapper, this);
+    }
+
 }
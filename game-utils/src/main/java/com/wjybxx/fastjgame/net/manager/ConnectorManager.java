@@ -23,6 +23,9 @@ import com.wjybxx.fastjgame.net.misc.NetContext;
 import com.wjybxx.fastjgame.net.rpc.OneWaySupportHandler;
 import com.wjybxx.fastjgame.net.rpc.RpcSupportHandler;
 import com.wjybxx.fastjgame.net.session.*;
+import com.wjybxx.fastjgame.net.shm.ConnectShmRequest;
+import com.wjybxx.fastjgame.net.shm.ShmConnectorHandler;
+import com.wjybxx.fastjgame.net.shm.ShmSessionImp;
 import com.wjybxx.fastjgame.net.socket.*;
 import com.wjybxx.fastjgame.net.socket.inner.InnerConnectorHandler;
 import com.wjybxx.fastjgame.net.socket.outer.OuterConnectorHandler;
@@ -31,7 +34,6 @@ import com.wjybxx.fastjgame.util.concurrent.EventLoop;
 import com.wjybxx.fastjgame.util.concurrent.Promise;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.socket.SocketChannel;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -99,7 +101,8 @@ public class ConnectorManager implements SessionRegistry {
         final String sessionId = request.getSessionId();
         final HostAndPort remoteAddress = request.getRemoteAddress();
         final SocketSessionConfig config = request.getConfig();
-        final ChannelInitializer<SocketChannel> initializer = request.getInitializer();
+        final SocketTransport transport = request.getTransport();
+        final ChannelInitializer<?> initializer = request.getInitializer();
         final NetContext netContext = request.getNetContext();
         final Promise<Session> connectPromise = request.getConnectPromise();
 
@@ -114,13 +117,9 @@ public class ConnectorManager implements SessionRegistry {
 
         if (config.isAutoReconnect()) {
             // 异步建立连接
-            session.pipeline().addLast(new OuterConnectorHandler(remoteAddress, initializer, nettyThreadManager, connectPromise));
+            session.pipeline().addLast(new OuterConnectorHandler(transport, remoteAddress, initializer, nettyThreadManager, connectPromise));
         } else {
-            ChannelFuture channelFuture = nettyThreadManager.connectAsyn(remoteAddress,
-                    config.sndBuffer(),
-                    config.rcvBuffer(),
-                    config.connectTimeoutMs(),
-                    initializer);
+            ChannelFuture channelFuture = nettyThreadManager.connectAsyn(transport, remoteAddress, config, initializer);
 
             // 异步建立连接
             session.pipeline().addLast(new InnerConnectorHandler(channelFuture, connectPromise));
@@ -239,4 +238,21 @@ public class ConnectorManager implements SessionRegistry {
         first.setRemoteSession(remoteSession);
     }
 
+    public void connectShm(ConnectShmRequest request) {
+        final String sessionId = request.getSessionId();
+        final Promise<Session> connectPromise = request.getConnectPromise();
+
+        // 会话已存在
+        if (sessionRegistry.getSession(sessionId) != null) {
+            connectPromise.tryFailure(new IOException("session " + sessionId + " already registered"));
+            return;
+        }
+
+        final ShmSessionImp session = new ShmSessionImp(request.getNetContext(), sessionId, request.getConfig(),
+                netManagerWrapper, this);
+
+        // 异步建立连接
+        session.pipeline().addLast(new ShmConnectorHandler(request.getPortName(), connectPromise));
+    }
+
 }
\ No newline at end of file
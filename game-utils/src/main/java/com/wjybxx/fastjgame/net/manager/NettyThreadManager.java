@@ -17,9 +17,14 @@
 package com.wjybxx.fastjgame.net.manager;
 
 import com.google.inject.Inject;
+import com.wjybxx.fastjgame.net.kcp.KcpChannel;
+import com.wjybxx.fastjgame.net.kcp.KcpDatagramHandler;
+import com.wjybxx.fastjgame.net.kcp.KcpOptions;
 import com.wjybxx.fastjgame.net.misc.HostAndPort;
 import com.wjybxx.fastjgame.net.misc.PortRange;
 import com.wjybxx.fastjgame.net.socket.DefaultSocketPort;
+import com.wjybxx.fastjgame.net.socket.SocketSessionConfig;
+import com.wjybxx.fastjgame.net.socket.SocketTransport;
 import com.wjybxx.fastjgame.net.utils.NetUtils;
 import com.wjybxx.fastjgame.util.concurrent.DefaultThreadFactory;
 import io.netty.bootstrap.Bootstrap;
@@ -28,12 +33,14 @@ import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.BindException;
+import java.net.InetSocketAddress;
 
 /**
  * Netty线程管理器。
@@ -169,7 +176,7 @@ public class NettyThreadManager {
      * 此外，使用channel 需要调用 {@link Channel#isActive()}检查是否成功和远程建立连接
      */
     public ChannelFuture connectAsyn(HostAndPort hostAndPort, int sndBuffer, int rcvBuffer, int connectTimeoutMs,
-                                     ChannelInitializer<SocketChannel> initializer) {
+                                     ChannelInitializer<?> initializer) {
         Bootstrap bootstrap = new Bootstrap();
         bootstrap.group(workerGroup);
 
@@ -187,6 +194,112 @@ public class NettyThreadManager {
         return bootstrap.connect(hostAndPort.getHost(), hostAndPort.getPort());
     }
 
+    /**
+     * 使用指定的传输协议异步建立连接
+     *
+     * @param transport   传输协议
+     * @param hostAndPort 服务器地址
+     * @param config      session配置
+     * @param initializer channel初始化类，需要与传输协议匹配
+     * @return channelFuture 使用方式同{@link #connectAsyn(HostAndPort, int, int, int, ChannelInitializer)}
+     */
+    public ChannelFuture connectAsyn(SocketTransport transport, HostAndPort hostAndPort, SocketSessionConfig config,
+                                     ChannelInitializer<?> initializer) {
+        if (transport == SocketTransport.KCP) {
+            return connectKcpAsyn(hostAndPort, config.sndBuffer(), config.rcvBuffer(), config.kcpOptions(), initializer);
+        }
+        return connectAsyn(hostAndPort, config.sndBuffer(), config.rcvBuffer(), config.connectTimeoutMs(), initializer);
+    }
+
+    /**
+     * 监听某个udp端口，使用kcp协议通信，阻塞直到成功或失败。
+     *
+     * @param host        地址
+     * @param port        需要绑定的端口
+     * @param sndBuffer   socket发送缓冲区，所有kcp连接共享
+     * @param rcvBuffer   socket接收缓冲区，所有kcp连接共享
+     * @param options     kcp参数
+     * @param initializer 新的kcp连接的初始化类
+     * @return 监听成功成功则返回绑定的地址
+     */
+    public DefaultSocketPort bindKcp(String host, int port, int sndBuffer, int rcvBuffer, KcpOptions options,
+                                     ChannelInitializer<KcpChannel> initializer) throws BindException {
+        Bootstrap bootstrap = newKcpBootstrap(sndBuffer, rcvBuffer);
+        bootstrap.handler(KcpDatagramHandler.newServerHandler(options, initializer));
+
+        ChannelFuture channelFuture = bootstrap.bind(host, port);
+        try {
+            channelFuture.sync();
+            logger.info("bind kcp {}:{} success.", host, port);
+            return new DefaultSocketPort(channelFuture.channel(), new HostAndPort(host, port));
+        } catch (InterruptedException e) {
+            // ignore e
+            NetUtils.closeQuietly(channelFuture);
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // ignore, may another process bind this port
+            NetUtils.closeQuietly(channelFuture);
+        }
+        throw new BindException("can't bind kcp " + host + ":" + port);
+    }
+
+    /**
+     * 在某个端口范围内选择一个udp端口监听，使用kcp协议通信。
+     *
+     * @return 监听成功的端口号
+     */
+    public DefaultSocketPort bindKcpRange(String host, PortRange portRange, int sndBuffer, int rcvBuffer, KcpOptions options,
+                                          ChannelInitializer<KcpChannel> initializer) throws BindException {
+        if (portRange.startPort <= 0) {
+            throw new IllegalArgumentException("fromPort " + portRange.startPort);
+        }
+        if (portRange.startPort > portRange.endPort) {
+            throw new IllegalArgumentException("fromPort " + portRange.startPort + " toPort " + portRange.endPort);
+        }
+        for (int port = portRange.startPort; port <= portRange.endPort; port++) {
+            try {
+                return bindKcp(host, port, sndBuffer, rcvBuffer, options, initializer);
+            } catch (BindException e) {
+                // ignore
+            }
+        }
+        throw new BindException("can't bind kcp port from " + portRange.startPort + " to " + portRange.endPort);
+    }
+
+    /**
+     * 异步建立kcp连接，每个连接独占一个本地udp端口。
+     * 返回的future在kcp握手完成时完成，握手超时时间由{@link KcpOptions#handshakeTimeoutMs()}指定。
+     *
+     * @param hostAndPort 服务器地址
+     * @param sndBuffer   socket发送缓冲区
+     * @param rcvBuffer   socket接收缓冲区
+     * @param options     kcp参数
+     * @param initializer kcp channel初始化类
+     * @return channelFuture 其中的channel为{@link KcpChannel}
+     */
+    public ChannelFuture connectKcpAsyn(HostAndPort hostAndPort, int sndBuffer, int rcvBuffer, KcpOptions options,
+                                        ChannelInitializer<?> initializer) {
+        final KcpDatagramHandler datagramHandler = KcpDatagramHandler.newClientHandler(options);
+        Bootstrap bootstrap = newKcpBootstrap(sndBuffer, rcvBuffer);
+        bootstrap.handler(datagramHandler);
+
+        final InetSocketAddress remoteAddress = new InetSocketAddress(hostAndPort.getHost(), hostAndPort.getPort());
+        return datagramHandler.connect(bootstrap.bind(0), remoteAddress, initializer);
+    }
+
+    private Bootstrap newKcpBootstrap(int sndBuffer, int rcvBuffer) {
+        Bootstrap bootstrap = new Bootstrap();
+        bootstrap.group(workerGroup);
+        bootstrap.channel(NioDatagramChannel.class);
+
+        bootstrap.option(ChannelOption.SO_SNDBUF, sndBuffer);
+        bootstrap.option(ChannelOption.SO_RCVBUF, rcvBuffer);
+        // 注意：udp不能开启SO_REUSEADDR，否则多个进程可以绑定同一个端口
+        bootstrap.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+        bootstrap.option(ChannelOption.WRITE_BUFFER_WATER_MARK, WRITE_BUFFER_WATER_MARK);
+        return bootstrap;
+    }
+
     /**
      * 同步建立连接
      *
@@ -198,7 +311,7 @@ public class NettyThreadManager {
      * @return 注意！使用channel 需要调用 {@link Channel#isActive()}检查是否成功和远程建立连接
      */
     public Channel connectSyn(HostAndPort hostAndPort, int sndBuffer, int rcvBuffer, int connectTimeoutMs,
-                              ChannelInitializer<SocketChannel> initializer) {
+                              ChannelInitializer<?> initializer) {
         ChannelFuture channelFuture = connectAsyn(hostAndPort, sndBuffer, rcvBuffer, connectTimeoutMs, initializer);
         channelFuture.awaitUninterruptibly();
         return channelFuture.channel();
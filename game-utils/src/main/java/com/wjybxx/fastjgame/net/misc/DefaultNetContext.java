@@ -21,12 +21,15 @@ import com.wjybxx.fastjgame.net.eventloop.NetEventLoopGroup;
 import com.wjybxx.fastjgame.net.http.HttpPortConfig;
 import com.wjybxx.fastjgame.net.http.HttpPortContext;
 import com.wjybxx.fastjgame.net.http.HttpServerInitializer;
+import com.wjybxx.fastjgame.net.kcp.KcpClientChannelInitializer;
+import com.wjybxx.fastjgame.net.kcp.KcpServerChannelInitializer;
 import com.wjybxx.fastjgame.net.local.ConnectLocalRequest;
 import com.wjybxx.fastjgame.net.local.DefaultLocalPort;
 import com.wjybxx.fastjgame.net.local.LocalPort;
 import com.wjybxx.fastjgame.net.local.LocalSessionConfig;
 import com.wjybxx.fastjgame.net.manager.NettyThreadManager;
 import com.wjybxx.fastjgame.net.session.Session;
+import com.wjybxx.fastjgame.net.shm.*;
 import com.wjybxx.fastjgame.net.socket.*;
 import com.wjybxx.fastjgame.net.ws.WsClientChannelInitializer;
 import com.wjybxx.fastjgame.net.ws.WsServerChannelInitializer;
@@ -91,7 +94,7 @@ public class DefaultNetContext implements NetContext {
         final TCPClientChannelInitializer initializer = new TCPClientChannelInitializer(sessionId, config, netEventLoop);
 
         final Promise<Session> connectPromise = FutureUtils.newPromise();
-        netEventLoop.post(new ConnectRemoteRequest(sessionId, remoteAddress, config, initializer, this, connectPromise));
+        netEventLoop.post(new ConnectRemoteRequest(sessionId, SocketTransport.TCP, remoteAddress, config, initializer, this, connectPromise));
         return connectPromise;
     }
 
@@ -108,7 +111,26 @@ public class DefaultNetContext implements NetContext {
         final WsClientChannelInitializer initializer = new WsClientChannelInitializer(sessionId, websocketUrl, config, netEventLoop);
 
         final Promise<Session> connectPromise = FutureUtils.newPromise();
-        netEventLoop.post(new ConnectRemoteRequest(sessionId, remoteAddress, config, initializer, this, connectPromise));
+        netEventLoop.post(new ConnectRemoteRequest(sessionId, SocketTransport.TCP, remoteAddress, config, initializer, this, connectPromise));
+        return connectPromise;
+    }
+
+    // ----------------------------------------------- kcp 支持 --------------------------------------------
+
+    @Override
+    public SocketPort bindKcpRange(String host, PortRange portRange, @Nonnull SocketSessionConfig config) throws BindException {
+        SocketPortContext portExtraInfo = new SocketPortContext(this, config);
+        KcpServerChannelInitializer initializer = new KcpServerChannelInitializer(portExtraInfo);
+        return nettyThreadManager.bindKcpRange(host, portRange, config.sndBuffer(), config.rcvBuffer(), config.kcpOptions(), initializer);
+    }
+
+    @Override
+    public FluentFuture<Session> connectKcp(String sessionId, HostAndPort remoteAddress, @Nonnull SocketSessionConfig config) {
+        final NetEventLoop netEventLoop = selectNetEventLoop(sessionId);
+        final KcpClientChannelInitializer initializer = new KcpClientChannelInitializer(sessionId, config, netEventLoop);
+
+        final Promise<Session> connectPromise = FutureUtils.newPromise();
+        netEventLoop.post(new ConnectRemoteRequest(sessionId, SocketTransport.KCP, remoteAddress, config, initializer, this, connectPromise));
         return connectPromise;
     }
 
@@ -131,6 +153,36 @@ public class DefaultNetContext implements NetContext {
         return connectPromise;
     }
 
+    // ----------------------------------------------- 共享内存支持 --------------------------------------------
+
+    @Override
+    public ShmPort bindShm(String portName, @Nonnull ShmSessionConfig config) throws BindException {
+        final DefaultShmPort shmPort = DefaultShmPort.bind(this, portName, config);
+        // 由网络线程定时扫描新的连接
+        selectNetEventLoop(portName).post(shmPort);
+        return shmPort;
+    }
+
+    @Override
+    public FluentFuture<Session> connectShm(String sessionId, String portName, @Nonnull ShmSessionConfig config) {
+        final NetEventLoop netEventLoop = selectNetEventLoop(sessionId);
+        final Promise<Session> connectPromise = FutureUtils.newPromise();
+        netEventLoop.post(new ConnectShmRequest(sessionId, portName, config, this, connectPromise));
+        return connectPromise;
+    }
+
+    @Override
+    public FluentFuture<Session> connectShmOrTcp(String sessionId, String portName, HostAndPort remoteAddress,
+                                                 @Nonnull ShmSessionConfig shmConfig, @Nonnull SocketSessionConfig tcpConfig) {
+        if (ShmUtils.isSupported(shmConfig.shmDir())
+                && ShmUtils.isLocalHost(remoteAddress.getHost())
+                && ShmUtils.isPortBound(shmConfig.shmDir(), portName)) {
+            return connectShm(sessionId, portName, shmConfig);
+        } else {
+            return connectTcp(sessionId, remoteAddress, tcpConfig);
+        }
+    }
+
     // ------------------------------------------------- http 实现 --------------------------------------------
 
     @Override
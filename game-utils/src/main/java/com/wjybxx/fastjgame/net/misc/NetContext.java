@@ -23,6 +23,9 @@ import com.wjybxx.fastjgame.net.local.LocalPort;
 import com.wjybxx.fastjgame.net.local.LocalSession;
 import com.wjybxx.fastjgame.net.local.LocalSessionConfig;
 import com.wjybxx.fastjgame.net.session.Session;
+import com.wjybxx.fastjgame.net.shm.ShmPort;
+import com.wjybxx.fastjgame.net.shm.ShmSession;
+import com.wjybxx.fastjgame.net.shm.ShmSessionConfig;
 import com.wjybxx.fastjgame.net.socket.SocketPort;
 import com.wjybxx.fastjgame.net.socket.SocketSessionConfig;
 import com.wjybxx.fastjgame.util.concurrent.EventLoop;
@@ -128,6 +131,41 @@ public interface NetContext {
      */
     FluentFuture<Session> connectWS(String sessionId, HostAndPort remoteAddress, String websocketUrl, @Nonnull SocketSessionConfig config);
 
+    // ----------------------------------- kcp(udp)支持 ---------------------------------------
+
+    /**
+     * 在指定udp端口监听kcp连接。
+     * kcp在丢包的网络上延迟更低，适合对实时性要求较高的客户端连接，kcp参数见{@link SocketSessionConfig#kcpOptions()}。
+     *
+     * @param host   地址
+     * @param port   端口号
+     * @param config session配置信息
+     * @return netPort
+     */
+    default SocketPort bindKcp(String host, int port, @Nonnull SocketSessionConfig config) throws BindException {
+        return this.bindKcpRange(host, new PortRange(port, port), config);
+    }
+
+    /**
+     * 在指定端口范围内选择一个合适的udp端口监听kcp连接
+     *
+     * @param host      地址
+     * @param portRange 端口范围
+     * @param config    session配置信息
+     * @return netPort
+     */
+    SocketPort bindKcpRange(String host, PortRange portRange, @Nonnull SocketSessionConfig config) throws BindException;
+
+    /**
+     * 以kcp方式连接远程某个udp端口
+     *
+     * @param sessionId     为要建立的session分配一个全局唯一的id，尽量保持有意义。
+     * @param remoteAddress 远程地址
+     * @param config        session配置信息
+     * @return future 如果想消除同步，添加监听器时请绑定EventLoop
+     */
+    FluentFuture<Session> connectKcp(String sessionId, HostAndPort remoteAddress, @Nonnull SocketSessionConfig config);
+
 
     // -------------------------------------- 用于支持JVM内部通信 -------------------------------
 
@@ -155,6 +193,43 @@ public interface NetContext {
      */
     FluentFuture<Session> connectLocal(String sessionId, @Nonnull LocalPort localPort, @Nonnull LocalSessionConfig config);
 
+    // -------------------------------------- 用于支持同一台机器上的进程间通信 -------------------------------
+
+    /**
+     * 绑定一个共享内存端口，用于同一台机器上的其它进程建立会话。
+     * 如果session的双方在同一台linux机器上，那么使用{@link ShmSession}可以省去tcp协议栈和netty管道的开销。
+     *
+     * @param portName 端口名，双方约定
+     * @param config   配置信息
+     * @return netPort
+     * @throws BindException 如果当前环境不支持共享内存，或端口已被其它进程绑定
+     */
+    ShmPort bindShm(String portName, @Nonnull ShmSessionConfig config) throws BindException;
+
+    /**
+     * 与同一台机器上的另一个进程建立共享内存session。
+     *
+     * @param sessionId 为要建立的session分配一个全局唯一的id，尽量保持有意义。
+     * @param portName  对方绑定的端口名
+     * @param config    配置信息
+     * @return future 如果想消除同步，添加监听器时请绑定EventLoop
+     */
+    FluentFuture<Session> connectShm(String sessionId, String portName, @Nonnull ShmSessionConfig config);
+
+    /**
+     * 如果对方与自己在同一台机器上且绑定了共享内存端口，则建立共享内存session，否则以tcp方式建立session。
+     * 注意：对方需要同时绑定共享内存端口和tcp端口。
+     *
+     * @param sessionId     为要建立的session分配一个全局唯一的id，尽量保持有意义。
+     * @param portName      对方绑定的共享内存端口名
+     * @param remoteAddress 对方的tcp地址
+     * @param shmConfig     共享内存session配置
+     * @param tcpConfig     tcp session配置
+     * @return future 如果想消除同步，添加监听器时请绑定EventLoop
+     */
+    FluentFuture<Session> connectShmOrTcp(String sessionId, String portName, HostAndPort remoteAddress,
+                                          @Nonnull ShmSessionConfig shmConfig, @Nonnull SocketSessionConfig tcpConfig);
+
     //  --------------------------------------- http支持 -----------------------------------------
 
     /**
@@ -0,0 +1,117 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 自适应的rpc请求并发限制器(AIMD)，根据请求在应用线程的排队时间调整限制值。
+ * <p>
+ * 为什么依据排队时间而不是执行时间？
+ * 应用线程是单线程的，过载的表现就是任务队列变长，排队时间能直接反映过载程度，且不受业务方法本身耗时的影响。
+ * <p>
+ * 每个session的每个服务一个限制器，只在网络线程使用。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/28
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+class AdaptiveConcurrencyLimiter {
+
+    private final short serviceId;
+    private final ConcurrencyLimitConfig config;
+    private final long targetQueueLatencyNanos;
+
+    private double limit;
+    private int inflight;
+    /**
+     * 最近一次减小限制值的时间，在此之前收到的请求不会再次导致减小，
+     * 避免一次拥塞中排队的所有请求导致限制值连续缩小而崩塌。
+     */
+    private long lastDecreaseNanos;
+
+    AdaptiveConcurrencyLimiter(short serviceId, ConcurrencyLimitConfig config) {
+        this.serviceId = serviceId;
+        this.config = config;
+        this.targetQueueLatencyNanos = config.getTargetQueueLatencyNanos();
+        this.limit = config.getInitialLimit();
+        this.lastDecreaseNanos = System.nanoTime();
+    }
+
+    /**
+     * 尝试获取一个许可
+     *
+     * @return 如果返回false，则表示超出了并发限制，应当拒绝该请求
+     */
+    boolean tryAcquire() {
+        if (inflight >= (int) limit) {
+            final RpcLimiterMetrics limiterMetrics = RpcMetrics.global().limiterMetrics(serviceId);
+            if (limiterMetrics != null) {
+                limiterMetrics.recordRejection();
+            }
+            return false;
+        }
+        inflight++;
+        return true;
+    }
+
+    /**
+     * 请求处理完成，释放许可，并根据排队时间调整限制值
+     *
+     * @param receiveNanos 网络线程收到请求时的{@link System#nanoTime()}
+     * @param startNanos   应用线程开始执行请求时的{@link System#nanoTime()}
+     */
+    void release(long receiveNanos, long startNanos) {
+        final int oldInflight = inflight--;
+        final int oldLimit = (int) limit;
+
+        if (startNanos - receiveNanos > targetQueueLatencyNanos) {
+            if (receiveNanos - lastDecreaseNanos > 0) {
+                limit = Math.max(config.getMinLimit(), limit * config.getBackoffRatio());
+                lastDecreaseNanos = System.nanoTime();
+            }
+        } else if (oldInflight * 2 >= limit) {
+            // 只在限制值被充分使用时增加，否则限制值会无限增长，失去意义
+            limit = Math.min(config.getMaxLimit(), limit + 1.0 / limit);
+        }
+
+        if ((int) limit != oldLimit) {
+            final RpcLimiterMetrics limiterMetrics = RpcMetrics.global().limiterMetrics(serviceId);
+            if (limiterMetrics != null) {
+                limiterMetrics.recordLimit((int) limit);
+            }
+        }
+    }
+
+    /**
+     * 请求未能提交到应用线程，归还许可。
+     * 请求没有排队，不能反映应用线程的负载，因此不调整限制值。
+     */
+    void cancel() {
+        inflight--;
+    }
+
+    int getLimit() {
+        return (int) limit;
+    }
+
+    int getInflight() {
+        return inflight;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.net.eventloop.NetEventLoop;
+import com.wjybxx.fastjgame.net.exception.RpcSessionClosedException;
+import com.wjybxx.fastjgame.net.exception.RpcSessionNotFoundException;
+import com.wjybxx.fastjgame.net.session.Session;
+import com.wjybxx.fastjgame.util.CheckUtils;
+import com.wjybxx.fastjgame.util.concurrent.FluentFuture;
+import com.wjybxx.fastjgame.util.concurrent.FutureUtils;
+import com.wjybxx.fastjgame.util.concurrent.Promise;
+import com.wjybxx.fastjgame.util.function.FunctionUtils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+import static com.wjybxx.fastjgame.util.concurrent.FutureUtils.newFailedFuture;
+
+/**
+ * 批量提交的{@link RpcInvoker}。
+ * <p>
+ * {@link DefaultRpcInvoker}每发送一个消息都会向网络线程提交一个任务，当用户线程在一帧内发送大量消息时，
+ * 任务队列的竞争和任务调度的开销会很明显。该实现将一帧内的调用按照{@link NetEventLoop}缓存起来，
+ * 在{@link #flush()}时(或缓存的调用数到达阈值时)作为一个任务提交给网络线程，网络线程在执行完一批调用后，
+ * 对需要刷新的session统一刷新一次。
+ * <p>
+ * 使用方式：每个用户线程一个实例，在每一帧的末尾调用{@link #flush()}。
+ * <p>
+ * 注意：
+ * 1. 该实现不是线程安全的，只能由创建它的用户线程使用。
+ * 2. 通过同一个实例发送的消息仍然满足先发送的先到，但是和其它invoker发送的消息之间没有顺序保证。
+ * 3. {@link #syncCall(Session, RpcMethodSpec)}会先提交该session所在网络线程的缓存的调用，以保证顺序。
+ * 4. 在{@link #flush()}之前，消息不会发送，因此{@code flush}参数只表示在批次结束时刷新。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/23
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public final class BatchingRpcInvoker implements RpcInvoker {
+
+    private static final int DEFAULT_MAX_BATCH_SIZE = 1024;
+    private static final int INIT_BATCH_CAPACITY = 64;
+
+    private final RpcInvoker syncInvoker = new DefaultRpcInvoker();
+    private final int maxBatchSize;
+    private final Map<NetEventLoop, InvocationBatchTask> batchMap = new IdentityHashMap<>();
+
+    public BatchingRpcInvoker() {
+        this(DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * @param maxBatchSize 单个网络线程缓存的调用数到达该值时立即提交
+     */
+    public BatchingRpcInvoker(int maxBatchSize) {
+        this.maxBatchSize = CheckUtils.requirePositive(maxBatchSize, "maxBatchSize");
+    }
+
+    @Override
+    public void send(@Nullable Session session, @Nonnull RpcMethodSpec<?> message, boolean flush) {
+        send(session, message, MessagePriority.NORMAL, flush);
+    }
+
+    @Override
+    public void send(@Nullable Session session, @Nonnull RpcMethodSpec<?> message, @Nonnull MessagePriority priority, boolean flush) {
+        if (session == null || session.isClosed()) {
+            // session不存在或关闭的情况下丢弃消息
+            return;
+        }
+        addTask(session, new OneWayInvocationTask(session, message, priority, false), flush);
+    }
+
+    @Override
+    public void sendLowPriority(@Nullable Session session, @Nonnull RpcMethodSpec<?> message, @Nullable Object coalesceKey) {
+        if (session == null || session.isClosed()) {
+            // session不存在或关闭的情况下丢弃消息
+            return;
+        }
+        addTask(session, new OneWayInvocationTask(session, message, MessagePriority.BULK, false, true, coalesceKey), false);
+    }
+
+    @Override
+    public <V> FluentFuture<V> call(@Nullable Session session, @Nonnull RpcMethodSpec<V> request, boolean flush) {
+        return call(session, request, MessagePriority.NORMAL, flush);
+    }
+
+    @Override
+    public <V> FluentFuture<V> call(@Nullable Session session, @Nonnull RpcMethodSpec<V> request, @Nonnull MessagePriority priority, boolean flush) {
+        if (session == null) {
+            // session不存在
+            return newFailedFuture(RpcSessionNotFoundException.INSTANCE);
+        }
+
+        if (session.isClosed()) {
+            // session关闭状态下直接返回
+            return newFailedFuture(RpcSessionClosedException.INSTANCE);
+        }
+
+        final Promise<V> promise = FutureUtils.newPromise();
+        addTask(session, new RpcRequestInvocationTask(session, request, false, session.config().getAsyncRpcTimeoutMs(), priority, promise, false), flush);
+
+        // 回调到用户线程
+        return promise.whenCompleteAsync(FunctionUtils.emptyBiConsumer(), session.appEventLoop());
+    }
+
+    @Nullable
+    @Override
+    public <V> V syncCall(@Nullable Session session, @Nonnull RpcMethodSpec<V> request) throws CompletionException {
+        return syncCall(session, request, MessagePriority.NORMAL);
+    }
+
+    @Nullable
+    @Override
+    public <V> V syncCall(@Nullable Session session, @Nonnull RpcMethodSpec<V> request, @Nonnull MessagePriority priority) throws CompletionException {
+        if (session != null) {
+            // 先提交之前的调用，保证顺序
+            flush(session.netEventLoop());
+        }
+        return syncInvoker.syncCall(session, request, priority);
+    }
+
+    @Override
+    public <E> RpcStream<E> callStream(@Nullable Session session, @Nonnull RpcMethodSpec<? extends RpcStreamSource<E>> request, int window) {
+        CheckUtils.requirePositive(window, "window");
+        final DefaultRpcStream<E> stream = new DefaultRpcStream<>(session, window);
+        if (session == null) {
+            // session不存在
+            stream.onFailure(RpcSessionNotFoundException.INSTANCE);
+            return stream;
+        }
+
+        if (session.isClosed()) {
+            // session关闭状态下直接返回
+            stream.onFailure(RpcSessionClosedException.INSTANCE);
+            return stream;
+        }
+
+        addTask(session, new RpcStreamInvocationTask(session, request, stream, false), true);
+        return stream;
+    }
+
+    private void addTask(Session session, InvocationTask task, boolean flush) {
+        final NetEventLoop netEventLoop = session.netEventLoop();
+        final InvocationBatchTask batchTask = batchMap.computeIfAbsent(netEventLoop, k -> new InvocationBatchTask(Math.min(INIT_BATCH_CAPACITY, maxBatchSize)));
+        batchTask.add(session, task, flush);
+
+        if (batchTask.size() >= maxBatchSize) {
+            flush(netEventLoop);
+        }
+    }
+
+    /**
+     * 提交指定网络线程缓存的调用
+     */
+    private void flush(NetEventLoop netEventLoop) {
+        final InvocationBatchTask batchTask = batchMap.remove(netEventLoop);
+        if (batchTask != null) {
+            netEventLoop.execute(batchTask);
+        }
+    }
+
+    /**
+     * 提交所有缓存的调用，应该在用户线程每一帧的末尾调用。
+     */
+    public void flush() {
+        if (batchMap.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<NetEventLoop, InvocationBatchTask> entry : batchMap.entrySet()) {
+            entry.getKey().execute(entry.getValue());
+        }
+        batchMap.clear();
+    }
+
+    /**
+     * @return 当前缓存的尚未提交的调用数
+     */
+    public int pendingInvocations() {
+        int result = 0;
+        for (InvocationBatchTask batchTask : batchMap.values()) {
+            result += batchTask.size();
+        }
+        return result;
+    }
+}
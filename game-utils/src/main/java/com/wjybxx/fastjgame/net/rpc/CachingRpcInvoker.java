@@ -0,0 +1,377 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.net.session.Session;
+import com.wjybxx.fastjgame.util.CheckUtils;
+import com.wjybxx.fastjgame.util.concurrent.FluentFuture;
+import com.wjybxx.fastjgame.util.concurrent.FutureUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+/**
+ * 支持结果缓存的{@link RpcInvoker}，只对{@link RpcCacheable}标记的方法生效，其它调用直接交给被代理的invoker。
+ * <p>
+ * 1. 缓存的键为：sessionId + serviceId + methodId + 序列化后的方法参数，因此参数相同(序列化结果相同)的调用会命中同一个缓存。
+ * 2. 缓存的结果在{@link RpcCacheable#ttlMs()}后过期，缓存的数量超过{@code maxSize}时，淘汰最久未访问的结果。
+ * 过期的结果在再次读取时删除，每次写入新结果之前也会从最久未访问的结果开始清理一部分过期的结果，
+ * 避免不再读取的过期结果一直占用空间，并把有效的结果挤出缓存。
+ * 3. 正在执行的相同的异步调用会被合并，只发送一次请求，所有调用者共享同一个{@code Future}。
+ * 4. 失败的调用不会被缓存。
+ * <p>
+ * 使用方式：每个用户线程(appEventLoop)一个实例，只能在session的{@link Session#appEventLoop()}中使用。
+ * 注意：缓存的结果会被多个调用者共享，调用者不可以修改结果对象。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/30
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public final class CachingRpcInvoker implements RpcInvoker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingRpcInvoker.class);
+
+    private static final int DEFAULT_MAX_SIZE = 4096;
+    /**
+     * 每次写入时最多检查的结果数，避免一次清理太多造成卡顿
+     */
+    private static final int SWEEP_LIMIT = 16;
+
+    private final RpcInvoker delegate;
+    private final int maxSize;
+    private final LinkedHashMap<CacheKey, CacheEntry> cacheMap;
+    private final Map<CacheKey, FluentFuture<?>> inflightMap = new HashMap<>();
+
+    private long hitCount;
+    private long coalescedCount;
+    private long missCount;
+    private long evictionCount;
+    private long expiredCount;
+
+    public CachingRpcInvoker(RpcInvoker delegate) {
+        this(delegate, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param delegate 真正执行调用的invoker
+     * @param maxSize  最多缓存的结果数
+     */
+    public CachingRpcInvoker(RpcInvoker delegate, int maxSize) {
+        this.delegate = delegate;
+        this.maxSize = CheckUtils.requirePositive(maxSize, "maxSize");
+        // accessOrder为true，实现LRU淘汰
+        this.cacheMap = new LinkedHashMap<>(Math.min(maxSize, 64), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, CacheEntry> eldest) {
+                if (size() > CachingRpcInvoker.this.maxSize) {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public void send(@Nullable Session session, @Nonnull RpcMethodSpec<?> message, boolean flush) {
+        delegate.send(session, message, flush);
+    }
+
+    @Override
+    public void send(@Nullable Session session, @Nonnull RpcMethodSpec<?> message, @Nonnull MessagePriority priority, boolean flush) {
+        delegate.send(session, message, priority, flush);
+    }
+
+    @Override
+    public void sendLowPriority(@Nullable Session session, @Nonnull RpcMethodSpec<?> message, @Nullable Object coalesceKey) {
+        delegate.sendLowPriority(session, message, coalesceKey);
+    }
+
+    @Override
+    public <V> FluentFuture<V> call(@Nullable Session session, @Nonnull RpcMethodSpec<V> request, boolean flush) {
+        return call(session, request, MessagePriority.NORMAL, flush);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <V> FluentFuture<V> call(@Nullable Session session, @Nonnull RpcMethodSpec<V> request, @Nonnull MessagePriority priority, boolean flush) {
+        final CacheKey key = newCacheKey(session, request);
+        if (key == null) {
+            return delegate.call(session, request, priority, flush);
+        }
+
+        final CacheEntry entry = getCacheEntry(key);
+        if (entry != null) {
+            onHit(request, false);
+            return FutureUtils.newSucceedFuture((V) entry.result);
+        }
+
+        final FluentFuture<?> inflightFuture = inflightMap.get(key);
+        if (inflightFuture != null) {
+            onHit(request, true);
+            return (FluentFuture<V>) inflightFuture;
+        }
+
+        missCount++;
+        final int ttlMs = ((DefaultRpcMethodSpec<?>) request).getCacheTtlMs();
+        final FluentFuture<V> future = delegate.call(session, request, priority, flush);
+        inflightMap.put(key, future);
+        // 在用户线程中更新缓存，保证线程封闭
+        future.addListener(f -> {
+            if (inflightMap.get(key) == future) {
+                inflightMap.remove(key);
+            }
+            if (!f.isCompletedExceptionally()) {
+                putCacheEntry(key, f.getNow(), ttlMs);
+            }
+        }, session.appEventLoop());
+        return future;
+    }
+
+    /**
+     * 同步调用会检查缓存，但不会合并到正在执行的异步调用(异步调用的结果需要在当前线程中处理，等待它会导致死锁)。
+     */
+    @Nullable
+    @Override
+    public <V> V syncCall(@Nullable Session session, @Nonnull RpcMethodSpec<V> request) throws CompletionException {
+        return syncCall(session, request, MessagePriority.NORMAL);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    @Override
+    public <V> V syncCall(@Nullable Session session, @Nonnull RpcMethodSpec<V> request, @Nonnull MessagePriority priority) throws CompletionException {
+        final CacheKey key = newCacheKey(session, request);
+        if (key == null) {
+            return delegate.syncCall(session, request, priority);
+        }
+
+        final CacheEntry entry = getCacheEntry(key);
+        if (entry != null) {
+            onHit(request, false);
+            return (V) entry.result;
+        }
+
+        missCount++;
+        final V result = delegate.syncCall(session, request, priority);
+        putCacheEntry(key, result, ((DefaultRpcMethodSpec<?>) request).getCacheTtlMs());
+        return result;
+    }
+
+    @Override
+    public <E> RpcStream<E> callStream(@Nullable Session session, @Nonnull RpcMethodSpec<? extends RpcStreamSource<E>> request, int window) {
+        return delegate.callStream(session, request, window);
+    }
+
+    /**
+     * @return 如果该调用不可缓存，则返回null
+     */
+    @Nullable
+    private static CacheKey newCacheKey(@Nullable Session session, RpcMethodSpec<?> request) {
+        if (session == null || !(request instanceof DefaultRpcMethodSpec)) {
+            return null;
+        }
+        final DefaultRpcMethodSpec<?> methodSpec = (DefaultRpcMethodSpec<?>) request;
+        if (methodSpec.getCacheTtlMs() <= 0) {
+            return null;
+        }
+        try {
+            final byte[] paramsBytes = session.config().serializer().toBytes(methodSpec.getMethodParams());
+            return new CacheKey(session.sessionId(), methodSpec.getServiceId(), methodSpec.getMethodId(), paramsBytes);
+        } catch (Exception e) {
+            // 参数无法序列化，不缓存，交给真正的调用处理异常
+            logger.warn("serialize methodParams caught exception, serviceId {}, methodId {}",
+                    methodSpec.getServiceId(), methodSpec.getMethodId(), e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private CacheEntry getCacheEntry(CacheKey key) {
+        final CacheEntry entry = cacheMap.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expireTimeMillis <= System.currentTimeMillis()) {
+            cacheMap.remove(key);
+            expiredCount++;
+            return null;
+        }
+        return entry;
+    }
+
+    private void putCacheEntry(CacheKey key, Object result, int ttlMs) {
+        final long curTimeMillis = System.currentTimeMillis();
+        sweepExpired(curTimeMillis, SWEEP_LIMIT);
+        cacheMap.put(key, new CacheEntry(result, curTimeMillis + ttlMs));
+    }
+
+    /**
+     * 从最久未访问的结果开始删除已过期的结果。
+     * 不同方法的过期时间不同，因此遇见未过期的结果时不停止，只限制检查的数量。
+     *
+     * @param limit 最多检查的结果数
+     * @return 删除的结果数
+     */
+    private int sweepExpired(long curTimeMillis, int limit) {
+        int removed = 0;
+        // 遍历不会改变访问顺序
+        final Iterator<CacheEntry> itr = cacheMap.values().iterator();
+        for (int checked = 0; checked < limit && itr.hasNext(); checked++) {
+            if (itr.next().expireTimeMillis <= curTimeMillis) {
+                itr.remove();
+                removed++;
+            }
+        }
+        expiredCount += removed;
+        return removed;
+    }
+
+    private void onHit(RpcMethodSpec<?> request, boolean coalesced) {
+        if (coalesced) {
+            coalescedCount++;
+        } else {
+            hitCount++;
+        }
+        final RpcMethodMetrics methodMetrics = RpcMetrics.global().methodMetrics(request);
+        if (methodMetrics != null) {
+            methodMetrics.recordClientCacheHit(coalesced);
+        }
+    }
+
+    /**
+     * 删除所有已过期的结果，可以定时调用
+     *
+     * @return 删除的结果数
+     */
+    public int cleanUp() {
+        return sweepExpired(System.currentTimeMillis(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * 删除所有缓存的结果，不影响正在执行的调用
+     */
+    public void invalidateAll() {
+        cacheMap.clear();
+    }
+
+    /**
+     * 删除指定session相关的所有缓存的结果，通常在session断开时调用
+     */
+    public void invalidate(String sessionId) {
+        cacheMap.keySet().removeIf(key -> key.sessionId.equals(sessionId));
+    }
+
+    /**
+     * @return 当前缓存的结果数(包括已过期但尚未删除的)
+     */
+    public int size() {
+        return cacheMap.size();
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return 因过期而删除的结果数
+     */
+    public long getExpiredCount() {
+        return expiredCount;
+    }
+
+    /**
+     * @return 命中率(合并的调用也视为命中)，没有调用时返回0
+     */
+    public double getHitRate() {
+        final long served = hitCount + coalescedCount;
+        final long total = served + missCount;
+        return total == 0 ? 0 : (double) served / total;
+    }
+
+    private static class CacheKey {
+
+        private final String sessionId;
+        private final short serviceId;
+        private final short methodId;
+        private final byte[] paramsBytes;
+        private final int hash;
+
+        CacheKey(String sessionId, short serviceId, short methodId, byte[] paramsBytes) {
+            this.sessionId = sessionId;
+            this.serviceId = serviceId;
+            this.methodId = methodId;
+            this.paramsBytes = paramsBytes;
+            this.hash = 31 * (31 * (31 * sessionId.hashCode() + serviceId) + methodId) + Arrays.hashCode(paramsBytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final CacheKey that = (CacheKey) o;
+            return hash == that.hash
+                    && serviceId == that.serviceId
+                    && methodId == that.methodId
+                    && sessionId.equals(that.sessionId)
+                    && Arrays.equals(paramsBytes, that.paramsBytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class CacheEntry {
+
+        private final Object result;
+        private final long expireTimeMillis;
+
+        CacheEntry(Object result, long expireTimeMillis) {
+            this.result = result;
+            this.expireTimeMillis = expireTimeMillis;
+        }
+    }
+}
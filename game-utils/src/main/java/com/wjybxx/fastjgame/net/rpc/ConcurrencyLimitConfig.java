@@ -0,0 +1,145 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.util.CheckUtils;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * rpc请求并发限制配置。
+ * 请求在应用线程的排队时间超过{@link #getTargetQueueLatencyMs()}时，限制值乘以{@link #getBackoffRatio()}；
+ * 否则在限制值被充分使用时缓慢增加(每完成约limit个请求增加1)。
+ * 未完成的请求数达到限制值时，新的请求将被直接拒绝，返回{@link RpcErrorCode#SERVER_OVERLOADED}。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/28
+ * github - https://github.com/hl845740757
+ */
+@Immutable
+public class ConcurrencyLimitConfig {
+
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int targetQueueLatencyMs;
+    private final double backoffRatio;
+
+    private ConcurrencyLimitConfig(Builder builder) {
+        this.initialLimit = builder.initialLimit;
+        this.minLimit = builder.minLimit;
+        this.maxLimit = builder.maxLimit;
+        this.targetQueueLatencyMs = builder.targetQueueLatencyMs;
+        this.backoffRatio = builder.backoffRatio;
+    }
+
+    /**
+     * @return 初始的并发限制
+     */
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+    /**
+     * @return 并发限制的下限
+     */
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    /**
+     * @return 并发限制的上限
+     */
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * @return 期望的最大排队时间，毫秒
+     */
+    public int getTargetQueueLatencyMs() {
+        return targetQueueLatencyMs;
+    }
+
+    long getTargetQueueLatencyNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(targetQueueLatencyMs);
+    }
+
+    /**
+     * @return 排队时间超出期望时，限制值的缩小比例
+     */
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private int initialLimit = 64;
+        private int minLimit = 4;
+        private int maxLimit = 1024;
+        private int targetQueueLatencyMs = 20;
+        private double backoffRatio = 0.9;
+
+        public Builder setInitialLimit(int initialLimit) {
+            this.initialLimit = CheckUtils.requirePositive(initialLimit, "initialLimit");
+            return this;
+        }
+
+        public Builder setMinLimit(int minLimit) {
+            this.minLimit = CheckUtils.requirePositive(minLimit, "minLimit");
+            return this;
+        }
+
+        public Builder setMaxLimit(int maxLimit) {
+            this.maxLimit = CheckUtils.requirePositive(maxLimit, "maxLimit");
+            return this;
+        }
+
+        public Builder setTargetQueueLatencyMs(int targetQueueLatencyMs) {
+            this.targetQueueLatencyMs = CheckUtils.requirePositive(targetQueueLatencyMs, "targetQueueLatencyMs");
+            return this;
+        }
+
+        public Builder setBackoffRatio(double backoffRatio) {
+            if (backoffRatio <= 0 || backoffRatio >= 1) {
+                throw new IllegalArgumentException("backoffRatio " + backoffRatio + " must between (0, 1)");
+            }
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        public ConcurrencyLimitConfig build() {
+            checkParam();
+            return new ConcurrencyLimitConfig(this);
+        }
+
+        private void checkParam() {
+            if (minLimit > maxLimit) {
+                throw new IllegalArgumentException("minLimit " + minLimit + " > maxLimit " + maxLimit);
+            }
+            if (initialLimit < minLimit || initialLimit > maxLimit) {
+                throw new IllegalArgumentException("initialLimit " + initialLimit + " must between [" + minLimit + ", " + maxLimit + "]");
+            }
+        }
+    }
+}
@@ -20,6 +20,7 @@ import com.wjybxx.fastjgame.net.exception.RpcSessionClosedException;
 import com.wjybxx.fastjgame.net.exception.RpcSessionNotFoundException;
 import com.wjybxx.fastjgame.net.exception.RpcTimeoutException;
 import com.wjybxx.fastjgame.net.session.Session;
+import com.wjybxx.fastjgame.util.CheckUtils;
 import com.wjybxx.fastjgame.util.concurrent.FluentFuture;
 import com.wjybxx.fastjgame.util.concurrent.FutureUtils;
 import com.wjybxx.fastjgame.util.concurrent.Promise;
@@ -39,20 +40,44 @@ import static com.wjybxx.fastjgame.util.concurrent.FutureUtils.newFailedFuture;
  */
 public final class DefaultRpcInvoker implements RpcInvoker {
 
+    /**
+     * 同步rpc调用自旋时，每轮自旋次数的上限
+     */
+    private static final int MAX_SPINS_PER_ROUND = 64;
+
     public DefaultRpcInvoker() {
     }
 
     @Override
     public void send(@Nullable Session session, @Nonnull RpcMethodSpec<?> message, boolean flush) {
+        send(session, message, MessagePriority.NORMAL, flush);
+    }
+
+    @Override
+    public void send(@Nullable Session session, @Nonnull RpcMethodSpec<?> message, @Nonnull MessagePriority priority, boolean flush) {
         if (session == null || session.isClosed()) {
             // session不存在或关闭的情况下丢弃消息
             return;
         }
-        session.netEventLoop().execute(new OneWayInvocationTask(session, message, flush));
+        session.netEventLoop().execute(new OneWayInvocationTask(session, message, priority, flush));
+    }
+
+    @Override
+    public void sendLowPriority(@Nullable Session session, @Nonnull RpcMethodSpec<?> message, @Nullable Object coalesceKey) {
+        if (session == null || session.isClosed()) {
+            // session不存在或关闭的情况下丢弃消息
+            return;
+        }
+        session.netEventLoop().execute(new OneWayInvocationTask(session, message, MessagePriority.BULK, false, true, coalesceKey));
     }
 
     @Override
     public <V> FluentFuture<V> call(@Nullable Session session, @Nonnull RpcMethodSpec<V> request, boolean flush) {
+        return call(session, request, MessagePriority.NORMAL, flush);
+    }
+
+    @Override
+    public <V> FluentFuture<V> call(@Nullable Session session, @Nonnull RpcMethodSpec<V> request, @Nonnull MessagePriority priority, boolean flush) {
         if (session == null) {
             // session不存在
             return newSessionNotFoundFuture();
@@ -66,7 +91,7 @@ public final class DefaultRpcInvoker implements RpcInvoker {
         // 会话活动的状态下才会发送
         final Promise<V> promise = FutureUtils.newPromise();
         session.netEventLoop()
-                .execute(new RpcRequestInvocationTask(session, request, false, session.config().getAsyncRpcTimeoutMs(), promise, flush));
+                .execute(new RpcRequestInvocationTask(session, request, false, session.config().getAsyncRpcTimeoutMs(), priority, promise, flush));
 
         // 回调到用户线程
         return promise.whenCompleteAsync(FunctionUtils.emptyBiConsumer(), session.appEventLoop());
@@ -75,6 +100,12 @@ public final class DefaultRpcInvoker implements RpcInvoker {
     @Nullable
     @Override
     public <V> V syncCall(@Nullable Session session, @Nonnull RpcMethodSpec<V> request) throws CompletionException {
+        return syncCall(session, request, MessagePriority.NORMAL);
+    }
+
+    @Nullable
+    @Override
+    public <V> V syncCall(@Nullable Session session, @Nonnull RpcMethodSpec<V> request, @Nonnull MessagePriority priority) throws CompletionException {
         if (session == null) {
             // session不存在
             final FluentFuture<V> future = newSessionNotFoundFuture();
@@ -91,7 +122,13 @@ public final class DefaultRpcInvoker implements RpcInvoker {
         final long syncRpcTimeoutMs = session.config().getSyncRpcTimeoutMs();
 
         session.netEventLoop()
-                .execute(new RpcRequestInvocationTask(session, request, true, syncRpcTimeoutMs, promise, true));
+                .execute(new RpcRequestInvocationTask(session, request, true, syncRpcTimeoutMs, priority, promise, true));
+
+        final long syncRpcSpinMicros = session.config().getSyncRpcSpinMicros();
+        if (syncRpcSpinMicros > 0) {
+            // 先自旋一段时间，对于延迟很低的调用，可以避免park/unpark的开销
+            spinUntilDone(promise, TimeUnit.MICROSECONDS.toNanos(syncRpcSpinMicros));
+        }
 
         if (!promise.awaitUninterruptibly(syncRpcTimeoutMs, TimeUnit.MILLISECONDS)) {
             promise.tryFailure(RpcTimeoutException.INSTANCE);
@@ -100,6 +137,46 @@ public final class DefaultRpcInvoker implements RpcInvoker {
         return promise.getNow();
     }
 
+    /**
+     * 自旋等待promise完成，超过指定时间后返回。
+     * 每轮自旋的次数指数增长(有上限)，每轮结束时检查一次时间，以减少{@link System#nanoTime()}的调用。
+     */
+    private static void spinUntilDone(Promise<?> promise, long spinNanos) {
+        final long deadline = System.nanoTime() + spinNanos;
+        int spinsPerRound = 1;
+        while (!promise.isDone()) {
+            for (int index = 0; index < spinsPerRound; index++) {
+                Thread.onSpinWait();
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                return;
+            }
+            if (spinsPerRound < MAX_SPINS_PER_ROUND) {
+                spinsPerRound <<= 1;
+            }
+        }
+    }
+
+    @Override
+    public <E> RpcStream<E> callStream(@Nullable Session session, @Nonnull RpcMethodSpec<? extends RpcStreamSource<E>> request, int window) {
+        CheckUtils.requirePositive(window, "window");
+        final DefaultRpcStream<E> stream = new DefaultRpcStream<>(session, window);
+        if (session == null) {
+            // session不存在
+            stream.onFailure(RpcSessionNotFoundException.INSTANCE);
+            return stream;
+        }
+
+        if (session.isClosed()) {
+            // session关闭状态下直接返回
+            stream.onFailure(RpcSessionClosedException.INSTANCE);
+            return stream;
+        }
+
+        session.netEventLoop().execute(new RpcStreamInvocationTask(session, request, stream, true));
+        return stream;
+    }
+
     private static <V> FluentFuture<V> newSessionNotFoundFuture() {
         return newFailedFuture(RpcSessionNotFoundException.INSTANCE);
     }
@@ -17,6 +17,8 @@
 package com.wjybxx.fastjgame.net.rpc;
 
 
+import com.wjybxx.fastjgame.net.binary.BinarySerializer;
+import com.wjybxx.fastjgame.net.binary.EncodedValue;
 import com.wjybxx.fastjgame.net.binary.ObjectReader;
 import com.wjybxx.fastjgame.net.binary.ObjectWriter;
 import com.wjybxx.fastjgame.net.binary.PojoCodecImpl;
@@ -65,13 +67,23 @@ public class DefaultRpcMethodSpec<V> implements RpcMethodSpec<V> {
      * 需要序列化到接收方，真正的接收方在反序列化该对象的时候，才会使用到。
      */
     private final int preIndexes;
+    /**
+     * 调用方缓存结果的有效时间(毫秒)，0表示不可缓存，见{@link RpcCacheable}。
+     * 该参数只在调用方使用，不需要序列化。
+     */
+    private final int cacheTtlMs;
 
     public DefaultRpcMethodSpec(short serviceId, short methodId, List<Object> methodParams, int lazyIndexes, int preIndexes) {
+        this(serviceId, methodId, methodParams, lazyIndexes, preIndexes, 0);
+    }
+
+    public DefaultRpcMethodSpec(short serviceId, short methodId, List<Object> methodParams, int lazyIndexes, int preIndexes, int cacheTtlMs) {
         this.serviceId = serviceId;
         this.methodId = methodId;
         this.methodParams = methodParams;
         this.lazyIndexes = lazyIndexes;
         this.preIndexes = preIndexes;
+        this.cacheTtlMs = cacheTtlMs;
     }
 
     public short getServiceId() {
@@ -94,6 +106,10 @@ public class DefaultRpcMethodSpec<V> implements RpcMethodSpec<V> {
         return preIndexes;
     }
 
+    public int getCacheTtlMs() {
+        return cacheTtlMs;
+    }
+
     @Override
     public String toString() {
         return "DefaultRpcMethodSpec{" +
@@ -102,6 +118,7 @@ public class DefaultRpcMethodSpec<V> implements RpcMethodSpec<V> {
                 ", methodParams=" + methodParams +
                 ", lazyIndexes=" + lazyIndexes +
                 ", preIndexes=" + preIndexes +
+                ", cacheTtlMs=" + cacheTtlMs +
                 '}';
     }
 
@@ -129,6 +146,10 @@ public class DefaultRpcMethodSpec<V> implements RpcMethodSpec<V> {
         }
 
         private List<Object> doPreDeserialize(ObjectReader reader, int preIndexes) throws Exception {
+            final BinarySerializer serializer = reader.serializer();
+            final boolean lazyDecode = serializer.isLazyDecodeRpcParams();
+            boolean hasEncodedValue = false;
+
             final ObjectReader.ReaderContext context = reader.readStartObject();
             // 方法参数一般小于等于4个，扩容一次6个也足够，超过6个参数的方法应该重构
             final List<Object> methodParams = new ArrayList<>(4);
@@ -136,12 +157,20 @@ public class DefaultRpcMethodSpec<V> implements RpcMethodSpec<V> {
                 final Object newParameter;
                 if (preIndexes > 0 && (preIndexes & (1L << index)) != 0) {
                     newParameter = reader.readPreDeserializeObject();
+                } else if (lazyDecode) {
+                    newParameter = reader.readLazyDecodeObject();
+                    hasEncodedValue |= newParameter instanceof EncodedValue;
                 } else {
                     newParameter = reader.readObject();
                 }
                 methodParams.add(newParameter);
             }
             reader.readEndObject(context);
+
+            if (hasEncodedValue) {
+                // 在被调用的方法获取参数时解码
+                return new LazyDecodeParamList(serializer, methodParams.toArray());
+            }
             return methodParams;
         }
 
@@ -156,8 +185,10 @@ public class DefaultRpcMethodSpec<V> implements RpcMethodSpec<V> {
 
         private void doLazySerialize(ObjectWriter writer, final List<Object> methodParams, final int lazyIndexes) throws Exception {
             final ObjectWriter.WriterContext context = writer.writeStartObject(TypeId.DEFAULT_LIST);
+            // 尚未解码的参数直接写入原始内容，避免转发时的解码和重新编码
+            final LazyDecodeParamList lazyDecodeParams = methodParams instanceof LazyDecodeParamList ? (LazyDecodeParamList) methodParams : null;
             for (int index = 0, size = methodParams.size(); index < size; index++) {
-                final Object parameter = methodParams.get(index);
+                final Object parameter = lazyDecodeParams != null ? lazyDecodeParams.getUndecoded(index) : methodParams.get(index);
                 if (lazyIndexes > 0 && (lazyIndexes & (1L << index)) != 0) {
                     writer.writeLazySerializeObject(parameter);
                 } else {
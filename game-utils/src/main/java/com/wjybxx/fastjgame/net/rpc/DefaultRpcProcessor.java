@@ -16,14 +16,17 @@
 
 package com.wjybxx.fastjgame.net.rpc;
 
-import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
-
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Arrays;
 import java.util.List;
 
 /**
+ * 默认的rpc处理器。
+ * <p>
+ * 方法代理使用 serviceId 和 methodId 作为下标的二维数组保存，派发时只需要两次数组寻址，不需要计算hash。
+ * serviceId 和 methodId 都是较小的非负数（methodId 在[0,9999]之间），且一个进程注册的服务通常不多，因此数组是稠密的。
+ *
  * @author wjybxx
  * @version 1.0
  * date - 2019/8/26
@@ -31,10 +34,17 @@ import java.util.List;
  */
 public class DefaultRpcProcessor implements RpcMethodProxyRegistry, RpcProcessor {
 
+    private static final RpcMethodProxy[] EMPTY_PROXIES = new RpcMethodProxy[0];
+    private static final TypedRpcMethodProxy[] EMPTY_TYPED_PROXIES = new TypedRpcMethodProxy[0];
+
+    /**
+     * 所有的Rpc请求处理函数, [serviceId][methodId] -> methodProxy
+     */
+    private RpcMethodProxy[][] proxies = new RpcMethodProxy[0][];
     /**
-     * 所有的Rpc请求处理函数, methodKey -> methodProxy
+     * 所有的类型化Rpc请求处理函数, [serviceId][methodId] -> methodProxy
      */
-    private final Int2ObjectMap<RpcMethodProxy> proxyMap = new Int2ObjectOpenHashMap<>(512);
+    private TypedRpcMethodProxy[][] typedProxies = new TypedRpcMethodProxy[0][];
 
     public DefaultRpcProcessor() {
 
@@ -42,12 +52,64 @@ public class DefaultRpcProcessor implements RpcMethodProxyRegistry, RpcProcessor
 
     @Override
     public final void register(short serviceId, short methodId, @Nonnull RpcMethodProxy proxy) {
+        proxies = addProxy(proxies, EMPTY_PROXIES, serviceId, methodId, proxy);
+    }
+
+    @Override
+    public final void registerTyped(short serviceId, short methodId, @Nonnull TypedRpcMethodProxy proxy) {
+        typedProxies = addProxy(typedProxies, EMPTY_TYPED_PROXIES, serviceId, methodId, proxy);
+    }
+
+    /**
+     * 将方法代理保存到[serviceId][methodId]，数组长度不足时扩容
+     *
+     * @param table        [serviceId][methodId] -> methodProxy
+     * @param emptyProxies 对应类型的空数组，用于创建新的服务数组
+     * @return 扩容后的数组
+     */
+    private static <T> T[][] addProxy(T[][] table, T[] emptyProxies, short serviceId, short methodId, T proxy) {
+        checkMethodKey(serviceId, methodId);
+
+        if (serviceId >= table.length) {
+            table = Arrays.copyOf(table, serviceId + 1);
+        }
+        T[] serviceProxies = table[serviceId];
+        if (null == serviceProxies) {
+            serviceProxies = emptyProxies;
+        }
+        if (methodId >= serviceProxies.length) {
+            serviceProxies = Arrays.copyOf(serviceProxies, methodId + 1);
+            table[serviceId] = serviceProxies;
+        }
+
         // rpc请求id不可以重复
-        final int methodKey = calMethodKey(serviceId, methodId);
-        if (proxyMap.containsKey(methodKey)) {
-            throw new IllegalArgumentException("methodKey " + methodKey + " is already registered!");
+        if (serviceProxies[methodId] != null) {
+            throw new IllegalArgumentException("methodKey " + calMethodKey(serviceId, methodId) + " is already registered!");
+        }
+        serviceProxies[methodId] = proxy;
+        return table;
+    }
+
+    /**
+     * @param table [serviceId][methodId] -> methodProxy
+     * @return 如果未注册，则返回null
+     */
+    @Nullable
+    private static <T> T getProxy(T[][] table, short serviceId, short methodId) {
+        if (serviceId < 0 || serviceId >= table.length) {
+            return null;
+        }
+        final T[] serviceProxies = table[serviceId];
+        if (null == serviceProxies || methodId < 0 || methodId >= serviceProxies.length) {
+            return null;
+        }
+        return serviceProxies[methodId];
+    }
+
+    private static void checkMethodKey(short serviceId, short methodId) {
+        if (serviceId < 0 || methodId < 0) {
+            throw new IllegalArgumentException("serviceId " + serviceId + " and methodId " + methodId + " must be non-negative");
         }
-        proxyMap.put(methodKey, proxy);
     }
 
     private static int calMethodKey(short serviceId, short methodId) {
@@ -58,7 +120,8 @@ public class DefaultRpcProcessor implements RpcMethodProxyRegistry, RpcProcessor
      * 释放所有捕获的对象，避免内存泄漏
      */
     public final void release() {
-        proxyMap.clear();
+        proxies = new RpcMethodProxy[0][];
+        typedProxies = new TypedRpcMethodProxy[0][];
     }
 
     @Override
@@ -67,7 +130,9 @@ public class DefaultRpcProcessor implements RpcMethodProxyRegistry, RpcProcessor
             throw new IllegalArgumentException(context.session().sessionId() + " send null request");
         }
 
-        if (request instanceof DefaultRpcMethodSpec) {
+        if (request instanceof TypedRpcMethodSpec) {
+            return postTyped(context, (TypedRpcMethodSpec<?>) request);
+        } else if (request instanceof DefaultRpcMethodSpec) {
             return postImp(context, (DefaultRpcMethodSpec) request);
         } else {
             return post0(context, request);
@@ -75,8 +140,7 @@ public class DefaultRpcProcessor implements RpcMethodProxyRegistry, RpcProcessor
     }
 
     private Object postImp(@Nonnull RpcProcessContext context, @Nonnull DefaultRpcMethodSpec<?> rpcMethodSpec) throws Exception {
-        final int methodKey = calMethodKey(rpcMethodSpec.getServiceId(), rpcMethodSpec.getMethodId());
-        final RpcMethodProxy methodProxy = proxyMap.get(methodKey);
+        final RpcMethodProxy methodProxy = getProxy(proxies, rpcMethodSpec.getServiceId(), rpcMethodSpec.getMethodId());
         if (null == methodProxy) {
             final String msg = String.format("rcv unknown request, session %s, serviceId=%d methodId=%d",
                     context.session().sessionId(), rpcMethodSpec.getServiceId(), rpcMethodSpec.getMethodId());
@@ -93,8 +157,25 @@ public class DefaultRpcProcessor implements RpcMethodProxyRegistry, RpcProcessor
         }
     }
 
+    private Object postTyped(@Nonnull RpcProcessContext context, @Nonnull TypedRpcMethodSpec<?> rpcMethodSpec) throws Exception {
+        final TypedRpcMethodProxy methodProxy = getProxy(typedProxies, rpcMethodSpec.getServiceId(), rpcMethodSpec.getMethodId());
+        if (null == methodProxy) {
+            final String msg = String.format("rcv unknown request, session %s, serviceId=%d methodId=%d",
+                    context.session().sessionId(), rpcMethodSpec.getServiceId(), rpcMethodSpec.getMethodId());
+            throw new IllegalArgumentException(msg);
+        }
+
+        try {
+            return methodProxy.invoke(context, rpcMethodSpec);
+        } catch (Exception e) {
+            final String msg = String.format("invoke caught exception, session %s, serviceId=%d methodId=%d",
+                    context.session().sessionId(), rpcMethodSpec.getServiceId(), rpcMethodSpec.getMethodId());
+            throw new RuntimeException(msg, e);
+        }
+    }
+
     /**
-     * 如果rpc描述信息不是{@link DefaultRpcMethodSpec}对象，那么需要自己实现分发操作
+     * 如果rpc描述信息不是{@link DefaultRpcMethodSpec}或{@link TypedRpcMethodSpec}对象，那么需要自己实现分发操作
      */
     protected Object post0(RpcProcessContext context, RpcMethodSpec<?> request) {
         final String msg = String.format("unknown requestType, session %s, requestType=%s",
@@ -0,0 +1,227 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.net.exception.DefaultRpcServerException;
+import com.wjybxx.fastjgame.net.session.Session;
+import com.wjybxx.fastjgame.util.concurrent.FluentFuture;
+import com.wjybxx.fastjgame.util.concurrent.FutureUtils;
+import com.wjybxx.fastjgame.util.concurrent.Promise;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * {@link RpcStream}的默认实现。
+ * 除了{@link #requestGuid}和{@link #pullDeadline}以外，所有状态都只在应用线程访问；{@link #requestGuid}只在网络线程访问。
+ * <p>
+ * 流没有整体的超时时间，但每次等待中的拉取({@link #moveNext()})都有超时时间，与异步rpc调用的超时时间相同。
+ * 网络线程检测到拉取超时后，通知对方停止，并使流以{@link com.wjybxx.fastjgame.net.exception.RpcTimeoutException}失败。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/25
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+class DefaultRpcStream<E> implements RpcStream<E> {
+
+    private final Session session;
+    /**
+     * 初始信用(窗口大小)
+     */
+    private final int window;
+    /**
+     * 每消费多少个元素授予一次信用 - 窗口的一半，避免每消费一个元素就发送一个信用包
+     */
+    private final int grantThreshold;
+
+    /**
+     * 请求的唯一标识，由网络线程分配
+     */
+    long requestGuid;
+
+    private final ArrayDeque<Object> buffer = new ArrayDeque<>();
+    private E current;
+    private Promise<Boolean> pendingPromise;
+    /**
+     * 等待中的拉取的超时时间，0表示没有等待中的拉取；应用线程写，网络线程读
+     */
+    private volatile long pullDeadline;
+    /**
+     * 自上次授予信用以来消费的元素数
+     */
+    private int consumed;
+
+    private boolean end;
+    private boolean cancelled;
+    private Throwable cause;
+
+    DefaultRpcStream(@Nullable Session session, int window) {
+        this.session = session;
+        this.window = window;
+        this.grantThreshold = Math.max(1, window / 2);
+    }
+
+    int window() {
+        return window;
+    }
+
+    @Override
+    public FluentFuture<Boolean> moveNext() {
+        if (pendingPromise != null) {
+            throw new IllegalStateException("previous moveNext is not completed");
+        }
+
+        if (buffer.size() > 0) {
+            moveToNext();
+            return FutureUtils.newSucceedFuture(Boolean.TRUE);
+        }
+
+        current = null;
+        if (cause != null) {
+            return FutureUtils.newFailedFuture(cause);
+        }
+        if (end || cancelled) {
+            return FutureUtils.newSucceedFuture(Boolean.FALSE);
+        }
+
+        pendingPromise = FutureUtils.newPromise();
+        pullDeadline = System.currentTimeMillis() + session.config().getAsyncRpcTimeoutMs();
+        return pendingPromise;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void moveToNext() {
+        current = (E) buffer.pollFirst();
+
+        consumed++;
+        if (consumed >= grantThreshold && !end) {
+            session.netEventLoop().execute(new RpcStreamCreditTask(session, this, consumed));
+            consumed = 0;
+        }
+    }
+
+    @Override
+    public E current() {
+        return current;
+    }
+
+    @Override
+    public void cancel() {
+        if (cancelled || cause != null) {
+            return;
+        }
+        cancelled = true;
+        buffer.clear();
+        current = null;
+        if (!end) {
+            // 对方尚未发送完毕，通知对方停止
+            session.netEventLoop().execute(new RpcStreamCreditTask(session, this, RpcStreamCreditMessage.CANCEL));
+        }
+
+        completePendingPromise();
+    }
+
+    @Override
+    public boolean isDone() {
+        return cancelled || cause != null || (end && buffer.isEmpty());
+    }
+
+    /**
+     * @return 如果不会再接收对方的数据，则返回true
+     */
+    private boolean isClosed() {
+        return end || cancelled || cause != null;
+    }
+
+    /**
+     * 运行在网络线程
+     *
+     * @param curTimeMillis 当前时间
+     * @return 如果存在等待中的拉取，且已超时，则返回true
+     */
+    boolean isPullTimeout(long curTimeMillis) {
+        final long deadline = pullDeadline;
+        return deadline > 0 && curTimeMillis >= deadline;
+    }
+
+    /**
+     * 收到对方的响应帧，运行在应用线程
+     */
+    void onFrame(RpcErrorCode errorCode, boolean end, Object body) {
+        if (isClosed()) {
+            // 已取消
+            return;
+        }
+
+        if (errorCode.isSuccess()) {
+            @SuppressWarnings("unchecked") final List<Object> items = (List<Object>) body;
+            if (items != null) {
+                buffer.addAll(items);
+            }
+            this.end = end;
+        } else {
+            this.cause = new DefaultRpcServerException(errorCode, String.valueOf(body));
+        }
+
+        completePendingPromise();
+    }
+
+    /**
+     * 本地出现异常(如：会话关闭)，运行在应用线程
+     */
+    void onFailure(Throwable cause) {
+        if (isClosed()) {
+            return;
+        }
+        this.cause = cause;
+        completePendingPromise();
+    }
+
+    private void completePendingPromise() {
+        final Promise<Boolean> promise = this.pendingPromise;
+        if (promise == null) {
+            return;
+        }
+
+        if (buffer.size() > 0) {
+            clearPendingPromise();
+            moveToNext();
+            promise.trySuccess(Boolean.TRUE);
+            return;
+        }
+
+        if (cause != null) {
+            clearPendingPromise();
+            promise.tryFailure(cause);
+            return;
+        }
+
+        if (end || cancelled) {
+            clearPendingPromise();
+            promise.trySuccess(Boolean.FALSE);
+        }
+    }
+
+    private void clearPendingPromise() {
+        pendingPromise = null;
+        pullDeadline = 0;
+    }
+}
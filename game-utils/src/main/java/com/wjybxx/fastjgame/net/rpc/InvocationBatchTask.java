@@ -0,0 +1,90 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.net.session.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 一批调用任务，由用户线程填充，作为一个任务提交给网络线程执行。
+ * 批次内的任务不单独刷新缓冲区，所有需要刷新的session在批次执行完毕后统一刷新一次。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/23
+ * github - https://github.com/hl845740757
+ */
+class InvocationBatchTask implements InvocationTask {
+
+    private static final Logger logger = LoggerFactory.getLogger(InvocationBatchTask.class);
+
+    private final List<InvocationTask> tasks;
+    /**
+     * 需要刷新的session，同一个session只刷新一次
+     */
+    private final Set<Session> flushSessions = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    InvocationBatchTask(int initialCapacity) {
+        this.tasks = new ArrayList<>(initialCapacity);
+    }
+
+    /**
+     * @param task  调用任务，该任务不应该自己刷新缓冲区
+     * @param flush 是否需要在批次结束时刷新
+     */
+    void add(Session session, InvocationTask task, boolean flush) {
+        tasks.add(task);
+        if (flush) {
+            flushSessions.add(session);
+        }
+    }
+
+    int size() {
+        return tasks.size();
+    }
+
+    @Override
+    public void run() {
+        for (InvocationTask task : tasks) {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                // 一个任务失败不应该影响同批次的其它任务
+                logger.warn("invocation task caught exception", e);
+            }
+        }
+
+        for (Session session : flushSessions) {
+            if (session.isClosed()) {
+                continue;
+            }
+            try {
+                session.fireFlush();
+            } catch (Throwable e) {
+                logger.warn("flush session caught exception, sessionId {}", session.sessionId(), e);
+            }
+        }
+    }
+}
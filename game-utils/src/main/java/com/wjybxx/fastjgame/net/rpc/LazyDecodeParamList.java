@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.net.binary.BinarySerializer;
+import com.wjybxx.fastjgame.net.binary.EncodedValue;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * 延迟解码的rpc方法参数列表。
+ * 参数在第一次被{@link #get(int)}时解码并缓存，没有被访问的参数保持为{@link EncodedValue}，转发时可以直接写入。
+ * <p>
+ * 注意：和{@link DefaultRpcMethodSpec}一样，它不是线程安全的，参数会在应用线程中被解码。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/31
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+class LazyDecodeParamList extends AbstractList<Object> implements RandomAccess {
+
+    private final BinarySerializer serializer;
+    private final Object[] elements;
+
+    LazyDecodeParamList(BinarySerializer serializer, Object[] elements) {
+        this.serializer = serializer;
+        this.elements = elements;
+    }
+
+    @Override
+    public Object get(int index) {
+        final Object element = elements[index];
+        if (!(element instanceof EncodedValue)) {
+            return element;
+        }
+        try {
+            final Object result = ((EncodedValue) element).decode(serializer);
+            elements[index] = result;
+            return result;
+        } catch (Exception e) {
+            return ExceptionUtils.rethrow(e);
+        }
+    }
+
+    /**
+     * 获取指定位置的参数，如果参数尚未解码，则返回{@link EncodedValue}
+     */
+    Object getUndecoded(int index) {
+        return elements[index];
+    }
+
+    @Override
+    public int size() {
+        return elements.length;
+    }
+}
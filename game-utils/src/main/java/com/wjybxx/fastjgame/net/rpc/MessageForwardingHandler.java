@@ -0,0 +1,93 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.net.session.Session;
+import com.wjybxx.fastjgame.net.session.SessionHandlerContext;
+import com.wjybxx.fastjgame.net.session.SessionInboundHandlerAdapter;
+import com.wjybxx.fastjgame.util.concurrent.ConcurrentUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 单向消息转发支持，位于{@link OneWaySupportHandler}之前。
+ * <p>
+ * 对于配置了转发的消息类型，编解码器只读取消息的类型id，而不解码消息，
+ * 该handler通过{@link MessageRouter}选择目标session，并将原始内容直接发送给目标session，从而避免中间节点(如：网关)的解码和重新编码。
+ * 如果没有目标session，则在这里解码消息，之后和普通消息的处理方式相同。
+ * <p>
+ * 转发时沿用发送方的刷新时机：发送方在该消息之后刷新了缓冲区(一批消息中的最后一个)，则转发时也刷新目标session，
+ * 否则等待目标session下一次刷新缓冲区时发送。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/1
+ * github - https://github.com/hl845740757
+ */
+public class MessageForwardingHandler extends SessionInboundHandlerAdapter {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageForwardingHandler.class);
+
+    private final MessageRouter router;
+
+    public MessageForwardingHandler(MessageRouter router) {
+        this.router = router;
+    }
+
+    @Override
+    public void read(SessionHandlerContext ctx, Object msg) {
+        if (msg instanceof OneWayMessage && ((OneWayMessage) msg).getBody() instanceof RawMessageBody) {
+            forward(ctx, (OneWayMessage) msg);
+        } else {
+            ctx.fireRead(msg);
+        }
+    }
+
+    private void forward(SessionHandlerContext ctx, OneWayMessage msg) {
+        final RawMessageBody body = (RawMessageBody) msg.getBody();
+        final Session target = router.route(ctx.session(), body.getTypeId());
+        if (target == null) {
+            // 不需要转发，解码之后交给应用层
+            fireDecodedRead(ctx, body);
+            return;
+        }
+
+        if (target.isClosed()) {
+            // 目标session已关闭，丢弃消息
+            return;
+        }
+
+        final OneWayInvocationTask task = new OneWayInvocationTask(target, body, body.isFlush());
+        if (target.netEventLoop().inEventLoop()) {
+            task.run();
+        } else {
+            ConcurrentUtils.safeExecute(target.netEventLoop(), task);
+        }
+    }
+
+    private static void fireDecodedRead(SessionHandlerContext ctx, RawMessageBody body) {
+        final Object message;
+        try {
+            message = ctx.session().config().serializer().fromBytes(body.getBytes());
+        } catch (Exception e) {
+            // 为了不影响该连接上的其它消息，需要捕获异常
+            logger.warn("deserialize body caught exception, typeId {}", body.getTypeId(), e);
+            return;
+        }
+        ctx.fireRead(new OneWayMessage(message));
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+/**
+ * 消息的发送优先级。
+ * 每一个优先级对应session中的一个发送通道，网络层按照权重在各个通道之间进行加权轮询，
+ * 因此大量的低优先级消息(如：排行榜、邮件附件)不会阻塞高优先级消息(如：战斗协议)，而低优先级消息也不会饿死。
+ * <p>
+ * 注意：
+ * 1. 优先级只影响消息在本端的发送顺序，不参与序列化。
+ * 2. 同一个通道内的消息保持FIFO；不同通道之间的消息不保证顺序，有顺序要求的消息必须使用相同的优先级。
+ * 3. 默认情况下所有消息(包括同步rpc调用)都使用{@link #NORMAL}，因此满足{@link RpcInvoker}的先发送的先到；
+ * 只有调用者显式指定了其它优先级时，消息才可能超过之前发送的消息。
+ * 4. rpc响应总是使用{@link #NORMAL}。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/16
+ * github - https://github.com/hl845740757
+ */
+public enum MessagePriority {
+
+    /**
+     * 紧急消息，如：战斗协议。紧急消息会立即发送，不等待批量发送。
+     */
+    URGENT(8),
+    /**
+     * 普通消息，默认优先级。
+     */
+    NORMAL(4),
+    /**
+     * 大块的、对延迟不敏感的消息，如：排行榜、邮件列表。
+     * {@link RpcInvoker#sendLowPriority(com.wjybxx.fastjgame.net.session.Session, RpcMethodSpec, Object)}发送的可丢弃消息也使用该优先级。
+     */
+    BULK(1);
+
+    /**
+     * 加权轮询时的权重
+     */
+    public final int weight;
+
+    MessagePriority(int weight) {
+        this.weight = weight;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.net.serialization.TypeId;
+import com.wjybxx.fastjgame.net.session.Session;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * 消息路由器，为需要转发的单向消息选择目标session。
+ * <p>
+ * 注意：它运行在消息来源session的网络线程，可能被多个网络线程同时调用，因此实现必须是线程安全的，且不可以阻塞。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/1
+ * github - https://github.com/hl845740757
+ */
+@ThreadSafe
+@FunctionalInterface
+public interface MessageRouter {
+
+    /**
+     * 为消息选择转发的目标
+     *
+     * @param source 消息的来源session
+     * @param typeId 消息的类型id
+     * @return 目标session，如果返回null，则消息会被解码并交给来源session的应用线程处理
+     */
+    @Nullable
+    Session route(Session source, TypeId typeId);
+}
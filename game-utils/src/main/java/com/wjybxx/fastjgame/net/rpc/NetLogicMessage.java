@@ -16,6 +16,8 @@
 
 package com.wjybxx.fastjgame.net.rpc;
 
+import javax.annotation.Nullable;
+
 /**
  * 网络层逻辑消息包。
  * 除了底层协议头以外，还有逻辑层自定义body。
@@ -32,9 +34,26 @@ public abstract class NetLogicMessage implements NetMessage {
      * 子类只保留控制信息(各自的协议头信息)。
      */
     private Object body;
+    /**
+     * 消息的发送优先级 - 不参与序列化
+     */
+    private final MessagePriority priority;
+    /**
+     * 消息对应的rpc方法统计信息，用于编码时记录包大小 - 不参与序列化
+     */
+    private RpcMethodMetrics methodMetrics;
 
     protected NetLogicMessage(Object body) {
+        this(body, MessagePriority.NORMAL);
+    }
+
+    protected NetLogicMessage(Object body, MessagePriority priority) {
         this.body = body;
+        this.priority = priority;
+    }
+
+    public final MessagePriority getPriority() {
+        return priority;
     }
 
     public final Object getBody() {
@@ -44,4 +63,13 @@ public abstract class NetLogicMessage implements NetMessage {
     public final void setBody(Object body) {
         this.body = body;
     }
+
+    @Nullable
+    public final RpcMethodMetrics getMethodMetrics() {
+        return methodMetrics;
+    }
+
+    public final void setMethodMetrics(RpcMethodMetrics methodMetrics) {
+        this.methodMetrics = methodMetrics;
+    }
 }
@@ -52,7 +52,16 @@ public enum NetMessageType {
     /**
      * 单向消息包。
      */
-    ONE_WAY_MESSAGE(6);
+    ONE_WAY_MESSAGE(6),
+
+    /**
+     * 流式Rpc的响应帧，一个流式rpc请求会收到多个该类型的包。
+     */
+    RPC_STREAM(7),
+    /**
+     * 流式Rpc的信用包，调用方授予被调用方继续发送的额度。
+     */
+    RPC_STREAM_CREDIT(8);
 
     public final byte pkgType;
 
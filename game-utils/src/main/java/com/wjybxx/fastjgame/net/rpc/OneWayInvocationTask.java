@@ -18,6 +18,8 @@ package com.wjybxx.fastjgame.net.rpc;
 
 import com.wjybxx.fastjgame.net.session.Session;
 
+import javax.annotation.Nullable;
+
 /**
  * 单向消息发送任务
  *
@@ -31,17 +33,45 @@ public class OneWayInvocationTask implements InvocationTask {
     private final Session session;
     private final Object message;
     private final boolean flush;
+    private final MessagePriority priority;
+    private final boolean lowPriority;
+    private final Object coalesceKey;
 
     public OneWayInvocationTask(Session session, Object message, boolean flush) {
+        this(session, message, MessagePriority.NORMAL, flush);
+    }
+
+    public OneWayInvocationTask(Session session, Object message, MessagePriority priority, boolean flush) {
+        this(session, message, priority, flush, false, null);
+    }
+
+    public OneWayInvocationTask(Session session, Object message, MessagePriority priority, boolean flush,
+                                boolean lowPriority, @Nullable Object coalesceKey) {
         this.session = session;
         this.message = message;
+        this.priority = priority;
         this.flush = flush;
+        this.lowPriority = lowPriority;
+        this.coalesceKey = coalesceKey;
     }
 
     public Object getMessage() {
         return message;
     }
 
+    public MessagePriority getPriority() {
+        return priority;
+    }
+
+    public boolean isLowPriority() {
+        return lowPriority;
+    }
+
+    @Nullable
+    public Object getCoalesceKey() {
+        return coalesceKey;
+    }
+
     @Override
     public void run() {
         if (flush) {
@@ -16,6 +16,7 @@
 
 package com.wjybxx.fastjgame.net.rpc;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 /**
@@ -29,8 +30,32 @@ import javax.annotation.concurrent.NotThreadSafe;
 @NotThreadSafe
 public class OneWayMessage extends NetLogicMessage {
 
+    /**
+     * 是否是低优先级消息 - session不可写时可以被丢弃或合并，不参与序列化
+     */
+    private final boolean lowPriority;
+    /**
+     * 合并消息用的键 - 不参与序列化
+     */
+    private final Object coalesceKey;
+
     public OneWayMessage(Object messageBody) {
-        super(messageBody);
+        this(messageBody, MessagePriority.NORMAL, false, null);
+    }
+
+    public OneWayMessage(Object messageBody, MessagePriority priority, boolean lowPriority, @Nullable Object coalesceKey) {
+        super(messageBody, priority);
+        this.lowPriority = lowPriority;
+        this.coalesceKey = coalesceKey;
+    }
+
+    public boolean isLowPriority() {
+        return lowPriority;
+    }
+
+    @Nullable
+    public Object getCoalesceKey() {
+        return coalesceKey;
     }
 
     @Override
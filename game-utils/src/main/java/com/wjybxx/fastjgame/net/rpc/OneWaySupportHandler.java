@@ -50,7 +50,7 @@ public class OneWaySupportHandler extends SessionDuplexHandlerAdapter {
         if (msg instanceof OneWayInvocationTask) {
             // 单向消息
             OneWayInvocationTask task = (OneWayInvocationTask) msg;
-            ctx.fireWrite(new OneWayMessage(task.getMessage()));
+            ctx.fireWrite(new OneWayMessage(task.getMessage(), task.getPriority(), task.isLowPriority(), task.getCoalesceKey()));
         } else {
             ctx.fireWrite(msg);
         }
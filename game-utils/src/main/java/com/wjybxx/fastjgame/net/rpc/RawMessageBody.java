@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.net.serialization.TypeId;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * 未解码的消息内容，由网络层在转发模式下创建，见{@link MessageForwardingHandler}。
+ * <p>
+ * 它保存的是消息序列化后的完整内容，编码时会直接写入，而不会再次序列化，因此转发消息时不需要解码和重新编码。
+ * 刷新标记不参与序列化，只用于转发时沿用发送方的刷新时机。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/1
+ * github - https://github.com/hl845740757
+ */
+@Immutable
+public final class RawMessageBody {
+
+    private final TypeId typeId;
+    private final byte[] bytes;
+    private final boolean flush;
+
+    public RawMessageBody(TypeId typeId, byte[] bytes) {
+        this(typeId, bytes, false);
+    }
+
+    /**
+     * @param flush 发送方是否在该消息之后刷新了缓冲区
+     */
+    public RawMessageBody(TypeId typeId, byte[] bytes, boolean flush) {
+        this.typeId = typeId;
+        this.bytes = bytes;
+        this.flush = flush;
+    }
+
+    /**
+     * @return 消息的类型id
+     */
+    public TypeId getTypeId() {
+        return typeId;
+    }
+
+    /**
+     * @return 消息序列化后的内容，不可以修改
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return 发送方是否在该消息之后刷新了缓冲区，如果是，则转发时也需要刷新
+     */
+    public boolean isFlush() {
+        return flush;
+    }
+
+    @Override
+    public String toString() {
+        return "RawMessageBody{" +
+                "typeId=" + typeId +
+                ", size=" + bytes.length +
+                ", flush=" + flush +
+                '}';
+    }
+}
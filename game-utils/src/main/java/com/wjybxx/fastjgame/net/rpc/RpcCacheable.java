@@ -0,0 +1,49 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 该注解表示该rpc方法的结果可以在调用方缓存，必须和{@link RpcMethod}一起使用。
+ * <p>
+ * 适用于只读的、幂等的查询方法，如：玩家简要信息、公会概要、配置版本号。
+ * 在{@link CachingRpcInvoker}中，相同session、相同方法、序列化后参数相同的调用，在{@link #ttlMs()}内会直接返回缓存的结果，
+ * 而正在执行的相同调用会被合并，只会发送一次请求。
+ *
+ * <h3>限制</h3>
+ * 1. 方法必须是幂等且无副作用的，否则缓存会导致错误的结果。
+ * 2. 缓存的结果会被多个调用者共享，调用者不可以修改结果对象。
+ * 3. 带有该注解的方法，客户端代理会使用{@link DefaultRpcMethodSpec}，以携带缓存信息。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/30
+ * github - https://github.com/hl845740757
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface RpcCacheable {
+
+    /**
+     * 缓存的有效时间(毫秒)，必须大于0。
+     */
+    int ttlMs();
+}
@@ -66,7 +66,13 @@ public enum RpcErrorCode implements IndexableEnum {
      * 服务器处理请求失败。
      * 远程默认返回码，如果可以更细化，则应该细化。
      */
-    SERVER_EXCEPTION(20);
+    SERVER_EXCEPTION(20),
+
+    /**
+     * 服务器过载，请求超出了并发限制，未执行即被拒绝。
+     * 调用方可以安全的重试或选择其它服务器。
+     */
+    SERVER_OVERLOADED(21);
 
     /**
      * 唯一标识，不可随意修改
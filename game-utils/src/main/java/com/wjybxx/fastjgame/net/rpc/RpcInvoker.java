@@ -32,9 +32,12 @@ import java.util.concurrent.CompletionException;
  * 1. 单向消息(send系列方法)：无论执行成功还是失败，实现必须忽略调用的方法的执行结果(最好不回传结果，而不是仅仅不上报给调用者)。
  * 2. Rpc调用(call系列方法)：如果调用的方法执行成功，则返回对应的结果。如果方法本身没有返回值，则返回null。如果执行失败，则应该返回对应的异常信息。
  * 3. {@code send} {@code call}之间都满足先发送的必然先到。这样的好处是编程更简单，缺点是同步rpc调用响应会变慢。<br>
+ * 4. 第3条对使用相同{@link MessagePriority}的消息成立，未指定优先级的方法(包括同步调用)都使用{@link MessagePriority#NORMAL}，
+ * {@link #sendLowPriority(Session, RpcMethodSpec, Object)}使用{@link MessagePriority#BULK}。
+ * 只有调用者显式指定了其它优先级时，消息才可能超过之前发送的消息(或被之后发送的消息超过)。<br>
  *
  * <h3>使用者注意</h3>
- * 1. 所有的消息都满足先发的先到。
+ * 1. 所有的消息都满足先发的先到(显式指定了优先级的消息除外，见{@link MessagePriority})。
  * 2. 但是要注意一个问题：{@link #syncCall(Session, RpcMethodSpec)}会打乱处理的顺序！同步Rpc调用的结果会被你提前处理，其它消息可能先到，但是由于你处于阻塞状态，而导致被延迟处理。<br>
  * 3. 先发送的请求不一定先获得结果！对方什么时候返回给你结果是不确定的！<br>
  *
@@ -56,6 +59,29 @@ public interface RpcInvoker {
      */
     void send(@Nullable Session session, @Nonnull RpcMethodSpec<?> message, boolean flush);
 
+    /**
+     * 以指定优先级发送一个单向消息给对方。
+     *
+     * @param session  服务器描述信息
+     * @param message  单向消息
+     * @param priority 发送优先级
+     * @param flush    是否刷新缓冲区
+     */
+    void send(@Nullable Session session, @Nonnull RpcMethodSpec<?> message, @Nonnull MessagePriority priority, boolean flush);
+
+    /**
+     * 发送一个低优先级的单向消息给对方。
+     * 该消息使用{@link MessagePriority#BULK}通道，因此不会与普通消息竞争发送机会，也不保证与其它优先级的消息之间的顺序。
+     * 当session不可写时(待发送的字节数超出预算)，网络层会根据session的配置丢弃或合并该消息，而不是缓存它。
+     * 适用于可以丢失的、只关心最新状态的消息，如：位置同步。
+     *
+     * @param session     服务器描述信息
+     * @param message     单向消息
+     * @param coalesceKey 合并键，相同合并键的尚未发送的消息可以被新消息替换，如：实体的guid。
+     *                    如果为null，则表示该消息不可合并。
+     */
+    void sendLowPriority(@Nullable Session session, @Nonnull RpcMethodSpec<?> message, @Nullable Object coalesceKey);
+
     /**
      * 发送一个rpc请求给对方。
      *
@@ -65,6 +91,17 @@ public interface RpcInvoker {
      */
     <V> FluentFuture<V> call(@Nullable Session session, @Nonnull RpcMethodSpec<V> request, boolean flush);
 
+    /**
+     * 以指定优先级发送一个rpc请求给对方。
+     * 注意：优先级只影响请求的发送，响应总是使用{@link MessagePriority#NORMAL}。
+     *
+     * @param session  服务器描述信息
+     * @param request  rpc请求对象
+     * @param priority 发送优先级
+     * @param flush    是否刷新缓冲区
+     */
+    <V> FluentFuture<V> call(@Nullable Session session, @Nonnull RpcMethodSpec<V> request, @Nonnull MessagePriority priority, boolean flush);
+
     /**
      * 发送一个rpc请求给对方，会立即刷新缓冲区，并阻塞到结果返回或超时。
      *
@@ -74,4 +111,28 @@ public interface RpcInvoker {
      */
     @Nullable
     <V> V syncCall(@Nullable Session session, @Nonnull RpcMethodSpec<V> request) throws CompletionException;
+
+    /**
+     * 以指定优先级发送一个rpc请求给对方，会立即刷新缓冲区，并阻塞到结果返回或超时。
+     * 注意：如果优先级不是{@link MessagePriority#NORMAL}，请求可能超过之前发送的消息。
+     *
+     * @param session  服务器描述信息
+     * @param request  rpc请求对象
+     * @param priority 发送优先级
+     * @return 方法调用结果
+     */
+    @Nullable
+    <V> V syncCall(@Nullable Session session, @Nonnull RpcMethodSpec<V> request, @Nonnull MessagePriority priority) throws CompletionException;
+
+    /**
+     * 发起一个流式rpc调用，对方的方法需要返回{@link RpcStreamSource}。
+     * 对方会分批返回元素，且已发送但未被消费的元素数不会超过{@code window}。
+     * 注意：该方法只能在session的{@link Session#appEventLoop()}中调用，返回的流也只能在该线程中使用。
+     *
+     * @param session 服务器描述信息
+     * @param request rpc请求对象
+     * @param window  信用窗口大小，必须大于0
+     * @return 异步迭代器，如果session不存在或已关闭，则返回一个已失败的流
+     */
+    <E> RpcStream<E> callStream(@Nullable Session session, @Nonnull RpcMethodSpec<? extends RpcStreamSource<E>> request, int window);
 }
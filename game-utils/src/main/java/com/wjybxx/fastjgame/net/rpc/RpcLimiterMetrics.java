@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.util.misc.Histogram;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个服务的rpc并发限制统计信息。
+ * 每个session的每个服务都有独立的限制器，因此这里统计的是所有session的汇总数据：
+ * 拒绝的请求数，以及限制值的分布(每次限制值改变时记录一次)。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/28
+ * github - https://github.com/hl845740757
+ */
+@ThreadSafe
+public final class RpcLimiterMetrics {
+
+    private final short serviceId;
+    private final LongAdder rejections = new LongAdder();
+    private final Histogram limit = new Histogram();
+    private volatile int lastLimit;
+
+    RpcLimiterMetrics(short serviceId) {
+        this.serviceId = serviceId;
+    }
+
+    public short getServiceId() {
+        return serviceId;
+    }
+
+    void recordRejection() {
+        rejections.increment();
+    }
+
+    void recordLimit(int newLimit) {
+        limit.record(newLimit);
+        lastLimit = newLimit;
+    }
+
+    /**
+     * 获取当前的统计快照
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(serviceId, rejections.sum(), lastLimit, limit.snapshot());
+    }
+
+    void reset() {
+        rejections.reset();
+        limit.reset();
+    }
+
+    /**
+     * 并发限制统计快照 - 不可变对象
+     */
+    public static class Snapshot {
+
+        private final short serviceId;
+        private final long rejections;
+        private final int lastLimit;
+        private final Histogram.Snapshot limit;
+
+        Snapshot(short serviceId, long rejections, int lastLimit, Histogram.Snapshot limit) {
+            this.serviceId = serviceId;
+            this.rejections = rejections;
+            this.lastLimit = lastLimit;
+            this.limit = limit;
+        }
+
+        public short getServiceId() {
+            return serviceId;
+        }
+
+        /**
+         * @return 因超出并发限制而拒绝的请求数
+         */
+        public long getRejections() {
+            return rejections;
+        }
+
+        /**
+         * @return 最近一次改变后的限制值(任意session)
+         */
+        public int getLastLimit() {
+            return lastLimit;
+        }
+
+        /**
+         * @return 限制值的分布
+         */
+        public Histogram.Snapshot getLimit() {
+            return limit;
+        }
+
+        @Override
+        public String toString() {
+            return "RpcLimiterMetrics{" +
+                    "serviceId=" + serviceId +
+                    ", rejections=" + rejections +
+                    ", lastLimit=" + lastLimit +
+                    ", limit=" + limit +
+                    '}';
+        }
+    }
+}
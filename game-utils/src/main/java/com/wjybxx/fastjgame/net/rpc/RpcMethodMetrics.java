@@ -0,0 +1,320 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.util.misc.Histogram;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个rpc方法的统计信息。
+ * <p>
+ * 客户端(调用方)：调用次数、失败次数、超时次数、从发送到收到响应的延迟、请求包大小、缓存命中次数、合并调用次数。
+ * 服务端(被调用方)：调用次数、失败次数、拒绝次数、在应用线程的排队时间、执行时间、响应包大小。
+ * <p>
+ * 时间单位都是微秒，大小单位都是字节。
+ * 记录可能发生在网络线程或应用线程，因此使用{@link LongAdder}和{@link Histogram}。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/26
+ * github - https://github.com/hl845740757
+ */
+@ThreadSafe
+public final class RpcMethodMetrics {
+
+    private final short serviceId;
+    private final short methodId;
+
+    private final LongAdder clientCalls = new LongAdder();
+    private final LongAdder clientErrors = new LongAdder();
+    private final LongAdder clientTimeouts = new LongAdder();
+    private final Histogram clientLatency = new Histogram();
+    private final Histogram requestBytes = new Histogram();
+    private final LongAdder clientCacheHits = new LongAdder();
+    private final LongAdder clientCacheCoalesced = new LongAdder();
+
+    private final LongAdder serverCalls = new LongAdder();
+    private final LongAdder serverErrors = new LongAdder();
+    private final LongAdder serverRejections = new LongAdder();
+    private final Histogram serverQueueTime = new Histogram();
+    private final Histogram serverExecTime = new Histogram();
+    private final Histogram responseBytes = new Histogram();
+
+    RpcMethodMetrics(short serviceId, short methodId) {
+        this.serviceId = serviceId;
+        this.methodId = methodId;
+    }
+
+    public short getServiceId() {
+        return serviceId;
+    }
+
+    public short getMethodId() {
+        return methodId;
+    }
+
+    // ------------------------------------------------- 客户端 ---------------------------------------------
+
+    /**
+     * 收到响应
+     *
+     * @param sendNanos 发送请求时的{@link System#nanoTime()}
+     * @param success   是否调用成功
+     */
+    void recordClientResponse(long sendNanos, boolean success) {
+        clientCalls.increment();
+        if (!success) {
+            clientErrors.increment();
+        }
+        clientLatency.record(elapsedMicros(sendNanos));
+    }
+
+    /**
+     * 超时或会话关闭 - 没有收到响应，不计入延迟
+     */
+    void recordClientFailure(boolean timeout) {
+        clientCalls.increment();
+        clientErrors.increment();
+        if (timeout) {
+            clientTimeouts.increment();
+        }
+    }
+
+    /**
+     * 由编解码器在编码请求包之后调用
+     */
+    public void recordRequestBytes(int bytes) {
+        requestBytes.record(bytes);
+    }
+
+    /**
+     * 调用由{@link CachingRpcInvoker}直接返回，没有发送请求
+     *
+     * @param coalesced true表示合并到了正在执行的相同调用，false表示命中了缓存的结果
+     */
+    void recordClientCacheHit(boolean coalesced) {
+        if (coalesced) {
+            clientCacheCoalesced.increment();
+        } else {
+            clientCacheHits.increment();
+        }
+    }
+
+    // ------------------------------------------------- 服务端 ---------------------------------------------
+
+    /**
+     * 应用线程开始执行请求
+     *
+     * @param receiveNanos 网络线程收到请求时的{@link System#nanoTime()}
+     */
+    void recordServerQueueTime(long receiveNanos) {
+        serverQueueTime.record(elapsedMicros(receiveNanos));
+    }
+
+    /**
+     * 请求执行完成(对于异步方法，是其返回的future完成)
+     *
+     * @param startNanos 应用线程开始执行请求时的{@link System#nanoTime()}
+     * @param success    是否执行成功
+     */
+    void recordServerExecution(long startNanos, boolean success) {
+        serverCalls.increment();
+        if (!success) {
+            serverErrors.increment();
+        }
+        serverExecTime.record(elapsedMicros(startNanos));
+    }
+
+    /**
+     * 请求超出并发限制，被拒绝
+     */
+    void recordServerRejection() {
+        serverRejections.increment();
+    }
+
+    /**
+     * 由编解码器在编码响应包之后调用
+     */
+    public void recordResponseBytes(int bytes) {
+        responseBytes.record(bytes);
+    }
+
+    private static long elapsedMicros(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 获取当前的统计快照
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    void reset() {
+        clientCalls.reset();
+        clientErrors.reset();
+        clientTimeouts.reset();
+        clientLatency.reset();
+        requestBytes.reset();
+        clientCacheHits.reset();
+        clientCacheCoalesced.reset();
+
+        serverCalls.reset();
+        serverErrors.reset();
+        serverRejections.reset();
+        serverQueueTime.reset();
+        serverExecTime.reset();
+        responseBytes.reset();
+    }
+
+    /**
+     * rpc方法统计快照 - 不可变对象
+     */
+    public static class Snapshot {
+
+        private final short serviceId;
+        private final short methodId;
+
+        private final long clientCalls;
+        private final long clientErrors;
+        private final long clientTimeouts;
+        private final Histogram.Snapshot clientLatency;
+        private final Histogram.Snapshot requestBytes;
+        private final long clientCacheHits;
+        private final long clientCacheCoalesced;
+
+        private final long serverCalls;
+        private final long serverErrors;
+        private final long serverRejections;
+        private final Histogram.Snapshot serverQueueTime;
+        private final Histogram.Snapshot serverExecTime;
+        private final Histogram.Snapshot responseBytes;
+
+        Snapshot(RpcMethodMetrics metrics) {
+            this.serviceId = metrics.serviceId;
+            this.methodId = metrics.methodId;
+
+            this.clientCalls = metrics.clientCalls.sum();
+            this.clientErrors = metrics.clientErrors.sum();
+            this.clientTimeouts = metrics.clientTimeouts.sum();
+            this.clientLatency = metrics.clientLatency.snapshot();
+            this.requestBytes = metrics.requestBytes.snapshot();
+            this.clientCacheHits = metrics.clientCacheHits.sum();
+            this.clientCacheCoalesced = metrics.clientCacheCoalesced.sum();
+
+            this.serverCalls = metrics.serverCalls.sum();
+            this.serverErrors = metrics.serverErrors.sum();
+            this.serverRejections = metrics.serverRejections.sum();
+            this.serverQueueTime = metrics.serverQueueTime.snapshot();
+            this.serverExecTime = metrics.serverExecTime.snapshot();
+            this.responseBytes = metrics.responseBytes.snapshot();
+        }
+
+        public short getServiceId() {
+            return serviceId;
+        }
+
+        public short getMethodId() {
+            return methodId;
+        }
+
+        public long getClientCalls() {
+            return clientCalls;
+        }
+
+        public long getClientErrors() {
+            return clientErrors;
+        }
+
+        public long getClientTimeouts() {
+            return clientTimeouts;
+        }
+
+        public Histogram.Snapshot getClientLatency() {
+            return clientLatency;
+        }
+
+        public Histogram.Snapshot getRequestBytes() {
+            return requestBytes;
+        }
+
+        public long getClientCacheHits() {
+            return clientCacheHits;
+        }
+
+        public long getClientCacheCoalesced() {
+            return clientCacheCoalesced;
+        }
+
+        /**
+         * @return 客户端调用的缓存命中率(包括合并的调用)，没有调用时返回0
+         */
+        public double getClientCacheHitRate() {
+            final long served = clientCacheHits + clientCacheCoalesced;
+            final long total = served + clientCalls;
+            return total == 0 ? 0 : (double) served / total;
+        }
+
+        public long getServerCalls() {
+            return serverCalls;
+        }
+
+        public long getServerErrors() {
+            return serverErrors;
+        }
+
+        public long getServerRejections() {
+            return serverRejections;
+        }
+
+        public Histogram.Snapshot getServerQueueTime() {
+            return serverQueueTime;
+        }
+
+        public Histogram.Snapshot getServerExecTime() {
+            return serverExecTime;
+        }
+
+        public Histogram.Snapshot getResponseBytes() {
+            return responseBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "RpcMethodMetrics{" +
+                    "serviceId=" + serviceId +
+                    ", methodId=" + methodId +
+                    ", clientCalls=" + clientCalls +
+                    ", clientErrors=" + clientErrors +
+                    ", clientTimeouts=" + clientTimeouts +
+                    ", clientLatency=" + clientLatency +
+                    ", requestBytes=" + requestBytes +
+                    ", clientCacheHits=" + clientCacheHits +
+                    ", clientCacheCoalesced=" + clientCacheCoalesced +
+                    ", serverCalls=" + serverCalls +
+                    ", serverErrors=" + serverErrors +
+                    ", serverRejections=" + serverRejections +
+                    ", serverQueueTime=" + serverQueueTime +
+                    ", serverExecTime=" + serverExecTime +
+                    ", responseBytes=" + responseBytes +
+                    '}';
+        }
+    }
+}
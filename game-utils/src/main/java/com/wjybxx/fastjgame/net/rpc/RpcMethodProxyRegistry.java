@@ -37,6 +37,16 @@ public interface RpcMethodProxyRegistry {
      */
     void register(short serviceId, short methodId, @Nonnull RpcMethodProxy proxy);
 
+    /**
+     * 注册一个类型化的rpc请求处理函数，用于处理{@link TypedRpcMethodSpec}类型的请求。
+     * 同一个方法可以同时注册{@link RpcMethodProxy}和{@link TypedRpcMethodProxy}，以兼容旧的调用方。
+     *
+     * @param serviceId 服务id
+     * @param methodId  方法id
+     * @param proxy     代理方法，一般由注解处理器生成。
+     */
+    void registerTyped(short serviceId, short methodId, @Nonnull TypedRpcMethodProxy proxy);
+
     /**
      * 释放所有的资源，因为{@link #register(short, short, RpcMethodProxy)}会捕获太多对象，当不再使用{@link RpcMethodProxyRegistry}时，
      * 手动的释放，避免因为registry对象存在导致内存泄漏。
@@ -0,0 +1,218 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.util.annotation.VisibleForTesting;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * rpc统计信息注册表，按方法(serviceId + methodId)区分。
+ * <p>
+ * 默认是关闭的，关闭时所有的埋点都会在获取{@link RpcMethodMetrics}时返回null，开销只是一次volatile读。
+ * 开启后，可定时调用{@link #snapshot()}采集数据(如：输出到日志或上报到监控系统)。
+ * <p>
+ * 注意：只能统计{@link DefaultRpcMethodSpec}和{@link TypedRpcMethodSpec}类型的请求。
+ * <p>
+ * 统计信息保存在[serviceId][methodId]索引的数组中(同{@link DefaultRpcProcessor})，查询不需要装箱和哈希。
+ * 数组是写时复制的：创建新的统计信息时加锁并拷贝，发布后不再修改，因此查询只需要一次volatile读。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/26
+ * github - https://github.com/hl845740757
+ */
+@ThreadSafe
+public final class RpcMetrics {
+
+    private static final RpcMetrics GLOBAL = new RpcMetrics();
+
+    private static final RpcMethodMetrics[] EMPTY_METHOD_METRICS = new RpcMethodMetrics[0];
+
+    private final Object lock = new Object();
+    /**
+     * [serviceId][methodId] -> metrics，写时复制
+     */
+    private volatile RpcMethodMetrics[][] methodMetricsTable = new RpcMethodMetrics[0][];
+    /**
+     * [serviceId] -> metrics，写时复制
+     */
+    private volatile RpcLimiterMetrics[] limiterMetricsTable = new RpcLimiterMetrics[0];
+    private volatile boolean enabled = false;
+
+    @VisibleForTesting
+    RpcMetrics() {
+
+    }
+
+    public static RpcMetrics global() {
+        return GLOBAL;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * 获取请求对应方法的统计信息
+     *
+     * @param request rpc请求
+     * @return 如果未开启统计，或请求类型不支持，则返回null
+     */
+    @Nullable
+    public RpcMethodMetrics methodMetrics(Object request) {
+        if (!enabled) {
+            return null;
+        }
+        if (request instanceof TypedRpcMethodSpec) {
+            final TypedRpcMethodSpec<?> methodSpec = (TypedRpcMethodSpec<?>) request;
+            return getOrCreate(methodSpec.getServiceId(), methodSpec.getMethodId());
+        }
+        if (request instanceof DefaultRpcMethodSpec) {
+            final DefaultRpcMethodSpec<?> methodSpec = (DefaultRpcMethodSpec<?>) request;
+            return getOrCreate(methodSpec.getServiceId(), methodSpec.getMethodId());
+        }
+        return null;
+    }
+
+    /**
+     * @return 如果id为负数，则返回null(这样的请求不会被{@link DefaultRpcProcessor}处理)
+     */
+    @Nullable
+    private RpcMethodMetrics getOrCreate(short serviceId, short methodId) {
+        if (serviceId < 0 || methodId < 0) {
+            return null;
+        }
+        final RpcMethodMetrics[][] table = methodMetricsTable;
+        if (serviceId < table.length) {
+            final RpcMethodMetrics[] serviceMetrics = table[serviceId];
+            if (serviceMetrics != null && methodId < serviceMetrics.length) {
+                final RpcMethodMetrics metrics = serviceMetrics[methodId];
+                if (metrics != null) {
+                    return metrics;
+                }
+            }
+        }
+        return create(serviceId, methodId);
+    }
+
+    private RpcMethodMetrics create(short serviceId, short methodId) {
+        synchronized (lock) {
+            // 拷贝外层数组和对应的服务数组，已发布的数组不可以修改
+            final RpcMethodMetrics[][] table = Arrays.copyOf(methodMetricsTable, Math.max(methodMetricsTable.length, serviceId + 1));
+            RpcMethodMetrics[] serviceMetrics = table[serviceId];
+            if (null == serviceMetrics) {
+                serviceMetrics = EMPTY_METHOD_METRICS;
+            }
+            if (methodId < serviceMetrics.length && serviceMetrics[methodId] != null) {
+                // 其它线程已创建
+                return serviceMetrics[methodId];
+            }
+            serviceMetrics = Arrays.copyOf(serviceMetrics, Math.max(serviceMetrics.length, methodId + 1));
+            final RpcMethodMetrics metrics = new RpcMethodMetrics(serviceId, methodId);
+            serviceMetrics[methodId] = metrics;
+            table[serviceId] = serviceMetrics;
+            methodMetricsTable = table;
+            return metrics;
+        }
+    }
+
+    /**
+     * 获取服务的并发限制统计信息
+     *
+     * @param serviceId 服务id
+     * @return 如果未开启统计，或服务id为负数，则返回null
+     */
+    @Nullable
+    public RpcLimiterMetrics limiterMetrics(short serviceId) {
+        if (!enabled || serviceId < 0) {
+            return null;
+        }
+        final RpcLimiterMetrics[] table = limiterMetricsTable;
+        if (serviceId < table.length && table[serviceId] != null) {
+            return table[serviceId];
+        }
+        synchronized (lock) {
+            final RpcLimiterMetrics[] newTable = Arrays.copyOf(limiterMetricsTable, Math.max(limiterMetricsTable.length, serviceId + 1));
+            if (newTable[serviceId] == null) {
+                newTable[serviceId] = new RpcLimiterMetrics(serviceId);
+                limiterMetricsTable = newTable;
+            }
+            return newTable[serviceId];
+        }
+    }
+
+    /**
+     * 获取所有方法的统计快照
+     */
+    public List<RpcMethodMetrics.Snapshot> snapshot() {
+        final List<RpcMethodMetrics.Snapshot> result = new ArrayList<>();
+        for (RpcMethodMetrics[] serviceMetrics : methodMetricsTable) {
+            if (serviceMetrics == null) {
+                continue;
+            }
+            for (RpcMethodMetrics metrics : serviceMetrics) {
+                if (metrics != null) {
+                    result.add(metrics.snapshot());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 获取所有服务的并发限制统计快照
+     */
+    public List<RpcLimiterMetrics.Snapshot> limiterSnapshot() {
+        final List<RpcLimiterMetrics.Snapshot> result = new ArrayList<>();
+        for (RpcLimiterMetrics metrics : limiterMetricsTable) {
+            if (metrics != null) {
+                result.add(metrics.snapshot());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 清空统计数据(通常在采集之后调用，以获得区间内的数据)
+     */
+    public void reset() {
+        for (RpcMethodMetrics[] serviceMetrics : methodMetricsTable) {
+            if (serviceMetrics == null) {
+                continue;
+            }
+            for (RpcMethodMetrics metrics : serviceMetrics) {
+                if (metrics != null) {
+                    metrics.reset();
+                }
+            }
+        }
+        for (RpcLimiterMetrics metrics : limiterMetricsTable) {
+            if (metrics != null) {
+                metrics.reset();
+            }
+        }
+    }
+}
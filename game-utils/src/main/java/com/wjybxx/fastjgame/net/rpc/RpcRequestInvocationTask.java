@@ -36,6 +36,7 @@ public class RpcRequestInvocationTask implements InvocationTask {
     private final Object request;
     private final boolean sync;
     private final long timeoutMs;
+    private final MessagePriority priority;
 
     private final Promise<?> rpcPromise;
     private final boolean flush;
@@ -43,10 +44,17 @@ public class RpcRequestInvocationTask implements InvocationTask {
     public RpcRequestInvocationTask(Session session,
                                     @Nonnull Object request, boolean sync, long timeoutMs,
                                     @Nonnull Promise<?> rpcPromise, boolean flush) {
+        this(session, request, sync, timeoutMs, MessagePriority.NORMAL, rpcPromise, flush);
+    }
+
+    public RpcRequestInvocationTask(Session session,
+                                    @Nonnull Object request, boolean sync, long timeoutMs, @Nonnull MessagePriority priority,
+                                    @Nonnull Promise<?> rpcPromise, boolean flush) {
         this.session = session;
         this.request = request;
         this.sync = sync;
         this.timeoutMs = timeoutMs;
+        this.priority = priority;
         this.flush = flush;
         this.rpcPromise = rpcPromise;
     }
@@ -63,6 +71,10 @@ public class RpcRequestInvocationTask implements InvocationTask {
         return timeoutMs;
     }
 
+    public MessagePriority getPriority() {
+        return priority;
+    }
+
     public Promise<?> getPromise() {
         return rpcPromise;
     }
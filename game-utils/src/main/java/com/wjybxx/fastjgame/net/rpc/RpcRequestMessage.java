@@ -16,6 +16,9 @@
 
 package com.wjybxx.fastjgame.net.rpc;
 
+import com.wjybxx.fastjgame.util.concurrent.Promise;
+
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 /**
@@ -34,14 +37,43 @@ public class RpcRequestMessage extends NetLogicMessage {
      */
     private final long requestGuid;
     /**
-     * 是否是同步调用(同步调用表示紧急)
+     * 是否是同步调用
      */
     private final boolean sync;
+    /**
+     * 流式调用的初始信用(窗口大小)，0表示普通rpc调用
+     */
+    private final int streamWindow;
+    /**
+     * jvm内部同步调用的结果promise - 不参与序列化。
+     * 对方可以在应用线程中直接完成它，而不必等待响应经过网络线程，以减少同步调用的延迟。
+     */
+    private Promise<?> localSyncPromise;
 
     public RpcRequestMessage(long requestGuid, boolean sync, Object requestBody) {
-        super(requestBody);
+        this(requestGuid, sync, requestBody, MessagePriority.NORMAL);
+    }
+
+    public RpcRequestMessage(long requestGuid, boolean sync, Object requestBody, int streamWindow) {
+        this(requestGuid, sync, requestBody, MessagePriority.NORMAL, streamWindow);
+    }
+
+    /**
+     * @param priority 发送优先级，同步调用也使用调用者指定的优先级，以保证与其它消息之间的顺序
+     */
+    public RpcRequestMessage(long requestGuid, boolean sync, Object requestBody, MessagePriority priority) {
+        this(requestGuid, sync, requestBody, priority, 0);
+    }
+
+    /**
+     * @param priority     发送优先级，同步调用也使用调用者指定的优先级，以保证与其它消息之间的顺序
+     * @param streamWindow 流式调用的初始信用，0表示普通rpc调用
+     */
+    public RpcRequestMessage(long requestGuid, boolean sync, Object requestBody, MessagePriority priority, int streamWindow) {
+        super(requestBody, priority);
         this.requestGuid = requestGuid;
         this.sync = sync;
+        this.streamWindow = streamWindow;
     }
 
     public long getRequestGuid() {
@@ -52,9 +84,28 @@ public class RpcRequestMessage extends NetLogicMessage {
         return sync;
     }
 
+    public int getStreamWindow() {
+        return streamWindow;
+    }
+
+    /**
+     * @return 如果是流式rpc请求，则返回true
+     */
+    public boolean isStream() {
+        return streamWindow > 0;
+    }
+
     @Override
     public NetMessageType type() {
         return NetMessageType.RPC_REQUEST;
     }
 
+    @Nullable
+    public Promise<?> getLocalSyncPromise() {
+        return localSyncPromise;
+    }
+
+    public void setLocalSyncPromise(Promise<?> localSyncPromise) {
+        this.localSyncPromise = localSyncPromise;
+    }
 }
@@ -20,6 +20,8 @@ import com.wjybxx.fastjgame.util.concurrent.ListenableFuture;
 import com.wjybxx.fastjgame.util.concurrent.Promise;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
+import javax.annotation.Nullable;
+
 /**
  * rpc请求提交任务
  *
@@ -42,15 +44,38 @@ public class RpcRequestProcessTask implements ProcessTask {
      * 返回结果的通道
      */
     private final Promise<?> promise;
+    /**
+     * 方法统计信息，未开启统计时为null
+     */
+    private final RpcMethodMetrics methodMetrics;
+    /**
+     * 网络线程收到请求时的{@link System#nanoTime()}，用于统计在应用线程的排队时间
+     */
+    private final long receiveNanos;
+    /**
+     * 应用线程开始执行请求时的{@link System#nanoTime()}
+     */
+    private long startNanos;
 
     public RpcRequestProcessTask(RpcProcessContext context, Object request, Promise<?> promise) {
+        this(context, request, promise, null, 0);
+    }
+
+    public RpcRequestProcessTask(RpcProcessContext context, Object request, Promise<?> promise,
+                                 @Nullable RpcMethodMetrics methodMetrics, long receiveNanos) {
         this.context = context;
         this.promise = promise;
         this.request = request;
+        this.methodMetrics = methodMetrics;
+        this.receiveNanos = receiveNanos;
     }
 
     @Override
     public void run() {
+        startNanos = System.nanoTime();
+        if (methodMetrics != null) {
+            recordMetrics(methodMetrics);
+        }
         try {
             final Object result = context.session().config().processor().process(context, (RpcMethodSpec) request);
             if (result == null) {
@@ -72,6 +97,22 @@ public class RpcRequestProcessTask implements ProcessTask {
         }
     }
 
+    private void recordMetrics(RpcMethodMetrics methodMetrics) {
+        final long startNanos = this.startNanos;
+        methodMetrics.recordServerQueueTime(receiveNanos);
+        // 异步方法在返回的future完成时才算执行完成
+        promise.addListener(future -> methodMetrics.recordServerExecution(startNanos, !future.isCompletedExceptionally()));
+    }
+
+    /**
+     * 注意：只有在{@link #promise}完成之后读取才是安全的(promise的完成保证了可见性)
+     *
+     * @return 应用线程开始执行请求时的{@link System#nanoTime()}
+     */
+    long getStartNanos() {
+        return startNanos;
+    }
+
     private static <V> void setFuture(Promise<?> promise, ListenableFuture<V> future) {
         @SuppressWarnings("unchecked") final Promise<V> castPromise = (Promise<V>) promise;
         FutureUtils.setFuture(castPromise, future);
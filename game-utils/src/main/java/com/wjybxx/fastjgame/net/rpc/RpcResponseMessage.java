@@ -43,7 +43,8 @@ public class RpcResponseMessage extends NetLogicMessage {
     private final RpcErrorCode errorCode;
 
     public RpcResponseMessage(long requestGuid, boolean sync, RpcErrorCode errorCode, Object body) {
-        super(body);
+        // 优先级不参与序列化，响应无法得知请求的优先级，因此总是使用普通通道，以保证与其它消息之间的顺序
+        super(body, MessagePriority.NORMAL);
         this.requestGuid = requestGuid;
         this.sync = sync;
         this.errorCode = errorCode;
@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.util.concurrent.FluentFuture;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 流式rpc调用的结果，它是一个异步迭代器。
+ * <pre>{@code
+ *      void consume(RpcStream<Mail> stream) {
+ *          stream.moveNext().addListener(future -> {
+ *              if (!future.isCompletedExceptionally() && future.getNow()) {
+ *                  handleMail(stream.current());
+ *                  consume(stream);
+ *              }
+ *          });
+ *      }
+ * }
+ * </pre>
+ * 注意：
+ * 1. 该对象不是线程安全的，只能在发起调用的session的{@link com.wjybxx.fastjgame.net.session.Session#appEventLoop()}中使用，
+ * {@link #moveNext()}返回的future也在该线程完成。
+ * 2. 每消费一定数量的元素，就会自动授予对方新的信用，因此对方已发送但未被消费的元素数不会超过调用时指定的窗口大小。
+ * 如果不再需要剩余的元素，一定要调用{@link #cancel()}，否则对方会一直持有该流。
+ *
+ * @param <E> 元素类型
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/25
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public interface RpcStream<E> {
+
+    /**
+     * 移动到下一个元素。
+     * 如果存在下一个元素，则future的结果为true，此时可以通过{@link #current()}获取该元素；
+     * 如果流已结束(或已取消)，则future的结果为false；
+     * 如果对方处理出现异常或会话关闭，则future以对应的异常完成。
+     * 如果等待时间超过了异步rpc调用的超时时间({@link com.wjybxx.fastjgame.net.session.SessionConfig#getAsyncRpcTimeoutMs()})，
+     * 则future以{@link com.wjybxx.fastjgame.net.exception.RpcTimeoutException}完成，且会通知对方停止发送。
+     * <p>
+     * 在返回的future完成之前，不可以再次调用该方法。
+     */
+    FluentFuture<Boolean> moveNext();
+
+    /**
+     * @return 当前元素，即最近一次{@link #moveNext()}成功移动到的元素
+     */
+    E current();
+
+    /**
+     * 取消该流，未消费的元素会被丢弃，并通知对方停止发送。
+     * 如果存在未完成的{@link #moveNext()}，则它以false完成。
+     */
+    void cancel();
+
+    /**
+     * @return 如果流已结束、已取消或已失败，则返回true
+     */
+    boolean isDone();
+}
@@ -0,0 +1,70 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 流式Rpc的信用包，由调用方发送给被调用方。
+ * 被调用方已发送但未被授予信用的元素数永远不会超过调用方授予的信用总数。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/25
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public class RpcStreamCreditMessage extends NetLogicMessage {
+
+    /**
+     * 表示调用方取消了该流
+     */
+    public static final int CANCEL = -1;
+
+    /**
+     * 客户端的哪一个请求
+     */
+    private final long requestGuid;
+    /**
+     * 新增的信用，{@link #CANCEL}表示取消
+     */
+    private final int credits;
+
+    public RpcStreamCreditMessage(long requestGuid, int credits) {
+        // 不能使用更高的优先级，否则取消包可能先于请求到达对方，导致对方的流无法被释放
+        super(null, MessagePriority.NORMAL);
+        this.requestGuid = requestGuid;
+        this.credits = credits;
+    }
+
+    public long getRequestGuid() {
+        return requestGuid;
+    }
+
+    public int getCredits() {
+        return credits;
+    }
+
+    public boolean isCancel() {
+        return credits == CANCEL;
+    }
+
+    @Override
+    public NetMessageType type() {
+        return NetMessageType.RPC_STREAM_CREDIT;
+    }
+}
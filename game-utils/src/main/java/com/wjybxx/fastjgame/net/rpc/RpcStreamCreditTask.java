@@ -0,0 +1,56 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.net.session.Session;
+
+/**
+ * 流式Rpc授予信用(或取消)任务
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/25
+ * github - https://github.com/hl845740757
+ */
+class RpcStreamCreditTask implements InvocationTask {
+
+    private final Session session;
+    private final DefaultRpcStream<?> stream;
+    /**
+     * 新增的信用，{@link RpcStreamCreditMessage#CANCEL}表示取消
+     */
+    private final int credits;
+
+    RpcStreamCreditTask(Session session, DefaultRpcStream<?> stream, int credits) {
+        this.session = session;
+        this.stream = stream;
+        this.credits = credits;
+    }
+
+    DefaultRpcStream<?> getStream() {
+        return stream;
+    }
+
+    int getCredits() {
+        return credits;
+    }
+
+    @Override
+    public void run() {
+        session.fireWriteAndFlush(this);
+    }
+}
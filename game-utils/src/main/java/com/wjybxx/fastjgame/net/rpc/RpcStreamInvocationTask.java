@@ -0,0 +1,59 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.net.session.Session;
+
+/**
+ * 流式Rpc请求发送任务
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/25
+ * github - https://github.com/hl845740757
+ */
+class RpcStreamInvocationTask implements InvocationTask {
+
+    private final Session session;
+    private final Object request;
+    private final DefaultRpcStream<?> stream;
+    private final boolean flush;
+
+    RpcStreamInvocationTask(Session session, Object request, DefaultRpcStream<?> stream, boolean flush) {
+        this.session = session;
+        this.request = request;
+        this.stream = stream;
+        this.flush = flush;
+    }
+
+    Object getRequest() {
+        return request;
+    }
+
+    DefaultRpcStream<?> getStream() {
+        return stream;
+    }
+
+    @Override
+    public void run() {
+        if (flush) {
+            session.fireWriteAndFlush(this);
+        } else {
+            session.fireWrite(this);
+        }
+    }
+}
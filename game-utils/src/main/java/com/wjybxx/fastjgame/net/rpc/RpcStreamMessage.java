@@ -0,0 +1,70 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * 流式Rpc的响应帧。
+ * 一个流式rpc请求会收到多个响应帧，body为本帧携带的元素列表({@code List<Object>})，最后一帧的{@link #isEnd()}为true。
+ * 如果{@link #getErrorCode()}不是成功，则body为错误信息，且该帧一定是最后一帧。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/25
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public class RpcStreamMessage extends NetLogicMessage {
+
+    /**
+     * 客户端的哪一个请求
+     */
+    private final long requestGuid;
+    /**
+     * 是否是最后一帧
+     */
+    private final boolean end;
+    /**
+     * 错误码
+     */
+    private final RpcErrorCode errorCode;
+
+    public RpcStreamMessage(long requestGuid, boolean end, RpcErrorCode errorCode, Object body) {
+        super(body);
+        this.requestGuid = requestGuid;
+        this.end = end;
+        this.errorCode = errorCode;
+    }
+
+    public long getRequestGuid() {
+        return requestGuid;
+    }
+
+    public boolean isEnd() {
+        return end;
+    }
+
+    public RpcErrorCode getErrorCode() {
+        return errorCode;
+    }
+
+    @Override
+    public NetMessageType type() {
+        return NetMessageType.RPC_STREAM;
+    }
+}
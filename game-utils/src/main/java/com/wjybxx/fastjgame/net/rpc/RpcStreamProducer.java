@@ -0,0 +1,215 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.net.session.Session;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 流式rpc的生产者，负责按照调用方授予的信用从{@link RpcStreamSource}拉取元素并发送。
+ * <p>
+ * 线程模型：
+ * 1. 信用的管理和消息的发送在网络线程。
+ * 2. 元素的拉取和数据源的关闭在应用线程。
+ * 同一时刻最多只有一个拉取任务，因此数据源不会被并发访问。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/25
+ * github - https://github.com/hl845740757
+ */
+class RpcStreamProducer {
+
+    private static final Logger logger = LoggerFactory.getLogger(RpcStreamProducer.class);
+
+    /**
+     * 单帧最多携带的元素数，避免单帧过大
+     */
+    private static final int MAX_ITEMS_PER_FRAME = 64;
+
+    private final RpcSupportHandler owner;
+    private final Session session;
+    private final long requestGuid;
+    private final RpcStreamSource<?> source;
+
+    // ---------------------- 网络线程
+    /**
+     * 剩余的信用
+     */
+    private int credits;
+    /**
+     * 是否有拉取任务正在执行
+     */
+    private boolean pulling;
+    /**
+     * 是否已结束(完成或取消)
+     */
+    private boolean finished;
+
+    // ---------------------- 应用线程
+    private boolean sourceClosed;
+
+    /**
+     * 调用方是否取消了该流 - 网络线程写，应用线程读
+     */
+    private volatile boolean cancelled;
+
+    RpcStreamProducer(RpcSupportHandler owner, Session session, long requestGuid, RpcStreamSource<?> source, int credits) {
+        this.owner = owner;
+        this.session = session;
+        this.requestGuid = requestGuid;
+        this.source = source;
+        this.credits = credits;
+    }
+
+    /**
+     * 开始拉取，运行在网络线程
+     *
+     * @return 如果会话已关闭，则立即关闭数据源并返回false
+     */
+    boolean start() {
+        if (session.isClosed()) {
+            // 会话关闭时的清理已经执行过，不能再等待清理
+            cancel();
+            return false;
+        }
+        tryPull();
+        return true;
+    }
+
+    /**
+     * 增加信用，运行在网络线程
+     */
+    void addCredits(int newCredits) {
+        credits = (int) Math.min(Integer.MAX_VALUE, (long) credits + newCredits);
+        tryPull();
+    }
+
+    /**
+     * 运行在网络线程
+     */
+    private void tryPull() {
+        if (pulling || finished || credits <= 0) {
+            return;
+        }
+        final int maxCount = Math.min(credits, MAX_ITEMS_PER_FRAME);
+        credits -= maxCount;
+        pulling = true;
+        session.appEventLoop().execute(() -> pull(maxCount));
+    }
+
+    /**
+     * 拉取元素，运行在应用线程
+     */
+    private void pull(int maxCount) {
+        if (cancelled) {
+            closeSource();
+            return;
+        }
+
+        final List<Object> items = new ArrayList<>(maxCount);
+        boolean end;
+        Throwable cause = null;
+        try {
+            while (items.size() < maxCount && source.hasNext()) {
+                items.add(source.next());
+            }
+            end = !source.hasNext();
+        } catch (Throwable e) {
+            cause = e;
+            end = true;
+            logger.warn("pull rpcStream caught exception", e);
+        }
+
+        if (end) {
+            closeSource();
+        }
+
+        final boolean finalEnd = end;
+        final Throwable finalCause = cause;
+        session.netEventLoop().execute(() -> onPulled(maxCount, items, finalEnd, finalCause));
+    }
+
+    /**
+     * 拉取完成，运行在网络线程
+     */
+    private void onPulled(int maxCount, List<Object> items, boolean end, Throwable cause) {
+        pulling = false;
+        if (finished) {
+            // 数据源已由结束或取消流程关闭
+            return;
+        }
+        if (session.isClosed()) {
+            owner.removeStreamProducer(requestGuid);
+            cancel();
+            return;
+        }
+        // 归还未使用的信用
+        credits += maxCount - items.size();
+
+        final RpcStreamMessage streamMessage;
+        if (cause != null) {
+            // 不返回完整信息（传输量太大），日志已在拉取时打印
+            streamMessage = new RpcStreamMessage(requestGuid, true, RpcErrorCode.SERVER_EXCEPTION, ExceptionUtils.getRootCauseMessage(cause));
+        } else {
+            streamMessage = new RpcStreamMessage(requestGuid, end, RpcErrorCode.SUCCESS, items);
+        }
+
+        if (end) {
+            finished = true;
+            owner.removeStreamProducer(requestGuid);
+        }
+
+        session.fireWriteAndFlush(streamMessage);
+
+        if (!end) {
+            tryPull();
+        }
+    }
+
+    /**
+     * 调用方取消或会话关闭，运行在网络线程
+     */
+    void cancel() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        cancelled = true;
+        session.appEventLoop().execute(this::closeSource);
+    }
+
+    /**
+     * 关闭数据源，运行在应用线程
+     */
+    private void closeSource() {
+        if (sourceClosed) {
+            return;
+        }
+        sourceClosed = true;
+        try {
+            source.close();
+        } catch (Throwable e) {
+            logger.warn("close rpcStreamSource caught exception", e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * 流式rpc的数据源。
+ * 如果{@link RpcMethod}方法返回该类型的对象，且调用方使用{@link RpcInvoker#callStream(com.wjybxx.fastjgame.net.session.Session, RpcMethodSpec, int)}发起调用，
+ * 那么网络层会根据调用方授予的信用分批拉取元素，并以多个{@link RpcStreamMessage}返回给调用方，而不是一次性序列化整个结果。
+ * <p>
+ * 注意：
+ * 1. 所有方法都在应用线程(服务所在线程)调用。
+ * 2. 数据源的元素是按需拉取的，因此在拉取期间，其依赖的数据可能已发生变化，如果需要快照语义，请返回快照的数据源。
+ * 3. 流结束、出现异常、调用方取消或会话关闭时，都会调用{@link #close()}，且只调用一次。
+ *
+ * @param <E> 元素类型
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/25
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public interface RpcStreamSource<E> {
+
+    /**
+     * @return 如果还有元素，则返回true
+     */
+    boolean hasNext() throws Exception;
+
+    /**
+     * @return 下一个元素
+     */
+    E next() throws Exception;
+
+    /**
+     * 释放数据源持有的资源
+     */
+    default void close() throws Exception {
+
+    }
+
+    static <E> RpcStreamSource<E> fromIterator(@Nonnull Iterator<? extends E> iterator) {
+        return new RpcStreamSource<>() {
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return iterator.next();
+            }
+        };
+    }
+
+    static <E> RpcStreamSource<E> fromIterable(@Nonnull Iterable<? extends E> iterable) {
+        return fromIterator(iterable.iterator());
+    }
+
+    static <E> RpcStreamSource<E> fromStream(@Nonnull Stream<? extends E> stream) {
+        final Iterator<? extends E> iterator = stream.iterator();
+        return new RpcStreamSource<>() {
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+                stream.close();
+            }
+        };
+    }
+}
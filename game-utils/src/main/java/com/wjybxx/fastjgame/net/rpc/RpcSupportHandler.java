@@ -19,6 +19,9 @@ package com.wjybxx.fastjgame.net.rpc;
 import com.wjybxx.fastjgame.net.exception.DefaultRpcServerException;
 import com.wjybxx.fastjgame.net.exception.RpcSessionClosedException;
 import com.wjybxx.fastjgame.net.exception.RpcTimeoutException;
+import com.wjybxx.fastjgame.net.local.LocalSession;
+import com.wjybxx.fastjgame.net.serialization.Serializer;
+import com.wjybxx.fastjgame.net.session.AbstractSession;
 import com.wjybxx.fastjgame.net.session.Session;
 import com.wjybxx.fastjgame.net.session.SessionDuplexHandlerAdapter;
 import com.wjybxx.fastjgame.net.session.SessionHandlerContext;
@@ -27,17 +30,27 @@ import com.wjybxx.fastjgame.util.concurrent.FutureUtils;
 import com.wjybxx.fastjgame.util.concurrent.ListenableFuture;
 import com.wjybxx.fastjgame.util.concurrent.Promise;
 import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectOpenHashMap;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * 提供Rpc调用支持的handler。
  * 收发{@link RpcRequestMessage}
+ * 收发流式rpc的{@link RpcStreamMessage}和{@link RpcStreamCreditMessage}
+ * 对配置了{@link ConcurrencyLimitConfig}的服务，限制对方发起的rpc请求的并发数
  * <p>
  * 实现需要注意：
  * 1.rpc响应在应用线程未关闭的情况下必须执行 - 否则可能造成逻辑错误(信号丢失 - 该执行的没执行)
@@ -64,6 +77,23 @@ public class RpcSupportHandler extends SessionDuplexHandlerAdapter {
      */
     private final Long2ObjectLinkedOpenHashMap<RpcTimeoutInfo> rpcTimeoutInfoMap = new Long2ObjectLinkedOpenHashMap<>(1024);
 
+    /**
+     * 我发起的流式rpc调用 - 流没有整体的超时时间，在结束、取消、拉取超时或会话关闭时删除
+     */
+    private final Long2ObjectMap<DefaultRpcStream<?>> clientStreamMap = new Long2ObjectOpenHashMap<>();
+    /**
+     * 对方发起的流式rpc调用
+     */
+    private final Long2ObjectMap<RpcStreamProducer> streamProducerMap = new Long2ObjectOpenHashMap<>();
+    /**
+     * 最近一次发布到session的未完成rpc调用数，避免重复写volatile变量
+     */
+    private int publishedPendingRpcCalls = 0;
+    /**
+     * 对方发起的rpc请求的并发限制器，serviceId -> limiter，只有配置了并发限制的服务才有
+     */
+    private final Short2ObjectMap<AdaptiveConcurrencyLimiter> limiterMap = new Short2ObjectOpenHashMap<>();
+
     public RpcSupportHandler() {
 
     }
@@ -71,6 +101,19 @@ public class RpcSupportHandler extends SessionDuplexHandlerAdapter {
     @Override
     public void tick(SessionHandlerContext ctx) {
         checkRpcTimeout(ctx);
+        checkRpcStreamTimeout(ctx);
+        updatePendingRpcCalls(ctx);
+    }
+
+    /**
+     * 将未完成的rpc调用数发布到session，以支持应用层的负载均衡
+     */
+    private void updatePendingRpcCalls(SessionHandlerContext ctx) {
+        final int pendingRpcCalls = rpcTimeoutInfoMap.size() + clientStreamMap.size();
+        if (pendingRpcCalls != publishedPendingRpcCalls) {
+            publishedPendingRpcCalls = pendingRpcCalls;
+            ((AbstractSession) ctx.session()).updatePendingRpcCalls(pendingRpcCalls);
+        }
     }
 
     /**
@@ -91,6 +134,31 @@ public class RpcSupportHandler extends SessionDuplexHandlerAdapter {
 
             rpcTimeoutInfoMap.removeFirst();
             timeoutInfo.rpcPromise.tryFailure(RpcTimeoutException.INSTANCE);
+            if (timeoutInfo.methodMetrics != null) {
+                timeoutInfo.methodMetrics.recordClientFailure(true);
+            }
+        }
+    }
+
+    /**
+     * 检查流式rpc的拉取超时，拉取超时时通知对方停止，并使流失败。
+     * 流之间的拉取没有顺序，但流的数量通常很少，因此直接遍历。
+     */
+    private void checkRpcStreamTimeout(SessionHandlerContext ctx) {
+        if (clientStreamMap.isEmpty()) {
+            return;
+        }
+        final long curTimeMillis = ctx.timerSystem().curTimeMillis();
+        final Iterator<DefaultRpcStream<?>> iterator = clientStreamMap.values().iterator();
+        while (iterator.hasNext()) {
+            final DefaultRpcStream<?> stream = iterator.next();
+            if (!stream.isPullTimeout(curTimeMillis)) {
+                continue;
+            }
+
+            iterator.remove();
+            ctx.session().fireWriteAndFlush(new RpcStreamCreditMessage(stream.requestGuid, RpcStreamCreditMessage.CANCEL));
+            ctx.appEventLoop().execute(() -> stream.onFailure(RpcTimeoutException.INSTANCE));
         }
     }
 
@@ -98,6 +166,8 @@ public class RpcSupportHandler extends SessionDuplexHandlerAdapter {
     public void onSessionInactive(SessionHandlerContext ctx) throws Exception {
         try {
             cancelAllRpcRequest();
+            cancelAllRpcStream(ctx);
+            updatePendingRpcCalls(ctx);
         } finally {
             ctx.fireSessionInactive();
         }
@@ -110,7 +180,9 @@ public class RpcSupportHandler extends SessionDuplexHandlerAdapter {
             RpcRequestInvocationTask task = (RpcRequestInvocationTask) msg;
 
             long deadline = ctx.timerSystem().curTimeMillis() + task.getTimeoutMs();
-            RpcTimeoutInfo rpcTimeoutInfo = new RpcTimeoutInfo(task.getPromise(), deadline);
+            RpcMethodMetrics methodMetrics = RpcMetrics.global().methodMetrics(task.getRequest());
+            long sendNanos = methodMetrics == null ? 0 : System.nanoTime();
+            RpcTimeoutInfo rpcTimeoutInfo = new RpcTimeoutInfo(task.getPromise(), deadline, methodMetrics, sendNanos);
             long requestGuid = ++requestGuidSequencer;
 
             // 保存超时信息，如果是同步rpc调用，放在超时信息的首位
@@ -120,7 +192,40 @@ public class RpcSupportHandler extends SessionDuplexHandlerAdapter {
                 rpcTimeoutInfoMap.put(requestGuid, rpcTimeoutInfo);
             }
 
-            ctx.fireWrite(new RpcRequestMessage(requestGuid, task.isSync(), task.getRequest()));
+            RpcRequestMessage requestMessage = new RpcRequestMessage(requestGuid, task.isSync(), task.getRequest(), task.getPriority());
+            requestMessage.setMethodMetrics(methodMetrics);
+            if (task.isSync() && ctx.session() instanceof LocalSession) {
+                // jvm内部的同步调用，允许对方直接完成promise
+                requestMessage.setLocalSyncPromise(task.getPromise());
+            }
+            ctx.fireWrite(requestMessage);
+            updatePendingRpcCalls(ctx);
+        } else if (msg instanceof RpcStreamInvocationTask) {
+            // 流式rpc请求
+            RpcStreamInvocationTask task = (RpcStreamInvocationTask) msg;
+            DefaultRpcStream<?> stream = task.getStream();
+            long requestGuid = ++requestGuidSequencer;
+
+            stream.requestGuid = requestGuid;
+            clientStreamMap.put(requestGuid, stream);
+
+            ctx.fireWrite(new RpcRequestMessage(requestGuid, false, task.getRequest(), stream.window()));
+            updatePendingRpcCalls(ctx);
+        } else if (msg instanceof RpcStreamCreditTask) {
+            // 授予信用或取消
+            RpcStreamCreditTask task = (RpcStreamCreditTask) msg;
+            long requestGuid = task.getStream().requestGuid;
+
+            final boolean active;
+            if (task.getCredits() == RpcStreamCreditMessage.CANCEL) {
+                active = clientStreamMap.remove(requestGuid) != null;
+            } else {
+                active = clientStreamMap.containsKey(requestGuid);
+            }
+            // 流已结束的情况下不必通知对方
+            if (active) {
+                ctx.fireWrite(new RpcStreamCreditMessage(requestGuid, task.getCredits()));
+            }
         } else {
             ctx.fireWrite(msg);
         }
@@ -131,13 +236,31 @@ public class RpcSupportHandler extends SessionDuplexHandlerAdapter {
         if (msg instanceof RpcRequestMessage) {
             // 读取到一个Rpc请求消息，提交给应用层
             final RpcRequestMessage requestMessage = (RpcRequestMessage) msg;
+            final RpcMethodMetrics methodMetrics = RpcMetrics.global().methodMetrics(requestMessage.getBody());
+            // 超出并发限制时快速失败，不再压入应用线程的队列
+            final AdaptiveConcurrencyLimiter limiter = getLimiter(ctx, requestMessage.getBody());
+            if (limiter != null && !limiter.tryAcquire()) {
+                rejectRpcRequest(ctx, requestMessage, methodMetrics);
+                return;
+            }
+
+            final long receiveNanos = (methodMetrics == null && limiter == null) ? 0 : System.nanoTime();
             // 创建执行上下文
-            final DefaultRpcProcessContext context = new DefaultRpcProcessContext(ctx.session(), requestMessage.getRequestGuid(), requestMessage.isSync());
+            final DefaultRpcProcessContext context = new DefaultRpcProcessContext(ctx.session(), requestMessage.getRequestGuid(),
+                    requestMessage.isSync(), requestMessage.getStreamWindow(), methodMetrics, limiter, receiveNanos);
             final Promise<?> promise = FutureUtils.newPromise();
-
-            ctx.appEventLoop().execute(new RpcRequestProcessTask(context, requestMessage.getBody(), promise));
-
-            promise.addListener(new RpcResultListener(context), ctx.netEventLoop());
+            final RpcRequestProcessTask task = new RpcRequestProcessTask(context, requestMessage.getBody(), promise, methodMetrics, receiveNanos);
+
+            final RpcResultListener resultListener = new RpcResultListener(this, context, task);
+            if (requestMessage.getLocalSyncPromise() != null && !requestMessage.isStream()) {
+                // 必须在提交任务之前添加，以保证在对方的应用线程中执行；正常的响应由它在快速路径之后提交给网络线程
+                promise.addListener(new LocalSyncResultListener(ctx.session().config().serializer(), requestMessage.getLocalSyncPromise(),
+                        resultListener, ctx.netEventLoop()));
+                submitRpcRequestTask(ctx, task, limiter);
+            } else {
+                submitRpcRequestTask(ctx, task, limiter);
+                promise.addListener(resultListener, ctx.netEventLoop());
+            }
         } else if (msg instanceof RpcResponseMessage) {
             // 读取到一个Rpc响应消息，提交给应用层
             final RpcResponseMessage responseMessage = (RpcResponseMessage) msg;
@@ -146,13 +269,140 @@ public class RpcSupportHandler extends SessionDuplexHandlerAdapter {
             final RpcTimeoutInfo rpcTimeoutInfo = rpcTimeoutInfoMap.remove(requestGuid);
             if (null != rpcTimeoutInfo) {
                 commitRpcResponse(rpcTimeoutInfo.rpcPromise, responseMessage.getErrorCode(), responseMessage.getBody());
+                if (rpcTimeoutInfo.methodMetrics != null) {
+                    rpcTimeoutInfo.methodMetrics.recordClientResponse(rpcTimeoutInfo.sendNanos, responseMessage.getErrorCode().isSuccess());
+                }
             }
             // else 可能超时了
+            updatePendingRpcCalls(ctx);
+        } else if (msg instanceof RpcStreamMessage) {
+            // 读取到一个流式Rpc的响应帧，提交给应用层
+            readRpcStreamMessage(ctx, (RpcStreamMessage) msg);
+            updatePendingRpcCalls(ctx);
+        } else if (msg instanceof RpcStreamCreditMessage) {
+            // 调用方授予信用或取消
+            readRpcStreamCreditMessage((RpcStreamCreditMessage) msg);
         } else {
             ctx.fireRead(msg);
         }
     }
 
+    /**
+     * 获取请求所属服务的并发限制器
+     *
+     * @return 如果该服务未配置并发限制，则返回null
+     */
+    @Nullable
+    private AdaptiveConcurrencyLimiter getLimiter(SessionHandlerContext ctx, Object request) {
+        final short serviceId;
+        if (request instanceof TypedRpcMethodSpec) {
+            serviceId = ((TypedRpcMethodSpec<?>) request).getServiceId();
+        } else if (request instanceof DefaultRpcMethodSpec) {
+            serviceId = ((DefaultRpcMethodSpec<?>) request).getServiceId();
+        } else {
+            return null;
+        }
+
+        AdaptiveConcurrencyLimiter limiter = limiterMap.get(serviceId);
+        if (limiter == null) {
+            final ConcurrencyLimitConfig config = ctx.session().config().concurrencyLimitConfig(serviceId);
+            if (config == null) {
+                return null;
+            }
+            limiter = new AdaptiveConcurrencyLimiter(serviceId, config);
+            limiterMap.put(serviceId, limiter);
+        }
+        return limiter;
+    }
+
+    /**
+     * 提交请求到应用线程
+     * 如果应用线程拒绝了任务(如：已关闭)，则任务永远不会执行，{@link RpcResultListener}也就不会释放许可，因此需要在这里归还。
+     */
+    private static void submitRpcRequestTask(SessionHandlerContext ctx, RpcRequestProcessTask task, @Nullable AdaptiveConcurrencyLimiter limiter) {
+        try {
+            ctx.appEventLoop().execute(task);
+        } catch (RejectedExecutionException e) {
+            if (limiter != null) {
+                limiter.cancel();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 拒绝超出并发限制的请求，返回{@link RpcErrorCode#SERVER_OVERLOADED}
+     */
+    private void rejectRpcRequest(SessionHandlerContext ctx, RpcRequestMessage requestMessage, @Nullable RpcMethodMetrics methodMetrics) {
+        if (methodMetrics != null) {
+            methodMetrics.recordServerRejection();
+        }
+
+        final String body = "server overloaded";
+        if (requestMessage.isStream()) {
+            ctx.session().fireWriteAndFlush(new RpcStreamMessage(requestMessage.getRequestGuid(), true, RpcErrorCode.SERVER_OVERLOADED, body));
+        } else {
+            final RpcResponseMessage responseMessage = new RpcResponseMessage(requestMessage.getRequestGuid(), requestMessage.isSync(),
+                    RpcErrorCode.SERVER_OVERLOADED, body);
+            responseMessage.setMethodMetrics(methodMetrics);
+            ctx.session().fireWrite(responseMessage);
+        }
+    }
+
+    private void readRpcStreamMessage(SessionHandlerContext ctx, RpcStreamMessage streamMessage) {
+        final long requestGuid = streamMessage.getRequestGuid();
+        final DefaultRpcStream<?> stream;
+        if (streamMessage.isEnd()) {
+            stream = clientStreamMap.remove(requestGuid);
+        } else {
+            stream = clientStreamMap.get(requestGuid);
+        }
+
+        if (null == stream) {
+            // 我已取消，但取消包可能还未到达对方，再次通知对方停止
+            if (!streamMessage.isEnd()) {
+                ctx.session().fireWriteAndFlush(new RpcStreamCreditMessage(requestGuid, RpcStreamCreditMessage.CANCEL));
+            }
+            return;
+        }
+
+        final RpcErrorCode errorCode = streamMessage.getErrorCode();
+        final boolean end = streamMessage.isEnd();
+        final Object body = streamMessage.getBody();
+        ctx.appEventLoop().execute(() -> stream.onFrame(errorCode, end, body));
+    }
+
+    private void readRpcStreamCreditMessage(RpcStreamCreditMessage creditMessage) {
+        final long requestGuid = creditMessage.getRequestGuid();
+        if (creditMessage.isCancel()) {
+            final RpcStreamProducer producer = streamProducerMap.remove(requestGuid);
+            if (producer != null) {
+                producer.cancel();
+            }
+        } else {
+            final RpcStreamProducer producer = streamProducerMap.get(requestGuid);
+            if (producer != null && creditMessage.getCredits() > 0) {
+                producer.addCredits(creditMessage.getCredits());
+            }
+        }
+        // else 流已结束
+    }
+
+    /**
+     * 流式rpc的结果已就绪，运行在网络线程
+     */
+    private void onStreamResult(DefaultRpcProcessContext context, RpcStreamSource<?> source) {
+        final RpcStreamProducer producer = new RpcStreamProducer(this, context.session, context.requestGuid, source, context.streamWindow);
+        // 会话可能在方法执行期间关闭，此时不能再注册，否则数据源永远不会关闭
+        if (producer.start()) {
+            streamProducerMap.put(context.requestGuid, producer);
+        }
+    }
+
+    void removeStreamProducer(long requestGuid) {
+        streamProducerMap.remove(requestGuid);
+    }
+
     /**
      * @param rpcPromise 接收结果的promise
      * @param body       期望提交的rpc调用结果。
@@ -167,12 +417,30 @@ public class RpcSupportHandler extends SessionDuplexHandlerAdapter {
         }
     }
 
+    /**
+     * 取消所有的流式rpc调用
+     */
+    private void cancelAllRpcStream(SessionHandlerContext ctx) {
+        for (DefaultRpcStream<?> stream : clientStreamMap.values()) {
+            ctx.appEventLoop().execute(() -> stream.onFailure(RpcSessionClosedException.INSTANCE));
+        }
+        clientStreamMap.clear();
+
+        for (RpcStreamProducer producer : streamProducerMap.values()) {
+            producer.cancel();
+        }
+        streamProducerMap.clear();
+    }
+
     /**
      * 取消所有的rpc请求
      */
     private void cancelAllRpcRequest() {
         for (RpcTimeoutInfo rpcTimeoutInfo : rpcTimeoutInfoMap.values()) {
             rpcTimeoutInfo.rpcPromise.tryFailure(RpcSessionClosedException.INSTANCE);
+            if (rpcTimeoutInfo.methodMetrics != null) {
+                rpcTimeoutInfo.methodMetrics.recordClientFailure(false);
+            }
         }
         rpcTimeoutInfoMap.clear();
     }
@@ -181,10 +449,17 @@ public class RpcSupportHandler extends SessionDuplexHandlerAdapter {
 
         private final Promise<?> rpcPromise;
         private final long deadline;
+        /**
+         * 方法统计信息，未开启统计时为null
+         */
+        private final RpcMethodMetrics methodMetrics;
+        private final long sendNanos;
 
-        RpcTimeoutInfo(Promise<?> rpcPromise, long deadline) {
+        RpcTimeoutInfo(Promise<?> rpcPromise, long deadline, RpcMethodMetrics methodMetrics, long sendNanos) {
             this.rpcPromise = rpcPromise;
             this.deadline = deadline;
+            this.methodMetrics = methodMetrics;
+            this.sendNanos = sendNanos;
         }
     }
 
@@ -193,11 +468,20 @@ public class RpcSupportHandler extends SessionDuplexHandlerAdapter {
         private final Session session;
         private final long requestGuid;
         private final boolean sync;
+        private final int streamWindow;
+        private final RpcMethodMetrics methodMetrics;
+        private final AdaptiveConcurrencyLimiter limiter;
+        private final long receiveNanos;
 
-        DefaultRpcProcessContext(Session session, long requestGuid, boolean sync) {
+        DefaultRpcProcessContext(Session session, long requestGuid, boolean sync, int streamWindow,
+                                 RpcMethodMetrics methodMetrics, AdaptiveConcurrencyLimiter limiter, long receiveNanos) {
             this.session = session;
             this.requestGuid = requestGuid;
             this.sync = sync;
+            this.streamWindow = streamWindow;
+            this.methodMetrics = methodMetrics;
+            this.limiter = limiter;
+            this.receiveNanos = receiveNanos;
         }
 
         @Nonnull
@@ -222,16 +506,92 @@ public class RpcSupportHandler extends SessionDuplexHandlerAdapter {
         }
     }
 
+    /**
+     * jvm内部同步调用的快速路径，运行在执行请求的应用线程。
+     * 直接完成调用方的promise，调用方不必等待响应经过网络线程；
+     * 正常的响应仍然会返回，以清理调用方的超时信息，但快速路径成功时不再携带结果，因此结果只会被序列化(克隆)一次。
+     */
+    private static class LocalSyncResultListener implements FutureListener<Object> {
+
+        private final Serializer serializer;
+        private final Promise<?> localSyncPromise;
+        private final RpcResultListener resultListener;
+        private final Executor netEventLoop;
+
+        LocalSyncResultListener(Serializer serializer, Promise<?> localSyncPromise,
+                                RpcResultListener resultListener, Executor netEventLoop) {
+            this.serializer = serializer;
+            this.localSyncPromise = localSyncPromise;
+            this.resultListener = resultListener;
+            this.netEventLoop = netEventLoop;
+        }
+
+        @Override
+        public void onComplete(ListenableFuture<Object> future) throws Exception {
+            try {
+                resultListener.localSyncCommitted = tryCommit(future);
+            } finally {
+                // future已完成，监听器会立即提交给网络线程，提交保证了localSyncCommitted的可见性
+                future.addListener(resultListener, netEventLoop);
+            }
+        }
+
+        /**
+         * @return 如果已将结果直接提交给调用方，则返回true
+         */
+        private boolean tryCommit(ListenableFuture<Object> future) {
+            if (future.isCompletedExceptionally()) {
+                final String errorMsg = ExceptionUtils.getRootCauseMessage(future.cause());
+                localSyncPromise.tryFailure(new DefaultRpcServerException(RpcErrorCode.SERVER_EXCEPTION, errorMsg));
+                // 错误信息很小，正常的响应仍然携带它
+                return false;
+            }
+
+            final Object result = future.getNow();
+            if (result instanceof RpcStreamSource) {
+                // 由正常流程返回错误
+                return false;
+            }
+
+            final Object clonedResult;
+            try {
+                // 与LocalCodecHandler一致，不共享对象
+                clonedResult = serializer.cloneObject(result);
+            } catch (Exception e) {
+                // 由正常流程返回结果
+                return false;
+            }
+            commit(localSyncPromise, clonedResult);
+            return true;
+        }
+
+        private static <V> void commit(Promise<V> promise, Object result) {
+            @SuppressWarnings("unchecked") final V castResult = (V) result;
+            promise.trySuccess(castResult);
+        }
+    }
+
     private static class RpcResultListener implements FutureListener<Object> {
 
+        private final RpcSupportHandler handler;
         private final DefaultRpcProcessContext context;
-
-        RpcResultListener(DefaultRpcProcessContext context) {
+        private final RpcRequestProcessTask task;
+        /**
+         * jvm内部同步调用的结果是否已通过快速路径提交给调用方，如果是，则正常的响应不再携带结果
+         */
+        boolean localSyncCommitted;
+
+        RpcResultListener(RpcSupportHandler handler, DefaultRpcProcessContext context, RpcRequestProcessTask task) {
+            this.handler = handler;
             this.context = context;
+            this.task = task;
         }
 
         @Override
         public void onComplete(ListenableFuture<Object> future) throws Exception {
+            if (context.limiter != null) {
+                context.limiter.release(context.receiveNanos, task.getStartNanos());
+            }
             if (context.session.isClosed()) {
                 return;
             }
@@ -245,14 +605,56 @@ public class RpcSupportHandler extends SessionDuplexHandlerAdapter {
                 body = ExceptionUtils.getRootCauseMessage(cause);
                 logger.warn("dispatch rpcRequest caught exception", cause);
             } else {
-                errorCode = RpcErrorCode.SUCCESS;
-                body = future.getNow();
+                final Object result = future.getNow();
+                if (context.streamWindow > 0) {
+                    onStreamRequestSuccess(result);
+                    return;
+                }
+                if (result instanceof RpcStreamSource) {
+                    // 流式数据源不能序列化，必须通过流式调用获取
+                    closeSourceQuietly((RpcStreamSource<?>) result);
+                    errorCode = RpcErrorCode.SERVER_EXCEPTION;
+                    body = "RpcStreamSource must be fetched by callStream";
+                } else {
+                    errorCode = RpcErrorCode.SUCCESS;
+                    // 调用方已拿到结果，响应只用于清理超时信息，避免再次克隆结果
+                    body = localSyncCommitted ? null : result;
+                }
+            }
+
+            if (context.streamWindow > 0) {
+                // 流式调用的结果总是通过流式响应帧返回
+                context.session.fireWriteAndFlush(new RpcStreamMessage(context.requestGuid, true, errorCode, body));
+                return;
             }
 
             // 此时已经在网络线程，直接write,但还是需要流经整个管道
             final RpcResponseMessage responseMessage = new RpcResponseMessage(context.requestGuid, context.sync, errorCode, body);
+            responseMessage.setMethodMetrics(context.methodMetrics);
             context.session.fireWrite(responseMessage);
         }
+
+        private void onStreamRequestSuccess(Object result) {
+            if (result instanceof RpcStreamSource) {
+                handler.onStreamResult(context, (RpcStreamSource<?>) result);
+            } else if (result == null) {
+                // 空流
+                context.session.fireWriteAndFlush(new RpcStreamMessage(context.requestGuid, true, RpcErrorCode.SUCCESS, null));
+            } else {
+                context.session.fireWriteAndFlush(new RpcStreamMessage(context.requestGuid, true, RpcErrorCode.SERVER_EXCEPTION,
+                        "method does not return a RpcStreamSource, resultType " + result.getClass().getName()));
+            }
+        }
+
+        private void closeSourceQuietly(RpcStreamSource<?> source) {
+            context.session.appEventLoop().execute(() -> {
+                try {
+                    source.close();
+                } catch (Throwable e) {
+                    logger.warn("close rpcStreamSource caught exception", e);
+                }
+            });
+        }
     }
 
 }
@@ -0,0 +1,95 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.net.binary.BinarySerializer;
+import com.wjybxx.fastjgame.net.binary.EncodedValue;
+import com.wjybxx.fastjgame.net.binary.ObjectReader;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+/**
+ * 类型化的rpc方法结构体，由注解处理器为每一个rpc方法生成一个具体的子类。
+ * <p>
+ * 与{@link DefaultRpcMethodSpec}不同，它不使用{@code List<Object>}保存方法参数，而是将参数保存为子类的具体类型字段，
+ * 并生成对应的编解码器，基本类型参数直接读写，避免了装箱/拆箱与中间集合的创建。
+ * <p>
+ * 注意：存在{@link com.wjybxx.fastjgame.net.binary.LazySerializable}或{@link com.wjybxx.fastjgame.net.binary.PreDeserializable}
+ * 参数的方法，以及泛型方法，仍然使用{@link DefaultRpcMethodSpec}。
+ * <p>
+ * 延迟解码：对象类型的参数字段声明为Object，如果开启了{@link BinarySerializer#withLazyDecodeRpcParams(boolean)}，
+ * 读取时保存为{@link EncodedValue}，在生成的访问方法第一次被调用时才解码，未被访问的参数转发时直接写入原始内容。
+ * <p>
+ * 警告：不要修改对象的内容，否则可能引发bug(并发错误)。
+ *
+ * @param <V> the type of return type
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/24
+ * github - https://github.com/hl845740757
+ */
+public abstract class TypedRpcMethodSpec<V> implements RpcMethodSpec<V> {
+
+    /**
+     * 延迟解码时使用的序列化实现，只有存在未解码的参数时不为null
+     */
+    private BinarySerializer lazyDecodeSerializer;
+
+    /**
+     * 远程服务id
+     */
+    public abstract short getServiceId();
+
+    /**
+     * 远程方法id
+     */
+    public abstract short getMethodId();
+
+    /**
+     * 读取一个对象类型的参数，由生成的编解码器调用。
+     * 如果开启了延迟解码，则对象容器和protoBuf消息不解码，返回{@link EncodedValue}。
+     */
+    protected final Object readObjectParam(ObjectReader reader) throws Exception {
+        final BinarySerializer serializer = reader.serializer();
+        if (!serializer.isLazyDecodeRpcParams()) {
+            return reader.readObject();
+        }
+        final Object value = reader.readLazyDecodeObject();
+        if (value instanceof EncodedValue) {
+            lazyDecodeSerializer = serializer;
+        }
+        return value;
+    }
+
+    /**
+     * 解码一个对象类型的参数，由生成的访问方法调用，调用者需要缓存结果。
+     *
+     * @param value 字段的值，如果不是{@link EncodedValue}则直接返回
+     */
+    @SuppressWarnings("unchecked")
+    protected final <T> T decodeObjectParam(Object value) {
+        if (!(value instanceof EncodedValue)) {
+            return (T) value;
+        }
+        try {
+            return (T) ((EncodedValue) value).decode(lazyDecodeSerializer);
+        } catch (Exception e) {
+            return ExceptionUtils.rethrow(e);
+        }
+    }
+
+}
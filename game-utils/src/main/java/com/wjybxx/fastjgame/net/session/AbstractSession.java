@@ -71,6 +71,18 @@ public abstract class AbstractSession implements Session {
      * tick用的handle
      */
     private final TimerHandle tickHandle;
+    /**
+     * session是否可写 - 网络线程写，任意线程读
+     */
+    private volatile boolean writable = true;
+    /**
+     * 待发送的字节数(估算值) - 网络线程写，任意线程读
+     */
+    private volatile long outboundBytes = 0;
+    /**
+     * 未完成的rpc调用数 - 网络线程写，任意线程读
+     */
+    private volatile int pendingRpcCalls = 0;
     /**
      * 附加属性 - 非volatile，只有用户线程可以使用
      */
@@ -140,6 +152,21 @@ public abstract class AbstractSession implements Session {
         return stateHolder.get() == ST_CLOSED;
     }
 
+    @Override
+    public final boolean isWritable() {
+        return writable;
+    }
+
+    @Override
+    public final long outboundBytes() {
+        return outboundBytes;
+    }
+
+    @Override
+    public final int pendingRpcCalls() {
+        return pendingRpcCalls;
+    }
+
     @Override
     public final void close() {
         final int oldState = stateHolder.getAndSet(ST_CLOSED);
@@ -200,6 +227,13 @@ public abstract class AbstractSession implements Session {
         pipeline.fireWriteAndFlush(msg);
     }
 
+    @Internal
+    @Override
+    public void fireFlush() {
+        ensureInNetEventLoop();
+        pipeline.fireFlush();
+    }
+
     /**
      * @return 如果切换为激活状态，则返回true
      */
@@ -209,6 +243,34 @@ public abstract class AbstractSession implements Session {
         return stateHolder.compareAndSet(ST_BOUND, ST_CONNECTED);
     }
 
+    /**
+     * 更新session的出站状态，如果可写状态发生了改变，则传递可写状态改变事件。
+     * 由真正负责传输的handler调用。
+     *
+     * @param writable      当前是否可写
+     * @param outboundBytes 当前待发送的字节数
+     */
+    @Internal
+    public final void updateOutboundState(boolean writable, long outboundBytes) {
+        ensureInNetEventLoop();
+        this.outboundBytes = outboundBytes;
+        if (this.writable != writable) {
+            this.writable = writable;
+            pipeline.fireWritabilityChanged();
+        }
+    }
+
+    /**
+     * 更新session上未完成的rpc调用数，由{@link com.wjybxx.fastjgame.net.rpc.RpcSupportHandler}调用。
+     *
+     * @param pendingRpcCalls 当前未完成的rpc调用数
+     */
+    @Internal
+    public final void updatePendingRpcCalls(int pendingRpcCalls) {
+        ensureInNetEventLoop();
+        this.pendingRpcCalls = pendingRpcCalls;
+    }
+
     /**
      * tick刷帧 - 不暴露给应用层
      */
@@ -162,6 +162,21 @@ abstract class AbstractSessionHandlerContext implements SessionHandlerContext {
         }
     }
 
+    @Override
+    public void fireWritabilityChanged() {
+        final AbstractSessionHandlerContext nextInboundContext = findNextInboundContext();
+        invokeWritabilityChanged(nextInboundContext);
+    }
+
+    private static void invokeWritabilityChanged(AbstractSessionHandlerContext nextInboundContext) {
+        final SessionInboundHandler handler = (SessionInboundHandler) nextInboundContext.handler();
+        try {
+            handler.onWritabilityChanged(nextInboundContext);
+        } catch (Throwable e) {
+            onExceptionCaught(e, nextInboundContext);
+        }
+    }
+
     @Override
     public void fireExceptionCaught(Throwable cause) {
         final AbstractSessionHandlerContext nextInboundContext = findNextInboundContext();
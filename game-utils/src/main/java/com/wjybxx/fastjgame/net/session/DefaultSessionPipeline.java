@@ -17,6 +17,7 @@
 package com.wjybxx.fastjgame.net.session;
 
 import com.wjybxx.fastjgame.net.eventloop.NetEventLoop;
+import com.wjybxx.fastjgame.util.concurrent.ConcurrentUtils;
 import com.wjybxx.fastjgame.util.concurrent.EventLoop;
 import com.wjybxx.fastjgame.util.time.TimeProvider;
 import com.wjybxx.fastjgame.util.timer.DefaultTimerSystem;
@@ -231,6 +232,11 @@ class DefaultSessionPipeline implements SessionPipeline {
         head.fireRead(msg);
     }
 
+    @Override
+    public void fireWritabilityChanged() {
+        head.fireWritabilityChanged();
+    }
+
     @Override
     public void fireExceptionCaught(Throwable cause) {
         head.fireExceptionCaught(cause);
@@ -370,6 +376,15 @@ class DefaultSessionPipeline implements SessionPipeline {
             }
         }
 
+        @Override
+        public void onWritabilityChanged(SessionHandlerContext ctx) throws Exception {
+            // 默认通知到用户线程
+            final Session session = ctx.session();
+            if (session.config().writabilityAware() != null) {
+                ConcurrentUtils.safeExecute(ctx.appEventLoop(), new WritabilityChangedTask(session, session.isWritable()));
+            }
+        }
+
         @Override
         public void onExceptionCaught(SessionHandlerContext ctx, Throwable cause) throws Exception {
             logger.info("Unhandled exception", cause);
@@ -116,6 +116,36 @@ public interface Session extends Comparable<Session> {
      */
     void close();
 
+    // ----------------------------------------------- 流量控制 ----------------------------------------------
+
+    /**
+     * 查询session当前是否可写。
+     * 当底层的发送缓冲区超过高水位线，或待发送的字节数超出{@code maxOutboundBytes}预算时，返回false。
+     * <p>
+     * 注意：
+     * 1. 该值由网络线程更新，用户线程查询到的是一个近似值。
+     * 2. 不可写时仍然可以发送消息，但应当减少低优先级消息的发送，否则可能因为缓存的消息过多而关闭session。
+     * 3. 可通过{@link SessionWritabilityAware}监听可写状态的改变。
+     * 4. 支持断线重连的session在重连期间只按照字节预算判断，预算内的消息会缓存到重连成功后再发送。
+     */
+    boolean isWritable();
+
+    /**
+     * 查询session当前待发送的字节数(估算值)，包括session缓存的尚未发送的消息，以及底层发送缓冲区中的数据。
+     * 注意：该值由网络线程更新，用户线程查询到的是一个近似值。
+     */
+    long outboundBytes();
+
+    /**
+     * 查询session上未完成的rpc调用数，即：已发出但尚未收到响应(或超时)的rpc请求数，加上未结束的流式rpc调用数。
+     * 可用于负载均衡(选择未完成调用最少的session)。
+     * 注意：
+     * 1. 该值由网络线程更新，用户线程查询到的是一个近似值。
+     * 2. 刚刚发起的调用需要等到网络线程处理之后才会计入。
+     * 3. 如果session未开启rpc支持，则总是返回0。
+     */
+    int pendingRpcCalls();
+
     // ------------------------------------------- 内部API，其它线程调用会抛出异常 -----------------------------------
 
     @Internal
@@ -129,4 +159,7 @@ public interface Session extends Comparable<Session> {
 
     @Internal
     void fireWriteAndFlush(@Nonnull Object msg);
+
+    @Internal
+    void fireFlush();
 }
@@ -16,11 +16,16 @@
 
 package com.wjybxx.fastjgame.net.session;
 
+import com.wjybxx.fastjgame.net.rpc.ConcurrencyLimitConfig;
 import com.wjybxx.fastjgame.net.rpc.RpcProcessor;
 import com.wjybxx.fastjgame.net.serialization.Serializer;
 import com.wjybxx.fastjgame.util.CheckUtils;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectMaps;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectOpenHashMap;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import java.util.Objects;
 
@@ -37,6 +42,7 @@ import java.util.Objects;
 public class SessionConfig {
 
     private final SessionLifecycleAware lifecycleAware;
+    private final SessionWritabilityAware writabilityAware;
     private final Serializer serializer;
     private final RpcProcessor processor;
     private final long sessionTimeoutMs;
@@ -44,9 +50,13 @@ public class SessionConfig {
     private final boolean rpcAvailable;
     private final long asyncRpcTimeoutMs;
     private final long syncRpcTimeoutMs;
+    private final long syncRpcSpinMicros;
+    private final ConcurrencyLimitConfig defaultConcurrencyLimit;
+    private final Short2ObjectMap<ConcurrencyLimitConfig> serviceConcurrencyLimits;
 
     protected SessionConfig(SessionConfigBuilder builder) {
         this.lifecycleAware = builder.lifecycleAware;
+        this.writabilityAware = builder.writabilityAware;
         this.serializer = builder.serializer;
         this.processor = builder.rpcProcessor;
         this.sessionTimeoutMs = builder.sessionTimeoutMs;
@@ -54,6 +64,10 @@ public class SessionConfig {
         this.rpcAvailable = builder.rpcAvailable;
         this.asyncRpcTimeoutMs = builder.asyncRpcTimeoutMs;
         this.syncRpcTimeoutMs = builder.syncRpcTimeoutMs;
+        this.syncRpcSpinMicros = builder.syncRpcSpinMicros;
+        this.defaultConcurrencyLimit = builder.defaultConcurrencyLimit;
+        this.serviceConcurrencyLimits = builder.serviceConcurrencyLimits.isEmpty() ? Short2ObjectMaps.emptyMap()
+                : new Short2ObjectOpenHashMap<>(builder.serviceConcurrencyLimits);
     }
 
     /**
@@ -63,6 +77,14 @@ public class SessionConfig {
         return lifecycleAware;
     }
 
+    /**
+     * @return 可写状态回调，如果未设置，则返回null
+     */
+    @Nullable
+    public SessionWritabilityAware writabilityAware() {
+        return writabilityAware;
+    }
+
     /**
      * @return 协议内容编解码器
      */
@@ -105,6 +127,28 @@ public class SessionConfig {
         return syncRpcTimeoutMs;
     }
 
+    /**
+     * 同步rpc调用时，阻塞(park)用户线程之前自旋等待结果的时间。
+     * 对于延迟在亚毫秒级的调用(如：jvm内部或同主机的调用)，自旋可以避免park/unpark的开销，但会占用cpu。
+     *
+     * @return 自旋时间，微秒，0表示不自旋
+     */
+    public long getSyncRpcSpinMicros() {
+        return syncRpcSpinMicros;
+    }
+
+    /**
+     * 获取指定服务的rpc请求并发限制配置
+     *
+     * @param serviceId 服务id
+     * @return 如果该服务不限制并发，则返回null
+     */
+    @Nullable
+    public ConcurrencyLimitConfig concurrencyLimitConfig(short serviceId) {
+        final ConcurrencyLimitConfig config = serviceConcurrencyLimits.get(serviceId);
+        return config != null ? config : defaultConcurrencyLimit;
+    }
+
     public static SessionConfigBuilder newBuilder() {
         return new SessionConfigBuilder();
     }
@@ -112,6 +156,7 @@ public class SessionConfig {
     public static class SessionConfigBuilder<T extends SessionConfigBuilder<T, U>, U extends SessionConfig> {
 
         private SessionLifecycleAware lifecycleAware;
+        private SessionWritabilityAware writabilityAware;
         private Serializer serializer;
         private RpcProcessor rpcProcessor;
         private int sessionTimeoutMs = 60 * 1000;
@@ -119,12 +164,20 @@ public class SessionConfig {
         private boolean rpcAvailable = true;
         private int asyncRpcTimeoutMs = 15 * 1000;
         private int syncRpcTimeoutMs = 5 * 1000;
+        private int syncRpcSpinMicros = 0;
+        private ConcurrencyLimitConfig defaultConcurrencyLimit;
+        private final Short2ObjectMap<ConcurrencyLimitConfig> serviceConcurrencyLimits = new Short2ObjectOpenHashMap<>();
 
         public T setLifecycleAware(@Nonnull SessionLifecycleAware lifecycleAware) {
             this.lifecycleAware = lifecycleAware;
             return self();
         }
 
+        public T setWritabilityAware(@Nullable SessionWritabilityAware writabilityAware) {
+            this.writabilityAware = writabilityAware;
+            return self();
+        }
+
         public T setSerializer(@Nonnull Serializer serializer) {
             this.serializer = serializer;
             return self();
@@ -155,6 +208,27 @@ public class SessionConfig {
             return self();
         }
 
+        public T setSyncRpcSpinMicros(int syncRpcSpinMicros) {
+            this.syncRpcSpinMicros = CheckUtils.requireNonNegative(syncRpcSpinMicros, "syncRpcSpinMicros");
+            return self();
+        }
+
+        /**
+         * 设置所有服务默认的rpc请求并发限制，默认不限制
+         */
+        public T setConcurrencyLimit(@Nullable ConcurrencyLimitConfig config) {
+            this.defaultConcurrencyLimit = config;
+            return self();
+        }
+
+        /**
+         * 设置指定服务的rpc请求并发限制，优先于默认配置
+         */
+        public T setConcurrencyLimit(short serviceId, @Nonnull ConcurrencyLimitConfig config) {
+            this.serviceConcurrencyLimits.put(serviceId, Objects.requireNonNull(config, "config"));
+            return self();
+        }
+
         public final U build() {
             checkParams();
             return newInstance();
@@ -41,6 +41,11 @@ public class SessionDuplexHandlerAdapter extends SessionOutboundHandlerAdapter i
         ctx.fireRead(msg);
     }
 
+    @Override
+    public void onWritabilityChanged(SessionHandlerContext ctx) throws Exception {
+        ctx.fireWritabilityChanged();
+    }
+
     @Override
     public void onExceptionCaught(SessionHandlerContext ctx, Throwable cause) throws Exception {
         ctx.fireExceptionCaught(cause);
@@ -52,6 +52,13 @@ public interface SessionInboundHandler extends SessionHandler {
      */
     void read(SessionHandlerContext ctx, Object msg) throws Exception;
 
+    /**
+     * 当session的可写状态发生改变时 - 参考{@link io.netty.channel.ChannelInboundHandler#channelWritabilityChanged(io.netty.channel.ChannelHandlerContext)}
+     *
+     * @param ctx handler所处的上下文
+     */
+    void onWritabilityChanged(SessionHandlerContext ctx) throws Exception;
+
     /**
      * 当某一个handler处理事件出现异常时。
      *
@@ -41,6 +41,11 @@ public class SessionInboundHandlerAdapter extends SessionHandlerAdapter implemen
         ctx.fireRead(msg);
     }
 
+    @Override
+    public void onWritabilityChanged(SessionHandlerContext ctx) throws Exception {
+        ctx.fireWritabilityChanged();
+    }
+
     @Override
     public void onExceptionCaught(SessionHandlerContext ctx, Throwable cause) throws Exception {
         ctx.fireExceptionCaught(cause);
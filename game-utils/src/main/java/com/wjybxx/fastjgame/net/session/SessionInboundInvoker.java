@@ -48,6 +48,13 @@ public interface SessionInboundInvoker {
      */
     void fireRead(@Nonnull Object msg);
 
+    /**
+     * 当session的可写状态发生改变时，向下传递可写状态改变事件；
+     * 它将导致{@link SessionPipeline}中的下一个{@link SessionInboundHandler#onWritabilityChanged(SessionHandlerContext)}方法被调用。
+     * 可通过{@link Session#isWritable()}查询最新的可写状态。
+     */
+    void fireWritabilityChanged();
+
     /**
      * 当当某一个{@link SessionInboundHandler}处理事件出现异常时，向下传递异常。
      * 它将导致{@link SessionPipeline}中的下一个{@link SessionInboundHandler#onExceptionCaught(SessionHandlerContext, Throwable)} 方法被调用。
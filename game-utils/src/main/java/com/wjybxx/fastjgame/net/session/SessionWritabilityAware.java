@@ -0,0 +1,39 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.session;
+
+/**
+ * session可写状态观察者。
+ * <p>
+ * 当session的发送缓冲区超过高水位线，或待发送的字节数超出预算时，session将变为不可写；
+ * 用户收到不可写通知后，应当减少低优先级消息的发送（如：位置同步），避免消息无限堆积直到session被关闭。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/14
+ * github - https://github.com/hl845740757
+ */
+public interface SessionWritabilityAware {
+
+    /**
+     * 当session的可写状态发生改变时调用（在用户线程执行）
+     *
+     * @param session  可写状态改变的session
+     * @param writable 事件发生时的可写状态，由于是异步通知，可能与{@link Session#isWritable()}不一致
+     */
+    void onSessionWritabilityChanged(Session session, boolean writable);
+}
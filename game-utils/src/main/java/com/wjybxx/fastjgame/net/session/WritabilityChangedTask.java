@@ -0,0 +1,41 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.session;
+
+/**
+ * 可写状态改变的通知任务 - 消除lambda表达式
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/14
+ * github - https://github.com/hl845740757
+ */
+public class WritabilityChangedTask implements Runnable {
+
+    private final Session session;
+    private final boolean writable;
+
+    public WritabilityChangedTask(Session session, boolean writable) {
+        this.session = session;
+        this.writable = writable;
+    }
+
+    @Override
+    public void run() {
+        session.config().writabilityAware().onSessionWritabilityChanged(session, writable);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.shm;
+
+import com.wjybxx.fastjgame.net.misc.NetContext;
+import com.wjybxx.fastjgame.net.session.Session;
+import com.wjybxx.fastjgame.util.concurrent.Promise;
+
+/**
+ * 请求与同一台机器上的另一个进程建立共享内存连接
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/20
+ * github - https://github.com/hl845740757
+ */
+public class ConnectShmRequest {
+
+    private final String sessionId;
+    private final String portName;
+    private final ShmSessionConfig config;
+    private final NetContext netContext;
+    private final Promise<Session> connectPromise;
+
+    public ConnectShmRequest(String sessionId,
+                             String portName,
+                             ShmSessionConfig config,
+                             NetContext netContext,
+                             Promise<Session> connectPromise) {
+        this.sessionId = sessionId;
+        this.portName = portName;
+        this.config = config;
+        this.netContext = netContext;
+        this.connectPromise = connectPromise;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public String getPortName() {
+        return portName;
+    }
+
+    public ShmSessionConfig getConfig() {
+        return config;
+    }
+
+    public NetContext getNetContext() {
+        return netContext;
+    }
+
+    public Promise<Session> getConnectPromise() {
+        return connectPromise;
+    }
+}
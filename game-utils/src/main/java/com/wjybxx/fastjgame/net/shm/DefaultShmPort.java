@@ -0,0 +1,150 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.shm;
+
+import com.wjybxx.fastjgame.net.misc.NetContext;
+import com.wjybxx.fastjgame.net.utils.NetUtils;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 共享内存端口的实现。
+ * <p>
+ * 绑定端口时对端口目录下的锁文件加锁，进程退出时操作系统会自动释放锁，因此可以识别出进程崩溃后残留的端口。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/20
+ * github - https://github.com/hl845740757
+ */
+public class DefaultShmPort implements ShmPort {
+
+    /**
+     * 监听者的网络上下文
+     */
+    private final NetContext netContext;
+    private final String portName;
+    /**
+     * session配置信息
+     */
+    private final ShmSessionConfig config;
+    /**
+     * 端口目录，连接方在该目录下创建session文件
+     */
+    private final Path portDir;
+    private final FileChannel lockChannel;
+    /**
+     * 激活状态
+     */
+    private volatile boolean active = true;
+
+    private DefaultShmPort(NetContext netContext, String portName, ShmSessionConfig config, Path portDir, FileChannel lockChannel) {
+        this.netContext = netContext;
+        this.portName = portName;
+        this.config = config;
+        this.portDir = portDir;
+        this.lockChannel = lockChannel;
+    }
+
+    /**
+     * 绑定端口
+     *
+     * @throws BindException 如果端口已被其它进程绑定，或无法创建端口目录
+     */
+    public static DefaultShmPort bind(NetContext netContext, String portName, ShmSessionConfig config) throws BindException {
+        if (!ShmUtils.isSupported(config.shmDir())) {
+            throw new BindException("shm unsupported, shmDir " + config.shmDir());
+        }
+
+        final Path portDir = ShmUtils.portDir(config.shmDir(), portName);
+        FileChannel lockChannel = null;
+        try {
+            Files.createDirectories(portDir);
+            lockChannel = FileChannel.open(ShmUtils.lockFile(portDir), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            final FileLock fileLock = lockChannel.tryLock();
+            if (fileLock == null) {
+                throw new BindException("shm port " + portName + " is already bound");
+            }
+            // 清理上一个进程残留的文件
+            cleanStaleFiles(portDir);
+            return new DefaultShmPort(netContext, portName, config, portDir, lockChannel);
+        } catch (BindException e) {
+            NetUtils.closeQuietly(lockChannel);
+            throw e;
+        } catch (IOException | OverlappingFileLockException e) {
+            NetUtils.closeQuietly(lockChannel);
+            final BindException bindException = new BindException("bind shm port " + portName + " failure");
+            bindException.initCause(e);
+            throw bindException;
+        }
+    }
+
+    private static void cleanStaleFiles(Path portDir) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(portDir,
+                "*{" + ShmUtils.SESSION_FILE_SUFFIX + "," + ShmUtils.TMP_FILE_SUFFIX + "}")) {
+            for (Path path : stream) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    public NetContext getNetContext() {
+        return netContext;
+    }
+
+    @Override
+    public String portName() {
+        return portName;
+    }
+
+    public ShmSessionConfig getConfig() {
+        return config;
+    }
+
+    Path getPortDir() {
+        return portDir;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    @Override
+    public void close() {
+        active = false;
+        // 关闭channel时释放锁
+        NetUtils.closeQuietly(lockChannel);
+    }
+
+    @Override
+    public String toString() {
+        return "DefaultShmPort{" +
+                "portName='" + portName + '\'' +
+                ", portDir=" + portDir +
+                ", active=" + active +
+                '}';
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.shm;
+
+import com.wjybxx.fastjgame.net.manager.AcceptorManager;
+import com.wjybxx.fastjgame.net.manager.NetManagerWrapper;
+import com.wjybxx.fastjgame.net.rpc.OneWaySupportHandler;
+import com.wjybxx.fastjgame.net.rpc.RpcSupportHandler;
+import com.wjybxx.fastjgame.util.timer.TimerHandle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 它并不是一个真正的handler - 只是用于封装代码。
+ * 共享内存没有accept事件，接收方定时扫描端口目录，发现新的session文件时建立session。
+ * 无法接受的文件(已关闭、已被接受过、格式错误)只映射一次，之后的扫描直接跳过，直到文件被删除或重新创建。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/20
+ * github - https://github.com/hl845740757
+ */
+public class ShmAcceptorHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShmAcceptorHandler.class);
+
+    private ShmAcceptorHandler() {
+
+    }
+
+    /**
+     * 开始监听端口
+     */
+    public static void listen(DefaultShmPort shmPort, NetManagerWrapper netManagerWrapper, AcceptorManager acceptorManager) {
+        final Map<Path, Object> ignoredFiles = new HashMap<>();
+        netManagerWrapper.getNetTimerManager().newHeartbeatTimer(ShmUtils.ACCEPT_INTERVAL_MS,
+                handle -> acceptSessions(handle, shmPort, netManagerWrapper, acceptorManager, ignoredFiles));
+    }
+
+    /**
+     * @param ignoredFiles 已放弃的文件(文件路径 -> 文件标识)，这些文件不再重复映射。
+     *                     连接方可能删除文件后使用相同的sessionId重新连接，因此需要比较文件标识。
+     */
+    private static void acceptSessions(TimerHandle handle, DefaultShmPort shmPort, NetManagerWrapper netManagerWrapper,
+                                       AcceptorManager acceptorManager, Map<Path, Object> ignoredFiles) {
+        if (!shmPort.isActive()) {
+            // 端口已关闭
+            handle.close();
+            return;
+        }
+
+        final Set<Path> existFiles = new HashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(shmPort.getPortDir(), "*" + ShmUtils.SESSION_FILE_SUFFIX)) {
+            for (Path sessionFile : stream) {
+                existFiles.add(sessionFile);
+                final String sessionId = ShmUtils.sessionIdOf(sessionFile);
+                if (null == sessionId || acceptorManager.getSession(sessionId) != null) {
+                    // 已建立的session
+                    continue;
+                }
+
+                final Object fileKey = fileKey(sessionFile);
+                if (null == fileKey) {
+                    // 文件在扫描期间被连接方删除
+                    continue;
+                }
+                if (fileKey.equals(ignoredFiles.get(sessionFile))) {
+                    // 已放弃的文件
+                    continue;
+                }
+
+                if (!tryAccept(sessionFile, sessionId, shmPort, netManagerWrapper, acceptorManager)) {
+                    ignoredFiles.put(sessionFile, fileKey);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("scan shm port {} caught exception", shmPort.portName(), e);
+            return;
+        }
+
+        // 删除已不存在的文件，避免内存泄漏
+        ignoredFiles.keySet().retainAll(existFiles);
+    }
+
+    /**
+     * 获取文件的唯一标识，用于识别删除后重新创建的同名文件
+     *
+     * @return 如果文件不存在，则返回null
+     */
+    @Nullable
+    private static Object fileKey(Path path) {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            // linux下是设备号和inode，不使用修改时间(连接方写入数据时会改变)
+            final Object fileKey = attributes.fileKey();
+            return null != fileKey ? fileKey : attributes.creationTime();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return 如果建立了session，则返回true；如果放弃了该文件，则返回false
+     */
+    private static boolean tryAccept(Path sessionFile, String sessionId, DefaultShmPort shmPort,
+                                     NetManagerWrapper netManagerWrapper, AcceptorManager acceptorManager) {
+        final ShmMappedFile mappedFile;
+        try {
+            mappedFile = ShmMappedFile.open(sessionFile);
+        } catch (IOException e) {
+            // 文件可能在扫描期间被连接方删除，或不是合法的session文件
+            logger.debug("open shm file {} caught exception", sessionFile, e);
+            return false;
+        }
+
+        if (mappedFile.getState() == ShmMappedFile.ST_CLOSED) {
+            // 连接方已放弃，删除残留的文件
+            mappedFile.closeAndDelete();
+            mappedFile.unmap();
+            return false;
+        }
+
+        if (!mappedFile.tryAccept()) {
+            // 已被接受过(不属于当前session的残留文件)，不可以更新它的活跃时间
+            mappedFile.unmap();
+            return false;
+        }
+        // 接受之后立即更新活跃时间，避免连接方误判
+        mappedFile.touch(netManagerWrapper.getNetTimeManager().curTimeMillis());
+
+        // 建立连接成功
+        final ShmSessionImp session = new ShmSessionImp(shmPort.getNetContext(),
+                sessionId,
+                shmPort.getConfig(),
+                netManagerWrapper,
+                acceptorManager);
+
+        // 初始化管道
+        session.pipeline()
+                .addLast(new ShmTransferHandler(mappedFile))
+                .addLast(new OneWaySupportHandler());
+
+        // 判断是否支持rpc
+        if (session.config().isRpcAvailable()) {
+            session.pipeline().addLast(new RpcSupportHandler());
+        }
+
+        // 激活session并传递激活事件
+        session.tryActive();
+        session.pipeline().fireSessionActive();
+        return true;
+    }
+}
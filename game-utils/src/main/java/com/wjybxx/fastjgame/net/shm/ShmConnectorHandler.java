@@ -0,0 +1,136 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.shm;
+
+import com.wjybxx.fastjgame.net.rpc.OneWaySupportHandler;
+import com.wjybxx.fastjgame.net.rpc.RpcSupportHandler;
+import com.wjybxx.fastjgame.net.session.Session;
+import com.wjybxx.fastjgame.net.session.SessionDuplexHandlerAdapter;
+import com.wjybxx.fastjgame.net.session.SessionHandlerContext;
+import com.wjybxx.fastjgame.util.concurrent.Promise;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * 共享内存session连接方使用的建立连接handler。
+ * <p>
+ * 在对方端口目录下创建session文件，然后等待对方接受，对方接受之后删除自己并初始化真正的管道。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/20
+ * github - https://github.com/hl845740757
+ */
+public class ShmConnectorHandler extends SessionDuplexHandlerAdapter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShmConnectorHandler.class);
+
+    private final String portName;
+    private final Promise<Session> connectPromise;
+    /**
+     * 建立连接的超时时间
+     */
+    private long deadline;
+    private ShmMappedFile mappedFile;
+
+    public ShmConnectorHandler(String portName, Promise<Session> connectPromise) {
+        this.portName = portName;
+        this.connectPromise = connectPromise;
+    }
+
+    @Override
+    public void handlerAdded(SessionHandlerContext ctx) throws Exception {
+        final ShmSessionConfig config = (ShmSessionConfig) ctx.session().config();
+        final long curTimeMillis = ctx.timerSystem().curTimeMillis();
+        deadline = curTimeMillis + config.connectTimeoutMs();
+
+        final Path portDir = ShmUtils.portDir(config.shmDir(), portName);
+        if (!ShmUtils.isPortBound(config.shmDir(), portName)) {
+            connectPromise.tryFailure(new IOException("shm port " + portName + " is not bound"));
+            ctx.session().close();
+            return;
+        }
+
+        try {
+            mappedFile = ShmMappedFile.create(ShmUtils.sessionFile(portDir, ctx.session().sessionId()), config.ringCapacity(), curTimeMillis);
+        } catch (IOException e) {
+            connectPromise.tryFailure(e);
+            ctx.session().close();
+        }
+    }
+
+    @Override
+    public void tick(SessionHandlerContext ctx) throws Exception {
+        final ShmSessionImp session = (ShmSessionImp) ctx.session();
+        if (session.isClosed() || null == mappedFile) {
+            return;
+        }
+
+        final long state = mappedFile.getState();
+        if (state == ShmMappedFile.ST_ACCEPTED) {
+            onAccepted(ctx, session);
+            return;
+        }
+
+        if (state == ShmMappedFile.ST_CLOSED || ctx.timerSystem().curTimeMillis() > deadline) {
+            // 对方拒绝或指定时间内未接受，关闭session
+            session.close();
+        }
+    }
+
+    private void onAccepted(SessionHandlerContext ctx, ShmSessionImp session) {
+        if (connectPromise.trySuccess(session)) {
+            // 激活session成功并初始化通道 - 删除自己，添加真正的handler逻辑
+            session.tryActive();
+            session.pipeline()
+                    .remove(this)
+                    .addLast(new ShmTransferHandler(mappedFile))
+                    .addLast(new OneWaySupportHandler());
+
+            // 判断是否支持rpc
+            if (session.config().isRpcAvailable()) {
+                session.pipeline().addLast(new RpcSupportHandler());
+            }
+
+            // 传递session激活事件
+            session.pipeline().fireSessionActive();
+        } else {
+            // 用户取消了连接
+            session.closeForcibly();
+            mappedFile.closeAndDelete();
+        }
+    }
+
+    @Override
+    public void close(SessionHandlerContext ctx) throws Exception {
+        if (mappedFile != null) {
+            mappedFile.closeAndDelete();
+        }
+        // 无法建立连接
+        connectPromise.tryFailure(new IOException("connect failure"));
+
+        if (logger.isDebugEnabled()) {
+            // 打印关闭原因
+            logger.debug("close stacktrace {} ", ExceptionUtils.getStackTrace(new RuntimeException()));
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.shm;
+
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 一个共享内存session对应的内存映射文件，包含两个方向的{@link ShmRingBuffer}。
+ * <p>
+ * 文件布局（每个字段独占一个缓存行，避免伪共享）：
+ * <pre>
+ * [0]    magic、ring容量
+ * [64]   连接状态
+ * [128]  连接方最近活跃时间
+ * [192]  接收方最近活跃时间
+ * [256]  连接方 -> 接收方 ring的生产者索引、消费者索引
+ * [384]  接收方 -> 连接方 ring的生产者索引、消费者索引
+ * [512]  连接方 -> 接收方 ring的数据区
+ * [512 + capacity] 接收方 -> 连接方 ring的数据区
+ * </pre>
+ * 连接方先写入临时文件，初始化完成之后再原子的重命名，因此接收方看见的文件总是完整的。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/20
+ * github - https://github.com/hl845740757
+ */
+class ShmMappedFile {
+
+    private static final VarHandle LONG_VIEW = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final int MAGIC = 0x46_4A_53_4D;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int STATE_OFFSET = 64;
+    private static final int CONNECTOR_ALIVE_OFFSET = 128;
+    private static final int ACCEPTOR_ALIVE_OFFSET = 192;
+    private static final int C2A_PRODUCER_OFFSET = 256;
+    private static final int C2A_CONSUMER_OFFSET = 320;
+    private static final int A2C_PRODUCER_OFFSET = 384;
+    private static final int A2C_CONSUMER_OFFSET = 448;
+    private static final int DATA_OFFSET = 512;
+
+    /**
+     * 连接方已创建文件，等待接收方接受
+     */
+    static final long ST_CONNECTING = 1;
+    /**
+     * 接收方已接受连接
+     */
+    static final long ST_ACCEPTED = 2;
+    /**
+     * 任意一方已关闭连接
+     */
+    static final long ST_CLOSED = 3;
+
+    private final Path path;
+    /**
+     * 注意：java没有提供安全的解除映射的方法，映射通常在buffer被回收时解除。
+     * 文件在关闭时删除，因此不会残留在共享内存中。
+     * 接收方放弃的文件(尚未被任何对象引用)通过{@link #unmap()}立即解除映射。
+     */
+    private final MappedByteBuffer buffer;
+    private final boolean connector;
+    private final ShmRingBuffer outboundRing;
+    private final ShmRingBuffer inboundRing;
+
+    private ShmMappedFile(Path path, MappedByteBuffer buffer, int ringCapacity, boolean connector) {
+        this.path = path;
+        this.buffer = buffer;
+        this.connector = connector;
+
+        final ShmRingBuffer c2aRing = new ShmRingBuffer(buffer, C2A_PRODUCER_OFFSET, C2A_CONSUMER_OFFSET, DATA_OFFSET, ringCapacity);
+        final ShmRingBuffer a2cRing = new ShmRingBuffer(buffer, A2C_PRODUCER_OFFSET, A2C_CONSUMER_OFFSET, DATA_OFFSET + ringCapacity, ringCapacity);
+        this.outboundRing = connector ? c2aRing : a2cRing;
+        this.inboundRing = connector ? a2cRing : c2aRing;
+    }
+
+    /**
+     * 连接方创建映射文件
+     *
+     * @param path         文件路径
+     * @param ringCapacity 单个ring的容量，必须是2的整次幂
+     */
+    static ShmMappedFile create(Path path, int ringCapacity, long curTimeMillis) throws IOException {
+        final Path tmpPath = path.resolveSibling(path.getFileName() + ShmUtils.TMP_FILE_SUFFIX);
+        final MappedByteBuffer buffer;
+        try (FileChannel fileChannel = FileChannel.open(tmpPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + 2L * ringCapacity);
+        }
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(CAPACITY_OFFSET, ringCapacity);
+        LONG_VIEW.setRelease(buffer, CONNECTOR_ALIVE_OFFSET, curTimeMillis);
+        // 接收方在接受之后才更新自己的活跃时间，先使用创建时间，避免连接方在这期间误判
+        LONG_VIEW.setRelease(buffer, ACCEPTOR_ALIVE_OFFSET, curTimeMillis);
+        LONG_VIEW.setRelease(buffer, STATE_OFFSET, ST_CONNECTING);
+
+        try {
+            Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpPath);
+            throw e;
+        }
+        return new ShmMappedFile(path, buffer, ringCapacity, true);
+    }
+
+    /**
+     * 接收方打开映射文件
+     *
+     * @param path 文件路径
+     */
+    static ShmMappedFile open(Path path) throws IOException {
+        final MappedByteBuffer buffer;
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final long fileSize = fileChannel.size();
+            if (fileSize < DATA_OFFSET) {
+                throw new IOException("bad shm file " + path + ", size " + fileSize);
+            }
+            buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        }
+        buffer.order(ByteOrder.nativeOrder());
+
+        final int magic = buffer.getInt(MAGIC_OFFSET);
+        final int ringCapacity = buffer.getInt(CAPACITY_OFFSET);
+        if (magic != MAGIC
+                || Integer.bitCount(ringCapacity) != 1
+                || buffer.capacity() != DATA_OFFSET + 2L * ringCapacity) {
+            throw new IOException("bad shm file " + path + ", magic " + magic + ", ringCapacity " + ringCapacity);
+        }
+        return new ShmMappedFile(path, buffer, ringCapacity, false);
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    ShmRingBuffer outboundRing() {
+        return outboundRing;
+    }
+
+    ShmRingBuffer inboundRing() {
+        return inboundRing;
+    }
+
+    long getState() {
+        return (long) LONG_VIEW.getAcquire(buffer, STATE_OFFSET);
+    }
+
+    /**
+     * 接收方接受连接
+     *
+     * @return 如果连接方已放弃连接，则返回false
+     */
+    boolean tryAccept() {
+        return LONG_VIEW.compareAndSet(buffer, STATE_OFFSET, ST_CONNECTING, ST_ACCEPTED);
+    }
+
+    /**
+     * 标记为已关闭，对方在下一次检测时关闭session
+     */
+    void markClosed() {
+        LONG_VIEW.setRelease(buffer, STATE_OFFSET, ST_CLOSED);
+    }
+
+    /**
+     * 更新自己的活跃时间
+     */
+    void touch(long curTimeMillis) {
+        LONG_VIEW.setRelease(buffer, connector ? CONNECTOR_ALIVE_OFFSET : ACCEPTOR_ALIVE_OFFSET, curTimeMillis);
+    }
+
+    /**
+     * @return 对方最近活跃的时间
+     */
+    long peerAliveMillis() {
+        return (long) LONG_VIEW.getAcquire(buffer, connector ? ACCEPTOR_ALIVE_OFFSET : CONNECTOR_ALIVE_OFFSET);
+    }
+
+    /**
+     * 立即解除映射。
+     * 只可以在映射没有被其它对象使用时调用(如：接收方放弃该文件时)，解除之后不可以再访问该对象。
+     */
+    void unmap() {
+        try {
+            PlatformDependent.freeDirectBuffer(buffer);
+        } catch (Throwable ignore) {
+            // 不支持时等待buffer被回收
+        }
+    }
+
+    /**
+     * 标记为已关闭并删除文件。
+     * 已打开的映射仍然有效，另一方可以读取剩余的消息。
+     */
+    void closeAndDelete() {
+        markClosed();
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignore) {
+
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.shm;
+
+import com.wjybxx.fastjgame.net.misc.NetContext;
+import com.wjybxx.fastjgame.net.misc.NetPort;
+
+/**
+ * 用于建立共享内存session的“端口”，它并非一个真正的端口，而是共享内存目录下的一个子目录。
+ * 注意：同一时刻一个端口名只能被一个进程绑定，见{@link NetContext#bindShm(String, ShmSessionConfig)}。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/20
+ * github - https://github.com/hl845740757
+ */
+public interface ShmPort extends NetPort {
+
+    /**
+     * @return 端口名
+     */
+    String portName();
+}
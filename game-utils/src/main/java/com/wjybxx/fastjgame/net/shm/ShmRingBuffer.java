@@ -0,0 +1,209 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.shm;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 基于共享内存的单生产者单消费者环形缓冲区。
+ * <p>
+ * 内存布局：生产者索引、消费者索引各独占一个缓存行，数据区紧随其后，容量为2的整次幂。
+ * 每条记录格式为 [length][payload]，并按8字节对齐。如果数据区尾部剩余空间不足以存放一条完整的记录，
+ * 则写入一个填充标记{@link #PADDING}，并从数据区头部开始写。
+ * <p>
+ * 1. 索引是单调递增的long值，使用前对容量取模，因此不需要区分空和满。
+ * 2. 生产者写完记录之后以release语义发布生产者索引，消费者以acquire语义读取，保证记录内容对消费者可见。
+ * 3. 消费者同理发布消费者索引，告知生产者空间已释放。
+ * 4. 一个实例只能由生产者或消费者中的一方使用，生产者和消费者分别位于两个进程。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/20
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+class ShmRingBuffer {
+
+    /**
+     * 以long视图访问共享内存，提供acquire/release语义
+     */
+    private static final VarHandle LONG_VIEW = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    /**
+     * 记录头 - 长度字段
+     */
+    static final int RECORD_HEADER_LENGTH = 4;
+    /**
+     * 记录对齐
+     */
+    private static final int RECORD_ALIGNMENT = 8;
+    /**
+     * 填充标记 - 表示该位置之后的空间不可用，消费者应跳到数据区头部
+     */
+    private static final int PADDING = -1;
+
+    private final ByteBuffer buffer;
+    private final int producerIndexOffset;
+    private final int consumerIndexOffset;
+    private final int capacity;
+    private final int mask;
+    /**
+     * 数据区的{@link ByteBuf}视图，用于零拷贝读取
+     */
+    private final ByteBuf dataView;
+
+    /**
+     * 本地缓存的对方索引，减少对共享内存的读取
+     */
+    private long cachedIndex;
+
+    ShmRingBuffer(ByteBuffer buffer, int producerIndexOffset, int consumerIndexOffset, int dataOffset, int capacity) {
+        this.buffer = buffer.duplicate().order(ByteOrder.nativeOrder());
+        this.producerIndexOffset = producerIndexOffset;
+        this.consumerIndexOffset = consumerIndexOffset;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.dataView = Unpooled.wrappedBuffer(this.buffer.duplicate().position(dataOffset).limit(dataOffset + capacity).slice());
+    }
+
+    /**
+     * @return 一条记录允许的最大内容长度
+     */
+    int maxPayloadLength() {
+        return capacity / 2 - RECORD_HEADER_LENGTH;
+    }
+
+    // ------------------------------------------------- 生产者 -----------------------------------------------
+
+    /**
+     * 写入一条记录并发布
+     *
+     * @param payload 记录内容，方法返回时不修改其读索引
+     * @return 如果空间不足，则返回false，调用者需要稍后重试
+     */
+    boolean offer(ByteBuf payload) {
+        final int payloadLength = payload.readableBytes();
+        if (payloadLength > maxPayloadLength()) {
+            throw new IllegalArgumentException("payloadLength: " + payloadLength + ", maxPayloadLength: " + maxPayloadLength());
+        }
+
+        final int recordLength = align(RECORD_HEADER_LENGTH + payloadLength);
+        final long producerIndex = (long) LONG_VIEW.get(buffer, producerIndexOffset);
+        final int offset = (int) (producerIndex & mask);
+        final int tailRemaining = capacity - offset;
+        // 尾部空间不够时需要额外消耗尾部空间用于填充
+        final int required = tailRemaining < recordLength ? tailRemaining + recordLength : recordLength;
+
+        if (producerIndex + required - cachedIndex > capacity) {
+            cachedIndex = (long) LONG_VIEW.getAcquire(buffer, consumerIndexOffset);
+            if (producerIndex + required - cachedIndex > capacity) {
+                return false;
+            }
+        }
+
+        final int recordOffset;
+        if (tailRemaining < recordLength) {
+            // 填充尾部
+            dataView.setInt(offset, PADDING);
+            recordOffset = 0;
+        } else {
+            recordOffset = offset;
+        }
+
+        dataView.setInt(recordOffset, payloadLength);
+        dataView.setBytes(recordOffset + RECORD_HEADER_LENGTH, payload, payload.readerIndex(), payloadLength);
+
+        // 发布 - 之前的写入对消费者可见
+        LONG_VIEW.setRelease(buffer, producerIndexOffset, producerIndex + required);
+        return true;
+    }
+
+    // ------------------------------------------------- 消费者 -----------------------------------------------
+
+    /**
+     * 读取当前可读的所有记录。
+     * 传递给{@link RecordHandler}的{@link ByteBuf}是共享内存的视图，只在回调期间有效。
+     *
+     * @param handler  记录处理器
+     * @param maxCount 本次最多读取的记录数
+     * @return 读取的记录数
+     */
+    int drain(RecordHandler handler, int maxCount) throws Exception {
+        long consumerIndex = (long) LONG_VIEW.get(buffer, consumerIndexOffset);
+        if (consumerIndex >= cachedIndex) {
+            cachedIndex = (long) LONG_VIEW.getAcquire(buffer, producerIndexOffset);
+            if (consumerIndex >= cachedIndex) {
+                return 0;
+            }
+        }
+
+        int count = 0;
+        try {
+            while (consumerIndex < cachedIndex && count < maxCount) {
+                int offset = (int) (consumerIndex & mask);
+                int payloadLength = dataView.getInt(offset);
+                if (payloadLength == PADDING) {
+                    // 跳过填充部分
+                    consumerIndex += capacity - offset;
+                    continue;
+                }
+
+                final int recordLength = align(RECORD_HEADER_LENGTH + payloadLength);
+                dataView.setIndex(offset + RECORD_HEADER_LENGTH, offset + RECORD_HEADER_LENGTH + payloadLength);
+                consumerIndex += recordLength;
+                count++;
+
+                handler.onRecord(dataView);
+            }
+        } finally {
+            // 释放空间
+            LONG_VIEW.setRelease(buffer, consumerIndexOffset, consumerIndex);
+        }
+        return count;
+    }
+
+    /**
+     * @return 生产者已发布但消费者尚未消费的字节数（估算值，任意一方都可调用）
+     */
+    long usedBytes() {
+        return (long) LONG_VIEW.getAcquire(buffer, producerIndexOffset) - (long) LONG_VIEW.getAcquire(buffer, consumerIndexOffset);
+    }
+
+    private static int align(int length) {
+        return (length + RECORD_ALIGNMENT - 1) & -RECORD_ALIGNMENT;
+    }
+
+    /**
+     * 记录处理器
+     */
+    @FunctionalInterface
+    interface RecordHandler {
+
+        /**
+         * @param payload 记录内容，只在回调期间有效，不可以保存引用
+         */
+        void onRecord(ByteBuf payload) throws Exception;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.shm;
+
+import com.wjybxx.fastjgame.net.session.SessionConfig;
+import com.wjybxx.fastjgame.util.CheckUtils;
+
+import javax.annotation.Nonnull;
+
+/**
+ * 共享内存session配置
+ * <p>
+ * 双方在同一台linux机器上时，通过内存映射文件交换数据，消息仍然需要序列化，但省去了tcp协议栈和netty管道的开销。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/20
+ * github - https://github.com/hl845740757
+ */
+public final class ShmSessionConfig extends SessionConfig {
+
+    private static final int MIN_RING_CAPACITY = 64 * 1024;
+
+    private final String shmDir;
+    private final int ringCapacity;
+    private final int pollIntervalMs;
+    private final int connectTimeoutMs;
+    private final int aliveTimeoutMs;
+    private final int maxCacheMessages;
+
+    private ShmSessionConfig(ShmSessionConfigBuilder builder) {
+        super(builder);
+        this.shmDir = builder.shmDir;
+        this.ringCapacity = builder.ringCapacity;
+        this.pollIntervalMs = builder.pollIntervalMs;
+        this.connectTimeoutMs = builder.connectTimeoutMs;
+        this.aliveTimeoutMs = builder.aliveTimeoutMs;
+        this.maxCacheMessages = builder.maxCacheMessages;
+    }
+
+    /**
+     * @return 存放内存映射文件的目录，应该是一个基于内存的文件系统(tmpfs)，双方必须一致
+     */
+    public String shmDir() {
+        return shmDir;
+    }
+
+    /**
+     * @return 单个方向ring的容量（字节），由连接方决定，单个消息不可以超过该值的一半
+     */
+    public int ringCapacity() {
+        return ringCapacity;
+    }
+
+    /**
+     * @return 拉取消息的时间间隔 - 毫秒，实际间隔还受网络线程的循环频率影响
+     */
+    public int pollIntervalMs() {
+        return pollIntervalMs;
+    }
+
+    /**
+     * @return 建立连接超时时间 - 毫秒
+     */
+    public int connectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    /**
+     * @return 对方多久未活跃则认为对方进程已退出 - 毫秒
+     */
+    public int aliveTimeoutMs() {
+        return aliveTimeoutMs;
+    }
+
+    /**
+     * @return ring已满时允许缓存的消息数，一旦到达该值，则关闭session (避免无限缓存，内存溢出)。
+     */
+    public int maxCacheMessages() {
+        return maxCacheMessages;
+    }
+
+    public static ShmSessionConfigBuilder newBuilder() {
+        return new ShmSessionConfigBuilder();
+    }
+
+    public static class ShmSessionConfigBuilder extends SessionConfigBuilder<ShmSessionConfigBuilder, ShmSessionConfig> {
+
+        private String shmDir = ShmUtils.DEFAULT_SHM_DIR;
+        private int ringCapacity = 1024 * 1024;
+        private int pollIntervalMs = 1;
+        private int connectTimeoutMs = 10 * 1000;
+        private int aliveTimeoutMs = 15 * 1000;
+        private int maxCacheMessages = 10000;
+
+        public ShmSessionConfigBuilder setShmDir(@Nonnull String shmDir) {
+            this.shmDir = CheckUtils.requireNotNullAndNotEmpty(shmDir, "shmDir");
+            return this;
+        }
+
+        /**
+         * @param ringCapacity 会向上取整为2的整次幂
+         */
+        public ShmSessionConfigBuilder setRingCapacity(int ringCapacity) {
+            CheckUtils.requirePositive(ringCapacity, "ringCapacity");
+            this.ringCapacity = ShmUtils.roundToPowerOfTwo(Math.max(MIN_RING_CAPACITY, ringCapacity));
+            return this;
+        }
+
+        public ShmSessionConfigBuilder setPollIntervalMs(int pollIntervalMs) {
+            this.pollIntervalMs = CheckUtils.requirePositive(pollIntervalMs, "pollIntervalMs");
+            return this;
+        }
+
+        public ShmSessionConfigBuilder setConnectTimeoutMs(int connectTimeoutMs) {
+            this.connectTimeoutMs = CheckUtils.requirePositive(connectTimeoutMs, "connectTimeoutMs");
+            return this;
+        }
+
+        public ShmSessionConfigBuilder setAliveTimeoutMs(int aliveTimeoutMs) {
+            this.aliveTimeoutMs = CheckUtils.requirePositive(aliveTimeoutMs, "aliveTimeoutMs");
+            return this;
+        }
+
+        public ShmSessionConfigBuilder setMaxCacheMessages(int maxCacheMessages) {
+            this.maxCacheMessages = CheckUtils.requirePositive(maxCacheMessages, "maxCacheMessages");
+            return this;
+        }
+
+        @Override
+        protected ShmSessionConfig newInstance() {
+            return new ShmSessionConfig(this);
+        }
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.shm;
+
+import com.wjybxx.fastjgame.net.rpc.*;
+import com.wjybxx.fastjgame.net.serialization.Serializer;
+import com.wjybxx.fastjgame.net.session.*;
+import com.wjybxx.fastjgame.util.CodecUtils;
+import com.wjybxx.fastjgame.util.concurrent.ConcurrentUtils;
+import com.wjybxx.fastjgame.util.timer.TimerHandle;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * 共享内存传输实现 - 它是出站的最后一个处理器，因此也是真正实现关闭的handler。
+ * <p>
+ * 1. 出站消息序列化之后直接写入共享内存中的ring，ring已满时缓存在本地，下次拉取时重试。
+ * 2. 入站消息由网络线程按照{@link ShmSessionConfig#pollIntervalMs()}定时拉取，直接在共享内存上解码。
+ * 3. 双方定时更新自己的活跃时间，以检测对方进程是否已退出。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/20
+ * github - https://github.com/hl845740757
+ */
+public class ShmTransferHandler extends SessionDuplexHandlerAdapter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShmTransferHandler.class);
+
+    /**
+     * 单次拉取的最大消息数，避免长时间占用网络线程
+     */
+    private static final int MAX_READ_PER_POLL = 1024;
+
+    private final ShmMappedFile mappedFile;
+    private final ShmRingBuffer outboundRing;
+    private final ShmRingBuffer inboundRing;
+    /**
+     * 处理读取到的记录 - 避免每次拉取都创建lambda
+     */
+    private final ShmRingBuffer.RecordHandler recordHandler = this::onRecord;
+    /**
+     * ring已满时缓存的消息
+     */
+    private final ArrayDeque<NetLogicMessage> cacheQueue = new ArrayDeque<>();
+
+    private SessionHandlerContext ctx;
+    private Serializer serializer;
+    private int maxCacheMessages;
+    private int aliveTimeoutMs;
+    /**
+     * 编码缓冲区 - 重复使用
+     */
+    private ByteBuf encodeBuffer;
+    private TimerHandle pollHandle;
+
+    ShmTransferHandler(ShmMappedFile mappedFile) {
+        this.mappedFile = mappedFile;
+        this.outboundRing = mappedFile.outboundRing();
+        this.inboundRing = mappedFile.inboundRing();
+    }
+
+    @Override
+    public void handlerAdded(SessionHandlerContext ctx) throws Exception {
+        final ShmSessionConfig config = (ShmSessionConfig) ctx.session().config();
+        this.ctx = ctx;
+        this.serializer = config.serializer();
+        this.maxCacheMessages = config.maxCacheMessages();
+        this.aliveTimeoutMs = config.aliveTimeoutMs();
+        this.encodeBuffer = ByteBufAllocator.DEFAULT.directBuffer(4096);
+        this.pollHandle = ctx.timerSystem().newHeartbeatTimer(config.pollIntervalMs(), handle -> poll());
+    }
+
+    @Override
+    public void onSessionActive(SessionHandlerContext ctx) throws Exception {
+        ConcurrentUtils.safeExecute(ctx.appEventLoop(), new ConnectAwareTask(ctx.session()));
+        ctx.fireSessionActive();
+    }
+
+    @Override
+    public void onSessionInactive(SessionHandlerContext ctx) throws Exception {
+        ConcurrentUtils.safeExecute(ctx.appEventLoop(), new DisconnectAwareTask(ctx.session()));
+        ctx.fireSessionInactive();
+    }
+
+    @Override
+    public void tick(SessionHandlerContext ctx) {
+        updateOutboundState();
+    }
+
+    // ------------------------------------------------- 读 -----------------------------------------------
+
+    /**
+     * 拉取对方发来的消息，并检测对方状态
+     */
+    private void poll() {
+        final Session session = ctx.session();
+        if (session.isClosed()) {
+            return;
+        }
+
+        final long curTimeMillis = ctx.timerSystem().curTimeMillis();
+        mappedFile.touch(curTimeMillis);
+
+        // 先尝试发送缓存的消息，释放内存
+        flushCache();
+
+        try {
+            inboundRing.drain(recordHandler, MAX_READ_PER_POLL);
+        } catch (Exception e) {
+            // 共享内存中的数据已损坏，无法恢复
+            logger.warn("read shm ring caught exception, session {}", session.sessionId(), e);
+            session.close();
+            return;
+        }
+
+        if (mappedFile.getState() == ShmMappedFile.ST_CLOSED) {
+            // 对方关闭了session - 消息已读取完毕
+            session.close();
+            return;
+        }
+
+        if (curTimeMillis - mappedFile.peerAliveMillis() > aliveTimeoutMs) {
+            // 对方进程可能已退出
+            session.close();
+        }
+    }
+
+    private void onRecord(ByteBuf payload) throws Exception {
+        final NetMessageType netMessageType = NetMessageType.forNumber(payload.readByte());
+        if (null == netMessageType) {
+            throw new IOException("Unknown pkgType");
+        }
+        switch (netMessageType) {
+            case ONE_WAY_MESSAGE:
+                ctx.fireRead(new OneWayMessage(tryDecodeBody(payload)));
+                break;
+            case RPC_REQUEST:
+                ctx.fireRead(readRpcRequestMessage(payload));
+                break;
+            case RPC_RESPONSE:
+                ctx.fireRead(readRpcResponseMessage(payload));
+                break;
+            case RPC_STREAM:
+                ctx.fireRead(readRpcStreamMessage(payload));
+                break;
+            case RPC_STREAM_CREDIT:
+                ctx.fireRead(new RpcStreamCreditMessage(payload.readLong(), payload.readInt()));
+                break;
+            default:
+                throw new IOException("Unexpected message type " + netMessageType);
+        }
+    }
+
+    private RpcRequestMessage readRpcRequestMessage(ByteBuf payload) {
+        final long requestGuid = payload.readLong();
+        final boolean sync = payload.readByte() == 1;
+        final int streamWindow = payload.readInt();
+        return new RpcRequestMessage(requestGuid, sync, tryDecodeBody(payload), streamWindow);
+    }
+
+    private RpcResponseMessage readRpcResponseMessage(ByteBuf payload) {
+        final long requestGuid = payload.readLong();
+        final boolean sync = payload.readByte() == 1;
+        final RpcErrorCode errorCode = RpcErrorCode.forNumber(payload.readInt());
+
+        final Object body;
+        if (errorCode.isSuccess()) {
+            body = tryDecodeBody(payload);
+        } else {
+            final byte[] errorMsgBytes = new byte[payload.readableBytes()];
+            payload.readBytes(errorMsgBytes);
+            body = CodecUtils.newStringUTF8(errorMsgBytes);
+        }
+        return new RpcResponseMessage(requestGuid, sync, errorCode, body);
+    }
+
+    private RpcStreamMessage readRpcStreamMessage(ByteBuf payload) {
+        final long requestGuid = payload.readLong();
+        final boolean end = payload.readByte() == 1;
+        final RpcErrorCode errorCode = RpcErrorCode.forNumber(payload.readInt());
+
+        final Object body;
+        if (errorCode.isSuccess()) {
+            body = tryDecodeBody(payload);
+        } else {
+            final byte[] errorMsgBytes = new byte[payload.readableBytes()];
+            payload.readBytes(errorMsgBytes);
+            body = CodecUtils.newStringUTF8(errorMsgBytes);
+        }
+        return new RpcStreamMessage(requestGuid, end, errorCode, body);
+    }
+
+    @Nullable
+    private Object tryDecodeBody(ByteBuf payload) {
+        try {
+            return serializer.readObject(payload);
+        } catch (Exception e) {
+            // 为了不影响该连接上的其它消息，需要捕获异常
+            logger.warn("deserialize body caught exception", e);
+        }
+        return null;
+    }
+
+    // ------------------------------------------------- 写 -----------------------------------------------
+
+    @Override
+    public void write(SessionHandlerContext ctx, Object msg) throws Exception {
+        if (ctx.session().isClosed()) {
+            // session已关闭，丢弃消息
+            return;
+        }
+
+        final NetLogicMessage logicMessage = (NetLogicMessage) msg;
+        if (!cacheQueue.isEmpty()) {
+            // 有缓存的消息时必须排队，以保证顺序
+            cacheMessage(logicMessage);
+            return;
+        }
+
+        if (!tryWrite(logicMessage)) {
+            cacheMessage(logicMessage);
+        }
+    }
+
+    private void cacheMessage(NetLogicMessage logicMessage) {
+        if (logicMessage instanceof OneWayMessage && ((OneWayMessage) logicMessage).isLowPriority()) {
+            // ring已满，低优先级消息直接丢弃
+            return;
+        }
+        if (cacheQueue.size() >= maxCacheMessages) {
+            // 对方消费太慢，关闭session
+            logger.warn("too many cache messages, session {}", ctx.session().sessionId());
+            ctx.session().close();
+            return;
+        }
+        cacheQueue.add(logicMessage);
+    }
+
+    private void flushCache() {
+        NetLogicMessage logicMessage;
+        while ((logicMessage = cacheQueue.peekFirst()) != null) {
+            if (!tryWrite(logicMessage)) {
+                return;
+            }
+            cacheQueue.pollFirst();
+        }
+    }
+
+    /**
+     * 编码消息并写入ring
+     *
+     * @return 如果ring空间不足，则返回false
+     */
+    private boolean tryWrite(NetLogicMessage logicMessage) {
+        encodeBuffer.clear();
+        encodeBuffer.writeByte(logicMessage.type().pkgType);
+        final boolean encoded;
+        switch (logicMessage.type()) {
+            case ONE_WAY_MESSAGE:
+                encoded = tryEncodeBody(logicMessage.getBody());
+                break;
+            case RPC_REQUEST:
+                encoded = writeRpcRequestMessage((RpcRequestMessage) logicMessage);
+                break;
+            case RPC_RESPONSE:
+                encoded = writeRpcResponseMessage((RpcResponseMessage) logicMessage);
+                break;
+            case RPC_STREAM:
+                encoded = writeRpcStreamMessage((RpcStreamMessage) logicMessage);
+                break;
+            case RPC_STREAM_CREDIT:
+                encodeBuffer.writeLong(((RpcStreamCreditMessage) logicMessage).getRequestGuid());
+                encodeBuffer.writeInt(((RpcStreamCreditMessage) logicMessage).getCredits());
+                encoded = true;
+                break;
+            default:
+                throw new IllegalArgumentException("Unexpected message type " + logicMessage.type());
+        }
+
+        if (!encoded) {
+            // 编码失败，丢弃消息，不能发布不完整的内容
+            return true;
+        }
+
+        if (encodeBuffer.readableBytes() > outboundRing.maxPayloadLength()) {
+            // 与socket的帧长度限制类似，消息过大时丢弃
+            logger.warn("message is too large, session {}, size {}", ctx.session().sessionId(), encodeBuffer.readableBytes());
+            return true;
+        }
+        return outboundRing.offer(encodeBuffer);
+    }
+
+    private boolean writeRpcRequestMessage(RpcRequestMessage requestMessage) {
+        encodeBuffer.writeLong(requestMessage.getRequestGuid());
+        encodeBuffer.writeByte(requestMessage.isSync() ? 1 : 0);
+        encodeBuffer.writeInt(requestMessage.getStreamWindow());
+        return tryEncodeBody(requestMessage.getBody());
+    }
+
+    private boolean writeRpcStreamMessage(RpcStreamMessage streamMessage) {
+        encodeBuffer.writeLong(streamMessage.getRequestGuid());
+        encodeBuffer.writeByte(streamMessage.isEnd() ? 1 : 0);
+        encodeBuffer.writeInt(streamMessage.getErrorCode().getNumber());
+        if (streamMessage.getErrorCode().isSuccess()) {
+            return tryEncodeBody(streamMessage.getBody());
+        }
+        // 错误信息直接编码
+        encodeBuffer.writeBytes(CodecUtils.getBytesUTF8((String) streamMessage.getBody()));
+        return true;
+    }
+
+    private boolean writeRpcResponseMessage(RpcResponseMessage responseMessage) {
+        encodeBuffer.writeLong(responseMessage.getRequestGuid());
+        encodeBuffer.writeByte(responseMessage.isSync() ? 1 : 0);
+        encodeBuffer.writeInt(responseMessage.getErrorCode().getNumber());
+        if (responseMessage.getErrorCode().isSuccess()) {
+            return tryEncodeBody(responseMessage.getBody());
+        }
+        // 错误信息直接编码
+        encodeBuffer.writeBytes(CodecUtils.getBytesUTF8((String) responseMessage.getBody()));
+        return true;
+    }
+
+    /**
+     * @return 编码失败时返回false，此时已写入的部分内容会被撤销
+     */
+    private boolean tryEncodeBody(Object body) {
+        if (body instanceof RawMessageBody) {
+            // 转发的消息，直接写入原始内容
+            encodeBuffer.writeBytes(((RawMessageBody) body).getBytes());
+            return true;
+        }
+        final int writerIndex = encodeBuffer.writerIndex();
+        try {
+            serializer.writeObject(encodeBuffer, body);
+            return true;
+        } catch (Exception e) {
+            // 为了不影响该连接上的其它消息，需要捕获异常
+            encodeBuffer.writerIndex(writerIndex);
+            logger.warn("serialize body {} caught exception, message dropped.", body.getClass().getName(), e);
+            return false;
+        }
+    }
+
+    @Override
+    public void flush(SessionHandlerContext ctx) throws Exception {
+        // 写入时已发布，这里只尝试发送缓存的消息
+        if (!ctx.session().isClosed()) {
+            flushCache();
+        }
+    }
+
+    /**
+     * 更新session的可写状态 - 有缓存的消息时表示对方消费跟不上
+     */
+    private void updateOutboundState() {
+        final AbstractSession session = (AbstractSession) ctx.session();
+        if (session.isClosed()) {
+            return;
+        }
+        session.updateOutboundState(cacheQueue.isEmpty(), outboundRing.usedBytes());
+    }
+
+    @Override
+    public void close(SessionHandlerContext ctx) throws Exception {
+        pollHandle.close();
+        cacheQueue.clear();
+        encodeBuffer.release();
+        // 通知对方关闭
+        mappedFile.closeAndDelete();
+    }
+}
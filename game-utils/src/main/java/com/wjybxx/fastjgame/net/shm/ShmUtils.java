@@ -0,0 +1,199 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.shm;
+
+import com.wjybxx.fastjgame.util.SystemUtils;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 共享内存传输工具类
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/20
+ * github - https://github.com/hl845740757
+ */
+public class ShmUtils {
+
+    /**
+     * 默认的共享内存目录 - linux下的tmpfs
+     */
+    static final String DEFAULT_SHM_DIR = "/dev/shm/fastjgame";
+    /**
+     * session文件后缀
+     */
+    static final String SESSION_FILE_SUFFIX = ".shm";
+    /**
+     * 初始化中的session文件后缀
+     */
+    static final String TMP_FILE_SUFFIX = ".tmp";
+    /**
+     * 端口锁文件，持有锁表示端口正在监听
+     */
+    private static final String LOCK_FILE_NAME = "port.lock";
+    /**
+     * 接收方检查新连接的时间间隔
+     */
+    static final int ACCEPT_INTERVAL_MS = 10;
+    /**
+     * host -> 是否是本机地址，host数量很少，因此不淘汰
+     */
+    private static final ConcurrentMap<String, Boolean> LOCAL_HOST_CACHE = new ConcurrentHashMap<>();
+
+    private ShmUtils() {
+
+    }
+
+    /**
+     * @param shmDir 共享内存目录
+     * @return 当前环境是否支持共享内存传输
+     */
+    public static boolean isSupported(String shmDir) {
+        if (!SystemUtils.isLinux()) {
+            return false;
+        }
+        final Path parent = Paths.get(shmDir).toAbsolutePath().getParent();
+        return parent != null && Files.isDirectory(parent) && Files.isWritable(parent);
+    }
+
+    /**
+     * 判断指定地址是否是本机地址。
+     * 每次建立连接时都会调用，因此本机地址只在第一次使用时枚举，每个host的结果也会被缓存，
+     * 避免在调用者线程上重复进行域名解析和网卡枚举。
+     * 注意：运行期间新增的网卡地址不会被识别为本机地址。
+     *
+     * @param host ip或域名
+     * @return 如果是本机地址，则返回true
+     */
+    public static boolean isLocalHost(String host) {
+        // 解析失败时不缓存，下次重试
+        final Boolean localHost = LOCAL_HOST_CACHE.computeIfAbsent(host, ShmUtils::resolveLocalHost);
+        return Boolean.TRUE.equals(localHost);
+    }
+
+    @Nullable
+    private static Boolean resolveLocalHost(String host) {
+        try {
+            final InetAddress address = InetAddress.getByName(host);
+            return address.isLoopbackAddress()
+                    || address.isAnyLocalAddress()
+                    || LocalAddressHolder.LOCAL_ADDRESSES.contains(address);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 延迟初始化本机地址
+     */
+    private static class LocalAddressHolder {
+
+        private static final Set<InetAddress> LOCAL_ADDRESSES = collectLocalAddresses();
+
+        private static Set<InetAddress> collectLocalAddresses() {
+            final Set<InetAddress> result = new HashSet<>();
+            try {
+                final Enumeration<NetworkInterface> networkInterfaces = NetworkInterface.getNetworkInterfaces();
+                while (networkInterfaces != null && networkInterfaces.hasMoreElements()) {
+                    result.addAll(Collections.list(networkInterfaces.nextElement().getInetAddresses()));
+                }
+            } catch (IOException ignore) {
+                // 只能识别回环地址
+            }
+            return Collections.unmodifiableSet(result);
+        }
+    }
+
+    /**
+     * 判断指定端口是否有进程在监听
+     */
+    public static boolean isPortBound(String shmDir, String portName) {
+        final Path lockFile = lockFile(portDir(shmDir, portName));
+        if (!Files.exists(lockFile)) {
+            return false;
+        }
+        try (FileChannel fileChannel = FileChannel.open(lockFile, StandardOpenOption.WRITE)) {
+            final FileLock fileLock = fileChannel.tryLock();
+            if (fileLock == null) {
+                // 其它进程持有锁
+                return true;
+            }
+            fileLock.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            // 当前进程持有锁
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    static Path portDir(String shmDir, String portName) {
+        return Paths.get(shmDir, encode(portName));
+    }
+
+    static Path lockFile(Path portDir) {
+        return portDir.resolve(LOCK_FILE_NAME);
+    }
+
+    static Path sessionFile(Path portDir, String sessionId) {
+        return portDir.resolve(encode(sessionId) + SESSION_FILE_SUFFIX);
+    }
+
+    /**
+     * @return 如果不是session文件，则返回null
+     */
+    static String sessionIdOf(Path sessionFile) {
+        final String fileName = sessionFile.getFileName().toString();
+        if (!fileName.endsWith(SESSION_FILE_SUFFIX)) {
+            return null;
+        }
+        return URLDecoder.decode(fileName.substring(0, fileName.length() - SESSION_FILE_SUFFIX.length()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * sessionId和端口名可能包含文件名中不允许的字符
+     */
+    private static String encode(String name) {
+        return URLEncoder.encode(name, StandardCharsets.UTF_8);
+    }
+
+    static int roundToPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+}
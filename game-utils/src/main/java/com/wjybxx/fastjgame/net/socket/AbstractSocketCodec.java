@@ -16,8 +16,10 @@
 
 package com.wjybxx.fastjgame.net.socket;
 
+import com.wjybxx.fastjgame.net.binary.BinarySerializer;
 import com.wjybxx.fastjgame.net.rpc.*;
 import com.wjybxx.fastjgame.net.serialization.Serializer;
+import com.wjybxx.fastjgame.net.serialization.TypeId;
 import com.wjybxx.fastjgame.util.CodecUtils;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
@@ -32,7 +34,9 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 import java.io.IOException;
 import java.net.Socket;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.Set;
 
 /**
  * 最开始时为分离的Encoder和Decoder，合并为Codec主要是为了方便阅读。
@@ -51,9 +55,32 @@ public abstract class AbstractSocketCodec extends ChannelDuplexHandler {
      * 序列化工具
      */
     private final Serializer serializer;
+    /**
+     * 需要转发的单向消息类型，这些消息不解码，见{@link MessageForwardingHandler}
+     */
+    private final Set<TypeId> forwardTypes;
+    /**
+     * 帧压缩处理器，如果channel未安装，则为null
+     */
+    private FrameCompressionHandler compressionHandler;
+    /**
+     * 对方是否支持帧压缩（最近一次建立连接请求中的值）
+     */
+    private boolean peerCompressible = false;
 
     protected AbstractSocketCodec(Serializer serializer) {
+        this(serializer, Collections.emptySet());
+    }
+
+    protected AbstractSocketCodec(Serializer serializer, Set<TypeId> forwardTypes) {
         this.serializer = serializer;
+        this.forwardTypes = forwardTypes;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        // 压缩处理器在codec之前添加
+        compressionHandler = ctx.pipeline().get(FrameCompressionHandler.class);
     }
 
     /**
@@ -153,6 +180,14 @@ public abstract class AbstractSocketCodec extends ChannelDuplexHandler {
                 // 单向消息
                 writeOneWayMessage(ctx, ack, endOfBatch, socketMessage, promise);
                 break;
+            case RPC_STREAM:
+                // 流式rpc响应帧
+                writeRpcStreamMessage(ctx, ack, endOfBatch, socketMessage, promise);
+                break;
+            case RPC_STREAM_CREDIT:
+                // 流式rpc信用
+                writeRpcStreamCreditMessage(ctx, ack, endOfBatch, socketMessage, promise);
+                break;
             default:
                 throw new IOException("Unexpected message type " + socketMessage.getWrappedMessage().type());
         }
@@ -171,7 +206,7 @@ public abstract class AbstractSocketCodec extends ChannelDuplexHandler {
         final SocketConnectRequest socketConnectRequest = socketConnectRequestTO.getConnectRequest();
         final byte[] sessionIdBytes = CodecUtils.getBytesUTF8(sessionId);
 
-        final int contentLength = 4 + 4 + 8 + 8 + 1 + sessionIdBytes.length;
+        final int contentLength = 4 + 4 + 8 + 8 + 1 + 1 + sessionIdBytes.length;
         ByteBuf byteBuf = newByteBuf(ctx, contentLength, NetMessageType.CONNECT_REQUEST);
 
         byteBuf.writeInt(socketConnectRequest.getVerifyingTimes());
@@ -181,6 +216,9 @@ public abstract class AbstractSocketCodec extends ChannelDuplexHandler {
         byteBuf.writeLong(socketConnectRequestTO.getAck());
         byteBuf.writeByte(socketConnectRequestTO.isClose() ? 1 : 0);
 
+        // 是否支持帧压缩
+        byteBuf.writeByte(compressionHandler != null ? 1 : 0);
+
         // sessionId放最后可以省去长度标记
         byteBuf.writeBytes(sessionIdBytes);
 
@@ -200,11 +238,15 @@ public abstract class AbstractSocketCodec extends ChannelDuplexHandler {
         long ack = msg.readLong();
         boolean close = msg.readByte() == 1;
 
+        // 是否支持帧压缩 - 应答时使用
+        boolean compressible = msg.readByte() == 1;
+        peerCompressible = compressible;
+
         // sessionId
         byte[] sessionIdBytes = readRemainBytes(msg);
         String sessionId = CodecUtils.newStringUTF8(sessionIdBytes);
 
-        SocketConnectRequest socketConnectRequest = new SocketConnectRequest(verifyingTimes, verifiedTimes);
+        SocketConnectRequest socketConnectRequest = new SocketConnectRequest(verifyingTimes, verifiedTimes, compressible);
         return new SocketConnectRequestEvent(channel, sessionId, initSequence, ack, close, socketConnectRequest, portExtraInfo);
     }
 
@@ -212,8 +254,11 @@ public abstract class AbstractSocketCodec extends ChannelDuplexHandler {
      * 编码协议2 - 建立连接应答
      */
     final void writeConnectResponse(ChannelHandlerContext ctx, SocketConnectResponseTO socketConnectResponseTO, ChannelPromise promise) {
-        ByteBuf byteBuf = newByteBuf(ctx, 1 + 4 + 4 + 8 + 8 + 1, NetMessageType.CONNECT_RESPONSE);
+        ByteBuf byteBuf = newByteBuf(ctx, 1 + 4 + 4 + 8 + 8 + 1 + 1, NetMessageType.CONNECT_RESPONSE);
         SocketConnectResponse socketConnectResponse = socketConnectResponseTO.getConnectResponse();
+        // 双方都支持时开启压缩
+        final boolean compressEnabled = socketConnectResponse.isSuccess() && !socketConnectResponseTO.isClose()
+                && peerCompressible && compressionHandler != null;
 
         // 建立连接结果
         byteBuf.writeByte(socketConnectResponse.isSuccess() ? 1 : 0);
@@ -225,7 +270,15 @@ public abstract class AbstractSocketCodec extends ChannelDuplexHandler {
         byteBuf.writeLong(socketConnectResponseTO.getAck());
         byteBuf.writeByte(socketConnectResponseTO.isClose() ? 1 : 0);
 
+        // 协商结果
+        byteBuf.writeByte(compressEnabled ? 1 : 0);
+
         setLengthAndWrite(ctx, byteBuf, promise);
+
+        if (compressEnabled) {
+            // 应答本身不压缩，之后的消息才压缩
+            compressionHandler.enableCompress();
+        }
     }
 
     /**
@@ -240,7 +293,12 @@ public abstract class AbstractSocketCodec extends ChannelDuplexHandler {
         long ack = msg.readLong();
         boolean close = msg.readByte() == 1;
 
-        SocketConnectResponse socketConnectResponse = new SocketConnectResponse(success, verifyingTimes, verifiedTimes);
+        boolean compressEnabled = msg.readByte() == 1;
+        if (success && compressEnabled && compressionHandler != null) {
+            compressionHandler.enableCompress();
+        }
+
+        SocketConnectResponse socketConnectResponse = new SocketConnectResponse(success, verifyingTimes, verifiedTimes, compressEnabled);
         return new SocketConnectResponseEvent(channel, sessionId, initSequence, ack, close, socketConnectResponse);
     }
 
@@ -278,7 +336,7 @@ public abstract class AbstractSocketCodec extends ChannelDuplexHandler {
     private void writeRpcRequestMessage(ChannelHandlerContext ctx, long ack, boolean endOfBatch, SocketMessage socketMessage, ChannelPromise promise) {
         final RpcRequestMessage requestMessage = (RpcRequestMessage) socketMessage.getWrappedMessage();
         final int bodySize = serializer.estimateSerializedSize(requestMessage.getBody());
-        final ByteBuf byteBuf = newByteBuf(ctx, 8 + 8 + 1 + 8 + 1 + bodySize, NetMessageType.RPC_REQUEST);
+        final ByteBuf byteBuf = newByteBuf(ctx, 8 + 8 + 1 + 8 + 1 + 4 + bodySize, NetMessageType.RPC_REQUEST);
 
         // 捎带确认消息
         byteBuf.writeLong(socketMessage.getSequence());
@@ -288,9 +346,15 @@ public abstract class AbstractSocketCodec extends ChannelDuplexHandler {
         // rpc请求头
         byteBuf.writeLong(requestMessage.getRequestGuid());
         byteBuf.writeByte(requestMessage.isSync() ? 1 : 0);
+        byteBuf.writeInt(requestMessage.getStreamWindow());
 
         // rpc请求内容 - 合并之后发送
-        writeLogicMessageBodyAndWrite(ctx, byteBuf, requestMessage.getBody(), promise);
+        tryEncodeBody(byteBuf, requestMessage.getBody());
+        final RpcMethodMetrics methodMetrics = requestMessage.getMethodMetrics();
+        if (methodMetrics != null) {
+            methodMetrics.recordRequestBytes(byteBuf.readableBytes());
+        }
+        setLengthAndWrite(ctx, byteBuf, promise);
     }
 
     /**
@@ -305,10 +369,11 @@ public abstract class AbstractSocketCodec extends ChannelDuplexHandler {
         // rpc请求头
         long requestGuid = msg.readLong();
         boolean sync = msg.readByte() == 1;
+        int streamWindow = msg.readInt();
         // 方法描述信息 - 不限制结构
         Object rpcMethodSpec = tryDecodeBody(msg);
 
-        RpcRequestMessage rpcRequestMessage = new RpcRequestMessage(requestGuid, sync, rpcMethodSpec);
+        RpcRequestMessage rpcRequestMessage = new RpcRequestMessage(requestGuid, sync, rpcMethodSpec, streamWindow);
         return new SocketMessageEvent(channel, sessionId, sequence, ack, endOfBatch, rpcRequestMessage);
     }
 
@@ -330,17 +395,25 @@ public abstract class AbstractSocketCodec extends ChannelDuplexHandler {
         byteBuf.writeByte(responseMessage.isSync() ? 1 : 0);
         byteBuf.writeInt(responseMessage.getErrorCode().getNumber());
 
+        final ByteBuf fullByteBuf;
         if (responseMessage.getErrorCode().isSuccess()) {
             // rpc响应内容 - 合并之后发送
-            writeLogicMessageBodyAndWrite(ctx, byteBuf, responseMessage.getBody(), promise);
+            tryEncodeBody(byteBuf, responseMessage.getBody());
+            fullByteBuf = byteBuf;
         } else {
             // 错误信息直接编码
             final String errorMsg = (String) responseMessage.getBody();
             final byte[] errorMsgBytes = CodecUtils.getBytesUTF8(errorMsg);
             final ByteBuf bodyByteBuf = ctx.alloc().buffer(errorMsgBytes.length);
             bodyByteBuf.writeBytes(errorMsgBytes);
-            setLengthAndWrite(ctx, Unpooled.wrappedBuffer(byteBuf, bodyByteBuf), promise);
+            fullByteBuf = Unpooled.wrappedBuffer(byteBuf, bodyByteBuf);
+        }
+
+        final RpcMethodMetrics methodMetrics = responseMessage.getMethodMetrics();
+        if (methodMetrics != null) {
+            methodMetrics.recordResponseBytes(fullByteBuf.readableBytes());
         }
+        setLengthAndWrite(ctx, fullByteBuf, promise);
     }
 
     /**
@@ -369,6 +442,92 @@ public abstract class AbstractSocketCodec extends ChannelDuplexHandler {
         return new SocketMessageEvent(channel, sessionId, sequence, ack, endOfBatch, rpcResponseMessage);
     }
 
+    /**
+     * 编码流式rpc响应帧
+     */
+    private void writeRpcStreamMessage(ChannelHandlerContext ctx, long ack, boolean endOfBatch, SocketMessage socketMessage, ChannelPromise promise) {
+        final RpcStreamMessage streamMessage = (RpcStreamMessage) socketMessage.getWrappedMessage();
+        final int bodySize = serializer.estimateSerializedSize(streamMessage.getBody());
+        final ByteBuf byteBuf = newByteBuf(ctx, 8 + 8 + 1 + 8 + 1 + 4 + bodySize, NetMessageType.RPC_STREAM);
+
+        // 捎带确认信息
+        byteBuf.writeLong(socketMessage.getSequence());
+        byteBuf.writeLong(ack);
+        byteBuf.writeByte(endOfBatch ? 1 : 0);
+
+        // 响应帧头
+        byteBuf.writeLong(streamMessage.getRequestGuid());
+        byteBuf.writeByte(streamMessage.isEnd() ? 1 : 0);
+        byteBuf.writeInt(streamMessage.getErrorCode().getNumber());
+
+        if (streamMessage.getErrorCode().isSuccess()) {
+            writeLogicMessageBodyAndWrite(ctx, byteBuf, streamMessage.getBody(), promise);
+        } else {
+            // 错误信息直接编码
+            byteBuf.writeBytes(CodecUtils.getBytesUTF8((String) streamMessage.getBody()));
+            setLengthAndWrite(ctx, byteBuf, promise);
+        }
+    }
+
+    /**
+     * 解码流式rpc响应帧
+     */
+    final SocketMessageEvent readRpcStreamMessage(Channel channel, String sessionId, ByteBuf msg) {
+        // 捎带确认信息
+        long sequence = msg.readLong();
+        long ack = msg.readLong();
+        boolean endOfBatch = msg.readByte() == 1;
+
+        // 响应帧头
+        long requestGuid = msg.readLong();
+        boolean end = msg.readByte() == 1;
+        RpcErrorCode errorCode = RpcErrorCode.forNumber(msg.readInt());
+
+        final Object body;
+        if (errorCode.isSuccess()) {
+            body = tryDecodeBody(msg);
+        } else {
+            body = CodecUtils.newStringUTF8(readRemainBytes(msg));
+        }
+
+        RpcStreamMessage rpcStreamMessage = new RpcStreamMessage(requestGuid, end, errorCode, body);
+        return new SocketMessageEvent(channel, sessionId, sequence, ack, endOfBatch, rpcStreamMessage);
+    }
+
+    /**
+     * 编码流式rpc信用包
+     */
+    private void writeRpcStreamCreditMessage(ChannelHandlerContext ctx, long ack, boolean endOfBatch, SocketMessage socketMessage, ChannelPromise promise) {
+        final RpcStreamCreditMessage creditMessage = (RpcStreamCreditMessage) socketMessage.getWrappedMessage();
+        final ByteBuf byteBuf = newByteBuf(ctx, 8 + 8 + 1 + 8 + 4, NetMessageType.RPC_STREAM_CREDIT);
+
+        // 捎带确认信息
+        byteBuf.writeLong(socketMessage.getSequence());
+        byteBuf.writeLong(ack);
+        byteBuf.writeByte(endOfBatch ? 1 : 0);
+
+        byteBuf.writeLong(creditMessage.getRequestGuid());
+        byteBuf.writeInt(creditMessage.getCredits());
+
+        setLengthAndWrite(ctx, byteBuf, promise);
+    }
+
+    /**
+     * 解码流式rpc信用包
+     */
+    final SocketMessageEvent readRpcStreamCreditMessage(Channel channel, String sessionId, ByteBuf msg) {
+        // 捎带确认信息
+        long sequence = msg.readLong();
+        long ack = msg.readLong();
+        boolean endOfBatch = msg.readByte() == 1;
+
+        long requestGuid = msg.readLong();
+        int credits = msg.readInt();
+
+        RpcStreamCreditMessage creditMessage = new RpcStreamCreditMessage(requestGuid, credits);
+        return new SocketMessageEvent(channel, sessionId, sequence, ack, endOfBatch, creditMessage);
+    }
+
     // ------------------------------------------ 单向消息 --------------------------------------------
 
     /**
@@ -376,7 +535,7 @@ public abstract class AbstractSocketCodec extends ChannelDuplexHandler {
      */
     private void writeOneWayMessage(ChannelHandlerContext ctx, long ack, boolean endOfBatch, SocketMessage socketMessage, ChannelPromise promise) {
         final OneWayMessage oneWayMessage = (OneWayMessage) socketMessage.getWrappedMessage();
-        final int bodySize = serializer.estimateSerializedSize(oneWayMessage.getBody());
+        final int bodySize = estimateBodySize(oneWayMessage.getBody());
         final ByteBuf byteBuf = newByteBuf(ctx, 8 + 8 + 1 + bodySize, NetMessageType.ONE_WAY_MESSAGE);
 
         // 捎带确认
@@ -397,8 +556,11 @@ public abstract class AbstractSocketCodec extends ChannelDuplexHandler {
         long ack = msg.readLong();
         boolean endOfBatch = msg.readBoolean();
 
-        // 消息内容
-        Object message = tryDecodeBody(msg);
+        // 消息内容 - 需要转发的消息不解码
+        Object message = tryReadRawBody(msg, endOfBatch);
+        if (message == null) {
+            message = tryDecodeBody(msg);
+        }
 
         OneWayMessage oneWayMessage = new OneWayMessage(message);
         return new SocketMessageEvent(channel, sessionId, sequence, ack, endOfBatch, oneWayMessage);
@@ -424,6 +586,11 @@ public abstract class AbstractSocketCodec extends ChannelDuplexHandler {
      * @param bodyData 待编码的body
      */
     private void tryEncodeBody(ByteBuf byteBuf, final Object bodyData) {
+        if (bodyData instanceof RawMessageBody) {
+            // 转发的消息，直接写入原始内容
+            byteBuf.writeBytes(((RawMessageBody) bodyData).getBytes());
+            return;
+        }
         try {
             serializer.writeObject(byteBuf, bodyData);
         } catch (Exception e) {
@@ -432,6 +599,32 @@ public abstract class AbstractSocketCodec extends ChannelDuplexHandler {
         }
     }
 
+    private int estimateBodySize(final Object bodyData) {
+        if (bodyData instanceof RawMessageBody) {
+            return ((RawMessageBody) bodyData).getBytes().length;
+        }
+        return serializer.estimateSerializedSize(bodyData);
+    }
+
+    /**
+     * 如果消息是需要转发的类型，则不解码，直接读取为{@link RawMessageBody}
+     *
+     * @param data       协议内容
+     * @param endOfBatch 是否是发送方一批消息中的最后一个，发送方在这之后刷新了缓冲区，转发时也需要刷新
+     * @return 如果不需要转发，则返回null，且不修改读索引
+     */
+    @Nullable
+    private RawMessageBody tryReadRawBody(final ByteBuf data, final boolean endOfBatch) {
+        if (forwardTypes.isEmpty()) {
+            return null;
+        }
+        final TypeId typeId = BinarySerializer.peekTypeId(data);
+        if (typeId == null || !forwardTypes.contains(typeId)) {
+            return null;
+        }
+        return new RawMessageBody(typeId, readRemainBytes(data), endOfBatch);
+    }
+
     /**
      * 尝试解码消息身体
      *
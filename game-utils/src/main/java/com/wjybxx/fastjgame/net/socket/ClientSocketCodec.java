@@ -19,6 +19,7 @@ package com.wjybxx.fastjgame.net.socket;
 import com.wjybxx.fastjgame.net.eventloop.NetEventLoop;
 import com.wjybxx.fastjgame.net.rpc.NetMessageType;
 import com.wjybxx.fastjgame.net.serialization.Serializer;
+import com.wjybxx.fastjgame.net.serialization.TypeId;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
@@ -26,6 +27,8 @@ import io.netty.channel.ChannelPromise;
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.NotThreadSafe;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
 
 /**
  * 客户端用编解码器。
@@ -55,7 +58,14 @@ public class ClientSocketCodec extends AbstractSocketCodec {
     private final NetEventLoop netEventLoop;
 
     public ClientSocketCodec(Serializer serializer, String sessionId, NetEventLoop netEventLoop) {
-        super(serializer);
+        this(serializer, Collections.emptySet(), sessionId, netEventLoop);
+    }
+
+    /**
+     * @param forwardTypes 需要转发的单向消息类型，见{@link SocketSessionConfig#forwardTypes()}
+     */
+    public ClientSocketCodec(Serializer serializer, Set<TypeId> forwardTypes, String sessionId, NetEventLoop netEventLoop) {
+        super(serializer, forwardTypes);
         this.sessionId = sessionId;
         this.netEventLoop = netEventLoop;
     }
@@ -66,6 +76,12 @@ public class ClientSocketCodec extends AbstractSocketCodec {
         publish(new SocketChannelInactiveEvent(ctx.channel(), sessionId));
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        super.channelWritabilityChanged(ctx);
+        publish(new SocketWritabilityChangedEvent(ctx.channel(), sessionId));
+    }
+
     // region 编码消息
     @Override
     public void write(ChannelHandlerContext ctx, Object msgTO, ChannelPromise promise) throws Exception {
@@ -104,6 +120,12 @@ public class ClientSocketCodec extends AbstractSocketCodec {
             case ONE_WAY_MESSAGE:
                 tryReadOneWayMessage(ctx, msg);
                 break;
+            case RPC_STREAM:
+                tryReadRpcStreamMessage(ctx, msg);
+                break;
+            case RPC_STREAM_CREDIT:
+                tryReadRpcStreamCreditMessage(ctx, msg);
+                break;
             case PING_PONG:
                 tryReadAckPongMessage(ctx, msg);
                 break;
@@ -148,6 +170,22 @@ public class ClientSocketCodec extends AbstractSocketCodec {
         publish(readOneWayMessage(ctx.channel(), sessionId, msg));
     }
 
+    /**
+     * 读取我发起的流式rpc的响应帧
+     */
+    private void tryReadRpcStreamMessage(ChannelHandlerContext ctx, ByteBuf msg) {
+        ensureConnected();
+        publish(readRpcStreamMessage(ctx.channel(), sessionId, msg));
+    }
+
+    /**
+     * 读取连接的服务器方发来的流式rpc信用包
+     */
+    private void tryReadRpcStreamCreditMessage(ChannelHandlerContext ctx, ByteBuf msg) {
+        ensureConnected();
+        publish(readRpcStreamCreditMessage(ctx.channel(), sessionId, msg));
+    }
+
     /**
      * 服务器返回的ack-pong包
      */
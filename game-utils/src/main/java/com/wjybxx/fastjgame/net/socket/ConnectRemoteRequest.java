@@ -21,7 +21,6 @@ import com.wjybxx.fastjgame.net.misc.NetContext;
 import com.wjybxx.fastjgame.net.session.Session;
 import com.wjybxx.fastjgame.util.concurrent.Promise;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.socket.SocketChannel;
 
 /**
  * 请求与远程建立连接
@@ -34,19 +33,22 @@ import io.netty.channel.socket.SocketChannel;
 public class ConnectRemoteRequest {
 
     private final String sessionId;
+    private final SocketTransport transport;
     private final HostAndPort remoteAddress;
     private final SocketSessionConfig config;
-    private final ChannelInitializer<SocketChannel> initializer;
+    private final ChannelInitializer<?> initializer;
     private final NetContext netContext;
     private final Promise<Session> connectPromise;
 
     public ConnectRemoteRequest(String sessionId,
+                                SocketTransport transport,
                                 HostAndPort remoteAddress,
                                 SocketSessionConfig config,
-                                ChannelInitializer<SocketChannel> initializer,
+                                ChannelInitializer<?> initializer,
                                 NetContext netContext,
                                 Promise<Session> connectPromise) {
         this.sessionId = sessionId;
+        this.transport = transport;
         this.remoteAddress = remoteAddress;
         this.config = config;
         this.initializer = initializer;
@@ -58,6 +60,10 @@ public class ConnectRemoteRequest {
         return sessionId;
     }
 
+    public SocketTransport getTransport() {
+        return transport;
+    }
+
     public HostAndPort getRemoteAddress() {
         return remoteAddress;
     }
@@ -66,7 +72,7 @@ public class ConnectRemoteRequest {
         return config;
     }
 
-    public ChannelInitializer<SocketChannel> getInitializer() {
+    public ChannelInitializer<?> getInitializer() {
         return initializer;
     }
 
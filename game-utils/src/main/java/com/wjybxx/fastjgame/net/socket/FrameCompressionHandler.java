@@ -0,0 +1,259 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.socket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 帧压缩处理器，位于帧解码器与{@link AbstractSocketCodec}之间。
+ * <p>
+ * 帧格式：
+ * <pre>
+ * 普通帧：   [length][pkgType][content]
+ * 压缩帧：   [length][pkgType | 0x80][rawLength][deflate(content)]
+ * </pre>
+ * 1. 解压总是开启的，压缩帧通过包类型的最高位识别，因此普通帧与压缩帧可以混合出现。
+ * 2. 压缩只有在建立连接时双方协商成功之后才开启（见{@link SocketConnectRequest#isCompressible()}），
+ * 并且只压缩内容长度达到阈值的帧，压缩后没有变小的帧按原样发送。
+ * 3. {@link Deflater}和{@link Inflater}每个channel一份，重复使用；读写直接在netty的buffer上进行，
+ * 稳定状态下不产生额外的堆内存分配。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/18
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public class FrameCompressionHandler extends ChannelDuplexHandler {
+
+    /**
+     * 压缩标记 - 占用包类型的最高位
+     */
+    static final int COMPRESSED_FLAG = 0x80;
+    /**
+     * 长度字段 + 包类型
+     */
+    private static final int FRAME_HEADER_LENGTH = 4 + 1;
+    /**
+     * 压缩帧额外的原始长度字段
+     */
+    private static final int RAW_LENGTH_FIELD_LENGTH = 4;
+
+    private final int compressThreshold;
+    private final int maxFrameLength;
+
+    private Deflater deflater;
+    private Inflater inflater;
+    /**
+     * 是否开启压缩（协商成功之后开启）
+     */
+    private boolean compressEnabled = false;
+
+    public FrameCompressionHandler(int compressThreshold, int maxFrameLength) {
+        this.compressThreshold = compressThreshold;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * 开启压缩，必须在channel所在线程调用。
+     * 开启之前已提交的帧不会被压缩，对方总是能正确处理。
+     */
+    void enableCompress() {
+        compressEnabled = true;
+    }
+
+    boolean isCompressEnabled() {
+        return compressEnabled;
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        // 释放zlib占用的本地内存
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+
+    // ------------------------------------------------ 解压 --------------------------------------------
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        final ByteBuf frame = (ByteBuf) msg;
+        final byte pkgType = frame.getByte(frame.readerIndex());
+        if ((pkgType & COMPRESSED_FLAG) == 0) {
+            // 未压缩的帧，直接传递
+            ctx.fireChannelRead(frame);
+            return;
+        }
+
+        final ByteBuf rawFrame;
+        try {
+            rawFrame = decompress(ctx, frame, (byte) (pkgType & ~COMPRESSED_FLAG));
+        } finally {
+            frame.release();
+        }
+        ctx.fireChannelRead(rawFrame);
+    }
+
+    private ByteBuf decompress(ChannelHandlerContext ctx, ByteBuf frame, byte pkgType) throws IOException {
+        frame.skipBytes(1);
+        final int rawLength = frame.readInt();
+        if (rawLength < 0 || rawLength > maxFrameLength) {
+            throw new IOException("rawLength: " + rawLength + ", maxFrameLength: " + maxFrameLength);
+        }
+
+        final Inflater inflater = inflater();
+        final ByteBuf rawFrame = ctx.alloc().buffer(1 + rawLength);
+        try {
+            rawFrame.writeByte(pkgType);
+
+            inflater.setInput(nioBuffer(frame, frame.readerIndex(), frame.readableBytes()));
+            final ByteBuffer dst = nioBuffer(rawFrame, rawFrame.writerIndex(), rawLength);
+            while (dst.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(dst) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+            if (dst.hasRemaining() || !inflater.finished()) {
+                throw new IOException("corrupted compressed frame, rawLength: " + rawLength);
+            }
+
+            rawFrame.writerIndex(rawFrame.writerIndex() + rawLength);
+            return rawFrame;
+        } catch (DataFormatException e) {
+            rawFrame.release();
+            throw new IOException(e);
+        } catch (Throwable e) {
+            rawFrame.release();
+            throw e;
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    // ------------------------------------------------ 压缩 --------------------------------------------
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!compressEnabled || !(msg instanceof ByteBuf)) {
+            ctx.write(msg, promise);
+            return;
+        }
+
+        final ByteBuf frame = (ByteBuf) msg;
+        final int rawLength = frame.readableBytes() - FRAME_HEADER_LENGTH;
+        if (rawLength < compressThreshold) {
+            // 小包压缩得不偿失
+            ctx.write(frame, promise);
+            return;
+        }
+
+        final ByteBuf compressedFrame = compress(ctx, frame, rawLength);
+        if (null == compressedFrame) {
+            // 压缩之后没有变小，按原样发送
+            ctx.write(frame, promise);
+        } else {
+            frame.release();
+            ctx.write(compressedFrame, promise);
+        }
+    }
+
+    /**
+     * @return 如果压缩之后没有变小，则返回null
+     */
+    @Nullable
+    private ByteBuf compress(ChannelHandlerContext ctx, ByteBuf frame, int rawLength) {
+        final int readerIndex = frame.readerIndex();
+        final byte pkgType = frame.getByte(readerIndex + 4);
+        // 只接受变小的结果，因此压缩数据的最大长度是确定的，不需要扩容
+        final int maxCompressedLength = rawLength - RAW_LENGTH_FIELD_LENGTH - 1;
+
+        final Deflater deflater = deflater();
+        final ByteBuf compressedFrame = ctx.alloc().buffer(FRAME_HEADER_LENGTH + RAW_LENGTH_FIELD_LENGTH + maxCompressedLength);
+        try {
+            compressedFrame.writeInt(0);
+            compressedFrame.writeByte(pkgType | COMPRESSED_FLAG);
+            compressedFrame.writeInt(rawLength);
+
+            deflater.setInput(nioBuffer(frame, readerIndex + FRAME_HEADER_LENGTH, rawLength));
+            deflater.finish();
+
+            final ByteBuffer dst = nioBuffer(compressedFrame, compressedFrame.writerIndex(), maxCompressedLength);
+            final int startPosition = dst.position();
+            while (dst.hasRemaining() && !deflater.finished()) {
+                deflater.deflate(dst);
+            }
+            if (!deflater.finished()) {
+                compressedFrame.release();
+                return null;
+            }
+
+            compressedFrame.writerIndex(compressedFrame.writerIndex() + (dst.position() - startPosition));
+            compressedFrame.setInt(0, compressedFrame.readableBytes() - 4);
+            return compressedFrame;
+        } catch (Throwable e) {
+            compressedFrame.release();
+            throw e;
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    private Deflater deflater() {
+        if (deflater == null) {
+            // 游戏中更看重速度
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        }
+        return deflater;
+    }
+
+    private Inflater inflater() {
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        return inflater;
+    }
+
+    /**
+     * 获取指定区间的nio视图。
+     * 单个底层buffer时使用{@link ByteBuf#internalNioBuffer(int, int)}，避免创建新的{@link ByteBuffer}对象。
+     */
+    private static ByteBuffer nioBuffer(ByteBuf byteBuf, int index, int length) {
+        if (byteBuf.nioBufferCount() == 1) {
+            return byteBuf.internalNioBuffer(index, length);
+        } else {
+            return byteBuf.nioBuffer(index, length);
+        }
+    }
+}
@@ -16,29 +16,37 @@
 
 package com.wjybxx.fastjgame.net.socket;
 
+import com.wjybxx.fastjgame.net.rpc.MessagePriority;
+import com.wjybxx.fastjgame.net.rpc.NetLogicMessage;
+import com.wjybxx.fastjgame.net.rpc.OneWayMessage;
 import com.wjybxx.fastjgame.net.socket.outer.OuterSocketMessage;
 import org.apache.commons.lang3.RandomUtils;
 
+import javax.annotation.Nullable;
 import java.util.ArrayDeque;
 import java.util.Deque;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * 消息队列，可与tcp的收发缓冲区比较
  * （知识点：滑动窗口，捎带确认，累积确认，漏桶算法）
  * <p>
  * 注意：这里只缓存用户消息，不缓存任何控制协议
+ * <p>
+ * 未发送的消息按照{@link MessagePriority}分通道缓存，发送时通过加权轮询从各个通道中取出消息，
+ * 消息的sequence在真正发送时才分配，因此在各个通道之间sequence仍然是单调递增的，不影响消息确认机制。
  * <pre>
  * 消息队列的视图大致如下：
  *
  *  ack    ~      ack
  *  ↓              ↓
  *  ↓              ↓nextSequence
- * |-----------------------------
- * | pendingQueue |  cacheQueue  |
- * | ----------------------------|
- * | 0~maxPending |  0~maxCache  |
- * |------------------------------
+ * |--------------------------------
+ * | pendingQueue |   cacheLanes    |
+ * | -------------------------------|
+ * | 0~maxPending |   0~maxCache    |
+ * |--------------------------------
  *
  * </pre>
  *
@@ -66,15 +74,24 @@ public final class MessageQueue {
     private long ack = 0;
 
     /**
-     * 已发送待确认的消息队列，只要发送过就不会再放入{@link #cacheQueue}
+     * 已发送待确认的消息队列，只要发送过就不会再放入{@link #cacheLanes}
      */
     private Deque<OuterSocketMessage> pendingQueue = new ArrayDeque<>();
 
     /**
-     * 未发送的消息队列，还没有尝试过发送的消息。
-     * 使用{@link LinkedList}是因为需要回收内存。
+     * 未发送的消息，还没有尝试过发送的消息，按照优先级分通道缓存。
+     */
+    private PriorityLanes<OuterSocketMessage> cacheLanes = new PriorityLanes<>();
+
+    /**
+     * {@link #cacheLanes}中的消息的估算字节数
      */
-    private Deque<OuterSocketMessage> cacheQueue = new LinkedList<>();
+    private long cacheBytes = 0;
+
+    /**
+     * {@link #cacheLanes}中可合并的消息索引(合并键 -> 消息)，只有带有合并键的低优先级消息才会建立索引
+     */
+    private Map<Object, OuterSocketMessage> coalesceIndex = new HashMap<>();
 
     /**
      * 对方发送过来的ack是否有效。
@@ -124,7 +141,95 @@ public final class MessageQueue {
     }
 
     public int getCacheMessages() {
-        return cacheQueue.size();
+        return cacheLanes.size();
+    }
+
+    /**
+     * @return 指定优先级的尚未发送的消息数
+     */
+    public int getCacheMessages(MessagePriority priority) {
+        return cacheLanes.size(priority);
+    }
+
+    /**
+     * @return 尚未发送的消息的估算字节数
+     */
+    public long getCacheBytes() {
+        return cacheBytes;
+    }
+
+    /**
+     * 将一个消息压入其优先级对应的缓存通道尾部
+     *
+     * @param message 尚未发送的消息(尚未分配sequence)
+     */
+    public void addCacheMessage(OuterSocketMessage message) {
+        // 这里只缓存用户消息
+        final MessagePriority priority = ((NetLogicMessage) message.getWrappedMessage()).getPriority();
+        cacheLanes.add(priority, message);
+        cacheBytes += message.getEstimatedBytes();
+
+        final Object coalesceKey = getCoalesceKey(message);
+        if (null != coalesceKey) {
+            coalesceIndex.put(coalesceKey, message);
+        }
+    }
+
+    /**
+     * 按照加权轮询弹出下一个要发送的消息，并为其分配sequence。
+     * 弹出的消息必须立即放入{@link #pendingQueue}。
+     *
+     * @return 如果没有未发送的消息，则返回null
+     */
+    @Nullable
+    public OuterSocketMessage pollCacheMessage() {
+        final OuterSocketMessage message = cacheLanes.poll();
+        if (null == message) {
+            return null;
+        }
+        // 发送时才分配sequence，保证sequence单调递增
+        message.setSequence(nextSequence());
+        cacheBytes -= message.getEstimatedBytes();
+
+        final Object coalesceKey = getCoalesceKey(message);
+        if (null != coalesceKey) {
+            // 只有索引的是该消息时才删除
+            coalesceIndex.remove(coalesceKey, message);
+        }
+        return message;
+    }
+
+    /**
+     * 尝试将新消息合并到相同合并键的尚未发送的消息中(使用新消息的内容替换旧消息的内容)。
+     *
+     * @param message        新消息
+     * @param estimatedBytes 新消息的估算字节数
+     * @return 如果合并成功则返回true
+     */
+    public boolean tryCoalesce(OneWayMessage message, int estimatedBytes) {
+        final Object coalesceKey = message.getCoalesceKey();
+        if (null == coalesceKey) {
+            return false;
+        }
+
+        final OuterSocketMessage cachedMessage = coalesceIndex.get(coalesceKey);
+        if (null == cachedMessage) {
+            return false;
+        }
+
+        // 消息尚未发送，netty线程还未访问过它，因此可以安全的修改
+        ((OneWayMessage) cachedMessage.getWrappedMessage()).setBody(message.getBody());
+        cacheBytes += estimatedBytes - cachedMessage.getEstimatedBytes();
+        cachedMessage.setEstimatedBytes(estimatedBytes);
+        return true;
+    }
+
+    @Nullable
+    private static Object getCoalesceKey(OuterSocketMessage message) {
+        if (message.getWrappedMessage() instanceof OneWayMessage) {
+            return ((OneWayMessage) message.getWrappedMessage()).getCoalesceKey();
+        }
+        return null;
     }
 
     /**
@@ -146,7 +251,7 @@ public final class MessageQueue {
     /**
      * 分配下一个包的编号
      */
-    public long nextSequence() {
+    private long nextSequence() {
         return ++sequencer;
     }
 
@@ -162,17 +267,15 @@ public final class MessageQueue {
         return pendingQueue;
     }
 
-    public Deque<OuterSocketMessage> getCacheQueue() {
-        return cacheQueue;
-    }
-
     /**
      * 删除已发送和未发送的消息队列
      * help gc
      */
     public void cleanMessageQueue() {
         pendingQueue = null;
-        cacheQueue = null;
+        cacheLanes = null;
+        coalesceIndex = null;
+        cacheBytes = 0;
     }
 
     @Override
@@ -181,7 +284,8 @@ public final class MessageQueue {
                 "sequencer=" + sequencer +
                 ", ack=" + ack +
                 ", pendingQueueSize=" + pendingQueue.size() +
-                ", cacheQueueSize=" + cacheQueue.size() +
+                ", cacheLanes=" + cacheLanes +
+                ", cacheBytes=" + cacheBytes +
                 "}";
     }
 }
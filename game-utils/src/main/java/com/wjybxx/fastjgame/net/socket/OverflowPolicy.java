@@ -0,0 +1,42 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.socket;
+
+/**
+ * 待发送字节数超出预算时(session不可写时)，低优先级消息的处理策略。
+ * 注意：普通消息不受该策略影响，普通消息缓存过多时仍然会关闭session。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/14
+ * github - https://github.com/hl845740757
+ */
+public enum OverflowPolicy {
+
+    /**
+     * 直接丢弃低优先级消息
+     */
+    DROP,
+
+    /**
+     * 合并低优先级消息：如果存在相同合并键的尚未发送的消息，则使用新消息替换旧消息的内容；否则正常缓存。
+     * 没有合并键的消息将被丢弃。
+     * 适用于只关心最新状态的消息，如：位置同步。
+     */
+    COALESCE
+
+}
@@ -0,0 +1,155 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.socket;
+
+import com.google.common.collect.Iterators;
+import com.wjybxx.fastjgame.net.rpc.MessagePriority;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * 分优先级的消息通道，每一个{@link MessagePriority}对应一个FIFO通道。
+ * <p>
+ * 出队时使用平滑加权轮询(smooth weighted round-robin)在非空的通道之间进行选择：
+ * 1. 每次选择时，所有非空通道的积分增加其权重，然后选择积分最高的通道，被选中的通道减去本轮所有非空通道的权重之和。
+ * 2. 高优先级通道获得更多的出队机会，低优先级通道也总能获得出队机会，不会饿死。
+ * 3. 通道变为空时，其积分清零，避免积攒的积分在之后造成突发。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/16
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public final class PriorityLanes<E> implements Iterable<E> {
+
+    private static final MessagePriority[] PRIORITIES = MessagePriority.values();
+
+    /**
+     * 各个优先级的通道，使用{@link LinkedList}是因为需要回收内存
+     */
+    private final Deque<E>[] lanes;
+    /**
+     * 各个通道的当前积分
+     */
+    private final int[] credits;
+    /**
+     * 所有通道中的元素总数
+     */
+    private int size = 0;
+
+    @SuppressWarnings("unchecked")
+    public PriorityLanes() {
+        lanes = new Deque[PRIORITIES.length];
+        for (int index = 0; index < lanes.length; index++) {
+            lanes[index] = new LinkedList<>();
+        }
+        credits = new int[PRIORITIES.length];
+    }
+
+    /**
+     * 将元素压入指定优先级通道的尾部
+     */
+    public void add(@Nonnull MessagePriority priority, @Nonnull E e) {
+        lanes[priority.ordinal()].addLast(e);
+        size++;
+    }
+
+    /**
+     * 按照加权轮询选择一个通道，并弹出该通道的第一个元素
+     *
+     * @return 如果所有通道都为空，则返回null
+     */
+    @Nullable
+    public E poll() {
+        if (size == 0) {
+            return null;
+        }
+
+        int selected = -1;
+        int totalWeight = 0;
+        for (int index = 0; index < lanes.length; index++) {
+            if (lanes[index].isEmpty()) {
+                credits[index] = 0;
+                continue;
+            }
+            final int weight = PRIORITIES[index].weight;
+            credits[index] += weight;
+            totalWeight += weight;
+            if (selected < 0 || credits[index] > credits[selected]) {
+                selected = index;
+            }
+        }
+
+        credits[selected] -= totalWeight;
+        size--;
+        return lanes[selected].pollFirst();
+    }
+
+    /**
+     * @return 所有通道中的元素总数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return 指定优先级通道中的元素数
+     */
+    public int size(@Nonnull MessagePriority priority) {
+        return lanes[priority.ordinal()].size();
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 删除所有元素，并重置积分
+     */
+    public void clear() {
+        for (int index = 0; index < lanes.length; index++) {
+            lanes[index].clear();
+            credits[index] = 0;
+        }
+        size = 0;
+    }
+
+    /**
+     * 按照优先级从高到低的顺序遍历所有元素(不是出队顺序)，不可以通过迭代器删除元素。
+     */
+    @Nonnull
+    @Override
+    public Iterator<E> iterator() {
+        final Iterator<Iterator<E>> laneIterators = Iterators.transform(Iterators.forArray(lanes), Deque::iterator);
+        return Iterators.unmodifiableIterator(Iterators.concat(laneIterators));
+    }
+
+    @Override
+    public String toString() {
+        return "PriorityLanes{" +
+                "urgent=" + size(MessagePriority.URGENT) +
+                ", normal=" + size(MessagePriority.NORMAL) +
+                ", bulk=" + size(MessagePriority.BULK) +
+                '}';
+    }
+}
@@ -41,7 +41,7 @@ public class ServerSocketCodec extends AbstractSocketCodec {
     private final SocketPortContext portExtraInfo;
 
     public ServerSocketCodec(Serializer serializer, SocketPortContext portExtraInfo) {
-        super(serializer);
+        super(serializer, portExtraInfo.getSessionConfig().forwardTypes());
         this.portExtraInfo = portExtraInfo;
     }
 
@@ -71,6 +71,14 @@ public class ServerSocketCodec extends AbstractSocketCodec {
         }
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        super.channelWritabilityChanged(ctx);
+        if (isInited()) {
+            publish(new SocketWritabilityChangedEvent(ctx.channel(), sessionId));
+        }
+    }
+
     @Override
     public void write(ChannelHandlerContext ctx, Object msgTO, ChannelPromise promise) throws Exception {
         if (msgTO instanceof SocketMessageTO) {
@@ -106,6 +114,12 @@ public class ServerSocketCodec extends AbstractSocketCodec {
             case ONE_WAY_MESSAGE:
                 tryReadOneWayMessage(ctx, msg);
                 break;
+            case RPC_STREAM:
+                tryReadRpcStreamMessage(ctx, msg);
+                break;
+            case RPC_STREAM_CREDIT:
+                tryReadRpcStreamCreditMessage(ctx, msg);
+                break;
             case PING_PONG:
                 tryReadAckPingMessage(ctx, msg);
                 break;
@@ -149,6 +163,22 @@ public class ServerSocketCodec extends AbstractSocketCodec {
         publish(readOneWayMessage(ctx.channel(), sessionId, msg));
     }
 
+    /**
+     * 尝试读取流式rpc的响应帧
+     */
+    private void tryReadRpcStreamMessage(ChannelHandlerContext ctx, ByteBuf msg) {
+        ensureInited();
+        publish(readRpcStreamMessage(ctx.channel(), sessionId, msg));
+    }
+
+    /**
+     * 尝试读取流式rpc的信用包
+     */
+    private void tryReadRpcStreamCreditMessage(ChannelHandlerContext ctx, ByteBuf msg) {
+        ensureInited();
+        publish(readRpcStreamCreditMessage(ctx.channel(), sessionId, msg));
+    }
+
     /**
      * 读取客户端的ack-ping包
      */
@@ -42,10 +42,20 @@ public class SocketConnectRequest implements NetMessage {
      * 注意：客户端接收到建立连接响应时才可能加1
      */
     private final int verifiedTimes;
+    /**
+     * 发起方是否支持帧压缩。
+     * 由编解码器根据channel是否安装了{@link FrameCompressionHandler}写入，逻辑层发起请求时无需关心。
+     */
+    private final boolean compressible;
 
     public SocketConnectRequest(int verifyingTimes, int verifiedTimes) {
+        this(verifyingTimes, verifiedTimes, false);
+    }
+
+    public SocketConnectRequest(int verifyingTimes, int verifiedTimes, boolean compressible) {
         this.verifyingTimes = verifyingTimes;
         this.verifiedTimes = verifiedTimes;
+        this.compressible = compressible;
     }
 
     public int getVerifyingTimes() {
@@ -56,6 +66,10 @@ public class SocketConnectRequest implements NetMessage {
         return verifiedTimes;
     }
 
+    public boolean isCompressible() {
+        return compressible;
+    }
+
     @Override
     public NetMessageType type() {
         return NetMessageType.CONNECT_REQUEST;
@@ -36,15 +36,25 @@ public class SocketConnectResponse implements NetMessage {
     // 请求参数
     private final int verifyingTimes;
     private final int verifiedTimes;
+    /**
+     * 是否开启帧压缩（协商结果）。
+     * 只有双方都支持压缩且验证成功时为true，由编解码器写入，逻辑层无需关心。
+     */
+    private final boolean compressEnabled;
 
     public SocketConnectResponse(boolean success, SocketConnectRequest connectRequest) {
         this(success, connectRequest.getVerifyingTimes(), connectRequest.getVerifiedTimes());
     }
 
     public SocketConnectResponse(boolean success, int verifyingTimes, int verifiedTimes) {
+        this(success, verifyingTimes, verifiedTimes, false);
+    }
+
+    public SocketConnectResponse(boolean success, int verifyingTimes, int verifiedTimes, boolean compressEnabled) {
         this.success = success;
         this.verifyingTimes = verifyingTimes;
         this.verifiedTimes = verifiedTimes;
+        this.compressEnabled = compressEnabled;
     }
 
     public boolean isSuccess() {
@@ -59,6 +69,10 @@ public class SocketConnectResponse implements NetMessage {
         return verifiedTimes;
     }
 
+    public boolean isCompressEnabled() {
+        return compressEnabled;
+    }
+
     @Override
     public NetMessageType type() {
         return NetMessageType.CONNECT_RESPONSE;
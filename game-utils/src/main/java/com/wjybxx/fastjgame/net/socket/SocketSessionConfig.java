@@ -16,13 +16,29 @@
 
 package com.wjybxx.fastjgame.net.socket;
 
+import com.wjybxx.fastjgame.net.binary.BinarySerializer;
+import com.wjybxx.fastjgame.net.kcp.KcpOptions;
+import com.wjybxx.fastjgame.net.rpc.MessageForwardingHandler;
+import com.wjybxx.fastjgame.net.rpc.MessageRouter;
+import com.wjybxx.fastjgame.net.serialization.TypeId;
 import com.wjybxx.fastjgame.net.session.SessionConfig;
 import com.wjybxx.fastjgame.util.CheckUtils;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+
 /**
  * socket连接配置
  * <p>
  * 消息队列中的消息总限制为： {@link #maxPendingMessages} + {@link #maxCacheMessages}，一个不包含另一个，容易配置。
+ * 待发送的字节数超出{@link #maxOutboundBytes}时session变为不可写，低优先级消息将按照{@link #overflowPolicy}丢弃或合并，
+ * 从而在关闭session之前先进行降级。
+ * 双方都配置了{@link #compressThreshold}时，超过阈值的帧将被压缩。
+ * 使用kcp传输时，{@link #kcpOptions}决定kcp的重传和窗口参数，双方应该保持一致。
+ * 配置了{@link #messageRouter}时，{@link #forwardTypes}中的单向消息不解码，而是直接转发，见{@link MessageForwardingHandler}。
  *
  * @author wjybxx
  * @version 1.0
@@ -33,6 +49,7 @@ public final class SocketSessionConfig extends SessionConfig {
 
     private static final int MIN_PENDING_MESSAGES = 20;
     private static final int MIN_CACHE_MESSAGE = 100;
+    private static final int MIN_COMPRESS_THRESHOLD = 128;
 
     private final int sndBuffer;
     private final int rcvBuffer;
@@ -53,6 +70,16 @@ public final class SocketSessionConfig extends SessionConfig {
     private final int maxPendingMessages;
     private final int maxCacheMessages;
 
+    // ------------------------------------- 流量控制参数 -----------------------------
+    private final int maxOutboundBytes;
+    private final OverflowPolicy overflowPolicy;
+    private final int compressThreshold;
+    // ------------------------------------- kcp参数 -----------------------------
+    private final KcpOptions kcpOptions;
+    // ------------------------------------- 转发参数 -----------------------------
+    private final Set<TypeId> forwardTypes;
+    private final MessageRouter messageRouter;
+
     private SocketSessionConfig(SocketSessionConfigBuilder builder) {
         super(builder);
         this.sndBuffer = builder.sndBuffer;
@@ -71,6 +98,18 @@ public final class SocketSessionConfig extends SessionConfig {
         this.ackTimeoutMs = builder.ackTimeoutMs;
         this.maxPendingMessages = builder.maxPendingMessages;
         this.maxCacheMessages = builder.maxCacheMessages;
+
+        this.maxOutboundBytes = builder.maxOutboundBytes;
+        this.overflowPolicy = builder.overflowPolicy;
+        this.compressThreshold = builder.compressThreshold;
+        this.kcpOptions = builder.kcpOptions;
+
+        this.forwardTypes = builder.forwardTypes;
+        this.messageRouter = builder.messageRouter;
+        if (messageRouter != null && !(serializer() instanceof BinarySerializer)) {
+            // 需要按照二进制格式读取类型id
+            throw new IllegalArgumentException("message forwarding requires BinarySerializer");
+        }
     }
 
     /**
@@ -167,6 +206,51 @@ public final class SocketSessionConfig extends SessionConfig {
         return maxCacheMessages;
     }
 
+    /**
+     * @return 单个session允许的待发送字节数预算(包括缓存的消息和发送缓冲区中的数据)，超出预算时session变为不可写。
+     * 注意：这是一个软限制，超出预算时只降级低优先级消息，不会关闭session。
+     */
+    public int maxOutboundBytes() {
+        return maxOutboundBytes;
+    }
+
+    /**
+     * @return session不可写时，低优先级消息的处理策略
+     */
+    public OverflowPolicy overflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return 帧压缩阈值，内容长度达到该值的帧才压缩，0表示不开启压缩。
+     * 注意：只有双方都开启时才会压缩，压缩在建立连接时协商。
+     */
+    public int compressThreshold() {
+        return compressThreshold;
+    }
+
+    /**
+     * @return kcp参数，只在使用kcp传输时生效
+     */
+    public KcpOptions kcpOptions() {
+        return kcpOptions;
+    }
+
+    /**
+     * @return 需要转发的单向消息类型，这些消息在网络层不解码，未开启转发时为空集合
+     */
+    public Set<TypeId> forwardTypes() {
+        return forwardTypes;
+    }
+
+    /**
+     * @return 转发消息的路由器，未开启转发时为null
+     */
+    @Nullable
+    public MessageRouter messageRouter() {
+        return messageRouter;
+    }
+
     public static SocketSessionConfigBuilder newBuilder() {
         return new SocketSessionConfigBuilder();
     }
@@ -191,6 +275,14 @@ public final class SocketSessionConfig extends SessionConfig {
         private int maxPendingMessages = 50;
         private int maxCacheMessages = 500;
 
+        private int maxOutboundBytes = 256 * 1024;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+        private int compressThreshold = 0;
+        private KcpOptions kcpOptions = KcpOptions.newBuilder().build();
+
+        private Set<TypeId> forwardTypes = Collections.emptySet();
+        private MessageRouter messageRouter;
+
         @Override
         protected void checkParams() {
             super.checkParams();
@@ -261,6 +353,46 @@ public final class SocketSessionConfig extends SessionConfig {
             return this;
         }
 
+        public SocketSessionConfigBuilder setMaxOutboundBytes(int maxOutboundBytes) {
+            this.maxOutboundBytes = CheckUtils.requirePositive(maxOutboundBytes, "maxOutboundBytes");
+            return this;
+        }
+
+        public SocketSessionConfigBuilder setOverflowPolicy(@Nonnull OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = Objects.requireNonNull(overflowPolicy, "overflowPolicy");
+            return this;
+        }
+
+        /**
+         * @param compressThreshold 帧压缩阈值，0表示不开启压缩；开启时不可以小于128，太小的帧压缩得不偿失
+         */
+        public SocketSessionConfigBuilder setCompressThreshold(int compressThreshold) {
+            CheckUtils.requireNonNegative(compressThreshold, "compressThreshold");
+            if (compressThreshold > 0 && compressThreshold < MIN_COMPRESS_THRESHOLD) {
+                throw new IllegalArgumentException("compressThreshold: " + compressThreshold
+                        + " (expected: 0 to disable, or >= " + MIN_COMPRESS_THRESHOLD + ")");
+            }
+            this.compressThreshold = compressThreshold;
+            return this;
+        }
+
+        public SocketSessionConfigBuilder setKcpOptions(@Nonnull KcpOptions kcpOptions) {
+            this.kcpOptions = Objects.requireNonNull(kcpOptions, "kcpOptions");
+            return this;
+        }
+
+        /**
+         * 开启单向消息转发。
+         *
+         * @param forwardTypes  需要转发的消息类型，只支持对象和protoBuf消息
+         * @param messageRouter 为消息选择目标session，必须是线程安全的
+         */
+        public SocketSessionConfigBuilder setForwarding(@Nonnull Set<TypeId> forwardTypes, @Nonnull MessageRouter messageRouter) {
+            this.forwardTypes = Set.copyOf(forwardTypes);
+            this.messageRouter = Objects.requireNonNull(messageRouter, "messageRouter");
+            return this;
+        }
+
         @Override
         protected SocketSessionConfig newInstance() {
             return new SocketSessionConfig(this);
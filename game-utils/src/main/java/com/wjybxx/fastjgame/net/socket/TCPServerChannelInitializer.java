@@ -48,6 +48,11 @@ public class TCPServerChannelInitializer extends ChannelInitializer<SocketChanne
         // 读超时控制 - 注意：netty的EventLoop虽然支持定时任务任务，但是定时任务对EventLoop非常不友好，要尽量减少这种定时任务。
         pipeline.addLast(NetUtils.READ_TIMEOUT_HANDLER_NAME, new ReadTimeoutHandler(portExtraInfo.getSessionConfig().readTimeout()));
         pipeline.addLast(new LengthFieldBasedFrameDecoder(portExtraInfo.getSessionConfig().maxFrameLength(), 0, 4, 0, 4));
+        // 帧压缩 - 是否真正压缩在建立连接时协商
+        if (portExtraInfo.getSessionConfig().compressThreshold() > 0) {
+            pipeline.addLast(new FrameCompressionHandler(portExtraInfo.getSessionConfig().compressThreshold(),
+                    portExtraInfo.getSessionConfig().maxFrameLength()));
+        }
         pipeline.addLast(new ServerSocketCodec(portExtraInfo.getSessionConfig().serializer(), portExtraInfo));
     }
 }
@@ -18,6 +18,7 @@ package com.wjybxx.fastjgame.net.socket.inner;
 
 import com.wjybxx.fastjgame.net.manager.AcceptorManager;
 import com.wjybxx.fastjgame.net.manager.NetManagerWrapper;
+import com.wjybxx.fastjgame.net.rpc.MessageForwardingHandler;
 import com.wjybxx.fastjgame.net.rpc.OneWaySupportHandler;
 import com.wjybxx.fastjgame.net.rpc.RpcSupportHandler;
 import com.wjybxx.fastjgame.net.session.Session;
@@ -80,8 +81,13 @@ public class InnerAcceptorHandler {
         // 初始化管道
         session.pipeline()
                 .addLast(new InnerSocketTransferHandler(channel))
-                .addLast(new PingPingSupportHandler())
-                .addLast(new OneWaySupportHandler());
+                .addLast(new PingPingSupportHandler());
+
+        // 判断是否开启消息转发
+        if (session.config().messageRouter() != null) {
+            session.pipeline().addLast(new MessageForwardingHandler(session.config().messageRouter()));
+        }
+        session.pipeline().addLast(new OneWaySupportHandler());
 
         // 判断是否支持rpc
         if (session.config().isRpcAvailable()) {
@@ -16,6 +16,7 @@
 
 package com.wjybxx.fastjgame.net.socket.inner;
 
+import com.wjybxx.fastjgame.net.rpc.MessageForwardingHandler;
 import com.wjybxx.fastjgame.net.rpc.OneWaySupportHandler;
 import com.wjybxx.fastjgame.net.rpc.RpcSupportHandler;
 import com.wjybxx.fastjgame.net.session.Session;
@@ -110,6 +111,11 @@ public class InnerConnectorHandler extends SessionDuplexHandlerAdapter {
                 session.close();
                 return;
             }
+
+            if (socketEvent instanceof SocketWritabilityChangedEvent) {
+                // 建立连接阶段，忽略可写状态改变
+                return;
+            }
             // 错误的消息
             NetUtils.closeQuietly(socketEvent.channel());
         } else {
@@ -157,8 +163,13 @@ public class InnerConnectorHandler extends SessionDuplexHandlerAdapter {
             session.pipeline()
                     .remove(this)
                     .addLast(new InnerSocketTransferHandler(channelFuture.channel()))
-                    .addLast(new PingPingSupportHandler())
-                    .addLast(new OneWaySupportHandler());
+                    .addLast(new PingPingSupportHandler());
+
+            // 判断是否开启消息转发
+            if (session.config().messageRouter() != null) {
+                session.pipeline().addLast(new MessageForwardingHandler(session.config().messageRouter()));
+            }
+            session.pipeline().addLast(new OneWaySupportHandler());
 
             // 判断是否支持rpc
             if (session.config().isRpcAvailable()) {
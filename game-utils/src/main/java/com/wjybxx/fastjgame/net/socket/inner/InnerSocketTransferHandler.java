@@ -16,8 +16,12 @@
 
 package com.wjybxx.fastjgame.net.socket.inner;
 
+import com.wjybxx.fastjgame.net.rpc.MessagePriority;
+import com.wjybxx.fastjgame.net.rpc.NetLogicMessage;
 import com.wjybxx.fastjgame.net.rpc.NetMessage;
+import com.wjybxx.fastjgame.net.rpc.OneWayMessage;
 import com.wjybxx.fastjgame.net.rpc.PingPongMessage;
+import com.wjybxx.fastjgame.net.session.AbstractSession;
 import com.wjybxx.fastjgame.net.session.ConnectAwareTask;
 import com.wjybxx.fastjgame.net.session.DisconnectAwareTask;
 import com.wjybxx.fastjgame.net.session.SessionDuplexHandlerAdapter;
@@ -27,12 +31,16 @@ import com.wjybxx.fastjgame.net.utils.NetUtils;
 import com.wjybxx.fastjgame.util.concurrent.ConcurrentUtils;
 import io.netty.channel.Channel;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * 内网服务器之间传输支持。
  * 1. 由于它真正的向{@link Channel}中写入数据，因此也负责关闭channel
  * 2. 它负责过滤无效的消息
+ * 3. 它负责计算session的可写状态，只统计channel中的待发送字节数(缓冲区中有消息滞留时，channel必然不可写)
+ * 4. 每次清空缓冲区最多发送一批消息({@link SocketSessionConfig#maxPendingMessages()})，且只在channel可写时发送，
+ * channel不可写时消息留在缓冲区中，等待可写或下一帧时再按权重出队，因此带宽不足时各个优先级按权重分配发送机会。
  *
  * @author wjybxx
  * @version 1.0
@@ -46,10 +54,14 @@ public class InnerSocketTransferHandler extends SessionDuplexHandlerAdapter {
      */
     private final Channel channel;
     private int maxPendingMessages;
+    private int maxOutboundBytes;
+    private OverflowPolicy overflowPolicy;
     /**
-     * 缓冲区 - 减少与netty的交互
+     * 缓冲区 - 减少与netty的交互。
+     * 按优先级分道，清空缓冲区时按权重出队，避免紧急消息排在大量普通消息之后。
+     * 注意：消息一旦交给netty就是FIFO的，因此channel不可写时不再向netty提交消息。
      */
-    private LinkedList<SocketMessage> buffer = new LinkedList<>();
+    private final PriorityLanes<SocketMessage> buffer = new PriorityLanes<>();
 
     InnerSocketTransferHandler(Channel channel) {
         this.channel = channel;
@@ -59,6 +71,8 @@ public class InnerSocketTransferHandler extends SessionDuplexHandlerAdapter {
     public void handlerAdded(SessionHandlerContext ctx) throws Exception {
         SocketSessionConfig config = (SocketSessionConfig) ctx.session().config();
         maxPendingMessages = config.maxPendingMessages();
+        maxOutboundBytes = config.maxOutboundBytes();
+        overflowPolicy = config.overflowPolicy();
     }
 
     @Override
@@ -66,6 +80,19 @@ public class InnerSocketTransferHandler extends SessionDuplexHandlerAdapter {
         if (buffer.size() > 0) {
             doFlush();
         }
+        updateOutboundState(ctx);
+    }
+
+    /**
+     * 计算session的待发送字节数及可写状态，并更新到session。
+     */
+    private void updateOutboundState(SessionHandlerContext ctx) {
+        final AbstractSession session = (AbstractSession) ctx.session();
+        if (session.isClosed()) {
+            return;
+        }
+        final long outboundBytes = NetUtils.pendingWriteBytes(channel);
+        session.updateOutboundState(channel.isWritable() && outboundBytes <= maxOutboundBytes, outboundBytes);
     }
 
     @Override
@@ -100,6 +127,15 @@ public class InnerSocketTransferHandler extends SessionDuplexHandlerAdapter {
             return;
         }
 
+        if (msg instanceof SocketWritabilityChangedEvent) {
+            // socket可写状态改变 - 可写时继续发送滞留的消息
+            if (buffer.size() > 0) {
+                doFlush();
+            }
+            updateOutboundState(ctx);
+            return;
+        }
+
         if (msg instanceof SocketChannelInactiveEvent) {
             // socket断开事件 - 内网不断线重连，不使用消息确认机制，socket断开就关闭session
             ctx.session().close();
@@ -120,17 +156,53 @@ public class InnerSocketTransferHandler extends SessionDuplexHandlerAdapter {
             // 心跳包
             channel.writeAndFlush(new InnerPingPongMessageTO((PingPongMessage) msg));
         } else {
+            if (isLowPriority(msg) && !ctx.session().isWritable()
+                    && degrade((OneWayMessage) msg)) {
+                // session不可写，低优先级消息被丢弃或合并
+                return;
+            }
+
             // 用户数据包
-            buffer.add(new InnerSocketMessage((NetMessage) msg));
+            final MessagePriority priority = ((NetLogicMessage) msg).getPriority();
+            buffer.add(priority, new InnerSocketMessage((NetMessage) msg));
 
-            if (buffer.size() >= maxPendingMessages) {
-                // 检测是否需要清空缓冲区了
+            if (priority == MessagePriority.URGENT || buffer.size() >= maxPendingMessages) {
+                // 紧急消息立即发送，否则检测是否需要清空缓冲区了
                 doFlush();
             }
         }
         // else
     }
 
+    private static boolean isLowPriority(Object msg) {
+        return msg instanceof OneWayMessage && ((OneWayMessage) msg).isLowPriority();
+    }
+
+    /**
+     * 对低优先级消息进行降级
+     *
+     * @return 如果消息已被丢弃或合并，则返回true；如果仍需要压入缓冲区，则返回false
+     */
+    private boolean degrade(OneWayMessage msg) {
+        final Object coalesceKey = msg.getCoalesceKey();
+        if (overflowPolicy != OverflowPolicy.COALESCE || null == coalesceKey) {
+            // 丢弃
+            return true;
+        }
+        // 缓冲区很小，直接遍历即可
+        for (SocketMessage socketMessage : buffer) {
+            if (socketMessage.getWrappedMessage() instanceof OneWayMessage) {
+                final OneWayMessage cachedMessage = (OneWayMessage) socketMessage.getWrappedMessage();
+                if (coalesceKey.equals(cachedMessage.getCoalesceKey())) {
+                    // 尚未提交给netty，可以安全的修改
+                    cachedMessage.setBody(msg.getBody());
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     @Override
     public void flush(SessionHandlerContext ctx) throws Exception {
         if (ctx.session().isClosed()) {
@@ -143,15 +215,38 @@ public class InnerSocketTransferHandler extends SessionDuplexHandlerAdapter {
         }
     }
 
+    /**
+     * 按加权轮询从缓冲区中取出一批消息发送。
+     * 每次最多发送{@link #maxPendingMessages}个消息，channel不可写时不发送，剩余的消息等待之后的清空操作。
+     * (提交给netty的消息在编码之前只按很小的字节数估算，因此不能依赖一次提交后的可写状态来限制发送量)
+     */
     private void doFlush() {
-        if (buffer.size() == 1) {
-            channel.writeAndFlush(buffer.pollFirst());
+        if (!isChannelWritable()) {
+            return;
+        }
+        final int batchSize = Math.min(buffer.size(), maxPendingMessages);
+        if (batchSize == 1) {
+            channel.writeAndFlush(buffer.poll());
         } else {
-            channel.writeAndFlush(new InnerBatchSocketMessageTO(buffer));
-            buffer = new LinkedList<>();
+            final List<SocketMessage> socketMessageList = new ArrayList<>(batchSize);
+            for (int index = 0; index < batchSize; index++) {
+                socketMessageList.add(buffer.poll());
+            }
+            channel.writeAndFlush(new InnerBatchSocketMessageTO(socketMessageList));
         }
     }
 
+    private boolean isChannelWritable() {
+        return channel.isWritable() && NetUtils.pendingWriteBytes(channel) <= maxOutboundBytes;
+    }
+
+    /**
+     * @return 缓冲区中尚未提交给netty的消息数
+     */
+    int getBufferedMessages() {
+        return buffer.size();
+    }
+
     @Override
     public void close(SessionHandlerContext ctx) throws Exception {
         NetUtils.closeQuietly(channel);
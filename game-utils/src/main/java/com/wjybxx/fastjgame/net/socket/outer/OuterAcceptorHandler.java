@@ -18,6 +18,7 @@ package com.wjybxx.fastjgame.net.socket.outer;
 
 import com.wjybxx.fastjgame.net.manager.AcceptorManager;
 import com.wjybxx.fastjgame.net.manager.NetManagerWrapper;
+import com.wjybxx.fastjgame.net.rpc.MessageForwardingHandler;
 import com.wjybxx.fastjgame.net.rpc.NetMessage;
 import com.wjybxx.fastjgame.net.rpc.OneWaySupportHandler;
 import com.wjybxx.fastjgame.net.rpc.PingPongMessage;
@@ -96,6 +97,8 @@ public class OuterAcceptorHandler extends SessionDuplexHandlerAdapter {
         OuterUtils.flush(ctx, channel,
                 messageQueue, maxPendingMessages,
                 ctx.timerSystem().curTimeMillis() + ackTimeoutMs);
+        // 更新可写状态
+        OuterUtils.updateOutboundState(ctx, channel, messageQueue);
     }
 
     @Override
@@ -131,6 +134,15 @@ public class OuterAcceptorHandler extends SessionDuplexHandlerAdapter {
             return;
         }
 
+        if (event instanceof SocketWritabilityChangedEvent) {
+            // socket可写状态改变 - 如果恢复了可写状态，可以立即发送缓存的消息
+            OuterUtils.flush(ctx, channel,
+                    messageQueue, maxPendingMessages,
+                    ctx.timerSystem().curTimeMillis() + ackTimeoutMs);
+            OuterUtils.updateOutboundState(ctx, channel, messageQueue);
+            return;
+        }
+
         // 走到这应该是socket断开连接事件，不处理，等待客户端重连
         assert event instanceof SocketChannelInactiveEvent;
     }
@@ -287,8 +299,13 @@ public class OuterAcceptorHandler extends SessionDuplexHandlerAdapter {
             // 初始化管道
             session.pipeline()
                     .addLast(acceptorHandler)
-                    .addLast(new PingPingSupportHandler())
-                    .addLast(new OneWaySupportHandler());
+                    .addLast(new PingPingSupportHandler());
+
+            // 判断是否开启消息转发
+            if (session.config().messageRouter() != null) {
+                session.pipeline().addLast(new MessageForwardingHandler(session.config().messageRouter()));
+            }
+            session.pipeline().addLast(new OneWaySupportHandler());
 
             // 判断是否支持rpc
             if (session.config().isRpcAvailable()) {
@@ -18,6 +18,7 @@ package com.wjybxx.fastjgame.net.socket.outer;
 
 import com.wjybxx.fastjgame.net.manager.NettyThreadManager;
 import com.wjybxx.fastjgame.net.misc.HostAndPort;
+import com.wjybxx.fastjgame.net.rpc.MessageForwardingHandler;
 import com.wjybxx.fastjgame.net.rpc.NetMessage;
 import com.wjybxx.fastjgame.net.rpc.OneWaySupportHandler;
 import com.wjybxx.fastjgame.net.rpc.PingPongMessage;
@@ -31,7 +32,6 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.socket.SocketChannel;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -56,8 +56,9 @@ public class OuterConnectorHandler extends SessionDuplexHandlerAdapter {
 
     private static final Logger logger = LoggerFactory.getLogger(OuterConnectorHandler.class);
 
+    private final SocketTransport transport;
     private final HostAndPort remoteAddress;
-    private final ChannelInitializer<SocketChannel> initializer;
+    private final ChannelInitializer<?> initializer;
     private final NettyThreadManager nettyThreadManager;
 
     private SessionHandlerContext ctx;
@@ -88,10 +89,12 @@ public class OuterConnectorHandler extends SessionDuplexHandlerAdapter {
      */
     private boolean notify = true;
 
-    public OuterConnectorHandler(HostAndPort remoteAddress,
-                                 ChannelInitializer<SocketChannel> initializer,
+    public OuterConnectorHandler(SocketTransport transport,
+                                 HostAndPort remoteAddress,
+                                 ChannelInitializer<?> initializer,
                                  NettyThreadManager nettyThreadManager,
                                  Promise<Session> connectPromise) {
+        this.transport = transport;
         this.remoteAddress = remoteAddress;
         this.initializer = initializer;
         this.nettyThreadManager = nettyThreadManager;
@@ -111,6 +114,8 @@ public class OuterConnectorHandler extends SessionDuplexHandlerAdapter {
     @Override
     public void tick(SessionHandlerContext ctx) throws Exception {
         state.tick();
+        // 更新可写状态
+        OuterUtils.updateOutboundState(ctx, channel, messageQueue);
     }
 
     @Override
@@ -159,6 +164,12 @@ public class OuterConnectorHandler extends SessionDuplexHandlerAdapter {
             return;
         }
 
+        if (event instanceof SocketWritabilityChangedEvent) {
+            // socket可写状态改变
+            state.onWritabilityChanged();
+            return;
+        }
+
         if (event instanceof SocketConnectResponseEvent) {
             // 建立连接响应 或 通知关闭
             final SocketConnectResponseEvent connectResponseEvent = (SocketConnectResponseEvent) event;
@@ -259,6 +270,13 @@ public class OuterConnectorHandler extends SessionDuplexHandlerAdapter {
         void readPingPong(SocketPingPongEvent event) {
         }
 
+        /**
+         * 监听到socket可写状态改变
+         */
+        void onWritabilityChanged() {
+            OuterUtils.updateOutboundState(ctx, channel, messageQueue);
+        }
+
         /**
          * 接收到用户的写请求
          */
@@ -273,14 +291,8 @@ public class OuterConnectorHandler extends SessionDuplexHandlerAdapter {
                 return;
             }
 
-            if (messageQueue.getCacheMessages() >= config.maxCacheMessages()) {
-                // 超出缓存限制
-                ctx.session().close();
-                return;
-            }
-
             // 放入缓存队列，稍后发送
-            messageQueue.getCacheQueue().addLast(new OuterSocketMessage(messageQueue.nextSequence(), msg));
+            OuterUtils.enqueue(ctx, channel, messageQueue, config.maxCacheMessages(), msg);
         }
 
         void flush() {
@@ -317,12 +329,7 @@ public class OuterConnectorHandler extends SessionDuplexHandlerAdapter {
             tryTimes++;
             connectStartTime = ctx.timerSystem().curTimeMillis();
 
-            channelFuture = nettyThreadManager.connectAsyn(
-                    remoteAddress,
-                    config.sndBuffer(),
-                    config.rcvBuffer(),
-                    config.connectTimeoutMs(),
-                    initializer);
+            channelFuture = nettyThreadManager.connectAsyn(transport, remoteAddress, config, initializer);
             channel = channelFuture.channel();
         }
 
@@ -483,8 +490,13 @@ public class OuterConnectorHandler extends SessionDuplexHandlerAdapter {
                     // 激活session并初始化管道
                     session.tryActive();
                     session.pipeline()
-                            .addLast(new PingPingSupportHandler())
-                            .addLast(new OneWaySupportHandler());
+                            .addLast(new PingPingSupportHandler());
+
+                    // 判断是否开启消息转发
+                    if (session.config().messageRouter() != null) {
+                        session.pipeline().addLast(new MessageForwardingHandler(session.config().messageRouter()));
+                    }
+                    session.pipeline().addLast(new OneWaySupportHandler());
 
                     // 判断是否支持rpc
                     if (session.config().isRpcAvailable()) {
@@ -527,6 +539,13 @@ public class OuterConnectorHandler extends SessionDuplexHandlerAdapter {
             changeState(new ConnectingState());
         }
 
+        @Override
+        void onWritabilityChanged() {
+            // 如果恢复了可写状态，可以立即发送缓存的消息
+            flush();
+            super.onWritabilityChanged();
+        }
+
         @Override
         void readMessage(SocketMessageEvent event) {
             OuterUtils.readMessage(ctx, event, messageQueue,
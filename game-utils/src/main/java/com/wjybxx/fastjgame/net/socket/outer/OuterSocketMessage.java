@@ -24,7 +24,8 @@ import javax.annotation.concurrent.NotThreadSafe;
 /**
  * 对外的socket消息对象 - 启用了消息确认机制
  * 它并非线程安全的，通过以下方式保证安全性：
- * 1. netty线程只会访问{@link #wrappedMessage}和{@link #sequence}，这俩一旦赋值便不会变更
+ * 1. netty线程只会访问{@link #wrappedMessage}和{@link #sequence}，这俩一旦赋值便不会变更（sequence在提交给netty之前分配）
+ * 2. 合并消息时只修改尚未发送的消息，此时netty线程还未访问过该消息
  *
  * @author wjybxx
  * @version 1.0
@@ -35,9 +36,9 @@ import javax.annotation.concurrent.NotThreadSafe;
 public class OuterSocketMessage implements SocketMessage {
 
     /**
-     * 当前包id - 一旦分配就不会改变
+     * 当前包id - 真正发送时才分配，一旦分配就不会改变
      */
-    private final long sequence;
+    private long sequence;
     /**
      * 被包装的消息
      */
@@ -47,10 +48,14 @@ public class OuterSocketMessage implements SocketMessage {
      * 每次发送的时候设置超时时间 - 线程封闭(NetEventLoop线程访问)
      */
     private long ackDeadline;
+    /**
+     * 消息的估算字节数 - 线程封闭(NetEventLoop线程访问)
+     */
+    private int estimatedBytes;
 
-    OuterSocketMessage(long sequence, NetMessage wrappedMessage) {
-        this.sequence = sequence;
+    OuterSocketMessage(NetMessage wrappedMessage, int estimatedBytes) {
         this.wrappedMessage = wrappedMessage;
+        this.estimatedBytes = estimatedBytes;
     }
 
     @Override
@@ -58,6 +63,11 @@ public class OuterSocketMessage implements SocketMessage {
         return sequence;
     }
 
+    public void setSequence(long sequence) {
+        assert this.sequence == 0;
+        this.sequence = sequence;
+    }
+
     @Override
     public NetMessage getWrappedMessage() {
         return wrappedMessage;
@@ -70,4 +80,12 @@ public class OuterSocketMessage implements SocketMessage {
     public void setAckDeadline(long ackDeadline) {
         this.ackDeadline = ackDeadline;
     }
+
+    public int getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    public void setEstimatedBytes(int estimatedBytes) {
+        this.estimatedBytes = estimatedBytes;
+    }
 }
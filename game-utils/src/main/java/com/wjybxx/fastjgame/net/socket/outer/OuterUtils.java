@@ -16,10 +16,15 @@
 
 package com.wjybxx.fastjgame.net.socket.outer;
 
+import com.wjybxx.fastjgame.net.rpc.MessagePriority;
+import com.wjybxx.fastjgame.net.rpc.NetLogicMessage;
 import com.wjybxx.fastjgame.net.rpc.NetMessage;
+import com.wjybxx.fastjgame.net.rpc.OneWayMessage;
 import com.wjybxx.fastjgame.net.rpc.PingPongMessage;
+import com.wjybxx.fastjgame.net.session.AbstractSession;
 import com.wjybxx.fastjgame.net.session.SessionHandlerContext;
 import com.wjybxx.fastjgame.net.socket.*;
+import com.wjybxx.fastjgame.net.utils.NetUtils;
 import io.netty.channel.Channel;
 
 import java.util.ArrayList;
@@ -62,7 +67,7 @@ class OuterUtils {
 
         if (emitNum == 1) {
             // 添加到已发送队列
-            final OuterSocketMessage outerSocketMessage = messageQueue.getCacheQueue().pollFirst();
+            final OuterSocketMessage outerSocketMessage = messageQueue.pollCacheMessage();
             assert null != outerSocketMessage;
             messageQueue.getPendingQueue().add(outerSocketMessage);
 
@@ -77,7 +82,7 @@ class OuterUtils {
             final List<SocketMessage> messageList = new ArrayList<>(emitNum);
             for (int index = 0; index < emitNum; index++) {
                 // 添加到已发送队列
-                final OuterSocketMessage outerSocketMessage = messageQueue.getCacheQueue().pollFirst();
+                final OuterSocketMessage outerSocketMessage = messageQueue.pollCacheMessage();
                 assert null != outerSocketMessage;
                 messageQueue.getPendingQueue().add(outerSocketMessage);
 
@@ -121,15 +126,16 @@ class OuterUtils {
             return;
         }
 
-        if (messageQueue.getCacheMessages() >= maxCacheMessages) {
-            // 超出缓存上限，关闭session
-            ctx.session().close();
+        if (!enqueue(ctx, channel, messageQueue, maxCacheMessages, msg)) {
+            // 消息被丢弃或合并，或session已关闭
             return;
         }
 
-        // 压入缓存队列稍后发送
-        final OuterSocketMessage outerSocketMessage = new OuterSocketMessage(messageQueue.nextSequence(), msg);
-        messageQueue.getCacheQueue().addLast(outerSocketMessage);
+        if (isUrgent(msg)) {
+            // 紧急消息不等待缓存，立即尝试发送（仍然受限于待确认消息数）
+            emit(channel, messageQueue, maxPendingMessages, ackDeadline);
+            return;
+        }
 
         if (messageQueue.getCacheMessages() >= maxPendingMessages / 2
                 && messageQueue.getPendingMessages() <= maxPendingMessages / 2) {
@@ -138,6 +144,95 @@ class OuterUtils {
         }
     }
 
+    private static boolean isUrgent(NetMessage msg) {
+        return msg instanceof NetLogicMessage && ((NetLogicMessage) msg).getPriority() == MessagePriority.URGENT;
+    }
+
+    /**
+     * 将用户消息压入缓存队列，稍后发送。
+     * 如果session当前不可写，则按照{@link SocketSessionConfig#overflowPolicy()}对低优先级消息进行降级(丢弃或合并)。
+     *
+     * @param ctx              handler的上下文
+     * @param channel          socket对应的channel
+     * @param messageQueue     消息队列
+     * @param maxCacheMessages 最大允许缓存的消息数
+     * @param msg              要发送的消息
+     * @return 如果消息压入了缓存队列，则返回true
+     */
+    static boolean enqueue(final SessionHandlerContext ctx, final Channel channel,
+                           final MessageQueue messageQueue, final int maxCacheMessages,
+                           final NetMessage msg) {
+        final int estimatedBytes = estimateBytes(ctx, msg);
+
+        if (isLowPriority(msg) && !ctx.session().isWritable()) {
+            // 待发送的数据过多，优先降级低优先级消息，而不是关闭session
+            if (degrade(ctx, messageQueue, (OneWayMessage) msg, estimatedBytes)) {
+                return false;
+            }
+        }
+
+        if (messageQueue.getCacheMessages() >= maxCacheMessages) {
+            // 超出缓存上限，关闭session
+            ctx.session().close();
+            return false;
+        }
+
+        // 压入缓存队列稍后发送
+        messageQueue.addCacheMessage(new OuterSocketMessage(msg, estimatedBytes));
+
+        // 更新可写状态
+        updateOutboundState(ctx, channel, messageQueue);
+        return true;
+    }
+
+    private static int estimateBytes(SessionHandlerContext ctx, NetMessage msg) {
+        if (msg instanceof NetLogicMessage) {
+            return ctx.session().config().serializer().estimateSerializedSize(((NetLogicMessage) msg).getBody());
+        }
+        return 0;
+    }
+
+    private static boolean isLowPriority(NetMessage msg) {
+        return msg instanceof OneWayMessage && ((OneWayMessage) msg).isLowPriority();
+    }
+
+    /**
+     * 对低优先级消息进行降级
+     *
+     * @return 如果消息已被丢弃或合并，则返回true；如果仍需要压入缓存队列，则返回false
+     */
+    private static boolean degrade(SessionHandlerContext ctx, MessageQueue messageQueue, OneWayMessage msg, int estimatedBytes) {
+        final SocketSessionConfig config = (SocketSessionConfig) ctx.session().config();
+        if (config.overflowPolicy() == OverflowPolicy.COALESCE && msg.getCoalesceKey() != null) {
+            // 合并失败表示之前的消息已发送，那么新消息需要正常缓存
+            return messageQueue.tryCoalesce(msg, estimatedBytes);
+        }
+        // 丢弃
+        return true;
+    }
+
+    /**
+     * 计算session的待发送字节数及可写状态，并更新到session。
+     * 当channel不可写(超过高水位线)，或待发送字节数超出预算时，session不可写。
+     * 断线重连期间(channel未激活)只使用字节预算判断，消息会缓存到重连成功后再发送，
+     * 否则低优先级消息在整个重连期间都会被丢弃。
+     *
+     * @param ctx          handler的上下文
+     * @param channel      socket对应的channel
+     * @param messageQueue 消息队列
+     */
+    static void updateOutboundState(final SessionHandlerContext ctx, final Channel channel, final MessageQueue messageQueue) {
+        final AbstractSession session = (AbstractSession) ctx.session();
+        if (session.isClosed()) {
+            return;
+        }
+        final long outboundBytes = messageQueue.getCacheBytes() + NetUtils.pendingWriteBytes(channel);
+        // 未激活的channel的isWritable总是返回false，因此重连期间不使用它
+        final boolean channelWritable = !channel.isActive() || channel.isWritable();
+        final boolean writable = channelWritable && outboundBytes <= ((SocketSessionConfig) session.config()).maxOutboundBytes();
+        session.updateOutboundState(writable, outboundBytes);
+    }
+
     /**
      * 清空缓冲队列
      *
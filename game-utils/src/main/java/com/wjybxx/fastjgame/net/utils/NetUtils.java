@@ -21,6 +21,7 @@ import com.wjybxx.fastjgame.util.annotation.UnstableApi;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -98,6 +99,17 @@ public class NetUtils {
         return channel.id().hashCode();
     }
 
+    /**
+     * 查询channel发送缓冲区中尚未写入socket的字节数
+     *
+     * @param channel 要查询的channel
+     * @return 如果channel已关闭，则返回0
+     */
+    public static long pendingWriteBytes(@Nonnull Channel channel) {
+        final ChannelOutboundBuffer outboundBuffer = channel.unsafe().outboundBuffer();
+        return null == outboundBuffer ? 0 : outboundBuffer.totalPendingWriteBytes();
+    }
+
     /**
      * 安静的关闭channel,不产生任何影响
      */
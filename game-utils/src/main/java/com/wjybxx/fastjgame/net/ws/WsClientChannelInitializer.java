@@ -18,6 +18,7 @@ package com.wjybxx.fastjgame.net.ws;
 
 import com.wjybxx.fastjgame.net.eventloop.NetEventLoop;
 import com.wjybxx.fastjgame.net.socket.ClientSocketCodec;
+import com.wjybxx.fastjgame.net.socket.FrameCompressionHandler;
 import com.wjybxx.fastjgame.net.socket.SocketSessionConfig;
 import com.wjybxx.fastjgame.net.utils.NetUtils;
 import io.netty.channel.ChannelInitializer;
@@ -108,6 +109,10 @@ public class WsClientChannelInitializer extends ChannelInitializer<SocketChannel
      */
     private void appendCustomProtocolCodec(ChannelPipeline pipeline) {
         pipeline.addLast(new LengthFieldBasedFrameDecoder(sessionConfig.maxFrameLength(), 0, 4, 0, 4));
-        pipeline.addLast(new ClientSocketCodec(sessionConfig.serializer(), sessionId, netEventLoop));
+        // 帧压缩 - 是否真正压缩在建立连接时协商
+        if (sessionConfig.compressThreshold() > 0) {
+            pipeline.addLast(new FrameCompressionHandler(sessionConfig.compressThreshold(), sessionConfig.maxFrameLength()));
+        }
+        pipeline.addLast(new ClientSocketCodec(sessionConfig.serializer(), sessionConfig.forwardTypes(), sessionId, netEventLoop));
     }
 }
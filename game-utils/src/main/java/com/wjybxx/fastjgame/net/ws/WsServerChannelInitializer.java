@@ -16,6 +16,7 @@
 
 package com.wjybxx.fastjgame.net.ws;
 
+import com.wjybxx.fastjgame.net.socket.FrameCompressionHandler;
 import com.wjybxx.fastjgame.net.socket.ServerSocketCodec;
 import com.wjybxx.fastjgame.net.socket.SocketPortContext;
 import com.wjybxx.fastjgame.net.utils.NetUtils;
@@ -89,6 +90,11 @@ public class WsServerChannelInitializer extends ChannelInitializer<SocketChannel
 
     private void appendCustomProtocolCodec(ChannelPipeline pipeline) {
         pipeline.addLast(new LengthFieldBasedFrameDecoder(portExtraInfo.getSessionConfig().maxFrameLength(), 0, 4, 0, 4));
+        // 帧压缩 - 是否真正压缩在建立连接时协商
+        if (portExtraInfo.getSessionConfig().compressThreshold() > 0) {
+            pipeline.addLast(new FrameCompressionHandler(portExtraInfo.getSessionConfig().compressThreshold(),
+                    portExtraInfo.getSessionConfig().maxFrameLength()));
+        }
         pipeline.addLast(new ServerSocketCodec(portExtraInfo.getSessionConfig().serializer(), portExtraInfo));
     }
 }
@@ -69,4 +69,18 @@ public class CheckUtils {
         return param;
     }
 
+    /**
+     * 检查一个数是否为非负数。如果是，则返回它；否则抛出异常。
+     *
+     * @param param 参数
+     * @param name  属性的名字
+     * @return param
+     */
+    public static int requireNonNegative(final int param, String name) {
+        if (param < 0) {
+            throw new IllegalArgumentException(name + ": " + param + " (expected: >= 0)");
+        }
+        return param;
+    }
+
 }
@@ -0,0 +1,193 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.util.misc;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 对数线性分桶的直方图，用于统计延迟、大小等非负数值的分布。
+ * <p>
+ * 每个2的幂区间再线性的切分为{@link #SUB_BUCKET_COUNT}个子桶，因此相对误差不超过12.5%。
+ * 记录只需要一次原子自增(外加总数、总和、最大值的更新)，不加锁，不分配对象，适合在网络线程等热路径上使用。
+ * <p>
+ * 注意：{@link #snapshot()}不是原子的，在并发记录时，快照中各个字段之间可能存在微小的不一致。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/26
+ * github - https://github.com/hl845740757
+ */
+@ThreadSafe
+public class Histogram {
+
+    /**
+     * 每个2的幂区间的子桶数量
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /**
+     * 最大值为{@link Long#MAX_VALUE}，其最高位为62
+     */
+    private static final int BUCKET_COUNT = (62 - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public Histogram() {
+
+    }
+
+    /**
+     * 记录一个值，负数会被当做0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long curMax;
+        while (value > (curMax = max.get())) {
+            if (max.compareAndSet(curMax, value)) {
+                break;
+            }
+        }
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (highestBit - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (highestBit - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * @return 桶内的最大值
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long lowerBound = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    /**
+     * 获取当前的统计快照
+     */
+    public Snapshot snapshot() {
+        final long[] counts = new long[BUCKET_COUNT];
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            counts[index] = buckets.get(index);
+        }
+        return new Snapshot(counts, count.get(), sum.get(), max.get());
+    }
+
+    /**
+     * 清空统计数据
+     */
+    public void reset() {
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            buckets.set(index, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * 直方图快照 - 不可变对象
+     */
+    public static class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * 获取百分位值的估计值(所在桶的上界，且不超过最大值)
+         *
+         * @param percentile 百分位，[0, 100]
+         */
+        public long getPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile " + percentile + " must between [0, 100]");
+            }
+            long total = 0;
+            for (long bucketCount : counts) {
+                total += bucketCount;
+            }
+            if (total == 0) {
+                return 0;
+            }
+
+            final long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+            long accumulated = 0;
+            for (int index = 0; index < counts.length; index++) {
+                accumulated += counts[index];
+                if (accumulated >= target) {
+                    return Math.min(bucketUpperBound(index), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "{" +
+                    "count=" + count +
+                    ", mean=" + String.format("%.1f", getMean()) +
+                    ", p50=" + getPercentile(50) +
+                    ", p99=" + getPercentile(99) +
+                    ", max=" + max +
+                    '}';
+        }
+    }
+}
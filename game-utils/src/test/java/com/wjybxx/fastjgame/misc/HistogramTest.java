@@ -0,0 +1,84 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.misc;
+
+import com.wjybxx.fastjgame.util.misc.Histogram;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link Histogram}测试
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/26
+ * github - https://github.com/hl845740757
+ */
+class HistogramTest {
+
+    @Test
+    void emptySnapshot() {
+        final Histogram.Snapshot snapshot = new Histogram().snapshot();
+        Assertions.assertEquals(0, snapshot.getCount());
+        Assertions.assertEquals(0, snapshot.getPercentile(99));
+        Assertions.assertEquals(0, snapshot.getMean());
+    }
+
+    @Test
+    void percentileWithinRelativeError() {
+        final Histogram histogram = new Histogram();
+        for (int value = 1; value <= 10000; value++) {
+            histogram.record(value);
+        }
+
+        final Histogram.Snapshot snapshot = histogram.snapshot();
+        Assertions.assertEquals(10000, snapshot.getCount());
+        Assertions.assertEquals(10000, snapshot.getMax());
+        Assertions.assertEquals(5000.5, snapshot.getMean(), 0.001);
+
+        // 分桶的相对误差不超过12.5%，且估计值不会小于真实值
+        assertWithin(5000, snapshot.getPercentile(50));
+        assertWithin(9900, snapshot.getPercentile(99));
+        Assertions.assertEquals(10000, snapshot.getPercentile(100));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        Assertions.assertTrue(actual >= expected && actual <= expected * 1.125,
+                "expected " + expected + ", actual " + actual);
+    }
+
+    @Test
+    void smallAndExtremeValues() {
+        final Histogram histogram = new Histogram();
+        histogram.record(-1);
+        histogram.record(3);
+        histogram.record(Long.MAX_VALUE);
+
+        final Histogram.Snapshot snapshot = histogram.snapshot();
+        Assertions.assertEquals(0, snapshot.getPercentile(0));
+        Assertions.assertEquals(3, snapshot.getPercentile(50));
+        Assertions.assertEquals(Long.MAX_VALUE, snapshot.getPercentile(100));
+    }
+
+    @Test
+    void reset() {
+        final Histogram histogram = new Histogram();
+        histogram.record(100);
+        histogram.reset();
+        Assertions.assertEquals(0, histogram.snapshot().getCount());
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.kcp;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.*;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * kcp测试：在模拟丢包的链路上验证消息可靠、有序送达。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/22
+ * github - https://github.com/hl845740757
+ */
+class KcpTest {
+
+    private static final int MESSAGE_COUNT = 200;
+    private static final double LOSS_RATE = 0.2;
+
+    private static final ByteBufAllocator ALLOCATOR = UnpooledByteBufAllocator.DEFAULT;
+
+    private static final InetSocketAddress SERVER_ADDRESS = new InetSocketAddress("127.0.0.1", 10000);
+    private static final InetSocketAddress CLIENT_A = new InetSocketAddress("127.0.0.1", 20001);
+    private static final InetSocketAddress CLIENT_B = new InetSocketAddress("127.0.0.1", 20002);
+
+    @Test
+    void reliableOverLossyLink() throws Exception {
+        final Random random = new Random(1024);
+        final LossyLink link = new LossyLink(random);
+
+        final KcpOptions options = KcpOptions.newBuilder().build();
+        final Kcp client = new Kcp(1, (data, kcp) -> link.send(data, true), ALLOCATOR);
+        final Kcp server = new Kcp(1, (data, kcp) -> link.send(data, false), ALLOCATOR);
+        client.applyOptions(options);
+        server.applyOptions(options);
+
+        for (int index = 0; index < MESSAGE_COUNT; index++) {
+            // 包含需要分片的消息
+            final ByteBuf message = newMessage(index, random.nextInt(4000) + 4);
+            client.send(message);
+            message.release();
+        }
+
+        final List<ByteBuf> received = new ArrayList<>();
+        for (int current = 0; current < 60_000 && received.size() < MESSAGE_COUNT; current++) {
+            client.update(current);
+            server.update(current);
+
+            link.deliver(current, client, server);
+
+            ByteBuf message;
+            while ((message = server.recv()) != null) {
+                received.add(message);
+            }
+        }
+
+        Assertions.assertEquals(MESSAGE_COUNT, received.size());
+        for (int index = 0; index < received.size(); index++) {
+            final ByteBuf message = received.get(index);
+            checkMessage(index, message);
+            message.release();
+        }
+        Assertions.assertTrue(link.dropped > 0);
+
+        client.release();
+        server.release();
+        link.release();
+    }
+
+    @Test
+    void rejectTooLargeMessage() {
+        final Kcp kcp = new Kcp(1, (data, k) -> data.release(), ALLOCATOR);
+        final ByteBuf message = Unpooled.buffer(1400 * 200);
+        message.writerIndex(message.capacity());
+        Assertions.assertThrows(IOException.class, () -> kcp.send(message));
+        message.release();
+    }
+
+    /**
+     * 使用真正的udp channel通过回环地址通信，两端都随机丢弃部分收到的udp包
+     */
+    @Test
+    void echoOverLoopbackWithLoss() throws Exception {
+        final NioEventLoopGroup group = new NioEventLoopGroup(2);
+        try {
+            final KcpOptions options = KcpOptions.newBuilder().build();
+
+            final ChannelHandler serverChildHandler = new ChannelInitializer<KcpChannel>() {
+                @Override
+                protected void initChannel(KcpChannel ch) {
+                    ch.pipeline().addLast(new EchoHandler());
+                }
+            };
+            final KcpDatagramHandler serverHandler = KcpDatagramHandler.newServerHandler(options, serverChildHandler);
+            final Channel serverChannel = new Bootstrap()
+                    .group(group)
+                    .channel(NioDatagramChannel.class)
+                    .handler(newDatagramInitializer(serverHandler))
+                    .bind("127.0.0.1", 0)
+                    .sync()
+                    .channel();
+
+            final BlockingQueue<ByteBuf> received = new LinkedBlockingQueue<>();
+            final KcpDatagramHandler clientHandler = KcpDatagramHandler.newClientHandler(options);
+            final ChannelFuture bindFuture = new Bootstrap()
+                    .group(group)
+                    .channel(NioDatagramChannel.class)
+                    .handler(newDatagramInitializer(clientHandler))
+                    .bind("127.0.0.1", 0);
+            final InetSocketAddress serverAddress = (InetSocketAddress) serverChannel.localAddress();
+            final ChannelFuture connectFuture = clientHandler.connect(bindFuture, serverAddress, new ChannelInboundHandlerAdapter() {
+                @Override
+                public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                    received.add((ByteBuf) msg);
+                }
+            });
+            final Channel clientChannel = connectFuture.sync().channel();
+            Assertions.assertTrue(clientChannel instanceof KcpChannel);
+
+            final Random random = new Random(2048);
+            for (int index = 0; index < MESSAGE_COUNT; index++) {
+                clientChannel.writeAndFlush(newMessage(index, random.nextInt(3000) + 4));
+            }
+
+            for (int index = 0; index < MESSAGE_COUNT; index++) {
+                final ByteBuf message = received.poll(30, TimeUnit.SECONDS);
+                Assertions.assertNotNull(message, "timeout, index " + index);
+                checkMessage(index, message);
+                message.release();
+            }
+
+            clientChannel.close().sync();
+            serverChannel.close().sync();
+        } finally {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 未经握手的kcp数据段不能创建连接
+     */
+    @Test
+    void dropUnknownConv() {
+        final KcpDatagramHandler handler = KcpDatagramHandler.newServerHandler(KcpOptions.newBuilder().build(),
+                new ChannelInboundHandlerAdapter());
+        final EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        final ByteBuf push = ALLOCATOR.buffer(Kcp.OVERHEAD);
+        push.writeInt(123);
+        push.writeByte(Kcp.CMD_PUSH);
+        push.writeZero(Kcp.OVERHEAD - push.writerIndex());
+        channel.writeInbound(new DatagramPacket(push, SERVER_ADDRESS, CLIENT_A));
+
+        Assertions.assertEquals(0, handler.childCount());
+        Assertions.assertNull(channel.readOutbound());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void handshakeAndMaxChildren() {
+        final KcpOptions options = KcpOptions.newBuilder().setMaxChildren(1).build();
+        final KcpDatagramHandler handler = KcpDatagramHandler.newServerHandler(options, new ChannelInboundHandlerAdapter());
+        final EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        // SYN不创建连接
+        writeControl(channel, CLIENT_A, KcpDatagramHandler.TYPE_SYN, 1, 0);
+        final long cookie = readControl(channel, KcpDatagramHandler.TYPE_COOKIE, 1);
+        Assertions.assertEquals(0, handler.childCount());
+
+        // 错误的cookie，或其它地址使用该cookie
+        writeControl(channel, CLIENT_A, KcpDatagramHandler.TYPE_CONNECT, 1, cookie + 1);
+        writeControl(channel, CLIENT_B, KcpDatagramHandler.TYPE_CONNECT, 1, cookie);
+        Assertions.assertEquals(0, handler.childCount());
+        Assertions.assertNull(channel.readOutbound());
+
+        writeControl(channel, CLIENT_A, KcpDatagramHandler.TYPE_CONNECT, 1, cookie);
+        readControl(channel, KcpDatagramHandler.TYPE_ACCEPTED, 1);
+        Assertions.assertEquals(1, handler.childCount());
+
+        // 重发的CONNECT只回复ACCEPTED
+        writeControl(channel, CLIENT_A, KcpDatagramHandler.TYPE_CONNECT, 1, cookie);
+        readControl(channel, KcpDatagramHandler.TYPE_ACCEPTED, 1);
+        Assertions.assertEquals(1, handler.childCount());
+
+        // 达到连接数上限
+        writeControl(channel, CLIENT_B, KcpDatagramHandler.TYPE_SYN, 2, 0);
+        final long cookieB = readControl(channel, KcpDatagramHandler.TYPE_COOKIE, 2);
+        writeControl(channel, CLIENT_B, KcpDatagramHandler.TYPE_CONNECT, 2, cookieB);
+        Assertions.assertEquals(1, handler.childCount());
+        Assertions.assertNull(channel.readOutbound());
+
+        channel.finishAndReleaseAll();
+        Assertions.assertEquals(0, handler.childCount());
+    }
+
+    /**
+     * 对方不响应握手时，连接超时失败
+     */
+    @Test
+    void handshakeTimeout() throws Exception {
+        final NioEventLoopGroup group = new NioEventLoopGroup(1);
+        try {
+            final Channel silentChannel = new Bootstrap()
+                    .group(group)
+                    .channel(NioDatagramChannel.class)
+                    .handler(new ChannelInboundHandlerAdapter() {
+                        @Override
+                        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                            ((DatagramPacket) msg).release();
+                        }
+                    })
+                    .bind("127.0.0.1", 0)
+                    .sync()
+                    .channel();
+
+            final KcpOptions options = KcpOptions.newBuilder().setHandshakeTimeoutMs(500).build();
+            final KcpDatagramHandler clientHandler = KcpDatagramHandler.newClientHandler(options);
+            final ChannelFuture bindFuture = new Bootstrap()
+                    .group(group)
+                    .channel(NioDatagramChannel.class)
+                    .handler(clientHandler)
+                    .bind("127.0.0.1", 0);
+            final ChannelFuture connectFuture = clientHandler.connect(bindFuture, (InetSocketAddress) silentChannel.localAddress(),
+                    new ChannelInboundHandlerAdapter());
+
+            final ExecutionException exception = Assertions.assertThrows(ExecutionException.class,
+                    () -> connectFuture.get(5, TimeUnit.SECONDS));
+            Assertions.assertTrue(exception.getCause() instanceof ConnectTimeoutException);
+            // 客户端独占的udp channel同时关闭
+            Assertions.assertTrue(bindFuture.channel().closeFuture().await(5, TimeUnit.SECONDS));
+
+            silentChannel.close().sync();
+        } finally {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void writeControl(EmbeddedChannel channel, InetSocketAddress sender, byte type, int conv, long cookie) {
+        final ByteBuf packet = KcpDatagramHandler.newControlPacket(ALLOCATOR, type, conv, cookie);
+        channel.writeInbound(new DatagramPacket(packet, SERVER_ADDRESS, sender));
+    }
+
+    private static long readControl(EmbeddedChannel channel, byte type, int conv) {
+        final DatagramPacket packet = channel.readOutbound();
+        Assertions.assertNotNull(packet);
+        try {
+            final ByteBuf content = packet.content();
+            Assertions.assertEquals(KcpDatagramHandler.CONTROL_PACKET_SIZE, content.readableBytes());
+            Assertions.assertEquals(KcpDatagramHandler.CONTROL_CONV, content.readInt());
+            Assertions.assertEquals(type, content.readByte());
+            Assertions.assertEquals(conv, content.readInt());
+            return content.readLong();
+        } finally {
+            packet.release();
+        }
+    }
+
+    private static ChannelInitializer<NioDatagramChannel> newDatagramInitializer(KcpDatagramHandler kcpDatagramHandler) {
+        return new ChannelInitializer<NioDatagramChannel>() {
+            @Override
+            protected void initChannel(NioDatagramChannel ch) {
+                ch.pipeline().addLast(new LossHandler(new Random(ch.hashCode())));
+                ch.pipeline().addLast(kcpDatagramHandler);
+            }
+        };
+    }
+
+    private static ByteBuf newMessage(int sequence, int length) {
+        final ByteBuf message = ALLOCATOR.buffer(length);
+        message.writeInt(sequence);
+        for (int index = 4; index < length; index++) {
+            message.writeByte(sequence + index);
+        }
+        return message;
+    }
+
+    private static void checkMessage(int sequence, ByteBuf message) {
+        Assertions.assertEquals(sequence, message.readInt());
+        int index = 4;
+        while (message.isReadable()) {
+            Assertions.assertEquals((byte) (sequence + index), message.readByte());
+            index++;
+        }
+    }
+
+    /**
+     * 模拟的链路：随机丢包，固定延迟并带有抖动(会产生乱序)
+     */
+    private static class LossyLink {
+
+        private final Random random;
+        private final ArrayDeque<Packet> packets = new ArrayDeque<>();
+        private int current;
+        private int dropped;
+
+        LossyLink(Random random) {
+            this.random = random;
+        }
+
+        void send(ByteBuf data, boolean toServer) {
+            if (random.nextDouble() < LOSS_RATE) {
+                dropped++;
+                data.release();
+                return;
+            }
+            packets.add(new Packet(current + 20 + random.nextInt(10), data, toServer));
+        }
+
+        void deliver(int current, Kcp client, Kcp server) throws Exception {
+            this.current = current;
+            final int size = packets.size();
+            for (int index = 0; index < size; index++) {
+                final Packet packet = packets.pollFirst();
+                if (packet.deliverTime > current) {
+                    packets.addLast(packet);
+                    continue;
+                }
+                try {
+                    (packet.toServer ? server : client).input(packet.data);
+                } finally {
+                    packet.data.release();
+                }
+            }
+        }
+
+        void release() {
+            for (Packet packet : packets) {
+                packet.data.release();
+            }
+            packets.clear();
+        }
+    }
+
+    private static class Packet {
+
+        final int deliverTime;
+        final ByteBuf data;
+        final boolean toServer;
+
+        Packet(int deliverTime, ByteBuf data, boolean toServer) {
+            this.deliverTime = deliverTime;
+            this.data = data;
+            this.toServer = toServer;
+        }
+    }
+
+    private static class LossHandler extends ChannelInboundHandlerAdapter {
+
+        private final Random random;
+
+        LossHandler(Random random) {
+            this.random = random;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (msg instanceof DatagramPacket && random.nextDouble() < LOSS_RATE) {
+                ((DatagramPacket) msg).release();
+                return;
+            }
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    private static class EchoHandler extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            ctx.writeAndFlush(msg);
+        }
+    }
+}
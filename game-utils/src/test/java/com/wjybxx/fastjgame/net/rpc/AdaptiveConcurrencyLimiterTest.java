@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AdaptiveConcurrencyLimiter}测试
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/28
+ * github - https://github.com/hl845740757
+ */
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long TARGET_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private static AdaptiveConcurrencyLimiter newLimiter() {
+        final ConcurrencyLimitConfig config = ConcurrencyLimitConfig.newBuilder()
+                .setInitialLimit(10)
+                .setMinLimit(2)
+                .setMaxLimit(20)
+                .setTargetQueueLatencyMs(20)
+                .setBackoffRatio(0.5)
+                .build();
+        return new AdaptiveConcurrencyLimiter((short) 1, config);
+    }
+
+    @Test
+    void rejectWhenLimitReached() {
+        final AdaptiveConcurrencyLimiter limiter = newLimiter();
+        for (int index = 0; index < 10; index++) {
+            Assertions.assertTrue(limiter.tryAcquire());
+        }
+        Assertions.assertFalse(limiter.tryAcquire());
+        Assertions.assertEquals(10, limiter.getInflight());
+    }
+
+    @Test
+    void decreaseOncePerRound() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = newLimiter();
+        // 保证请求在限制器创建之后、第一次减小之前收到
+        Thread.sleep(2);
+        final long receiveNanos = System.nanoTime();
+        Thread.sleep(2);
+        for (int index = 0; index < 4; index++) {
+            Assertions.assertTrue(limiter.tryAcquire());
+        }
+
+        // 同一轮拥塞中的请求只导致一次减小
+        for (int index = 0; index < 4; index++) {
+            limiter.release(receiveNanos, receiveNanos + TARGET_NANOS * 2);
+        }
+        Assertions.assertEquals(5, limiter.getLimit());
+        Assertions.assertEquals(0, limiter.getInflight());
+    }
+
+    @Test
+    void cancelKeepsLimit() {
+        final AdaptiveConcurrencyLimiter limiter = newLimiter();
+        for (int index = 0; index < 10; index++) {
+            Assertions.assertTrue(limiter.tryAcquire());
+        }
+        Assertions.assertFalse(limiter.tryAcquire());
+
+        // 归还许可后可以再次获取，限制值不变
+        limiter.cancel();
+        Assertions.assertEquals(9, limiter.getInflight());
+        Assertions.assertEquals(10, limiter.getLimit());
+        Assertions.assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    void increaseWhenUtilized() {
+        final AdaptiveConcurrencyLimiter limiter = newLimiter();
+        final long receiveNanos = System.nanoTime();
+        for (int round = 0; round < 200; round++) {
+            while (limiter.tryAcquire()) {
+                // 用满限制值
+            }
+            while (limiter.getInflight() > 0) {
+                limiter.release(receiveNanos, receiveNanos);
+            }
+        }
+        Assertions.assertEquals(20, limiter.getLimit());
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.net.eventloop.NetEventLoop;
+import com.wjybxx.fastjgame.net.session.Session;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link BatchingRpcInvoker}的提交与刷新规则测试。
+ * session和网络线程使用动态代理模拟，只记录提交的任务及写/刷新操作。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/12
+ * github - https://github.com/hl845740757
+ */
+class BatchingRpcInvokerTest {
+
+    private static RpcMethodSpec<?> newMessage() {
+        return new DefaultRpcMethodSpec<>((short) 1, (short) 1, new ArrayList<>(), 0, 0);
+    }
+
+    @Test
+    void submitOnlyWhenFlush() {
+        final FakeNetEventLoop netEventLoop = new FakeNetEventLoop();
+        final FakeSession session = new FakeSession("session", netEventLoop);
+        final BatchingRpcInvoker invoker = new BatchingRpcInvoker();
+
+        invoker.send(session.proxy, newMessage(), false);
+        invoker.send(session.proxy, newMessage(), true);
+        Assertions.assertEquals(2, invoker.pendingInvocations());
+        Assertions.assertTrue(netEventLoop.tasks.isEmpty());
+
+        invoker.flush();
+        Assertions.assertEquals(0, invoker.pendingInvocations());
+        Assertions.assertEquals(1, netEventLoop.tasks.size());
+
+        // 重复flush不提交空批次
+        invoker.flush();
+        Assertions.assertEquals(1, netEventLoop.tasks.size());
+    }
+
+    @Test
+    void oneBatchPerNetEventLoop() {
+        final FakeNetEventLoop netEventLoop1 = new FakeNetEventLoop();
+        final FakeNetEventLoop netEventLoop2 = new FakeNetEventLoop();
+        final FakeSession session1 = new FakeSession("session1", netEventLoop1);
+        final FakeSession session2 = new FakeSession("session2", netEventLoop1);
+        final FakeSession session3 = new FakeSession("session3", netEventLoop2);
+        final BatchingRpcInvoker invoker = new BatchingRpcInvoker();
+
+        invoker.send(session1.proxy, newMessage(), false);
+        invoker.send(session2.proxy, newMessage(), false);
+        invoker.send(session3.proxy, newMessage(), false);
+        invoker.flush();
+
+        Assertions.assertEquals(1, netEventLoop1.tasks.size());
+        Assertions.assertEquals(1, netEventLoop2.tasks.size());
+    }
+
+    @Test
+    void submitWhenBatchFull() {
+        final FakeNetEventLoop netEventLoop = new FakeNetEventLoop();
+        final FakeSession session = new FakeSession("session", netEventLoop);
+        final BatchingRpcInvoker invoker = new BatchingRpcInvoker(3);
+
+        invoker.send(session.proxy, newMessage(), false);
+        invoker.send(session.proxy, newMessage(), false);
+        Assertions.assertTrue(netEventLoop.tasks.isEmpty());
+
+        invoker.send(session.proxy, newMessage(), false);
+        Assertions.assertEquals(1, netEventLoop.tasks.size());
+        Assertions.assertEquals(0, invoker.pendingInvocations());
+    }
+
+    @Test
+    void flushEachSessionOnceAfterBatch() {
+        final FakeNetEventLoop netEventLoop = new FakeNetEventLoop();
+        final FakeSession flushSession = new FakeSession("flushSession", netEventLoop);
+        final FakeSession noFlushSession = new FakeSession("noFlushSession", netEventLoop);
+        final BatchingRpcInvoker invoker = new BatchingRpcInvoker();
+
+        invoker.send(flushSession.proxy, newMessage(), true);
+        invoker.send(flushSession.proxy, newMessage(), true);
+        invoker.sendLowPriority(flushSession.proxy, newMessage(), "key");
+        invoker.send(noFlushSession.proxy, newMessage(), false);
+        invoker.flush();
+        netEventLoop.runAll();
+
+        // 批次内的任务只写入，不单独刷新
+        Assertions.assertEquals(3, flushSession.writes);
+        Assertions.assertEquals(0, flushSession.writeAndFlushes);
+        Assertions.assertEquals(1, flushSession.flushes);
+
+        Assertions.assertEquals(1, noFlushSession.writes);
+        Assertions.assertEquals(0, noFlushSession.flushes);
+    }
+
+    @Test
+    void skipClosedSession() {
+        final FakeNetEventLoop netEventLoop = new FakeNetEventLoop();
+        final FakeSession session = new FakeSession("session", netEventLoop);
+        final BatchingRpcInvoker invoker = new BatchingRpcInvoker();
+
+        invoker.send(null, newMessage(), true);
+        session.closed = true;
+        invoker.send(session.proxy, newMessage(), true);
+        Assertions.assertEquals(0, invoker.pendingInvocations());
+
+        // 提交之后关闭的session不刷新
+        session.closed = false;
+        invoker.send(session.proxy, newMessage(), true);
+        invoker.flush();
+        session.closed = true;
+        netEventLoop.runAll();
+        Assertions.assertEquals(0, session.flushes);
+    }
+
+    private static class FakeNetEventLoop {
+
+        final List<Runnable> tasks = new ArrayList<>();
+        final NetEventLoop proxy = (NetEventLoop) Proxy.newProxyInstance(NetEventLoop.class.getClassLoader(),
+                new Class<?>[]{NetEventLoop.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "execute":
+                            tasks.add((Runnable) args[0]);
+                            return null;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "FakeNetEventLoop";
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        void runAll() {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            tasks.clear();
+        }
+    }
+
+    private static class FakeSession {
+
+        final String sessionId;
+        boolean closed;
+        int writes;
+        int writeAndFlushes;
+        int flushes;
+
+        final Session proxy;
+
+        FakeSession(String sessionId, FakeNetEventLoop netEventLoop) {
+            this.sessionId = sessionId;
+            this.proxy = (Session) Proxy.newProxyInstance(Session.class.getClassLoader(),
+                    new Class<?>[]{Session.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "sessionId":
+                            case "toString":
+                                return sessionId;
+                            case "netEventLoop":
+                                return netEventLoop.proxy;
+                            case "isClosed":
+                                return closed;
+                            case "fireWrite":
+                                writes++;
+                                return null;
+                            case "fireWriteAndFlush":
+                                writeAndFlushes++;
+                                return null;
+                            case "fireFlush":
+                                flushes++;
+                                return null;
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "equals":
+                                return proxy == args[0];
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+    }
+}
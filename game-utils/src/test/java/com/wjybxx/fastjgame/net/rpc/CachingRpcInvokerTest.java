@@ -0,0 +1,289 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.net.serialization.Serializer;
+import com.wjybxx.fastjgame.net.session.Session;
+import com.wjybxx.fastjgame.net.session.SessionConfig;
+import com.wjybxx.fastjgame.net.session.SessionLifecycleAware;
+import com.wjybxx.fastjgame.util.CodecUtils;
+import com.wjybxx.fastjgame.util.concurrent.EventLoop;
+import com.wjybxx.fastjgame.util.concurrent.FluentFuture;
+import com.wjybxx.fastjgame.util.concurrent.FutureUtils;
+import com.wjybxx.fastjgame.util.concurrent.Promise;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link CachingRpcInvoker}测试：命中、过期、合并、失效及淘汰。
+ * session和应用线程使用动态代理模拟，应用线程直接执行提交的任务。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/12
+ * github - https://github.com/hl845740757
+ */
+class CachingRpcInvokerTest {
+
+    private static final int TTL_MS = 50;
+
+    private final StubRpcInvoker delegate = new StubRpcInvoker();
+    private final Session session = newSession("session");
+
+    private static RpcMethodSpec<Object> newRequest(Object param, int cacheTtlMs) {
+        final List<Object> methodParams = new ArrayList<>(1);
+        methodParams.add(param);
+        return new DefaultRpcMethodSpec<>((short) 1, (short) 1, methodParams, 0, 0, cacheTtlMs);
+    }
+
+    private Object callAndComplete(CachingRpcInvoker invoker, Session session, Object param, int cacheTtlMs) {
+        final FluentFuture<Object> future = invoker.call(session, newRequest(param, cacheTtlMs), true);
+        delegate.completeAll();
+        Assertions.assertTrue(future.isDone());
+        return future.getNow();
+    }
+
+    @Test
+    void hitAfterComplete() {
+        final CachingRpcInvoker invoker = new CachingRpcInvoker(delegate.proxy);
+        Assertions.assertEquals("result-1", callAndComplete(invoker, session, 1, TTL_MS));
+
+        final FluentFuture<Object> future = invoker.call(session, newRequest(1, TTL_MS), true);
+        Assertions.assertTrue(future.isDone());
+        Assertions.assertEquals("result-1", future.getNow());
+        Assertions.assertEquals(1, delegate.calls);
+        Assertions.assertEquals(1, invoker.getHitCount());
+        Assertions.assertEquals(1, invoker.getMissCount());
+
+        // 参数不同，不命中
+        Assertions.assertEquals("result-2", callAndComplete(invoker, session, 2, TTL_MS));
+        Assertions.assertEquals(2, delegate.calls);
+    }
+
+    @Test
+    void coalesceInflightCalls() {
+        final CachingRpcInvoker invoker = new CachingRpcInvoker(delegate.proxy);
+        final FluentFuture<Object> first = invoker.call(session, newRequest(1, TTL_MS), true);
+        final FluentFuture<Object> second = invoker.call(session, newRequest(1, TTL_MS), true);
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(1, delegate.calls);
+        Assertions.assertEquals(1, invoker.getCoalescedCount());
+
+        delegate.completeAll();
+        Assertions.assertEquals("result-1", second.getNow());
+        Assertions.assertEquals(1, invoker.size());
+    }
+
+    @Test
+    void notCacheable() {
+        final CachingRpcInvoker invoker = new CachingRpcInvoker(delegate.proxy);
+        callAndComplete(invoker, session, 1, 0);
+        callAndComplete(invoker, session, 1, 0);
+        Assertions.assertEquals(2, delegate.calls);
+        Assertions.assertEquals(0, invoker.size());
+    }
+
+    @Test
+    void failureNotCached() {
+        final CachingRpcInvoker invoker = new CachingRpcInvoker(delegate.proxy);
+        invoker.call(session, newRequest(1, TTL_MS), true);
+        delegate.failAll();
+        Assertions.assertEquals(0, invoker.size());
+
+        callAndComplete(invoker, session, 1, TTL_MS);
+        Assertions.assertEquals(2, delegate.calls);
+    }
+
+    @Test
+    void expireAfterTtl() throws Exception {
+        final CachingRpcInvoker invoker = new CachingRpcInvoker(delegate.proxy);
+        callAndComplete(invoker, session, 1, TTL_MS);
+        Thread.sleep(TTL_MS * 2);
+
+        callAndComplete(invoker, session, 1, TTL_MS);
+        Assertions.assertEquals(2, delegate.calls);
+        Assertions.assertEquals(0, invoker.getHitCount());
+        Assertions.assertEquals(1, invoker.getExpiredCount());
+    }
+
+    @Test
+    void sweepExpiredOnPut() throws Exception {
+        final CachingRpcInvoker invoker = new CachingRpcInvoker(delegate.proxy);
+        for (int param = 0; param < 5; param++) {
+            callAndComplete(invoker, session, param, TTL_MS);
+        }
+        Assertions.assertEquals(5, invoker.size());
+        Thread.sleep(TTL_MS * 2);
+
+        // 过期的结果不再读取，写入新结果时被清理
+        callAndComplete(invoker, session, 100, TTL_MS);
+        Assertions.assertEquals(1, invoker.size());
+        Assertions.assertEquals(5, invoker.getExpiredCount());
+    }
+
+    @Test
+    void cleanUpExpired() throws Exception {
+        final CachingRpcInvoker invoker = new CachingRpcInvoker(delegate.proxy);
+        callAndComplete(invoker, session, 1, TTL_MS);
+        callAndComplete(invoker, session, 2, 60 * 1000);
+        Thread.sleep(TTL_MS * 2);
+
+        Assertions.assertEquals(1, invoker.cleanUp());
+        Assertions.assertEquals(1, invoker.size());
+    }
+
+    @Test
+    void evictLeastRecentlyUsed() {
+        final CachingRpcInvoker invoker = new CachingRpcInvoker(delegate.proxy, 2);
+        callAndComplete(invoker, session, 1, TTL_MS * 100);
+        callAndComplete(invoker, session, 2, TTL_MS * 100);
+        // 访问1，使2成为最久未访问的结果
+        callAndComplete(invoker, session, 1, TTL_MS * 100);
+        callAndComplete(invoker, session, 3, TTL_MS * 100);
+        Assertions.assertEquals(2, invoker.size());
+        Assertions.assertEquals(1, invoker.getEvictionCount());
+
+        final int calls = delegate.calls;
+        callAndComplete(invoker, session, 1, TTL_MS * 100);
+        Assertions.assertEquals(calls, delegate.calls);
+        callAndComplete(invoker, session, 2, TTL_MS * 100);
+        Assertions.assertEquals(calls + 1, delegate.calls);
+    }
+
+    @Test
+    void invalidate() {
+        final Session otherSession = newSession("otherSession");
+        final CachingRpcInvoker invoker = new CachingRpcInvoker(delegate.proxy);
+        callAndComplete(invoker, session, 1, TTL_MS * 100);
+        callAndComplete(invoker, otherSession, 1, TTL_MS * 100);
+        Assertions.assertEquals(2, invoker.size());
+
+        invoker.invalidate("session");
+        Assertions.assertEquals(1, invoker.size());
+        callAndComplete(invoker, otherSession, 1, TTL_MS * 100);
+        Assertions.assertEquals(2, delegate.calls);
+
+        invoker.invalidateAll();
+        Assertions.assertEquals(0, invoker.size());
+    }
+
+    private static Session newSession(String sessionId) {
+        final SessionConfig config = SessionConfig.newBuilder()
+                .setLifecycleAware(newUnsupportedProxy(SessionLifecycleAware.class))
+                .setSerializer(newParamsSerializer())
+                .setRpcProcessor(newUnsupportedProxy(RpcProcessor.class))
+                .build();
+        final EventLoop appEventLoop = newDirectEventLoop();
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(),
+                new Class<?>[]{Session.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "sessionId":
+                        case "toString":
+                            return sessionId;
+                        case "config":
+                            return config;
+                        case "appEventLoop":
+                            return appEventLoop;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    /**
+     * 以参数的字符串形式作为序列化结果，足以区分测试中的参数
+     */
+    private static Serializer newParamsSerializer() {
+        return (Serializer) Proxy.newProxyInstance(Serializer.class.getClassLoader(), new Class<?>[]{Serializer.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("toBytes")) {
+                        return CodecUtils.getBytesUTF8(String.valueOf(args[0]));
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    /**
+     * 直接在当前线程执行任务的应用线程
+     */
+    private static EventLoop newDirectEventLoop() {
+        return (EventLoop) Proxy.newProxyInstance(EventLoop.class.getClassLoader(), new Class<?>[]{EventLoop.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "inEventLoop":
+                            return true;
+                        case "execute":
+                            ((Runnable) args[0]).run();
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T newUnsupportedProxy(Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    /**
+     * 桩rpc调用器，结果为"result-" + 第一个参数，由测试手动完成
+     */
+    private static class StubRpcInvoker {
+
+        int calls;
+        private final List<Promise<Object>> promises = new ArrayList<>();
+        private final List<Object> params = new ArrayList<>();
+
+        final RpcInvoker proxy = (RpcInvoker) Proxy.newProxyInstance(RpcInvoker.class.getClassLoader(),
+                new Class<?>[]{RpcInvoker.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("call") && args.length == 4) {
+                        calls++;
+                        final Promise<Object> promise = FutureUtils.newPromise();
+                        promises.add(promise);
+                        params.add(((DefaultRpcMethodSpec<?>) args[1]).getMethodParams().get(0));
+                        return promise;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        void completeAll() {
+            for (int index = 0; index < promises.size(); index++) {
+                promises.get(index).trySuccess("result-" + params.get(index));
+            }
+            promises.clear();
+            params.clear();
+        }
+
+        void failAll() {
+            for (Promise<Object> promise : promises) {
+                promise.tryFailure(new RuntimeException("failure"));
+            }
+            promises.clear();
+            params.clear();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.net.eventloop.NetEventLoop;
+import com.wjybxx.fastjgame.net.exception.RpcTimeoutException;
+import com.wjybxx.fastjgame.net.serialization.Serializer;
+import com.wjybxx.fastjgame.net.session.Session;
+import com.wjybxx.fastjgame.net.session.SessionConfig;
+import com.wjybxx.fastjgame.net.session.SessionLifecycleAware;
+import com.wjybxx.fastjgame.util.concurrent.FluentFuture;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link DefaultRpcStream}的拉取超时测试：只有等待中的拉取才有超时时间，拉取完成、取消或失败时清除。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/12
+ * github - https://github.com/hl845740757
+ */
+class DefaultRpcStreamTest {
+
+    private static final int ASYNC_RPC_TIMEOUT_MS = 1000;
+
+    @Test
+    void noDeadlineWhenBuffered() {
+        final FakeSession session = new FakeSession();
+        final DefaultRpcStream<Integer> stream = new DefaultRpcStream<>(session.proxy, 10);
+        stream.onFrame(RpcErrorCode.SUCCESS, false, Arrays.asList(1, 2));
+
+        final FluentFuture<Boolean> future = stream.moveNext();
+        Assertions.assertTrue(future.isDone());
+        Assertions.assertEquals(1, stream.current());
+        Assertions.assertFalse(stream.isPullTimeout(Long.MAX_VALUE));
+    }
+
+    @Test
+    void pendingPullTimeout() {
+        final FakeSession session = new FakeSession();
+        final DefaultRpcStream<Integer> stream = new DefaultRpcStream<>(session.proxy, 10);
+
+        final long beforeMillis = System.currentTimeMillis();
+        final FluentFuture<Boolean> future = stream.moveNext();
+        final long afterMillis = System.currentTimeMillis();
+        Assertions.assertFalse(future.isDone());
+        Assertions.assertFalse(stream.isPullTimeout(beforeMillis + ASYNC_RPC_TIMEOUT_MS - 1));
+        Assertions.assertTrue(stream.isPullTimeout(afterMillis + ASYNC_RPC_TIMEOUT_MS));
+
+        // 网络线程检测到超时后，使流失败
+        stream.onFailure(RpcTimeoutException.INSTANCE);
+        Assertions.assertSame(RpcTimeoutException.INSTANCE, future.cause());
+        Assertions.assertTrue(stream.isDone());
+        Assertions.assertFalse(stream.isPullTimeout(Long.MAX_VALUE));
+
+        // 之后到达的帧被忽略
+        stream.onFrame(RpcErrorCode.SUCCESS, false, Arrays.asList(1, 2));
+        Assertions.assertSame(RpcTimeoutException.INSTANCE, stream.moveNext().cause());
+        Assertions.assertFalse(stream.isPullTimeout(Long.MAX_VALUE));
+    }
+
+    @Test
+    void deadlineClearedByFrame() {
+        final FakeSession session = new FakeSession();
+        final DefaultRpcStream<Integer> stream = new DefaultRpcStream<>(session.proxy, 10);
+
+        final FluentFuture<Boolean> future = stream.moveNext();
+        Assertions.assertTrue(stream.isPullTimeout(Long.MAX_VALUE));
+        stream.onFrame(RpcErrorCode.SUCCESS, false, Arrays.asList(1, 2));
+        Assertions.assertTrue(future.getNow());
+        Assertions.assertFalse(stream.isPullTimeout(Long.MAX_VALUE));
+
+        // 空帧不完成拉取，超时时间保持不变
+        stream.moveNext();
+        final FluentFuture<Boolean> pending = stream.moveNext();
+        stream.onFrame(RpcErrorCode.SUCCESS, false, null);
+        Assertions.assertFalse(pending.isDone());
+        Assertions.assertTrue(stream.isPullTimeout(Long.MAX_VALUE));
+
+        stream.onFrame(RpcErrorCode.SUCCESS, true, null);
+        Assertions.assertFalse(pending.getNow());
+        Assertions.assertFalse(stream.isPullTimeout(Long.MAX_VALUE));
+    }
+
+    @Test
+    void deadlineClearedByCancel() {
+        final FakeSession session = new FakeSession();
+        final DefaultRpcStream<Integer> stream = new DefaultRpcStream<>(session.proxy, 10);
+
+        final FluentFuture<Boolean> future = stream.moveNext();
+        stream.cancel();
+        Assertions.assertFalse(future.getNow());
+        Assertions.assertFalse(stream.isPullTimeout(Long.MAX_VALUE));
+        // 通知对方停止
+        Assertions.assertEquals(1, session.netTasks.size());
+        Assertions.assertTrue(session.netTasks.get(0) instanceof RpcStreamCreditTask);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T newUnsupportedProxy(Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static class FakeSession {
+
+        final List<Runnable> netTasks = new ArrayList<>();
+
+        final SessionConfig config = SessionConfig.newBuilder()
+                .setLifecycleAware(newUnsupportedProxy(SessionLifecycleAware.class))
+                .setSerializer(newUnsupportedProxy(Serializer.class))
+                .setRpcProcessor(newUnsupportedProxy(RpcProcessor.class))
+                .setAsyncRpcTimeoutMs(ASYNC_RPC_TIMEOUT_MS)
+                .build();
+
+        final NetEventLoop netEventLoop = (NetEventLoop) Proxy.newProxyInstance(NetEventLoop.class.getClassLoader(),
+                new Class<?>[]{NetEventLoop.class},
+                (proxy, method, args) -> {
+                    if ("execute".equals(method.getName())) {
+                        netTasks.add((Runnable) args[0]);
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        final Session proxy = (Session) Proxy.newProxyInstance(Session.class.getClassLoader(),
+                new Class<?>[]{Session.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "config":
+                            return config;
+                        case "netEventLoop":
+                            return netEventLoop;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.net.binary.BinarySerializer;
+import com.wjybxx.fastjgame.net.binary.EncodedValue;
+import com.wjybxx.fastjgame.net.example.ExampleConstants;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link LazyDecodeParamList}测试
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/31
+ * github - https://github.com/hl845740757
+ */
+class LazyDecodeParamListTest {
+
+    private static final BinarySerializer lazySerializer = ExampleConstants.BINARY_SERIALIZER.withLazyDecodeRpcParams(true);
+
+    private static DefaultRpcMethodSpec<?> newMethodSpec() {
+        final List<Object> list = new ArrayList<>(Arrays.asList(1, 2, 3));
+        final Map<Object, Object> map = new LinkedHashMap<>();
+        map.put("key", 5L);
+
+        final List<Object> methodParams = new ArrayList<>(4);
+        methodParams.add(1);
+        methodParams.add("hello");
+        methodParams.add(list);
+        methodParams.add(map);
+        return new DefaultRpcMethodSpec<>((short) 1, (short) 2, methodParams, 0, 0);
+    }
+
+    @Test
+    void testDecodeOnDemand() throws Exception {
+        final DefaultRpcMethodSpec<?> origin = newMethodSpec();
+        final DefaultRpcMethodSpec<?> received = (DefaultRpcMethodSpec<?>) lazySerializer.fromBytes(lazySerializer.toBytes(origin));
+
+        final LazyDecodeParamList methodParams = (LazyDecodeParamList) received.getMethodParams();
+        Assertions.assertEquals(1, methodParams.getUndecoded(0));
+        Assertions.assertEquals("hello", methodParams.getUndecoded(1));
+        Assertions.assertTrue(methodParams.getUndecoded(2) instanceof EncodedValue);
+        Assertions.assertTrue(methodParams.getUndecoded(3) instanceof EncodedValue);
+
+        Assertions.assertEquals(origin.getMethodParams().get(2), methodParams.get(2));
+        Assertions.assertFalse(methodParams.getUndecoded(2) instanceof EncodedValue);
+        Assertions.assertTrue(methodParams.getUndecoded(3) instanceof EncodedValue);
+        Assertions.assertEquals(origin.getMethodParams(), methodParams);
+    }
+
+    @Test
+    void testForwardWithoutDecode() throws Exception {
+        final byte[] originBytes = lazySerializer.toBytes(newMethodSpec());
+        final Object received = lazySerializer.fromBytes(originBytes);
+
+        Assertions.assertArrayEquals(originBytes, lazySerializer.toBytes(received));
+    }
+
+    @Test
+    void testEagerByDefault() throws Exception {
+        final BinarySerializer serializer = ExampleConstants.BINARY_SERIALIZER;
+        final DefaultRpcMethodSpec<?> received = (DefaultRpcMethodSpec<?>) serializer.fromBytes(serializer.toBytes(newMethodSpec()));
+
+        Assertions.assertFalse(received.getMethodParams() instanceof LazyDecodeParamList);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * {@link RpcMetrics}测试
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/12
+ * github - https://github.com/hl845740757
+ */
+class RpcMetricsTest {
+
+    private static RpcMetrics newEnabledMetrics() {
+        final RpcMetrics rpcMetrics = new RpcMetrics();
+        rpcMetrics.setEnabled(true);
+        return rpcMetrics;
+    }
+
+    private static DefaultRpcMethodSpec<Object> newRequest(int serviceId, int methodId) {
+        return new DefaultRpcMethodSpec<>((short) serviceId, (short) methodId, Collections.emptyList(), 0, 0);
+    }
+
+    @Test
+    void disabledReturnsNull() {
+        final RpcMetrics rpcMetrics = new RpcMetrics();
+        Assertions.assertNull(rpcMetrics.methodMetrics(newRequest(1, 1)));
+        Assertions.assertNull(rpcMetrics.limiterMetrics((short) 1));
+        Assertions.assertTrue(rpcMetrics.snapshot().isEmpty());
+        Assertions.assertTrue(rpcMetrics.limiterSnapshot().isEmpty());
+    }
+
+    @Test
+    void sameMethodSameMetrics() {
+        final RpcMetrics rpcMetrics = newEnabledMetrics();
+        final RpcMethodMetrics metrics = rpcMetrics.methodMetrics(newRequest(3, 7));
+        Assertions.assertNotNull(metrics);
+        Assertions.assertEquals(3, metrics.getServiceId());
+        Assertions.assertEquals(7, metrics.getMethodId());
+        Assertions.assertSame(metrics, rpcMetrics.methodMetrics(newRequest(3, 7)));
+
+        // 扩容之后，已创建的统计信息不变
+        Assertions.assertNotSame(metrics, rpcMetrics.methodMetrics(newRequest(3, 2)));
+        Assertions.assertNotSame(metrics, rpcMetrics.methodMetrics(newRequest(10, 20)));
+        Assertions.assertSame(metrics, rpcMetrics.methodMetrics(newRequest(3, 7)));
+        Assertions.assertEquals(3, rpcMetrics.snapshot().size());
+    }
+
+    @Test
+    void typedRequestSharesMetrics() {
+        final RpcMetrics rpcMetrics = newEnabledMetrics();
+        final TypedRpcMethodSpec<Object> typedRequest = new TypedRpcMethodSpec<Object>() {
+            @Override
+            public short getServiceId() {
+                return 5;
+            }
+
+            @Override
+            public short getMethodId() {
+                return 1;
+            }
+        };
+        final RpcMethodMetrics metrics = rpcMetrics.methodMetrics(typedRequest);
+        Assertions.assertNotNull(metrics);
+        Assertions.assertSame(metrics, rpcMetrics.methodMetrics(newRequest(5, 1)));
+    }
+
+    @Test
+    void unsupportedRequestReturnsNull() {
+        final RpcMetrics rpcMetrics = newEnabledMetrics();
+        Assertions.assertNull(rpcMetrics.methodMetrics("request"));
+        Assertions.assertNull(rpcMetrics.methodMetrics(newRequest(-1, 1)));
+        Assertions.assertNull(rpcMetrics.methodMetrics(newRequest(1, -1)));
+        Assertions.assertNull(rpcMetrics.limiterMetrics((short) -1));
+        Assertions.assertTrue(rpcMetrics.snapshot().isEmpty());
+    }
+
+    @Test
+    void snapshotAndReset() {
+        final RpcMetrics rpcMetrics = newEnabledMetrics();
+        final RpcMethodMetrics metrics = rpcMetrics.methodMetrics(newRequest(1, 2));
+        Assertions.assertNotNull(metrics);
+        metrics.recordClientResponse(System.nanoTime(), true);
+        metrics.recordClientFailure(true);
+        metrics.recordServerRejection();
+
+        final RpcLimiterMetrics limiterMetrics = rpcMetrics.limiterMetrics((short) 1);
+        Assertions.assertNotNull(limiterMetrics);
+        Assertions.assertSame(limiterMetrics, rpcMetrics.limiterMetrics((short) 1));
+        limiterMetrics.recordRejection();
+        limiterMetrics.recordLimit(8);
+
+        final List<RpcMethodMetrics.Snapshot> snapshots = rpcMetrics.snapshot();
+        Assertions.assertEquals(1, snapshots.size());
+        final RpcMethodMetrics.Snapshot snapshot = snapshots.get(0);
+        Assertions.assertEquals(1, snapshot.getServiceId());
+        Assertions.assertEquals(2, snapshot.getMethodId());
+        Assertions.assertEquals(2, snapshot.getClientCalls());
+        Assertions.assertEquals(1, snapshot.getClientErrors());
+        Assertions.assertEquals(1, snapshot.getClientTimeouts());
+        Assertions.assertEquals(1, snapshot.getClientLatency().getCount());
+        Assertions.assertEquals(1, snapshot.getServerRejections());
+
+        final List<RpcLimiterMetrics.Snapshot> limiterSnapshots = rpcMetrics.limiterSnapshot();
+        Assertions.assertEquals(1, limiterSnapshots.size());
+        Assertions.assertEquals(1, limiterSnapshots.get(0).getRejections());
+        Assertions.assertEquals(8, limiterSnapshots.get(0).getLastLimit());
+
+        rpcMetrics.reset();
+        final RpcMethodMetrics.Snapshot afterReset = rpcMetrics.snapshot().get(0);
+        Assertions.assertEquals(0, afterReset.getClientCalls());
+        Assertions.assertEquals(0, afterReset.getServerRejections());
+        Assertions.assertEquals(0, rpcMetrics.limiterSnapshot().get(0).getRejections());
+        // reset只清空数据，统计信息仍然可以继续使用
+        Assertions.assertSame(metrics, rpcMetrics.methodMetrics(newRequest(1, 2)));
+    }
+
+    @Test
+    void concurrentCreateReturnsSameMetrics() throws InterruptedException {
+        final RpcMetrics rpcMetrics = newEnabledMetrics();
+        final int threadCount = 8;
+        final Set<RpcMethodMetrics> created = ConcurrentHashMap.newKeySet();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final Thread[] threads = new Thread[threadCount];
+        for (int index = 0; index < threadCount; index++) {
+            threads[index] = new Thread(() -> {
+                try {
+                    startLatch.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int methodId = 0; methodId < 100; methodId++) {
+                    created.add(rpcMetrics.methodMetrics(newRequest(methodId % 4, methodId)));
+                }
+            });
+            threads[index].start();
+        }
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // 每个方法只创建一次，不会因为写时复制丢失
+        Assertions.assertEquals(100, created.size());
+        Assertions.assertEquals(100, rpcMetrics.snapshot().size());
+    }
+}
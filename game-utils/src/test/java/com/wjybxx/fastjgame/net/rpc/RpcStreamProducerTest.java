@@ -0,0 +1,232 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.net.eventloop.NetEventLoop;
+import com.wjybxx.fastjgame.net.session.Session;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link RpcStreamProducer}的信用、取消及会话关闭时的清理测试。
+ * 网络线程和应用线程使用同一个手动执行的任务队列模拟。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/12
+ * github - https://github.com/hl845740757
+ */
+class RpcStreamProducerTest {
+
+    private static final long REQUEST_GUID = 1;
+
+    @Test
+    void pullByCredits() {
+        final FakeSession session = new FakeSession();
+        final CountingSource source = new CountingSource(10);
+        final RpcStreamProducer producer = new RpcStreamProducer(new RpcSupportHandler(), session.proxy, REQUEST_GUID, source, 3);
+
+        Assertions.assertTrue(producer.start());
+        session.eventLoop.runAll();
+        // 信用耗尽后不再拉取
+        Assertions.assertEquals(3, source.pulled);
+        Assertions.assertEquals(1, session.frames.size());
+        checkFrame(session.frames.get(0), 3, false);
+
+        producer.addCredits(2);
+        session.eventLoop.runAll();
+        Assertions.assertEquals(5, source.pulled);
+        checkFrame(session.frames.get(1), 2, false);
+
+        producer.addCredits(100);
+        session.eventLoop.runAll();
+        Assertions.assertEquals(10, source.pulled);
+        checkFrame(session.frames.get(2), 5, true);
+        Assertions.assertEquals(1, source.closeCount);
+
+        // 结束后的信用被忽略
+        producer.addCredits(10);
+        session.eventLoop.runAll();
+        Assertions.assertEquals(3, session.frames.size());
+        Assertions.assertEquals(1, source.closeCount);
+    }
+
+    @Test
+    void cancelAfterPulled() {
+        final FakeSession session = new FakeSession();
+        final CountingSource source = new CountingSource(10);
+        final RpcStreamProducer producer = new RpcStreamProducer(new RpcSupportHandler(), session.proxy, REQUEST_GUID, source, 3);
+
+        producer.start();
+        session.eventLoop.runAll();
+        producer.cancel();
+        session.eventLoop.runAll();
+        Assertions.assertEquals(1, source.closeCount);
+
+        producer.addCredits(10);
+        session.eventLoop.runAll();
+        Assertions.assertEquals(3, source.pulled);
+        Assertions.assertEquals(1, session.frames.size());
+        Assertions.assertEquals(1, source.closeCount);
+    }
+
+    @Test
+    void cancelBeforePull() {
+        final FakeSession session = new FakeSession();
+        final CountingSource source = new CountingSource(10);
+        final RpcStreamProducer producer = new RpcStreamProducer(new RpcSupportHandler(), session.proxy, REQUEST_GUID, source, 3);
+
+        producer.start();
+        producer.cancel();
+        session.eventLoop.runAll();
+        Assertions.assertEquals(0, source.pulled);
+        Assertions.assertEquals(0, session.frames.size());
+        Assertions.assertEquals(1, source.closeCount);
+    }
+
+    @Test
+    void closeSourceIfSessionClosedBeforeStart() {
+        final FakeSession session = new FakeSession();
+        final CountingSource source = new CountingSource(10);
+        final RpcStreamProducer producer = new RpcStreamProducer(new RpcSupportHandler(), session.proxy, REQUEST_GUID, source, 3);
+
+        session.closed = true;
+        Assertions.assertFalse(producer.start());
+        session.eventLoop.runAll();
+        Assertions.assertEquals(0, source.pulled);
+        Assertions.assertEquals(1, source.closeCount);
+    }
+
+    @Test
+    void closeSourceIfSessionClosedWhilePulling() {
+        final FakeSession session = new FakeSession();
+        final CountingSource source = new CountingSource(10);
+        final RpcStreamProducer producer = new RpcStreamProducer(new RpcSupportHandler(), session.proxy, REQUEST_GUID, source, 3);
+
+        producer.start();
+        // 只执行拉取任务，拉取结果返回网络线程前会话关闭
+        session.eventLoop.runOne();
+        session.closed = true;
+        session.eventLoop.runAll();
+
+        Assertions.assertEquals(3, source.pulled);
+        Assertions.assertEquals(0, session.frames.size());
+        Assertions.assertEquals(1, source.closeCount);
+    }
+
+    private static void checkFrame(RpcStreamMessage frame, int itemCount, boolean end) {
+        Assertions.assertEquals(REQUEST_GUID, frame.getRequestGuid());
+        Assertions.assertEquals(RpcErrorCode.SUCCESS, frame.getErrorCode());
+        Assertions.assertEquals(end, frame.isEnd());
+        Assertions.assertEquals(itemCount, ((List<?>) frame.getBody()).size());
+    }
+
+    private static class CountingSource implements RpcStreamSource<Integer> {
+
+        final int count;
+        int pulled;
+        int closeCount;
+
+        CountingSource(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return pulled < count;
+        }
+
+        @Override
+        public Integer next() {
+            return pulled++;
+        }
+
+        @Override
+        public void close() {
+            closeCount++;
+        }
+    }
+
+    private static class FakeEventLoop {
+
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        final NetEventLoop proxy = (NetEventLoop) Proxy.newProxyInstance(NetEventLoop.class.getClassLoader(),
+                new Class<?>[]{NetEventLoop.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "execute":
+                            tasks.add((Runnable) args[0]);
+                            return null;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "FakeEventLoop";
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        void runOne() {
+            tasks.removeFirst().run();
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.pollFirst()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private static class FakeSession {
+
+        final FakeEventLoop eventLoop = new FakeEventLoop();
+        final List<RpcStreamMessage> frames = new ArrayList<>();
+        boolean closed;
+
+        final Session proxy = (Session) Proxy.newProxyInstance(Session.class.getClassLoader(),
+                new Class<?>[]{Session.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "sessionId":
+                        case "toString":
+                            return "session";
+                        case "appEventLoop":
+                        case "netEventLoop":
+                            return eventLoop.proxy;
+                        case "isClosed":
+                            return closed;
+                        case "fireWriteAndFlush":
+                            frames.add((RpcStreamMessage) args[0]);
+                            return null;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
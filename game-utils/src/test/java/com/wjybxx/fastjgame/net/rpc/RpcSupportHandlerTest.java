@@ -0,0 +1,145 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.net.eventloop.NetEventLoop;
+import com.wjybxx.fastjgame.net.serialization.Serializer;
+import com.wjybxx.fastjgame.net.session.Session;
+import com.wjybxx.fastjgame.net.session.SessionConfig;
+import com.wjybxx.fastjgame.net.session.SessionHandlerContext;
+import com.wjybxx.fastjgame.net.session.SessionLifecycleAware;
+import com.wjybxx.fastjgame.util.concurrent.EventLoop;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@link RpcSupportHandler}的并发限制测试：应用线程拒绝请求时，必须归还许可。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/12
+ * github - https://github.com/hl845740757
+ */
+class RpcSupportHandlerTest {
+
+    private static final short SERVICE_ID = 1;
+
+    @Test
+    void releasePermitWhenAppEventLoopRejects() throws Exception {
+        final FakeContext context = new FakeContext();
+        final RpcSupportHandler handler = new RpcSupportHandler();
+
+        // 限制值为1，被拒绝的请求如果没有归还许可，之后的请求都会因为过载被拒绝
+        context.rejectTasks = true;
+        Assertions.assertThrows(RejectedExecutionException.class, () -> handler.read(context.proxy, newRequest(1)));
+        Assertions.assertTrue(context.appTasks.isEmpty());
+
+        context.rejectTasks = false;
+        handler.read(context.proxy, newRequest(2));
+        Assertions.assertEquals(1, context.appTasks.size());
+        Assertions.assertTrue(context.sessionWrites.isEmpty());
+
+        // 许可被第二个请求占用，第三个请求过载
+        handler.read(context.proxy, newRequest(3));
+        Assertions.assertEquals(1, context.appTasks.size());
+        Assertions.assertEquals(1, context.sessionWrites.size());
+        final RpcResponseMessage response = (RpcResponseMessage) context.sessionWrites.get(0);
+        Assertions.assertEquals(3, response.getRequestGuid());
+        Assertions.assertEquals(RpcErrorCode.SERVER_OVERLOADED, response.getErrorCode());
+    }
+
+    private static RpcRequestMessage newRequest(long requestGuid) {
+        return new RpcRequestMessage(requestGuid, false, new DefaultRpcMethodSpec<>(SERVICE_ID, (short) 1, Collections.emptyList(), 0, 0));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T newUnsupportedProxy(Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static class FakeContext {
+
+        final List<Runnable> appTasks = new ArrayList<>();
+        final List<Object> sessionWrites = new ArrayList<>();
+        boolean rejectTasks;
+
+        final SessionConfig config = SessionConfig.newBuilder()
+                .setLifecycleAware(newUnsupportedProxy(SessionLifecycleAware.class))
+                .setSerializer(newUnsupportedProxy(Serializer.class))
+                .setRpcProcessor(newUnsupportedProxy(RpcProcessor.class))
+                .setConcurrencyLimit(SERVICE_ID, ConcurrencyLimitConfig.newBuilder()
+                        .setInitialLimit(1)
+                        .setMinLimit(1)
+                        .setMaxLimit(1)
+                        .build())
+                .build();
+
+        final EventLoop appEventLoop = (EventLoop) Proxy.newProxyInstance(EventLoop.class.getClassLoader(),
+                new Class<?>[]{EventLoop.class},
+                (proxy, method, args) -> {
+                    if ("execute".equals(method.getName())) {
+                        if (rejectTasks) {
+                            throw new RejectedExecutionException();
+                        }
+                        appTasks.add((Runnable) args[0]);
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        final NetEventLoop netEventLoop = newUnsupportedProxy(NetEventLoop.class);
+
+        final Session session = (Session) Proxy.newProxyInstance(Session.class.getClassLoader(),
+                new Class<?>[]{Session.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "config":
+                            return config;
+                        case "fireWrite":
+                            sessionWrites.add(args[0]);
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        final SessionHandlerContext proxy = (SessionHandlerContext) Proxy.newProxyInstance(SessionHandlerContext.class.getClassLoader(),
+                new Class<?>[]{SessionHandlerContext.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "session":
+                            return session;
+                        case "appEventLoop":
+                            return appEventLoop;
+                        case "netEventLoop":
+                            return netEventLoop;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
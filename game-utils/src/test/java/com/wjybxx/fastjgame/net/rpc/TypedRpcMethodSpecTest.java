@@ -0,0 +1,129 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.rpc;
+
+import com.wjybxx.fastjgame.net.binary.BinarySerializer;
+import com.wjybxx.fastjgame.net.binary.EncodedValue;
+import com.wjybxx.fastjgame.net.example.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 注解处理器生成的{@link TypedRpcMethodSpec}的延迟解码测试，使用{@link ExampleRpcService}生成的代理。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/12
+ * github - https://github.com/hl845740757
+ */
+class TypedRpcMethodSpecTest {
+
+    private static final BinarySerializer serializer = ExampleConstants.BINARY_SERIALIZER;
+    private static final BinarySerializer lazySerializer = serializer.withLazyDecodeRpcParams(true);
+
+    private static ExampleMessages.FullMessage newMessage() {
+        final ExampleMessages.FullMessage message = new ExampleMessages.FullMessage();
+        message.setAny("any");
+        message.setAnInt(5);
+        message.setaLong(100L);
+        return message;
+    }
+
+    @Test
+    void lazyDecodeThroughGeneratedProxy() throws Exception {
+        final ExampleMessages.FullMessage message = newMessage();
+        final RpcMethodSpec<?> origin = ExampleRpcServiceRpcProxy.echo(message);
+        Assertions.assertTrue(origin instanceof TypedRpcMethodSpec);
+
+        final byte[] originBytes = lazySerializer.toBytes(origin);
+        final TypedRpcMethodSpec<?> received = (TypedRpcMethodSpec<?>) lazySerializer.fromBytes(originBytes);
+        // 参数尚未解码，转发时直接写入原始内容
+        Assertions.assertTrue(received.toString().contains(EncodedValue.class.getSimpleName()));
+        Assertions.assertArrayEquals(originBytes, lazySerializer.toBytes(received));
+
+        // 被调用的方法获取参数时解码
+        final Object result = invoke(received);
+        Assertions.assertArrayEquals(serializer.toBytes(message), serializer.toBytes(result));
+        Assertions.assertFalse(received.toString().contains(EncodedValue.class.getSimpleName()));
+    }
+
+    @Test
+    void eagerByDefault() throws Exception {
+        final ExampleMessages.FullMessage message = newMessage();
+        final TypedRpcMethodSpec<?> received = (TypedRpcMethodSpec<?>) serializer.fromBytes(serializer.toBytes(ExampleRpcServiceRpcProxy.echo(message)));
+        Assertions.assertFalse(received.toString().contains(EncodedValue.class.getSimpleName()));
+
+        final Object result = invoke(received);
+        Assertions.assertArrayEquals(serializer.toBytes(message), serializer.toBytes(result));
+    }
+
+    @Test
+    void primitiveParameters() throws Exception {
+        final TypedRpcMethodSpec<?> received = (TypedRpcMethodSpec<?>) lazySerializer.fromBytes(lazySerializer.toBytes(ExampleRpcServiceRpcProxy.combine("a", "b")));
+        Assertions.assertEquals("a-b", invoke(received));
+    }
+
+    @Test
+    void intLongDoubleParameters() throws Exception {
+        assertNumbersRoundTrip(serializer, 5, 100L, 0.5);
+        assertNumbersRoundTrip(lazySerializer, 5, 100L, 0.5);
+        assertNumbersRoundTrip(serializer, Integer.MIN_VALUE, Long.MAX_VALUE, -Double.MAX_VALUE);
+        assertNumbersRoundTrip(lazySerializer, Integer.MAX_VALUE, Long.MIN_VALUE, Double.MIN_VALUE);
+        assertNumbersRoundTrip(serializer, -1, -1L, Double.NaN);
+        assertNumbersRoundTrip(serializer, 0, 0L, -0.0);
+    }
+
+    private static void assertNumbersRoundTrip(BinarySerializer serializer, int intValue, long longValue, double doubleValue) throws Exception {
+        final RpcMethodSpec<?> origin = ExampleRpcServiceRpcProxy.joinNumbers(intValue, longValue, doubleValue);
+        Assertions.assertTrue(origin instanceof TypedRpcMethodSpec);
+
+        final TypedRpcMethodSpec<?> received = (TypedRpcMethodSpec<?>) serializer.fromBytes(serializer.toBytes(origin));
+        Assertions.assertEquals(intValue + "," + longValue + "," + doubleValue, invoke(received));
+    }
+
+    private static Object invoke(TypedRpcMethodSpec<?> methodSpec) throws Exception {
+        final Map<Integer, TypedRpcMethodProxy> proxyMap = new HashMap<>();
+        ExampleRpcServiceRpcRegister.register(new RpcMethodProxyRegistry() {
+            @Override
+            public void register(short serviceId, short methodId, @Nonnull RpcMethodProxy proxy) {
+
+            }
+
+            @Override
+            public void registerTyped(short serviceId, short methodId, @Nonnull TypedRpcMethodProxy proxy) {
+                proxyMap.put(methodKey(serviceId, methodId), proxy);
+            }
+
+            @Override
+            public void release() {
+
+            }
+        }, new ExampleRpcService());
+
+        final TypedRpcMethodProxy proxy = proxyMap.get(methodKey(methodSpec.getServiceId(), methodSpec.getMethodId()));
+        Assertions.assertNotNull(proxy);
+        return proxy.invoke(null, methodSpec);
+    }
+
+    private static int methodKey(short serviceId, short methodId) {
+        return (serviceId << 16) | (methodId & 0xFFFF);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.shm;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link ShmRingBuffer}测试，使用堆外内存代替共享内存
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/20
+ * github - https://github.com/hl845740757
+ */
+class ShmRingBufferTest {
+
+    private static final int CAPACITY = 1024;
+
+    private static ShmRingBuffer newRingBuffer() {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(128 + CAPACITY);
+        return new ShmRingBuffer(buffer, 0, 64, 128, CAPACITY);
+    }
+
+    @Test
+    void offerAndDrain() throws Exception {
+        final ShmRingBuffer ringBuffer = newRingBuffer();
+        final List<Integer> received = new ArrayList<>();
+
+        // 多次写满再读空，覆盖绕回数据区头部的情况
+        int sequence = 0;
+        for (int round = 0; round < 100; round++) {
+            int offered = 0;
+            while (ringBuffer.offer(newPayload(sequence + offered))) {
+                offered++;
+            }
+            Assertions.assertTrue(offered > 0);
+
+            final int count = ringBuffer.drain(payload -> received.add(payload.readInt()), Integer.MAX_VALUE);
+            Assertions.assertEquals(offered, count);
+            sequence += offered;
+        }
+
+        for (int index = 0; index < received.size(); index++) {
+            Assertions.assertEquals(index, received.get(index));
+        }
+        Assertions.assertEquals(0, ringBuffer.usedBytes());
+    }
+
+    @Test
+    void rejectWhenFull() {
+        final ShmRingBuffer ringBuffer = newRingBuffer();
+        final ByteBuf payload = Unpooled.buffer(ringBuffer.maxPayloadLength());
+        payload.writerIndex(ringBuffer.maxPayloadLength());
+
+        // 一条最大的记录占用一半空间
+        Assertions.assertTrue(ringBuffer.offer(payload));
+        Assertions.assertTrue(ringBuffer.offer(payload));
+        Assertions.assertFalse(ringBuffer.offer(payload));
+    }
+
+    @Test
+    void rejectTooLargePayload() {
+        final ShmRingBuffer ringBuffer = newRingBuffer();
+        final ByteBuf payload = Unpooled.buffer(CAPACITY);
+        payload.writerIndex(ringBuffer.maxPayloadLength() + 1);
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ringBuffer.offer(payload));
+    }
+
+    private static ByteBuf newPayload(int sequence) {
+        // 长度不固定，使记录在尾部的位置不固定
+        final ByteBuf payload = Unpooled.buffer();
+        payload.writeInt(sequence);
+        payload.writeZero(sequence % 37);
+        return payload;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.shm;
+
+import com.wjybxx.fastjgame.net.binary.BinarySerializer;
+import com.wjybxx.fastjgame.net.example.ExampleConstants;
+import com.wjybxx.fastjgame.net.example.p_test;
+import com.wjybxx.fastjgame.net.rpc.*;
+import com.wjybxx.fastjgame.net.session.Session;
+import com.wjybxx.fastjgame.net.session.SessionHandlerContext;
+import com.wjybxx.fastjgame.net.session.SessionLifecycleAware;
+import com.wjybxx.fastjgame.util.timer.FixedDelayHandle;
+import com.wjybxx.fastjgame.util.timer.TimerSystem;
+import com.wjybxx.fastjgame.util.timer.TimerTask;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link ShmTransferHandler}的编解码测试：转发的消息({@link RawMessageBody})经过共享内存后，对方能正确解码；编码失败的消息不会发布。
+ * session及其上下文使用动态代理模拟，拉取由测试手动触发。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/12
+ * github - https://github.com/hl845740757
+ */
+class ShmTransferHandlerTest {
+
+    private static final BinarySerializer serializer = ExampleConstants.BINARY_SERIALIZER;
+
+    @TempDir
+    Path tempDir;
+
+    private static ShmSessionConfig newConfig() {
+        return ShmSessionConfig.newBuilder()
+                .setLifecycleAware(newUnsupportedProxy(SessionLifecycleAware.class))
+                .setSerializer(serializer)
+                .setRpcProcessor(newUnsupportedProxy(RpcProcessor.class))
+                .setRingCapacity(64 * 1024)
+                .build();
+    }
+
+    @Test
+    void forwardRawMessageBody() throws Exception {
+        final ShmSessionConfig config = newConfig();
+        final Path path = tempDir.resolve("forward.shm");
+        final ShmMappedFile connectorFile = ShmMappedFile.create(path, config.ringCapacity(), System.currentTimeMillis());
+        final ShmMappedFile acceptorFile = ShmMappedFile.open(path);
+
+        final FakeContext sender = new FakeContext(config);
+        final FakeContext receiver = new FakeContext(config);
+        final ShmTransferHandler senderHandler = new ShmTransferHandler(connectorFile);
+        final ShmTransferHandler receiverHandler = new ShmTransferHandler(acceptorFile);
+        senderHandler.handlerAdded(sender.proxy);
+        receiverHandler.handlerAdded(receiver.proxy);
+
+        final p_test.p_helloworld hello = p_test.p_helloworld.newBuilder()
+                .setA(1)
+                .setB(5506665554142L)
+                .setE("hello")
+                .build();
+        final byte[] bytes = serializer.toBytes(hello);
+        final RawMessageBody rawBody = new RawMessageBody(BinarySerializer.peekTypeId(Unpooled.wrappedBuffer(bytes)), bytes);
+
+        senderHandler.write(sender.proxy, new OneWayMessage(rawBody));
+        senderHandler.write(sender.proxy, new RpcRequestMessage(1, false, rawBody));
+        receiver.poll();
+
+        // 原始内容被原样写入，对方按正常消息解码
+        Assertions.assertEquals(2, receiver.reads.size());
+        final OneWayMessage oneWayMessage = (OneWayMessage) receiver.reads.get(0);
+        Assertions.assertEquals(hello, oneWayMessage.getBody());
+        final RpcRequestMessage requestMessage = (RpcRequestMessage) receiver.reads.get(1);
+        Assertions.assertEquals(1, requestMessage.getRequestGuid());
+        Assertions.assertEquals(hello, requestMessage.getBody());
+
+        senderHandler.close(sender.proxy);
+        receiverHandler.close(receiver.proxy);
+        connectorFile.unmap();
+        acceptorFile.unmap();
+    }
+
+    @Test
+    void dropMessageIfSerializeFailed() throws Exception {
+        final ShmSessionConfig config = newConfig();
+        final Path path = tempDir.resolve("drop.shm");
+        final ShmMappedFile connectorFile = ShmMappedFile.create(path, config.ringCapacity(), System.currentTimeMillis());
+        final ShmMappedFile acceptorFile = ShmMappedFile.open(path);
+
+        final FakeContext sender = new FakeContext(config);
+        final FakeContext receiver = new FakeContext(config);
+        final ShmTransferHandler senderHandler = new ShmTransferHandler(connectorFile);
+        final ShmTransferHandler receiverHandler = new ShmTransferHandler(acceptorFile);
+        senderHandler.handlerAdded(sender.proxy);
+        receiverHandler.handlerAdded(receiver.proxy);
+
+        // 列表的第二个元素不支持序列化，此时列表头已写入
+        final List<Object> badBody = new ArrayList<>();
+        badBody.add("hello");
+        badBody.add(new Object());
+        final p_test.p_helloworld hello = p_test.p_helloworld.newBuilder()
+                .setA(1)
+                .setE("hello")
+                .build();
+
+        senderHandler.write(sender.proxy, new OneWayMessage(badBody));
+        senderHandler.write(sender.proxy, new RpcRequestMessage(1, false, badBody));
+        senderHandler.write(sender.proxy, new OneWayMessage(hello));
+        receiver.poll();
+
+        // 编码失败的消息被丢弃，不影响之后的消息
+        Assertions.assertEquals(1, receiver.reads.size());
+        Assertions.assertEquals(hello, ((OneWayMessage) receiver.reads.get(0)).getBody());
+
+        senderHandler.close(sender.proxy);
+        receiverHandler.close(receiver.proxy);
+        connectorFile.unmap();
+        acceptorFile.unmap();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T newUnsupportedProxy(Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static class FakeContext {
+
+        final List<Object> reads = new ArrayList<>();
+        TimerTask pollTask;
+
+        final Session session;
+        final TimerSystem timerSystem;
+        final SessionHandlerContext proxy;
+
+        FakeContext(ShmSessionConfig config) {
+            final FixedDelayHandle pollHandle = (FixedDelayHandle) Proxy.newProxyInstance(FixedDelayHandle.class.getClassLoader(),
+                    new Class<?>[]{FixedDelayHandle.class},
+                    (proxy, method, args) -> {
+                        if (method.getName().equals("close")) {
+                            return null;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    });
+            this.session = (Session) Proxy.newProxyInstance(Session.class.getClassLoader(),
+                    new Class<?>[]{Session.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "sessionId":
+                            case "toString":
+                                return "session";
+                            case "config":
+                                return config;
+                            case "isClosed":
+                                return false;
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+            this.timerSystem = (TimerSystem) Proxy.newProxyInstance(TimerSystem.class.getClassLoader(),
+                    new Class<?>[]{TimerSystem.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "newHeartbeatTimer":
+                                pollTask = (TimerTask) args[1];
+                                return pollHandle;
+                            case "curTimeMillis":
+                                return System.currentTimeMillis();
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+            this.proxy = (SessionHandlerContext) Proxy.newProxyInstance(SessionHandlerContext.class.getClassLoader(),
+                    new Class<?>[]{SessionHandlerContext.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "session":
+                                return session;
+                            case "timerSystem":
+                                return timerSystem;
+                            case "fireRead":
+                                reads.add(args[0]);
+                                return null;
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+
+        void poll() throws Exception {
+            pollTask.run(null);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.socket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link FrameCompressionHandler}编解码测试
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/18
+ * github - https://github.com/hl845740757
+ */
+class FrameCompressionHandlerTest {
+
+    private static final int COMPRESS_THRESHOLD = 128;
+    private static final int MAX_FRAME_LENGTH = 64 * 1024;
+    private static final byte PKG_TYPE = 5;
+
+    @Test
+    void compressAndDecompress() {
+        final byte[] content = new byte[4096];
+        for (int index = 0; index < content.length; index++) {
+            content[index] = (byte) (index % 16);
+        }
+
+        final ByteBuf outbound = writeOutbound(true, content);
+        final int pkgType = outbound.getByte(4);
+        Assertions.assertNotEquals(0, pkgType & FrameCompressionHandler.COMPRESSED_FLAG);
+        Assertions.assertTrue(outbound.readableBytes() < 4 + 1 + content.length);
+
+        assertContentEquals(content, readInbound(outbound));
+    }
+
+    @Test
+    void compressThresholdConfig() {
+        final SocketSessionConfig.SocketSessionConfigBuilder builder = SocketSessionConfig.newBuilder();
+        // 0表示不开启压缩
+        Assertions.assertDoesNotThrow(() -> builder.setCompressThreshold(0));
+        Assertions.assertDoesNotThrow(() -> builder.setCompressThreshold(COMPRESS_THRESHOLD));
+        // 不静默修正太小的阈值
+        Assertions.assertThrows(IllegalArgumentException.class, () -> builder.setCompressThreshold(1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> builder.setCompressThreshold(COMPRESS_THRESHOLD - 1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> builder.setCompressThreshold(-1));
+    }
+
+    @Test
+    void skipSmallFrame() {
+        final byte[] content = new byte[COMPRESS_THRESHOLD - 1];
+
+        final ByteBuf outbound = writeOutbound(true, content);
+        Assertions.assertEquals(PKG_TYPE, outbound.getByte(4));
+        Assertions.assertEquals(4 + 1 + content.length, outbound.readableBytes());
+        outbound.release();
+    }
+
+    @Test
+    void skipIncompressibleFrame() {
+        final byte[] content = new byte[4096];
+        ThreadLocalRandom.current().nextBytes(content);
+
+        final ByteBuf outbound = writeOutbound(true, content);
+        Assertions.assertEquals(PKG_TYPE, outbound.getByte(4));
+
+        assertContentEquals(content, readInbound(outbound));
+    }
+
+    @Test
+    void skipBeforeNegotiated() {
+        final byte[] content = new byte[4096];
+
+        final ByteBuf outbound = writeOutbound(false, content);
+        Assertions.assertEquals(PKG_TYPE, outbound.getByte(4));
+        outbound.release();
+    }
+
+    private static ByteBuf writeOutbound(boolean compressEnabled, byte[] content) {
+        final FrameCompressionHandler handler = new FrameCompressionHandler(COMPRESS_THRESHOLD, MAX_FRAME_LENGTH);
+        if (compressEnabled) {
+            handler.enableCompress();
+        }
+        final EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        final ByteBuf frame = Unpooled.buffer(4 + 1 + content.length);
+        frame.writeInt(1 + content.length);
+        frame.writeByte(PKG_TYPE);
+        frame.writeBytes(content);
+        channel.writeOutbound(frame);
+
+        final ByteBuf outbound = channel.readOutbound();
+        channel.finishAndReleaseAll();
+        return outbound;
+    }
+
+    /**
+     * 模拟帧解码器：去掉长度字段之后交给压缩处理器
+     */
+    private static ByteBuf readInbound(ByteBuf outbound) {
+        final EmbeddedChannel channel = new EmbeddedChannel(new FrameCompressionHandler(COMPRESS_THRESHOLD, MAX_FRAME_LENGTH));
+        Assertions.assertEquals(outbound.readableBytes() - 4, outbound.readInt());
+        channel.writeInbound(outbound);
+
+        final ByteBuf inbound = channel.readInbound();
+        channel.finishAndReleaseAll();
+        return inbound;
+    }
+
+    private static void assertContentEquals(byte[] content, ByteBuf frame) {
+        try {
+            Assertions.assertEquals(PKG_TYPE, frame.readByte());
+            final byte[] actual = new byte[frame.readableBytes()];
+            frame.readBytes(actual);
+            Assertions.assertArrayEquals(content, actual);
+        } finally {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.socket;
+
+import com.wjybxx.fastjgame.net.binary.BinarySerializer;
+import com.wjybxx.fastjgame.net.eventloop.NetEventLoop;
+import com.wjybxx.fastjgame.net.example.ExampleConstants;
+import com.wjybxx.fastjgame.net.example.p_test;
+import com.wjybxx.fastjgame.net.rpc.*;
+import com.wjybxx.fastjgame.net.serialization.TypeId;
+import com.wjybxx.fastjgame.net.session.Session;
+import com.wjybxx.fastjgame.net.session.SessionHandlerContext;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 转发测试：中间节点只读取类型id，不解码消息，转发时原样写入，下游收到的字节与上游发送的完全一致；
+ * {@link MessageForwardingHandler}沿用发送方的刷新标记。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/12
+ * github - https://github.com/hl845740757
+ */
+class SocketForwardingTest {
+
+    private static final BinarySerializer serializer = ExampleConstants.BINARY_SERIALIZER;
+
+    private static p_test.p_helloworld newHello(int a) {
+        return p_test.p_helloworld.newBuilder()
+                .setA(a)
+                .setB(5506665554142L)
+                .setE("hello")
+                .build();
+    }
+
+    private static TypeId typeIdOf(Object message) throws Exception {
+        return BinarySerializer.peekTypeId(Unpooled.wrappedBuffer(serializer.toBytes(message)));
+    }
+
+    /**
+     * 编码器不会读取消息，因此不需要事件循环
+     */
+    private static EmbeddedChannel newEncoderChannel() {
+        return new EmbeddedChannel(new ClientSocketCodec(serializer, "encoder", null));
+    }
+
+    /**
+     * @return 编码后的完整数据帧，包括长度字段
+     */
+    private static List<byte[]> encode(EmbeddedChannel channel, Object msgTO) {
+        Assertions.assertTrue(channel.writeOutbound(msgTO));
+        final List<byte[]> frames = new ArrayList<>();
+        ByteBuf frame;
+        while ((frame = channel.readOutbound()) != null) {
+            frames.add(ByteBufUtil.getBytes(frame));
+            frame.release();
+        }
+        return frames;
+    }
+
+    /**
+     * 模拟帧解码器，跳过长度字段和包类型后解码单向消息
+     */
+    private static SocketMessageEvent decodeOneWayMessage(AbstractSocketCodec codec, byte[] frame) {
+        final ByteBuf byteBuf = Unpooled.wrappedBuffer(frame);
+        Assertions.assertEquals(frame.length - 4, byteBuf.readInt());
+        Assertions.assertEquals(NetMessageType.ONE_WAY_MESSAGE.pkgType, byteBuf.readByte());
+        return codec.readOneWayMessage(new EmbeddedChannel(), "decoder", byteBuf);
+    }
+
+    @Test
+    void forwardedBytesMatchExactly() throws Exception {
+        final p_test.p_helloworld hello = newHello(1);
+        final ClientSocketCodec relayCodec = new ClientSocketCodec(serializer, Collections.singleton(typeIdOf(hello)), "relay", null);
+
+        // 上游发送
+        final byte[] originFrame = encode(newEncoderChannel(), new TestSocketMessage(1, 5, new OneWayMessage(hello))).get(0);
+
+        // 中间节点只读取类型id，消息内容为序列化后的原始字节
+        final SocketMessageEvent relayEvent = decodeOneWayMessage(relayCodec, originFrame);
+        final RawMessageBody rawBody = (RawMessageBody) ((OneWayMessage) relayEvent.getWrappedMessage()).getBody();
+        Assertions.assertEquals(typeIdOf(hello), rawBody.getTypeId());
+        Assertions.assertArrayEquals(serializer.toBytes(hello), rawBody.getBytes());
+
+        // 中间节点转发，序号和ack相同时，整个数据帧都与上游发送的一致
+        final byte[] forwardedFrame = encode(newEncoderChannel(), new TestSocketMessage(1, 5, new OneWayMessage(rawBody))).get(0);
+        Assertions.assertArrayEquals(originFrame, forwardedFrame);
+
+        // 下游正常解码
+        final ClientSocketCodec receiverCodec = new ClientSocketCodec(serializer, "receiver", null);
+        final SocketMessageEvent receiverEvent = decodeOneWayMessage(receiverCodec, forwardedFrame);
+        Assertions.assertEquals(hello, ((OneWayMessage) receiverEvent.getWrappedMessage()).getBody());
+    }
+
+    @Test
+    void decodeTypesNotForwarded() throws Exception {
+        final ClientSocketCodec relayCodec = new ClientSocketCodec(serializer, Collections.singleton(typeIdOf(newHello(1))), "relay", null);
+        final byte[] frame = encode(newEncoderChannel(), new TestSocketMessage(1, 0, new OneWayMessage("not forwarded"))).get(0);
+
+        final SocketMessageEvent event = decodeOneWayMessage(relayCodec, frame);
+        Assertions.assertEquals("not forwarded", ((OneWayMessage) event.getWrappedMessage()).getBody());
+    }
+
+    @Test
+    void flushFlagFollowsEndOfBatch() throws Exception {
+        final p_test.p_helloworld hello = newHello(1);
+        final ClientSocketCodec relayCodec = new ClientSocketCodec(serializer, Collections.singleton(typeIdOf(hello)), "relay", null);
+
+        // 发送方一次刷新3个消息，只有最后一个是批次的结尾
+        final List<byte[]> frames = encode(newEncoderChannel(), new TestBatchSocketMessageTO(0, Arrays.asList(
+                new TestSocketMessage(1, 0, new OneWayMessage(newHello(1))),
+                new TestSocketMessage(2, 0, new OneWayMessage(newHello(2))),
+                new TestSocketMessage(3, 0, new OneWayMessage(newHello(3))))));
+        Assertions.assertEquals(3, frames.size());
+
+        final List<Boolean> flushList = new ArrayList<>();
+        for (int index = 0; index < frames.size(); index++) {
+            final RawMessageBody rawBody = (RawMessageBody) ((OneWayMessage) decodeOneWayMessage(relayCodec, frames.get(index)).getWrappedMessage()).getBody();
+            Assertions.assertEquals(newHello(index + 1), serializer.fromBytes(rawBody.getBytes()));
+            flushList.add(rawBody.isFlush());
+        }
+        Assertions.assertEquals(Arrays.asList(false, false, true), flushList);
+    }
+
+    @Test
+    void handlerPropagatesFlush() throws Exception {
+        final TypeId typeId = typeIdOf(newHello(1));
+        final FakeSession target = new FakeSession();
+        final MessageForwardingHandler handler = new MessageForwardingHandler((source, id) -> target.proxy);
+        final SessionHandlerContext ctx = newContext(newUnsupportedProxy(Session.class));
+
+        final RawMessageBody noFlushBody = new RawMessageBody(typeId, serializer.toBytes(newHello(1)), false);
+        final RawMessageBody flushBody = new RawMessageBody(typeId, serializer.toBytes(newHello(2)), true);
+        handler.read(ctx, new OneWayMessage(noFlushBody));
+        handler.read(ctx, new OneWayMessage(flushBody));
+
+        Assertions.assertEquals(Arrays.asList("fireWrite", "fireWriteAndFlush"), target.methods);
+        Assertions.assertSame(noFlushBody, target.tasks.get(0).getMessage());
+        Assertions.assertSame(flushBody, target.tasks.get(1).getMessage());
+    }
+
+    private static SessionHandlerContext newContext(Session session) {
+        return (SessionHandlerContext) Proxy.newProxyInstance(SessionHandlerContext.class.getClassLoader(), new Class<?>[]{SessionHandlerContext.class},
+                (proxy, method, args) -> {
+                    if ("session".equals(method.getName())) {
+                        return session;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T newUnsupportedProxy(Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    /**
+     * 转发的目标session，记录写入的任务
+     */
+    private static class FakeSession {
+
+        final List<String> methods = new ArrayList<>();
+        final List<OneWayInvocationTask> tasks = new ArrayList<>();
+
+        final NetEventLoop netEventLoop = (NetEventLoop) Proxy.newProxyInstance(NetEventLoop.class.getClassLoader(), new Class<?>[]{NetEventLoop.class},
+                (proxy, method, args) -> {
+                    if ("inEventLoop".equals(method.getName())) {
+                        return true;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        final Session proxy = (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class<?>[]{Session.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isClosed":
+                            return false;
+                        case "netEventLoop":
+                            return netEventLoop;
+                        case "fireWrite":
+                        case "fireWriteAndFlush":
+                            methods.add(method.getName());
+                            tasks.add((OneWayInvocationTask) args[0]);
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static class TestSocketMessage implements SocketMessage, SocketMessageTO {
+
+        private final long sequence;
+        private final long ack;
+        private final NetMessage wrappedMessage;
+
+        TestSocketMessage(long sequence, long ack, NetMessage wrappedMessage) {
+            this.sequence = sequence;
+            this.ack = ack;
+            this.wrappedMessage = wrappedMessage;
+        }
+
+        @Override
+        public long getSequence() {
+            return sequence;
+        }
+
+        @Override
+        public NetMessage getWrappedMessage() {
+            return wrappedMessage;
+        }
+
+        @Override
+        public long getAck() {
+            return ack;
+        }
+
+        @Override
+        public SocketMessage getSocketMessage() {
+            return this;
+        }
+    }
+
+    private static class TestBatchSocketMessageTO implements BatchSocketMessageTO {
+
+        private final long ack;
+        private final List<SocketMessage> socketMessageList;
+
+        TestBatchSocketMessageTO(long ack, List<SocketMessage> socketMessageList) {
+            this.ack = ack;
+            this.socketMessageList = socketMessageList;
+        }
+
+        @Override
+        public long getAck() {
+            return ack;
+        }
+
+        @Override
+        public List<SocketMessage> getSocketMessageList() {
+            return socketMessageList;
+        }
+    }
+}
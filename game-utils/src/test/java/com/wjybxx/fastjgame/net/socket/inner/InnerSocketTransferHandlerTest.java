@@ -0,0 +1,189 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.wjybxx.fastjgame.net.socket.inner;
+
+import com.wjybxx.fastjgame.net.rpc.MessagePriority;
+import com.wjybxx.fastjgame.net.rpc.OneWayMessage;
+import com.wjybxx.fastjgame.net.rpc.RpcProcessor;
+import com.wjybxx.fastjgame.net.serialization.Serializer;
+import com.wjybxx.fastjgame.net.session.Session;
+import com.wjybxx.fastjgame.net.session.SessionHandlerContext;
+import com.wjybxx.fastjgame.net.session.SessionLifecycleAware;
+import com.wjybxx.fastjgame.net.socket.SocketMessage;
+import com.wjybxx.fastjgame.net.socket.SocketSessionConfig;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link InnerSocketTransferHandler}测试：channel不可写时消息留在缓冲区中，可写时每次按权重发送一批。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/12
+ * github - https://github.com/hl845740757
+ */
+class InnerSocketTransferHandlerTest {
+
+    /**
+     * 两个完整的加权轮询周期(8 + 4 + 1)
+     */
+    private static final int BATCH_SIZE = 26;
+
+    private EmbeddedChannel channel;
+    private InnerSocketTransferHandler handler;
+    private SessionHandlerContext ctx;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        final SocketSessionConfig config = SocketSessionConfig.newBuilder()
+                .setLifecycleAware(newUnsupportedProxy(SessionLifecycleAware.class))
+                .setSerializer(newUnsupportedProxy(Serializer.class))
+                .setRpcProcessor(newUnsupportedProxy(RpcProcessor.class))
+                .setMaxPendingMessages(BATCH_SIZE)
+                .build();
+        final Session session = (Session) Proxy.newProxyInstance(Session.class.getClassLoader(),
+                new Class<?>[]{Session.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "sessionId":
+                        case "toString":
+                            return "session";
+                        case "config":
+                            return config;
+                        case "isClosed":
+                            return false;
+                        case "isWritable":
+                            return true;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        ctx = (SessionHandlerContext) Proxy.newProxyInstance(SessionHandlerContext.class.getClassLoader(),
+                new Class<?>[]{SessionHandlerContext.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("session")) {
+                        return session;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        channel = new EmbeddedChannel();
+        handler = new InnerSocketTransferHandler(channel);
+        handler.handlerAdded(ctx);
+    }
+
+    private void setChannelWritable(boolean writable) {
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, writable);
+        Assertions.assertEquals(writable, channel.isWritable());
+    }
+
+    private void write(MessagePriority priority, int index) throws Exception {
+        handler.write(ctx, new OneWayMessage(new Body(priority, index), priority, false, null));
+    }
+
+    private List<SocketMessage> readBatch() {
+        final Object msg = channel.readOutbound();
+        Assertions.assertTrue(msg instanceof InnerBatchSocketMessageTO, String.valueOf(msg));
+        return ((InnerBatchSocketMessageTO) msg).getSocketMessageList();
+    }
+
+    private static Body bodyOf(SocketMessage socketMessage) {
+        return (Body) ((OneWayMessage) socketMessage.getWrappedMessage()).getBody();
+    }
+
+    @Test
+    void holdMessagesWhileUnwritable() throws Exception {
+        setChannelWritable(false);
+        for (int index = 0; index < BATCH_SIZE + 10; index++) {
+            write(MessagePriority.BULK, index);
+        }
+        // 紧急消息也不会越过netty的缓冲区，留在缓冲区的最前面
+        write(MessagePriority.URGENT, 0);
+        handler.flush(ctx);
+        Assertions.assertTrue(channel.outboundMessages().isEmpty());
+        Assertions.assertEquals(BATCH_SIZE + 11, handler.getBufferedMessages());
+
+        setChannelWritable(true);
+        handler.flush(ctx);
+        final List<SocketMessage> firstBatch = readBatch();
+        Assertions.assertEquals(BATCH_SIZE, firstBatch.size());
+        Assertions.assertEquals(MessagePriority.URGENT, bodyOf(firstBatch.get(0)).priority);
+        Assertions.assertEquals(11, handler.getBufferedMessages());
+        Assertions.assertNull(channel.readOutbound());
+
+        handler.flush(ctx);
+        Assertions.assertEquals(11, readBatch().size());
+        Assertions.assertEquals(0, handler.getBufferedMessages());
+    }
+
+    @Test
+    void weightedBatchesWhileBacklogged() throws Exception {
+        setChannelWritable(false);
+        final int perLane = BATCH_SIZE * 4;
+        for (int index = 0; index < perLane; index++) {
+            write(MessagePriority.URGENT, index);
+            write(MessagePriority.NORMAL, index);
+            write(MessagePriority.BULK, index);
+        }
+        setChannelWritable(true);
+
+        final Map<MessagePriority, Integer> nextIndex = new EnumMap<>(MessagePriority.class);
+        for (int batch = 0; batch < 2; batch++) {
+            handler.flush(ctx);
+            final Map<MessagePriority, Integer> counts = new EnumMap<>(MessagePriority.class);
+            for (SocketMessage socketMessage : readBatch()) {
+                final Body body = bodyOf(socketMessage);
+                counts.merge(body.priority, 1, Integer::sum);
+                // 同一个优先级内保持FIFO
+                final int expectedIndex = nextIndex.getOrDefault(body.priority, 0);
+                Assertions.assertEquals(expectedIndex, body.index);
+                nextIndex.put(body.priority, expectedIndex + 1);
+            }
+            // 每批按权重分配，低优先级也能获得发送机会
+            Assertions.assertEquals(2 * MessagePriority.URGENT.weight, (int) counts.get(MessagePriority.URGENT));
+            Assertions.assertEquals(2 * MessagePriority.NORMAL.weight, (int) counts.get(MessagePriority.NORMAL));
+            Assertions.assertEquals(2 * MessagePriority.BULK.weight, (int) counts.get(MessagePriority.BULK));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T newUnsupportedProxy(Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static class Body {
+
+        final MessagePriority priority;
+        final int index;
+
+        Body(MessagePriority priority, int index) {
+            this.priority = priority;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.net.socket.outer;
+
+import com.wjybxx.fastjgame.net.rpc.MessagePriority;
+import com.wjybxx.fastjgame.net.rpc.OneWayMessage;
+import com.wjybxx.fastjgame.net.socket.MessageQueue;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link MessageQueue}低优先级消息合并测试
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/12
+ * github - https://github.com/hl845740757
+ */
+class MessageQueueCoalesceTest {
+
+    private static OneWayMessage newLowPriorityMessage(Object body, Object coalesceKey) {
+        return new OneWayMessage(body, MessagePriority.BULK, true, coalesceKey);
+    }
+
+    private static OuterSocketMessage enqueue(MessageQueue messageQueue, OneWayMessage message, int estimatedBytes) {
+        final OuterSocketMessage socketMessage = new OuterSocketMessage(message, estimatedBytes);
+        messageQueue.addCacheMessage(socketMessage);
+        return socketMessage;
+    }
+
+    @Test
+    void coalesceReplacesCachedBody() {
+        final MessageQueue messageQueue = new MessageQueue();
+        final OneWayMessage cached = newLowPriorityMessage("pos-1", 1L);
+        enqueue(messageQueue, cached, 10);
+
+        Assertions.assertTrue(messageQueue.tryCoalesce(newLowPriorityMessage("pos-2", 1L), 30));
+        Assertions.assertEquals("pos-2", cached.getBody());
+        Assertions.assertEquals(1, messageQueue.getCacheMessages());
+        Assertions.assertEquals(30, messageQueue.getCacheBytes());
+    }
+
+    @Test
+    void noCoalesceWithoutKey() {
+        final MessageQueue messageQueue = new MessageQueue();
+        enqueue(messageQueue, newLowPriorityMessage("pos-1", 1L), 10);
+
+        Assertions.assertFalse(messageQueue.tryCoalesce(newLowPriorityMessage("pos-2", null), 10));
+        Assertions.assertFalse(messageQueue.tryCoalesce(newLowPriorityMessage("pos-2", 2L), 10));
+        Assertions.assertEquals(10, messageQueue.getCacheBytes());
+    }
+
+    @Test
+    void noCoalesceAfterSent() {
+        final MessageQueue messageQueue = new MessageQueue();
+        final OneWayMessage cached = newLowPriorityMessage("pos-1", 1L);
+        enqueue(messageQueue, cached, 10);
+
+        final OuterSocketMessage sent = messageQueue.pollCacheMessage();
+        Assertions.assertNotNull(sent);
+        Assertions.assertEquals(0, messageQueue.getCacheBytes());
+
+        // 已发送的消息不可以再修改
+        Assertions.assertFalse(messageQueue.tryCoalesce(newLowPriorityMessage("pos-2", 1L), 10));
+        Assertions.assertEquals("pos-1", cached.getBody());
+    }
+
+    @Test
+    void indexFollowsLatestMessage() {
+        final MessageQueue messageQueue = new MessageQueue();
+        final OneWayMessage first = newLowPriorityMessage("pos-1", 1L);
+        final OneWayMessage second = newLowPriorityMessage("pos-2", 1L);
+        enqueue(messageQueue, first, 10);
+        enqueue(messageQueue, second, 10);
+
+        // 发送较早的消息不影响较新消息的索引
+        messageQueue.pollCacheMessage();
+        Assertions.assertTrue(messageQueue.tryCoalesce(newLowPriorityMessage("pos-3", 1L), 10));
+        Assertions.assertEquals("pos-1", first.getBody());
+        Assertions.assertEquals("pos-3", second.getBody());
+    }
+
+    @Test
+    void sequenceAssignedInSendOrder() {
+        final MessageQueue messageQueue = new MessageQueue();
+        enqueue(messageQueue, new OneWayMessage("bulk", MessagePriority.BULK, false, null), 10);
+        enqueue(messageQueue, new OneWayMessage("urgent", MessagePriority.URGENT, false, null), 10);
+        enqueue(messageQueue, new OneWayMessage("normal", MessagePriority.NORMAL, false, null), 10);
+
+        long lastSequence = messageQueue.getInitSequence();
+        OuterSocketMessage message;
+        while ((message = messageQueue.pollCacheMessage()) != null) {
+            Assertions.assertEquals(lastSequence + 1, message.getSequence());
+            lastSequence = message.getSequence();
+        }
+    }
+}
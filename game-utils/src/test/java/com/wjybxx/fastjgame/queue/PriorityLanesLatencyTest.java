@@ -0,0 +1,177 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.queue;
+
+import com.wjybxx.fastjgame.net.rpc.MessagePriority;
+import com.wjybxx.fastjgame.net.socket.PriorityLanes;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * {@link PriorityLanes}出队顺序及紧急消息延迟测试。
+ * <p>
+ * 模拟一个出口带宽受限的session：每帧压入大量批量消息，并间隔压入少量紧急消息，每帧只能发送固定数量的消息。
+ * 分别统计使用{@link PriorityLanes}和单通道FIFO时，紧急消息从入队到出队所经历的帧数。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/16
+ * github - https://github.com/hl845740757
+ */
+class PriorityLanesLatencyTest {
+
+    private static final int TICKS = 10_000;
+    /**
+     * 每帧能发送的消息数
+     */
+    private static final int DRAIN_PER_TICK = 100;
+    /**
+     * 每帧压入的批量消息数，略高于发送能力，使队列持续积压
+     */
+    private static final int BULK_PER_TICK = 105;
+    /**
+     * 每隔多少帧压入一个紧急消息
+     */
+    private static final int URGENT_INTERVAL = 10;
+    /**
+     * 所有优先级的权重之和，即一个加权轮询周期
+     */
+    private static final int ROUND = MessagePriority.URGENT.weight + MessagePriority.NORMAL.weight + MessagePriority.BULK.weight;
+
+    @Test
+    void urgentLatencyUnderBacklog() {
+        final long laneMaxLatency = simulate(true);
+        final long fifoMaxLatency = simulate(false);
+
+        // 紧急消息在入队的那一帧就能发送，不受积压影响
+        Assertions.assertEquals(0, laneMaxLatency);
+        // 单通道时紧急消息排在积压的批量消息之后
+        Assertions.assertTrue(fifoMaxLatency > 100, "fifoMaxLatency " + fifoMaxLatency);
+    }
+
+    @Test
+    void fifoWithinLane() {
+        final PriorityLanes<Message> lanes = new PriorityLanes<>();
+        for (int index = 0; index < 100; index++) {
+            for (MessagePriority priority : MessagePriority.values()) {
+                lanes.add(priority, new Message(priority, index));
+            }
+        }
+
+        final Map<MessagePriority, Integer> nextIndex = new EnumMap<>(MessagePriority.class);
+        Message message;
+        while ((message = lanes.poll()) != null) {
+            final int expectedIndex = nextIndex.getOrDefault(message.priority, 0);
+            Assertions.assertEquals(expectedIndex, message.index);
+            nextIndex.put(message.priority, expectedIndex + 1);
+        }
+        Assertions.assertEquals(0, lanes.size());
+    }
+
+    @Test
+    void weightedShareAndNoStarvation() {
+        final PriorityLanes<Message> lanes = new PriorityLanes<>();
+        final int rounds = 50;
+        for (MessagePriority priority : MessagePriority.values()) {
+            for (int index = 0; index < ROUND * rounds; index++) {
+                lanes.add(priority, new Message(priority, index));
+            }
+        }
+
+        // 所有通道都非空时，每个周期内各通道恰好出队其权重个消息，因此低优先级通道最多等待一个周期
+        for (int round = 0; round < rounds; round++) {
+            final Map<MessagePriority, Integer> counts = new EnumMap<>(MessagePriority.class);
+            for (int index = 0; index < ROUND; index++) {
+                counts.merge(lanes.poll().priority, 1, Integer::sum);
+            }
+            for (MessagePriority priority : MessagePriority.values()) {
+                Assertions.assertEquals(priority.weight, (int) counts.get(priority), "round " + round);
+            }
+        }
+    }
+
+    @Test
+    void emptyLaneDoesNotAccumulateCredits() {
+        final PriorityLanes<Message> lanes = new PriorityLanes<>();
+        for (int index = 0; index < ROUND; index++) {
+            lanes.add(MessagePriority.BULK, new Message(MessagePriority.BULK, index));
+        }
+        for (int index = 0; index < ROUND; index++) {
+            Assertions.assertEquals(MessagePriority.BULK, lanes.poll().priority);
+        }
+
+        // 之前独占的通道不能因积攒的积分突发
+        lanes.add(MessagePriority.BULK, new Message(MessagePriority.BULK, ROUND));
+        lanes.add(MessagePriority.URGENT, new Message(MessagePriority.URGENT, 0));
+        Assertions.assertEquals(MessagePriority.URGENT, lanes.poll().priority);
+    }
+
+    /**
+     * @param useLanes 是否区分优先级，false表示所有消息都走同一个通道（旧的实现）
+     * @return 紧急消息的最大延迟（帧数）
+     */
+    private static long simulate(boolean useLanes) {
+        final Random random = new Random(TICKS);
+        final PriorityLanes<Message> lanes = new PriorityLanes<>();
+        long maxLatency = 0;
+        int urgentCount = 0;
+
+        for (int tick = 0; tick < TICKS; tick++) {
+            final int bulkNum = BULK_PER_TICK - 5 + random.nextInt(11);
+            for (int index = 0; index < bulkNum; index++) {
+                lanes.add(useLanes ? MessagePriority.BULK : MessagePriority.NORMAL, new Message(MessagePriority.BULK, tick));
+            }
+            if (tick % URGENT_INTERVAL == 0) {
+                lanes.add(useLanes ? MessagePriority.URGENT : MessagePriority.NORMAL, new Message(MessagePriority.URGENT, tick));
+            }
+
+            for (int index = 0; index < DRAIN_PER_TICK; index++) {
+                final Message message = lanes.poll();
+                if (null == message) {
+                    break;
+                }
+                if (message.priority == MessagePriority.URGENT) {
+                    maxLatency = Math.max(maxLatency, tick - message.index);
+                    urgentCount++;
+                }
+            }
+        }
+        if (useLanes) {
+            // 使用优先级通道时，所有紧急消息都已发送
+            Assertions.assertEquals(TICKS / URGENT_INTERVAL, urgentCount);
+        }
+        return maxLatency;
+    }
+
+    private static class Message {
+
+        final MessagePriority priority;
+        /**
+         * 通道内的序号，模拟时表示入队的帧
+         */
+        final int index;
+
+        Message(MessagePriority priority, int index) {
+            this.priority = priority;
+            this.index = index;
+        }
+    }
+}
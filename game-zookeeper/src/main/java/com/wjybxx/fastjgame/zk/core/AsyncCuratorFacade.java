@@ -0,0 +1,385 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.zk.core;
+
+import com.wjybxx.fastjgame.util.CheckUtils;
+import com.wjybxx.fastjgame.util.concurrent.ConcurrentUtils;
+import com.wjybxx.fastjgame.util.concurrent.DefaultThreadFactory;
+import com.wjybxx.fastjgame.util.concurrent.EventLoop;
+import com.wjybxx.fastjgame.util.concurrent.FluentFuture;
+import com.wjybxx.fastjgame.util.concurrent.FutureUtils;
+import com.wjybxx.fastjgame.util.concurrent.Promise;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.recipes.locks.InterProcessSemaphoreMutex;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CuratorFacade}的异步版本，所有方法都不会阻塞调用线程，返回的future在{@link #appEventLoop}中完成。
+ * <p>
+ * 节点操作使用curator的后台回调({@code inBackground})，回调直接在{@link #appEventLoop}中执行，因此监听器不必考虑线程安全问题。
+ * 各方法的语义与{@link CuratorFacade}中的同名方法相同。
+ * <p>
+ * 锁：curator没有异步的锁，因此在独立的线程中获取和释放锁。
+ * 由于获取锁和释放锁不在同一个线程，因此使用的是不可重入的{@link InterProcessSemaphoreMutex}，而不是{@link CuratorFacade}使用的可重入锁，
+ * 同一个facade不可以重复锁定同一个路径。
+ * 等待中的锁会占用一个线程，线程数和排队的任务数都是有限的，超出时lock/unlock返回的future失败({@link java.util.concurrent.RejectedExecutionException})。
+ * 排队时间计入获取锁的超时时间。
+ * <p>
+ * 所有的失败(包括参数检查和提交任务失败)也都在{@link #appEventLoop}中完成。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/10
+ * github - https://github.com/hl845740757
+ */
+@ThreadSafe
+public final class AsyncCuratorFacade {
+
+    private static final int DEFAULT_LOCK_THREADS = 4;
+    private static final int DEFAULT_MAX_PENDING_LOCK_TASKS = 1024;
+
+    private final CuratorFramework client;
+    private final EventLoop appEventLoop;
+    /**
+     * 获取锁是阻塞操作，在该线程池中执行
+     */
+    private final ThreadPoolExecutor lockExecutor;
+    /**
+     * 已持有或正在获取的锁
+     */
+    private final ConcurrentMap<String, InterProcessSemaphoreMutex> lockMap = new ConcurrentHashMap<>();
+
+    public AsyncCuratorFacade(CuratorClientMgr clientMgr, EventLoop appEventLoop) {
+        this(clientMgr, appEventLoop, DEFAULT_LOCK_THREADS, DEFAULT_MAX_PENDING_LOCK_TASKS);
+    }
+
+    /**
+     * @param lockThreads         获取和释放锁的最大线程数
+     * @param maxPendingLockTasks 线程都在使用时，最多排队的获取和释放锁的任务数
+     */
+    public AsyncCuratorFacade(CuratorClientMgr clientMgr, EventLoop appEventLoop, int lockThreads, int maxPendingLockTasks) {
+        CheckUtils.requirePositive(lockThreads, "lockThreads");
+        CheckUtils.requirePositive(maxPendingLockTasks, "maxPendingLockTasks");
+        this.client = clientMgr.getClient();
+        this.appEventLoop = appEventLoop;
+        this.lockExecutor = new ThreadPoolExecutor(lockThreads, lockThreads,
+                15, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(maxPendingLockTasks),
+                new DefaultThreadFactory("CURATOR_ASYNC_LOCK", true));
+        // 不常使用锁时不保留线程
+        this.lockExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public CuratorFramework getClient() {
+        return client;
+    }
+
+    /**
+     * 关闭该门面持有的资源，未释放的锁在会话关闭时由zookeeper释放
+     */
+    public void shutdown() {
+        lockExecutor.shutdownNow();
+    }
+
+    // region 节点操作
+
+    /**
+     * @return 节点存在则返回true
+     * @see CuratorFacade#isPathExist(String)
+     */
+    public FluentFuture<Boolean> isPathExist(String path) {
+        return inBackground(callback -> client.checkExists().inBackground(callback, appEventLoop).forPath(path),
+                event -> event.getStat() != null);
+    }
+
+    /**
+     * @return 节点数据，节点不存在时失败
+     * @see CuratorFacade#getData(String)
+     */
+    public FluentFuture<byte[]> getData(String path) {
+        return inBackground(callback -> client.getData().inBackground(callback, appEventLoop).forPath(path),
+                event -> {
+                    checkResultCode(event);
+                    return event.getData();
+                });
+    }
+
+    /**
+     * @return 节点数据，节点不存在时返回null
+     * @see CuratorFacade#getDataIfPresent(String)
+     */
+    public FluentFuture<byte[]> getDataIfPresent(String path) {
+        return getDataIfPresent(path, null);
+    }
+
+    /**
+     * @param stat 用于存储节点状态，可以为null。它在回调线程中赋值，因此只应在future完成后读取
+     * @return 节点数据，节点不存在时返回null
+     * @see CuratorFacade#getDataIfPresent(String, Stat)
+     */
+    public FluentFuture<byte[]> getDataIfPresent(String path, Stat stat) {
+        return inBackground(callback -> client.getData().inBackground(callback, appEventLoop).forPath(path),
+                event -> {
+                    if (event.getResultCode() == KeeperException.Code.NONODE.intValue()) {
+                        return null;
+                    }
+                    checkResultCode(event);
+                    if (stat != null) {
+                        copyStat(event.getStat(), stat);
+                    }
+                    return event.getData();
+                });
+    }
+
+    /**
+     * @return 创建的路径，节点存在时失败
+     * @see CuratorFacade#createNode(String, CreateMode, byte[])
+     */
+    public FluentFuture<String> createNode(String path, CreateMode mode, @Nonnull byte[] initData) {
+        return inBackground(callback -> client.create().creatingParentsIfNeeded().withMode(mode)
+                        .inBackground(callback, appEventLoop).forPath(path, initData),
+                event -> {
+                    checkResultCode(event);
+                    return event.getName();
+                });
+    }
+
+    /**
+     * @return 创建的路径，节点已存在时返回null
+     * @see CuratorFacade#createNodeIfAbsent(String, CreateMode, byte[])
+     */
+    public FluentFuture<String> createNodeIfAbsent(String path, CreateMode mode, @Nonnull byte[] initData) {
+        return inBackground(callback -> client.create().creatingParentsIfNeeded().withMode(mode)
+                        .inBackground(callback, appEventLoop).forPath(path, initData),
+                event -> {
+                    if (event.getResultCode() == KeeperException.Code.NODEEXISTS.intValue()) {
+                        return null;
+                    }
+                    checkResultCode(event);
+                    return event.getName();
+                });
+    }
+
+    /**
+     * @return 节点的最新状态，节点不存在时失败
+     * @see CuratorFacade#setData(String, byte[])
+     */
+    public FluentFuture<Stat> setData(String path, byte[] data) {
+        return inBackground(callback -> client.setData().inBackground(callback, appEventLoop).forPath(path, data),
+                event -> {
+                    checkResultCode(event);
+                    return event.getStat();
+                });
+    }
+
+    /**
+     * @return 更新成功则返回true，版本号不一致或节点不存在则返回false
+     * @see CuratorFacade#compareAndSetData(String, int, byte[])
+     */
+    public FluentFuture<Boolean> compareAndSetData(String path, int expectedVersion, byte[] data) {
+        return inBackground(callback -> client.setData().withVersion(expectedVersion)
+                        .inBackground(callback, appEventLoop).forPath(path, data),
+                event -> {
+                    final int resultCode = event.getResultCode();
+                    if (resultCode == KeeperException.Code.BADVERSION.intValue()
+                            || resultCode == KeeperException.Code.NONODE.intValue()) {
+                        return false;
+                    }
+                    checkResultCode(event);
+                    return true;
+                });
+    }
+
+    /**
+     * 删除一个节点，节点不存在时什么也不做
+     *
+     * @see CuratorFacade#delete(String)
+     */
+    public FluentFuture<Void> delete(String path) {
+        return inBackground(callback -> client.delete().deletingChildrenIfNeeded()
+                        .inBackground(callback, appEventLoop).forPath(path),
+                event -> {
+                    if (event.getResultCode() != KeeperException.Code.NONODE.intValue()) {
+                        checkResultCode(event);
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * @return 所有的子节点名字，如果该节点不存在或没有子节点，则返回emptyList
+     * @see CuratorFacade#getChildren(String)
+     */
+    public FluentFuture<List<String>> getChildren(String path) {
+        return inBackground(callback -> client.getChildren().inBackground(callback, appEventLoop).forPath(path),
+                event -> {
+                    if (event.getResultCode() == KeeperException.Code.NONODE.intValue()) {
+                        return Collections.emptyList();
+                    }
+                    checkResultCode(event);
+                    return event.getChildren();
+                });
+    }
+
+    private <V> FluentFuture<V> inBackground(BackgroundAction action, EventMapper<V> mapper) {
+        final Promise<V> promise = FutureUtils.newPromise();
+        final BackgroundCallback callback = (curatorFramework, event) -> {
+            try {
+                promise.trySuccess(mapper.map(event));
+            } catch (Throwable t) {
+                promise.tryFailure(t);
+            }
+        };
+        try {
+            action.start(callback);
+        } catch (Throwable t) {
+            completeInAppEventLoop(promise, null, t);
+        }
+        return promise;
+    }
+
+    private static void checkResultCode(CuratorEvent event) throws KeeperException {
+        final KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+        if (code != KeeperException.Code.OK) {
+            throw KeeperException.create(code, event.getPath());
+        }
+    }
+
+    private static void copyStat(Stat src, Stat dest) {
+        dest.setCzxid(src.getCzxid());
+        dest.setMzxid(src.getMzxid());
+        dest.setCtime(src.getCtime());
+        dest.setMtime(src.getMtime());
+        dest.setVersion(src.getVersion());
+        dest.setCversion(src.getCversion());
+        dest.setAversion(src.getAversion());
+        dest.setEphemeralOwner(src.getEphemeralOwner());
+        dest.setDataLength(src.getDataLength());
+        dest.setNumChildren(src.getNumChildren());
+        dest.setPzxid(src.getPzxid());
+    }
+
+    @FunctionalInterface
+    private interface BackgroundAction {
+
+        void start(BackgroundCallback callback) throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface EventMapper<V> {
+
+        V map(CuratorEvent event) throws Exception;
+    }
+
+    // endregion
+
+    // region 锁
+
+    /**
+     * 尝试在指定时间内锁定某个永久类型节点。
+     *
+     * @param path    请求加锁的路径，不可以是临时节点
+     * @param timeout 超时时间
+     * @param unit    时间单位
+     * @return 获得锁则返回true，超时则返回false。获得锁之后必须调用{@link #unlock(String)}
+     */
+    public FluentFuture<Boolean> lock(String path, long timeout, TimeUnit unit) {
+        final Promise<Boolean> promise = FutureUtils.newPromise();
+        final InterProcessSemaphoreMutex mutex = new InterProcessSemaphoreMutex(client, path);
+        if (lockMap.putIfAbsent(path, mutex) != null) {
+            completeInAppEventLoop(promise, null, new IllegalStateException("path " + path + " is locked or locking"));
+            return promise;
+        }
+        // 排队的时间计入超时时间
+        final long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+        try {
+            lockExecutor.execute(() -> {
+                boolean acquired = false;
+                Throwable cause = null;
+                try {
+                    acquired = mutex.acquire(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (Throwable t) {
+                    cause = t;
+                }
+                if (!acquired) {
+                    lockMap.remove(path, mutex);
+                }
+                completeInAppEventLoop(promise, acquired, cause);
+            });
+        } catch (Throwable t) {
+            lockMap.remove(path, mutex);
+            completeInAppEventLoop(promise, null, t);
+        }
+        return promise;
+    }
+
+    /**
+     * 释放对应路径的锁
+     *
+     * @param path 路径
+     */
+    public FluentFuture<Void> unlock(String path) {
+        final Promise<Void> promise = FutureUtils.newPromise();
+        final InterProcessSemaphoreMutex mutex = lockMap.get(path);
+        if (null == mutex || !mutex.isAcquiredInThisProcess()) {
+            completeInAppEventLoop(promise, null, new IllegalStateException("path " + path + " lock state is wrong."));
+            return promise;
+        }
+        try {
+            lockExecutor.execute(() -> {
+                Throwable cause = null;
+                try {
+                    mutex.release();
+                } catch (Throwable t) {
+                    cause = t;
+                } finally {
+                    lockMap.remove(path, mutex);
+                }
+                completeInAppEventLoop(promise, null, cause);
+            });
+        } catch (Throwable t) {
+            completeInAppEventLoop(promise, null, t);
+        }
+        return promise;
+    }
+
+    private <V> void completeInAppEventLoop(Promise<V> promise, V result, Throwable cause) {
+        ConcurrentUtils.safeExecute(appEventLoop, () -> {
+            if (cause != null) {
+                promise.tryFailure(cause);
+            } else {
+                promise.trySuccess(result);
+            }
+        });
+    }
+
+    // endregion
+}
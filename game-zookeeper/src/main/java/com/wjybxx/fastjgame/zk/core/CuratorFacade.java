@@ -208,6 +208,25 @@ public final class CuratorFacade {
         return null;
     }
 
+    /**
+     * 当节点存在时返回节点的数据，并将节点的状态存储到stat中，否则返回null。
+     * 它是一个原子操作，获取到的{@link Stat#getVersion()}可用于{@link #compareAndSetData(String, int, byte[])}。
+     *
+     * @param path 节点路径
+     * @param stat 用于存储节点状态
+     * @return 节点数据
+     * @throws Exception zk errors.
+     */
+    @Nullable
+    public byte[] getDataIfPresent(String path, @Nonnull Stat stat) throws Exception {
+        try {
+            return client.getData().storingStatIn(stat).forPath(path);
+        } catch (KeeperException.NoNodeException ignore) {
+            // ignore,may other process delete this node, it's ok
+        }
+        return null;
+    }
+
     /**
      * 创建一个空节点，如果是并发创建的节点，注意加锁，
      * (可能存在检测到节点不存在，创建节点仍可能失败)，期望原子的操作请使用
@@ -287,6 +306,26 @@ public final class CuratorFacade {
         return client.setData().forPath(path, data);
     }
 
+    /**
+     * 如果节点的版本号与期望的版本号一致，则更新节点数据。
+     * 它是一个原子操作，并发更新的节点不需要加锁，失败时重新读取数据并重试即可。
+     *
+     * @param path            路径
+     * @param expectedVersion 期望的版本号
+     * @param data            数据
+     * @return 更新成功则返回true，版本号不一致或节点不存在则返回false
+     * @throws Exception zookeeper连接断开导致的异常
+     */
+    public boolean compareAndSetData(String path, int expectedVersion, byte[] data) throws Exception {
+        try {
+            client.setData().withVersion(expectedVersion).forPath(path, data);
+            return true;
+        } catch (KeeperException.BadVersionException | KeeperException.NoNodeException ignore) {
+            // ignore 等价于cas尝试失败
+        }
+        return false;
+    }
+
     /**
      * 删除一个节点，节点不存在时什么也不做;
      * 单个节点的删除不需要加锁；尽量不要手动删临时节点；
@@ -0,0 +1,380 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.zk.core;
+
+import com.wjybxx.fastjgame.util.annotation.VisibleForTesting;
+import com.wjybxx.fastjgame.util.concurrent.ConcurrentUtils;
+import com.wjybxx.fastjgame.util.concurrent.EventLoop;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.TreeCache;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.apache.curator.utils.CloseableExecutorService;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 子树的本地镜像缓存，用于热点数据的读取(如：服务发现、配置)，读取不需要访问zookeeper。
+ * <p>
+ * 使用{@link TreeCache}监听子树，事件在curator后台线程产生，然后批量的投递到应用线程，在应用线程更新镜像并通知{@link ChangeListener}。
+ * 因此镜像只在应用线程访问，读取方法也只能在应用线程调用。
+ * <p>
+ * 读取永远不会阻塞应用线程，过期数据的边界由会话状态决定：
+ * <li>1. 初始化完成且连接正常时，从镜像读取。</li>
+ * <li>2. 首次初始化完成之前，镜像中没有数据，读取立即抛出{@link IllegalStateException}。
+ * 应用可以通过{@link #isInitialized()}或{@link ChangeListener}收到的{@link TreeCacheEvent.Type#INITIALIZED}事件判断是否可以读取。</li>
+ * <li>3. 连接挂起时({@link TreeCacheEvent.Type#CONNECTION_SUSPENDED})，会话仍可能有效，仍从镜像读取，最多过期一个会话超时时间，计入过期读取。</li>
+ * <li>4. 会话丢失时({@link TreeCacheEvent.Type#CONNECTION_LOST})，此时zookeeper本身也不可用，仍从镜像读取，计入过期读取。
+ * 重连后({@link TreeCacheEvent.Type#CONNECTION_RECONNECTED}){@link TreeCache}刷新整棵树，刷新产生的变更逐步更新镜像，
+ * 刷新完成时再次产生{@link TreeCacheEvent.Type#INITIALIZED}事件，在此之前的读取都计入过期读取。</li>
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/11
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public class MirroredTreeCache implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MirroredTreeCache.class);
+
+    private final EventLoop appEventLoop;
+    private final String rootPath;
+    private final CloseableExecutorService watcherService;
+    private final TreeCache treeCache;
+    @Nullable
+    private final ChangeListener listener;
+
+    /**
+     * curator线程产生的事件，等待应用线程批量处理
+     */
+    private final Queue<TreeCacheEvent> pendingEvents = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    // 以下属性只在应用线程访问
+    /**
+     * path -> node
+     */
+    private final Map<String, CachedNode> nodeMap = new HashMap<>();
+    /**
+     * parentPath -> (childName -> node)
+     */
+    private final Map<String, Map<String, CachedNode>> childrenMap = new HashMap<>();
+    private boolean initialized;
+    private boolean suspended;
+    /**
+     * 会话丢失，直到重连后整棵树刷新完成
+     */
+    private boolean lost;
+
+    private long memoryReads;
+    private long staleReads;
+    private long unavailableReads;
+    private long eventBatches;
+    private long events;
+
+    /**
+     * @param rootPath 要镜像的子树的根节点
+     * @param listener 变更监听器，在应用线程执行
+     */
+    public MirroredTreeCache(CuratorClientMgr clientMgr, EventLoop appEventLoop, String rootPath, @Nullable ChangeListener listener) {
+        this.appEventLoop = appEventLoop;
+        this.rootPath = rootPath;
+        this.listener = listener;
+        // CloseableExecutorService不共享，以便关闭时取消未执行的任务
+        this.watcherService = clientMgr.newClosableExecutorService();
+        this.treeCache = TreeCache.newBuilder(clientMgr.getClient(), rootPath)
+                .setCacheData(true)
+                .setExecutor(watcherService)
+                .build();
+        this.treeCache.getListenable().addListener((client, event) -> onEvent(event));
+    }
+
+    /**
+     * 启动缓存，初始化完成之前的读取会抛出{@link IllegalStateException}
+     */
+    public void start() throws Exception {
+        treeCache.start();
+    }
+
+    @Override
+    public void close() {
+        treeCache.close();
+        watcherService.close();
+    }
+
+    // ------------------------------------------------ 事件处理 ------------------------------------
+
+    /**
+     * curator线程
+     */
+    @VisibleForTesting
+    void onEvent(TreeCacheEvent event) {
+        pendingEvents.offer(event);
+        if (drainScheduled.compareAndSet(false, true)) {
+            ConcurrentUtils.safeExecute(appEventLoop, this::drainEvents);
+        }
+    }
+
+    /**
+     * 应用线程，批量处理事件
+     */
+    private void drainEvents() {
+        drainScheduled.set(false);
+
+        final List<TreeCacheEvent> batch = new ArrayList<>();
+        TreeCacheEvent event;
+        while ((event = pendingEvents.poll()) != null) {
+            applyEvent(event);
+            batch.add(event);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        eventBatches++;
+        events += batch.size();
+        if (listener != null) {
+            try {
+                listener.onChanges(Collections.unmodifiableList(batch));
+            } catch (Throwable t) {
+                logger.warn("listener.onChanges caught exception", t);
+            }
+        }
+    }
+
+    private void applyEvent(TreeCacheEvent event) {
+        switch (event.getType()) {
+            case NODE_ADDED:
+            case NODE_UPDATED:
+                putNode(event.getData());
+                break;
+            case NODE_REMOVED:
+                removeNode(event.getData().getPath());
+                break;
+            case INITIALIZED:
+                // 首次初始化完成，或会话丢失重连后整棵树刷新完成(TreeCache在会话丢失时会重置初始化状态)
+                initialized = true;
+                lost = false;
+                break;
+            case CONNECTION_SUSPENDED:
+                suspended = true;
+                break;
+            case CONNECTION_LOST:
+                lost = true;
+                break;
+            case CONNECTION_RECONNECTED:
+                // TreeCache重连后会刷新整棵树，刷新产生的变更事件在之后到达。
+                // 会话丢失后要等待刷新完成(INITIALIZED)，镜像才不再过期
+                suspended = false;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void putNode(ChildData childData) {
+        final CachedNode node = new CachedNode(childData.getPath(), childData.getData(), childData.getStat());
+        nodeMap.put(node.path, node);
+        if (!node.path.equals(rootPath)) {
+            final ZKPaths.PathAndNode pathAndNode = ZKPaths.getPathAndNode(node.path);
+            childrenMap.computeIfAbsent(pathAndNode.getPath(), k -> new LinkedHashMap<>())
+                    .put(pathAndNode.getNode(), node);
+        }
+    }
+
+    private void removeNode(String path) {
+        nodeMap.remove(path);
+        childrenMap.remove(path);
+        if (!path.equals(rootPath)) {
+            final ZKPaths.PathAndNode pathAndNode = ZKPaths.getPathAndNode(path);
+            final Map<String, CachedNode> siblings = childrenMap.get(pathAndNode.getPath());
+            if (siblings != null) {
+                siblings.remove(pathAndNode.getNode());
+                if (siblings.isEmpty()) {
+                    childrenMap.remove(pathAndNode.getPath());
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------ 读取 ------------------------------------
+
+    /**
+     * 检查镜像是否可以读取，并更新统计信息
+     *
+     * @throws IllegalStateException 首次初始化完成之前
+     */
+    private void checkReadable() {
+        if (!initialized) {
+            unavailableReads++;
+            throw new IllegalStateException("cache not initialized, rootPath " + rootPath);
+        }
+        if (suspended || lost) {
+            staleReads++;
+        } else {
+            memoryReads++;
+        }
+    }
+
+    /**
+     * 获取节点的缓存，包含版本信息
+     *
+     * @param path 节点路径，必须在该缓存的子树中
+     * @return 节点不存在时返回null
+     */
+    @Nullable
+    public CachedNode getNode(String path) {
+        checkReadable();
+        return nodeMap.get(path);
+    }
+
+    /**
+     * @see CuratorFacade#getDataIfPresent(String)
+     */
+    @Nullable
+    public byte[] getDataIfPresent(String path) {
+        checkReadable();
+        final CachedNode node = nodeMap.get(path);
+        return node == null ? null : node.data;
+    }
+
+    /**
+     * @see CuratorFacade#getChildren(String)
+     */
+    public List<String> getChildren(String path) {
+        checkReadable();
+        final Map<String, CachedNode> children = childrenMap.get(path);
+        return children == null ? Collections.emptyList() : new ArrayList<>(children.keySet());
+    }
+
+    /**
+     * @return childFullPath -> data
+     * @see CuratorFacade#getChildrenData(String)
+     */
+    public Map<String, byte[]> getChildrenData(String path) {
+        checkReadable();
+        final Map<String, CachedNode> children = childrenMap.get(path);
+        if (children == null) {
+            return Collections.emptyMap();
+        }
+        final Map<String, byte[]> result = new LinkedHashMap<>(children.size() * 4 / 3 + 1);
+        for (CachedNode node : children.values()) {
+            result.put(node.path, node.data);
+        }
+        return result;
+    }
+
+    // ------------------------------------------------ 统计信息 ------------------------------------
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * @return 从镜像读取的次数(连接正常)
+     */
+    public long getMemoryReads() {
+        return memoryReads;
+    }
+
+    /**
+     * @return 连接挂起或会话丢失期间(直到刷新完成)从镜像读取的次数
+     */
+    public long getStaleReads() {
+        return staleReads;
+    }
+
+    /**
+     * @return 初始化完成之前被拒绝的读取次数
+     */
+    public long getUnavailableReads() {
+        return unavailableReads;
+    }
+
+    public long getEventBatches() {
+        return eventBatches;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    /**
+     * 缓存的节点 - 不可变对象
+     */
+    public static class CachedNode {
+
+        private final String path;
+        private final byte[] data;
+        private final int version;
+        private final long mzxid;
+
+        CachedNode(String path, byte[] data, Stat stat) {
+            this.path = path;
+            this.data = data;
+            this.version = stat == null ? -1 : stat.getVersion();
+            this.mzxid = stat == null ? -1 : stat.getMzxid();
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * 注意：返回的数组是共享的，不可以修改
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * @return 节点数据的版本号，可用于{@link CuratorFacade#compareAndSetData(String, int, byte[])}
+         */
+        public int getVersion() {
+            return version;
+        }
+
+        /**
+         * @return 最后一次修改的事务id，可用于比较两个节点的新旧
+         */
+        public long getMzxid() {
+            return mzxid;
+        }
+    }
+
+    /**
+     * 变更监听器
+     */
+    @FunctionalInterface
+    public interface ChangeListener {
+
+        /**
+         * 一批变更事件，在应用线程执行，调用时镜像已更新
+         *
+         * @param events 按发生顺序排列的事件，包括连接状态事件
+         */
+        void onChanges(List<TreeCacheEvent> events) throws Exception;
+    }
+}
@@ -14,25 +14,32 @@
  *  limitations under the License.
  */
 package com.wjybxx.fastjgame.zk.guid;
+package com.wjybxx.fastjgame.zk.guid;
 
-import com.wjybxx.fastjgame.guid.core.GuidGenerator;
+import com.wjybxx.fastjgame.guid.core.SegmentConfig;
+import com.wjybxx.fastjgame.guid.core.SegmentGuidGenerator;
 import com.wjybxx.fastjgame.util.CodecUtils;
 import com.wjybxx.fastjgame.zk.core.CuratorClientMgr;
 import com.wjybxx.fastjgame.zk.core.CuratorFacade;
 import com.wjybxx.fastjgame.zk.utils.ZKPathUtils;
-import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.curator.framework.recipes.atomic.DistributedAtomicLong;
 import org.apache.curator.framework.recipes.locks.InterProcessMutex;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.concurrent.NotThreadSafe;
+import java.util.concurrent.Executor;
 
 /**
  * 基于zookeeper实现的guid生成器。
  * <p>
- * 尝试过{@link DistributedAtomicLong}，但是确实有点复杂，最后还是使用了分布式锁{@link InterProcessMutex}。
+ * 尝试过{@link DistributedAtomicLong}，但是确实有点复杂，之前使用的是分布式锁{@link InterProcessMutex}，
+ * 但申请一个号段至少需要4次网络交互，且大量服务器同时启动时会在锁上排队。
+ * 现在使用节点的版本号做CAS更新：读取数据及版本号，然后带版本号写入，版本号不一致时重试，无冲突时只需要2次网络交互。
+ * <p>
+ * 号段在后台预取，见{@link SegmentGuidGenerator}，因此申请号段不会阻塞调用{@link #next()}的线程。
  *
  * @author wjybxx
  * @version 1.0
@@ -40,112 +47,110 @@ import javax.annotation.concurrent.NotThreadSafe;
  * github - https://github.com/hl845740757
  */
 @NotThreadSafe
-public class ZKGuidGenerator implements GuidGenerator {
+public class ZKGuidGenerator extends SegmentGuidGenerator {
 
     private static final Logger logger = LoggerFactory.getLogger(ZKGuidGenerator.class);
 
     private static final String GUID_PATH_ROOT = "/_guid/";
-    private static final int DEFAULT_CACHE_SIZE = 1000_000;
 
     private final CuratorFacade curatorFacade;
-    private final String name;
-    private final long cacheSize;
 
-    private long curGuid = 0;
-    private long curBarrier = 0;
+    /**
+     * @param name             生成器名字
+     * @param prefetchExecutor 预取号段的线程池，见{@link SegmentGuidGenerator}
+     */
+    public ZKGuidGenerator(CuratorClientMgr curatorClientMgr, final String name, final Executor prefetchExecutor) {
+        this(curatorClientMgr, name, SegmentConfig.newBuilder().build(), prefetchExecutor);
+    }
 
-    public ZKGuidGenerator(CuratorClientMgr curatorClientMgr, final String name) {
-        this(curatorClientMgr, name, DEFAULT_CACHE_SIZE);
+    /**
+     * @param name             生成器名字
+     * @param cacheSize        每次缓存大小
+     * @param prefetchExecutor 预取号段的线程池，见{@link SegmentGuidGenerator}
+     */
+    public ZKGuidGenerator(CuratorClientMgr curatorClientMgr, final String name, final long cacheSize, final Executor prefetchExecutor) {
+        this(curatorClientMgr, name, SegmentConfig.fixedSize(cacheSize), prefetchExecutor);
     }
 
     /**
-     * @param name      生成器名字
-     * @param cacheSize 每次缓存大小
+     * @param name             生成器名字
+     * @param config           号段配置
+     * @param prefetchExecutor 预取号段的线程池，见{@link SegmentGuidGenerator}
      */
-    public ZKGuidGenerator(CuratorClientMgr curatorClientMgr, final String name, final long cacheSize) {
-        if (cacheSize <= 0) {
-            throw new IllegalArgumentException("cacheSize: " + cacheSize + " (expected: > 0)");
-        }
+    public ZKGuidGenerator(CuratorClientMgr curatorClientMgr, final String name, final SegmentConfig config, final Executor prefetchExecutor) {
+        super(name, config, prefetchExecutor);
         this.curatorFacade = new CuratorFacade(curatorClientMgr, null);
-        this.name = name;
-        this.cacheSize = cacheSize;
     }
 
     @Override
-    public String nameSpace() {
-        return name;
+    protected long allocateSegment(long segmentSize) throws Exception {
+        final String guidPath = getGuidPath();
+        final Stat stat = new Stat();
+        int retryTimes = 0;
+        while (true) {
+            final byte[] curData = curatorFacade.getDataIfPresent(guidPath, stat);
+            final long currentValue = curData == null ? 0 : decode(curData);
+            final long curBarrier = currentValue + segmentSize;
+            final byte[] newData = encode(curBarrier);
+
+            final boolean success;
+            if (null == curData) {
+                success = curatorFacade.createNodeIfAbsent(guidPath, CreateMode.PERSISTENT, newData) != null;
+            } else {
+                success = curatorFacade.compareAndSetData(guidPath, stat.getVersion(), newData);
+            }
+
+            if (success) {
+                logger.info("update guid cache, curGuid={}, curBarrier={}, retryTimes={}", currentValue + 1, curBarrier, retryTimes);
+                return curBarrier;
+            }
+            // 其它进程先更新了节点，重新读取
+            retryTimes++;
+        }
     }
 
     @Override
-    public long next() {
-        try {
-            checkCache();
-
-            return curGuid++;
-        } catch (Exception e) {
-            return ExceptionUtils.rethrow(e);
-        }
+    protected void onPrefetchFailure(Throwable cause) {
+        logger.warn("prefetch guid segment caught exception, name {}", nameSpace(), cause);
     }
 
-    /**
-     * 检查缓存是否需要更新
-     *
-     * @throws Exception zk error
-     */
-    private void checkCache() throws Exception {
-        if (curGuid > 0 && curGuid <= curBarrier) {
-            return;
-        }
-
-        // 本地缓存用完了
-        final String lockPath = getLockPath();
-        curatorFacade.actionWhitLock(lockPath, this::refreshCache);
+    private String getGuidPath() {
+        return ZKPathUtils.makePath(GUID_PATH_ROOT, nameSpace());
     }
 
     /**
-     * 更新本地guid缓存，需要运行在分布式锁保护下
-     *
-     * @throws Exception zk errors
+     * 固定8字节大端编码
      */
-    private void refreshCache() throws Exception {
-        final String guidPath = getGuidPath();
-        final byte[] curData = curatorFacade.getDataIfPresent(guidPath);
-        final long currentValue = curData == null ? 0 : decode(curData);
-
-        this.curGuid = currentValue + 1;
-        this.curBarrier = currentValue + cacheSize;
-
-        final byte[] newData = encode(curBarrier);
-        if (null == curData) {
-            curatorFacade.createNode(guidPath, CreateMode.PERSISTENT, newData);
-        } else {
-            curatorFacade.setData(guidPath, newData);
+    static byte[] encode(long guidIndex) {
+        final byte[] result = new byte[Long.BYTES];
+        for (int index = Long.BYTES - 1; index >= 0; index--) {
+            result[index] = (byte) guidIndex;
+            guidIndex >>>= 8;
         }
-
-        logger.info("update guid cache, curGuid={}, curBarrier={}", curGuid, curBarrier);
-    }
-
-    private String getGuidPath() {
-        return ZKPathUtils.makePath(GUID_PATH_ROOT, name);
-    }
-
-    private String getLockPath() {
-        return ZKPathUtils.makePath(GUID_PATH_ROOT, name + "_lock");
+        return result;
     }
 
     /**
-     * 序列化为字符串字节数组具有更好的可读性
+     * 兼容旧版本的字符串编码：二进制编码的第一个字节是0(值小于2^56)，而字符串编码的第一个字节一定是数字字符。
      */
-    private static byte[] encode(long guidIndex) {
-        return CodecUtils.getBytesUTF8(Long.toString(guidIndex));
+    static long decode(byte[] guidData) {
+        if (guidData.length != Long.BYTES || isDigit(guidData[0])) {
+            return Long.parseLong(CodecUtils.newStringUTF8(guidData));
+        }
+        long result = 0;
+        for (byte b : guidData) {
+            result = (result << 8) | (b & 0xFF);
+        }
+        return result;
     }
 
-    private static long decode(byte[] guidData) {
-        return Long.parseLong(CodecUtils.newStringUTF8(guidData));
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
     }
 
     @Override
     public void close() {
+        awaitPrefetch();
         curatorFacade.shutdown();
     }
 }
@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.zk.guid;
+
+import com.wjybxx.fastjgame.guid.core.WorkerIdAllocator;
+import com.wjybxx.fastjgame.zk.core.CuratorClientMgr;
+import com.wjybxx.fastjgame.zk.core.CuratorFacade;
+import com.wjybxx.fastjgame.zk.utils.ZKPathUtils;
+import org.apache.zookeeper.CreateMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 基于zookeeper临时节点的workerId分配器。
+ * 依次尝试创建{@code /_guid_worker/{workerId}}临时节点，创建成功即获得该workerId。
+ * <p>
+ * 租约与zookeeper会话绑定：会话过期后临时节点会被删除，其它进程可能获得相同的workerId。
+ * 因此会话过期时应该停止使用对应的生成器(或关闭进程)。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/4
+ * github - https://github.com/hl845740757
+ */
+public class ZKWorkerIdAllocator implements WorkerIdAllocator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZKWorkerIdAllocator.class);
+
+    private static final String WORKER_PATH_ROOT = "/_guid_worker/";
+
+    private final CuratorFacade curatorFacade;
+    private final byte[] ownerData;
+
+    /**
+     * @param ownerData 存储在临时节点上的数据，方便排查问题(如：进程地址)
+     */
+    public ZKWorkerIdAllocator(CuratorClientMgr curatorClientMgr, byte[] ownerData) {
+        this.curatorFacade = new CuratorFacade(curatorClientMgr, null);
+        this.ownerData = ownerData;
+    }
+
+    @Override
+    public int allocate(int maxWorkerId) throws Exception {
+        for (int workerId = 0; workerId <= maxWorkerId; workerId++) {
+            final String path = ZKPathUtils.makePath(WORKER_PATH_ROOT, String.valueOf(workerId));
+            if (curatorFacade.createNodeIfAbsent(path, CreateMode.EPHEMERAL, ownerData) != null) {
+                logger.info("allocate workerId {}", workerId);
+                return workerId;
+            }
+        }
+        throw new IllegalStateException("no available workerId, maxWorkerId " + maxWorkerId);
+    }
+}
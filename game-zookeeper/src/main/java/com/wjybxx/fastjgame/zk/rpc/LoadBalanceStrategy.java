@@ -0,0 +1,41 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.zk.rpc;
+
+/**
+ * 负载均衡策略
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/27
+ * github - https://github.com/hl845740757
+ */
+public enum LoadBalanceStrategy {
+
+    /**
+     * 选择未完成rpc调用数最少的session，数量相同时轮询。
+     * 需要遍历所有的session，适合实例数较少的服务。
+     */
+    LEAST_PENDING,
+
+    /**
+     * 随机选择两个session，选择其中未完成rpc调用数较少的一个。
+     * 开销固定，且对统计信息的延迟不敏感(不会出现所有调用都涌向同一个实例的情况)，建议使用。
+     */
+    POWER_OF_TWO_CHOICES,
+
+}
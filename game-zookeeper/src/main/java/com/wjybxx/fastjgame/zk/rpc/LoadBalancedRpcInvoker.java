@@ -0,0 +1,462 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.zk.rpc;
+
+import com.wjybxx.fastjgame.net.exception.RpcSessionNotFoundException;
+import com.wjybxx.fastjgame.net.misc.HostAndPort;
+import com.wjybxx.fastjgame.net.rpc.MessagePriority;
+import com.wjybxx.fastjgame.net.rpc.RpcInvoker;
+import com.wjybxx.fastjgame.net.rpc.RpcMethodSpec;
+import com.wjybxx.fastjgame.net.session.Session;
+import com.wjybxx.fastjgame.util.CloseableUtils;
+import com.wjybxx.fastjgame.util.CodecUtils;
+import com.wjybxx.fastjgame.util.concurrent.EventLoop;
+import com.wjybxx.fastjgame.util.concurrent.FluentFuture;
+import com.wjybxx.fastjgame.util.concurrent.ListenableFuture;
+import com.wjybxx.fastjgame.util.misc.CloseableHandle;
+import com.wjybxx.fastjgame.zk.core.CuratorFacade;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.curator.utils.ZKPaths;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 负载均衡的rpc调用器，将调用分散到某个无状态服务的多个实例上。
+ *
+ * <h3>服务发现</h3>
+ * 每个服务实例在{@code servicePath}下注册一个子节点(通常是临时节点)，节点数据为实例地址的UTF-8编码，格式为{@code host:port}。
+ * 该调用器通过{@link CuratorFacade#watchChildren(String, org.apache.curator.framework.recipes.cache.PathChildrenCacheListener)}
+ * 监听子节点的变化，节点新增时建立连接，节点删除时关闭连接，地址改变时重新建立连接。
+ *
+ * <h3>负载均衡</h3>
+ * 每次调用时根据{@link LoadBalanceStrategy}选择一个session，依据是实例的负载。
+ * {@link Session#pendingRpcCalls()}在请求到达网络线程之后才会增加，同一帧内的突发调用看到的是过期的值，会全部落到同一个实例上。
+ * 因此该调用器自己维护每个实例上经由它发出的、尚未完成的调用数(发起调用时加1，future完成时减1)，
+ * 实例的负载取该计数与{@link Session#pendingRpcCalls()}的较大值(后者还包括其它调用者发起的调用)。
+ * 如果当前没有可用的session，则表现为session不存在，即：返回一个已失败的future，异常为{@link RpcSessionNotFoundException}。
+ *
+ * <h3>使用方式</h3>
+ * 1. 只能在创建{@link CuratorFacade}时指定的{@code appEventLoop}中使用。
+ * 2. 调用{@link #start()}开始监听，不再使用时调用{@link #close()}。
+ * 3. 需要定时调用{@link #tick()}，以重连失败或断开的实例。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/27
+ * github - https://github.com/hl845740757
+ */
+@NotThreadSafe
+public class LoadBalancedRpcInvoker {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadBalancedRpcInvoker.class);
+
+    /**
+     * 连接失败或断开之后的重连间隔
+     */
+    private static final long RECONNECT_INTERVAL_MS = 3000;
+
+    private final CuratorFacade curatorFacade;
+    private final EventLoop appEventLoop;
+    private final RpcInvoker rpcInvoker;
+    private final SessionConnector sessionConnector;
+    private final String servicePath;
+    private final LoadBalanceStrategy strategy;
+
+    /**
+     * 所有的服务实例，nodeName -> endpoint
+     */
+    private final Map<String, Endpoint> endpointMap = new HashMap<>();
+    /**
+     * 已建立连接的实例，用于选择
+     */
+    private final List<Endpoint> readyEndpoints = new ArrayList<>();
+
+    private CloseableHandle watchHandle;
+    private long connectSequence = 0;
+    /**
+     * {@link LoadBalanceStrategy#LEAST_PENDING}在数量相同时轮询的起始索引
+     */
+    private int roundRobinIndex = 0;
+    private boolean closed = false;
+
+    /**
+     * @param curatorFacade    zk门面
+     * @param appEventLoop     创建{@link CuratorFacade}时指定的应用线程
+     * @param rpcInvoker       真正执行调用的invoker
+     * @param sessionConnector 连接服务实例的连接器
+     * @param servicePath      服务实例的父节点路径
+     * @param strategy         负载均衡策略
+     */
+    public LoadBalancedRpcInvoker(CuratorFacade curatorFacade, EventLoop appEventLoop, RpcInvoker rpcInvoker,
+                                  SessionConnector sessionConnector, String servicePath, LoadBalanceStrategy strategy) {
+        this.curatorFacade = curatorFacade;
+        this.appEventLoop = appEventLoop;
+        this.rpcInvoker = rpcInvoker;
+        this.sessionConnector = sessionConnector;
+        this.servicePath = servicePath;
+        this.strategy = strategy;
+    }
+
+    /**
+     * 开始监听服务实例
+     */
+    public void start() throws Exception {
+        ensureInEventLoop();
+        if (watchHandle != null) {
+            throw new IllegalStateException("started");
+        }
+        watchHandle = curatorFacade.watchChildren(servicePath, this::onEvent);
+    }
+
+    /**
+     * 停止监听，并关闭所有的session
+     */
+    public void close() {
+        ensureInEventLoop();
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (watchHandle != null) {
+            CloseableUtils.closeQuietly(watchHandle);
+            watchHandle = null;
+        }
+
+        for (Endpoint endpoint : endpointMap.values()) {
+            endpoint.removed = true;
+            closeSession(endpoint);
+        }
+        endpointMap.clear();
+        readyEndpoints.clear();
+    }
+
+    /**
+     * 重连连接失败或已断开的实例，需要定时调用
+     */
+    public void tick() {
+        ensureInEventLoop();
+        if (closed) {
+            return;
+        }
+
+        final long curTimeMillis = System.currentTimeMillis();
+        for (Endpoint endpoint : endpointMap.values()) {
+            if (endpoint.session != null && endpoint.session.isClosed()) {
+                readyEndpoints.remove(endpoint);
+                endpoint.session = null;
+                endpoint.nextConnectTimeMillis = curTimeMillis + RECONNECT_INTERVAL_MS;
+            }
+            if (endpoint.session == null && !endpoint.connecting && curTimeMillis >= endpoint.nextConnectTimeMillis) {
+                connect(endpoint);
+            }
+        }
+    }
+
+    // ------------------------------------------------ 服务发现 ------------------------------------------------
+
+    private void onEvent(CuratorFramework client, PathChildrenCacheEvent event) {
+        if (closed) {
+            return;
+        }
+        switch (event.getType()) {
+            case CHILD_ADDED:
+            case CHILD_UPDATED:
+                onChildAddedOrUpdated(event.getData());
+                break;
+            case CHILD_REMOVED:
+                removeEndpoint(ZKPaths.getNodeFromPath(event.getData().getPath()));
+                break;
+            default:
+                // 连接挂起或丢失时保持现有的连接，临时节点被删除时会收到删除事件
+                break;
+        }
+    }
+
+    private void onChildAddedOrUpdated(ChildData childData) {
+        final String nodeName = ZKPaths.getNodeFromPath(childData.getPath());
+        final HostAndPort address = parseAddress(childData);
+        if (null == address) {
+            logger.warn("bad service node, path {}", childData.getPath());
+            removeEndpoint(nodeName);
+            return;
+        }
+
+        final Endpoint existEndpoint = endpointMap.get(nodeName);
+        if (existEndpoint != null) {
+            // HostAndPort未重写equals，其字符串格式是确定的
+            if (existEndpoint.address.toString().equals(address.toString())) {
+                return;
+            }
+            // 地址改变，重新建立连接
+            removeEndpoint(nodeName);
+        }
+
+        final Endpoint endpoint = new Endpoint(nodeName, address);
+        endpointMap.put(nodeName, endpoint);
+        connect(endpoint);
+    }
+
+    @Nullable
+    private static HostAndPort parseAddress(ChildData childData) {
+        final byte[] data = childData.getData();
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        try {
+            return HostAndPort.parseHostAndPort(CodecUtils.newStringUTF8(data));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private void removeEndpoint(String nodeName) {
+        final Endpoint endpoint = endpointMap.remove(nodeName);
+        if (endpoint == null) {
+            return;
+        }
+        endpoint.removed = true;
+        closeSession(endpoint);
+    }
+
+    private void closeSession(Endpoint endpoint) {
+        if (endpoint.session != null) {
+            readyEndpoints.remove(endpoint);
+            endpoint.session.close();
+            endpoint.session = null;
+        }
+    }
+
+    private void connect(Endpoint endpoint) {
+        endpoint.connecting = true;
+        // 每次连接都使用新的sessionId，避免与尚未完全关闭的旧session冲突
+        final String sessionId = "LB-" + servicePath + "/" + endpoint.nodeName + "-" + (++connectSequence);
+        sessionConnector.connect(sessionId, endpoint.address)
+                .addListener(future -> onConnectDone(endpoint, future), appEventLoop);
+    }
+
+    private void onConnectDone(Endpoint endpoint, ListenableFuture<Session> future) {
+        endpoint.connecting = false;
+
+        if (future.isCompletedExceptionally()) {
+            logger.warn("connect service instance failure, path {}, address {}", servicePath, endpoint.address, future.cause());
+            endpoint.nextConnectTimeMillis = System.currentTimeMillis() + RECONNECT_INTERVAL_MS;
+            return;
+        }
+
+        final Session session = future.getNow();
+        if (endpoint.removed) {
+            // 连接建立期间节点已删除
+            session.close();
+            return;
+        }
+        endpoint.session = session;
+        readyEndpoints.add(endpoint);
+    }
+
+    // ------------------------------------------------ 负载均衡 ------------------------------------------------
+
+    /**
+     * 选择一个session，如果没有可用的session，则返回null
+     */
+    @Nullable
+    public Session select() {
+        final Endpoint endpoint = selectEndpoint();
+        return endpoint == null ? null : endpoint.session;
+    }
+
+    @Nullable
+    private Endpoint selectEndpoint() {
+        ensureInEventLoop();
+        removeClosedSessions();
+
+        final int size = readyEndpoints.size();
+        if (size == 0) {
+            return null;
+        }
+        if (size == 1) {
+            return readyEndpoints.get(0);
+        }
+
+        if (strategy == LoadBalanceStrategy.LEAST_PENDING) {
+            return selectLeastPending(size);
+        } else {
+            return selectPowerOfTwoChoices(size);
+        }
+    }
+
+    private void removeClosedSessions() {
+        for (int index = readyEndpoints.size() - 1; index >= 0; index--) {
+            if (readyEndpoints.get(index).session.isClosed()) {
+                readyEndpoints.remove(index);
+            }
+        }
+    }
+
+    private Endpoint selectLeastPending(int size) {
+        final int startIndex = Math.floorMod(roundRobinIndex++, size);
+        Endpoint result = null;
+        int minLoad = Integer.MAX_VALUE;
+        for (int offset = 0; offset < size; offset++) {
+            final Endpoint endpoint = readyEndpoints.get((startIndex + offset) % size);
+            final int load = endpoint.load();
+            if (load < minLoad) {
+                minLoad = load;
+                result = endpoint;
+            }
+        }
+        return result;
+    }
+
+    private Endpoint selectPowerOfTwoChoices(int size) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int first = random.nextInt(size);
+        // 保证两次选择不同
+        final int second = (first + 1 + random.nextInt(size - 1)) % size;
+
+        final Endpoint firstEndpoint = readyEndpoints.get(first);
+        final Endpoint secondEndpoint = readyEndpoints.get(second);
+        return firstEndpoint.load() <= secondEndpoint.load() ? firstEndpoint : secondEndpoint;
+    }
+
+    /**
+     * @return 已建立连接的实例数
+     */
+    public int readyCount() {
+        removeClosedSessions();
+        return readyEndpoints.size();
+    }
+
+    /**
+     * @return 已发现的实例数(包括尚未建立连接的)
+     */
+    public int endpointCount() {
+        return endpointMap.size();
+    }
+
+    private void ensureInEventLoop() {
+        if (!appEventLoop.inEventLoop()) {
+            throw new IllegalStateException("must call in appEventLoop");
+        }
+    }
+
+    // ------------------------------------------------ 调用 ------------------------------------------------
+
+    /**
+     * 选择一个实例发送单向消息
+     *
+     * @see RpcInvoker#send(Session, RpcMethodSpec, boolean)
+     */
+    public void send(@Nonnull RpcMethodSpec<?> message, boolean flush) {
+        rpcInvoker.send(select(), message, flush);
+    }
+
+    /**
+     * 选择一个实例发送rpc请求
+     *
+     * @see RpcInvoker#call(Session, RpcMethodSpec, boolean)
+     */
+    public <V> FluentFuture<V> call(@Nonnull RpcMethodSpec<V> request, boolean flush) {
+        return call(request, MessagePriority.NORMAL, flush);
+    }
+
+    /**
+     * 选择一个实例以指定优先级发送rpc请求
+     *
+     * @see RpcInvoker#call(Session, RpcMethodSpec, MessagePriority, boolean)
+     */
+    public <V> FluentFuture<V> call(@Nonnull RpcMethodSpec<V> request, @Nonnull MessagePriority priority, boolean flush) {
+        final Endpoint endpoint = selectEndpoint();
+        if (endpoint == null) {
+            return rpcInvoker.call(null, request, priority, flush);
+        }
+
+        endpoint.inflightCalls++;
+        final FluentFuture<V> future = rpcInvoker.call(endpoint.session, request, priority, flush);
+        future.addListener(f -> endpoint.inflightCalls--, appEventLoop);
+        return future;
+    }
+
+    /**
+     * 选择一个实例执行同步rpc调用
+     *
+     * @see RpcInvoker#syncCall(Session, RpcMethodSpec)
+     */
+    @Nullable
+    public <V> V syncCall(@Nonnull RpcMethodSpec<V> request) throws CompletionException {
+        final Endpoint endpoint = selectEndpoint();
+        if (endpoint == null) {
+            return rpcInvoker.syncCall(null, request);
+        }
+
+        endpoint.inflightCalls++;
+        try {
+            return rpcInvoker.syncCall(endpoint.session, request);
+        } finally {
+            endpoint.inflightCalls--;
+        }
+    }
+
+    private static class Endpoint {
+
+        private final String nodeName;
+        private final HostAndPort address;
+
+        /**
+         * 已建立的连接
+         */
+        private Session session;
+        /**
+         * 是否正在建立连接
+         */
+        private boolean connecting;
+        /**
+         * 节点是否已删除
+         */
+        private boolean removed;
+        /**
+         * 下次可以尝试连接的时间
+         */
+        private long nextConnectTimeMillis;
+        /**
+         * 经由该调用器发往该实例的、尚未完成的rpc调用数。
+         * 按实例而不是按session统计：重连之前发出的调用会在旧session关闭时失败，计数随之归还。
+         */
+        private int inflightCalls;
+
+        Endpoint(String nodeName, HostAndPort address) {
+            this.nodeName = nodeName;
+            this.address = address;
+        }
+
+        /**
+         * 实例的负载，只有已建立连接的实例可以调用
+         */
+        int load() {
+            return Math.max(inflightCalls, session.pendingRpcCalls());
+        }
+    }
+}
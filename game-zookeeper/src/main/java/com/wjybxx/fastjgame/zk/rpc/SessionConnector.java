@@ -0,0 +1,58 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.zk.rpc;
+
+import com.wjybxx.fastjgame.net.misc.HostAndPort;
+import com.wjybxx.fastjgame.net.misc.NetContext;
+import com.wjybxx.fastjgame.net.session.Session;
+import com.wjybxx.fastjgame.net.socket.SocketSessionConfig;
+import com.wjybxx.fastjgame.util.concurrent.FluentFuture;
+
+import javax.annotation.Nonnull;
+
+/**
+ * session连接器，负责建立到服务实例的连接。
+ * 默认实现通过{@link NetContext#connectTcp(String, HostAndPort, SocketSessionConfig)}建立连接，
+ * 最终由{@code ConnectorManager}管理，抽象出来主要是为了方便测试。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/27
+ * github - https://github.com/hl845740757
+ */
+@FunctionalInterface
+public interface SessionConnector {
+
+    /**
+     * 建立到指定地址的连接
+     *
+     * @param sessionId     为要建立的session分配的全局唯一id
+     * @param remoteAddress 服务实例的地址
+     * @return future
+     */
+    FluentFuture<Session> connect(String sessionId, HostAndPort remoteAddress);
+
+    /**
+     * 以tcp方式建立连接
+     *
+     * @param netContext 网络上下文
+     * @param config     session配置
+     */
+    static SessionConnector tcp(@Nonnull NetContext netContext, @Nonnull SocketSessionConfig config) {
+        return (sessionId, remoteAddress) -> netContext.connectTcp(sessionId, remoteAddress, config);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.zk.core;
+
+import com.wjybxx.fastjgame.util.CodecUtils;
+import com.wjybxx.fastjgame.util.concurrent.DefaultEventLoop;
+import com.wjybxx.fastjgame.util.concurrent.DefaultThreadFactory;
+import com.wjybxx.fastjgame.util.concurrent.FluentFuture;
+import com.wjybxx.fastjgame.util.concurrent.RejectedExecutionHandlers;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AsyncCuratorFacade}测试，使用curator的进程内zookeeper服务器。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/10
+ * github - https://github.com/hl845740757
+ */
+class AsyncCuratorFacadeTest {
+
+    private TestingServer testingServer;
+    private CuratorClientMgr curatorClientMgr;
+    private DefaultEventLoop appEventLoop;
+    private AsyncCuratorFacade facade;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        testingServer = new TestingServer(true);
+        final CuratorFrameworkFactory.Builder builder = CuratorFrameworkFactory.builder()
+                .namespace("test")
+                .connectString(testingServer.getConnectString())
+                .connectionTimeoutMs(30 * 1000)
+                .sessionTimeoutMs(30 * 1000)
+                .retryPolicy(new BackoffRetryForever());
+        curatorClientMgr = new CuratorClientMgr(builder, new DefaultThreadFactory("CURATOR_BACKGROUD"));
+        appEventLoop = new DefaultEventLoop(null, new DefaultThreadFactory("APP"), RejectedExecutionHandlers.abort());
+        facade = new AsyncCuratorFacade(curatorClientMgr, appEventLoop);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        facade.shutdown();
+        appEventLoop.shutdown();
+        curatorClientMgr.shutdown();
+        testingServer.close();
+    }
+
+    private <V> V await(FluentFuture<V> future) throws Exception {
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void nodeOperations() throws Exception {
+        final String path = "/async/node";
+        Assertions.assertNull(await(facade.getDataIfPresent(path)));
+        Assertions.assertFalse(await(facade.isPathExist(path)));
+
+        Assertions.assertEquals(path, await(facade.createNode(path, CreateMode.PERSISTENT, CodecUtils.getBytesUTF8("1"))));
+        Assertions.assertNull(await(facade.createNodeIfAbsent(path, CreateMode.PERSISTENT, CodecUtils.getBytesUTF8("2"))));
+        Assertions.assertEquals("1", CodecUtils.newStringUTF8(await(facade.getData(path))));
+
+        final Stat stat = new Stat();
+        await(facade.getDataIfPresent(path, stat));
+        Assertions.assertTrue(await(facade.compareAndSetData(path, stat.getVersion(), CodecUtils.getBytesUTF8("3"))));
+        Assertions.assertFalse(await(facade.compareAndSetData(path, stat.getVersion(), CodecUtils.getBytesUTF8("4"))));
+        Assertions.assertEquals("3", CodecUtils.newStringUTF8(await(facade.getData(path))));
+
+        final List<String> children = await(facade.getChildren("/async"));
+        Assertions.assertEquals(List.of("node"), children);
+
+        await(facade.delete(path));
+        await(facade.delete(path));
+        Assertions.assertFalse(await(facade.isPathExist(path)));
+        Assertions.assertTrue(await(facade.getChildren(path)).isEmpty());
+
+        final ExecutionException exception = Assertions.assertThrows(ExecutionException.class, () -> await(facade.getData(path)));
+        Assertions.assertTrue(exception.getCause() instanceof KeeperException.NoNodeException);
+    }
+
+    @Test
+    void completeInAppEventLoop() throws Exception {
+        final CompletableFuture<Boolean> inEventLoop = new CompletableFuture<>();
+        // 在应用线程中添加监听器，此时future一定还未完成
+        appEventLoop.execute(() -> facade.isPathExist("/async")
+                .addListener(f -> inEventLoop.complete(appEventLoop.inEventLoop())));
+        Assertions.assertTrue(inEventLoop.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void lockWithTimeout() throws Exception {
+        final String lockPath = "/async/lock";
+        final AsyncCuratorFacade otherFacade = new AsyncCuratorFacade(curatorClientMgr, appEventLoop);
+        try {
+            Assertions.assertTrue(await(facade.lock(lockPath, 1, TimeUnit.SECONDS)));
+            Assertions.assertFalse(await(otherFacade.lock(lockPath, 200, TimeUnit.MILLISECONDS)));
+
+            final FluentFuture<Boolean> waitFuture = otherFacade.lock(lockPath, 5, TimeUnit.SECONDS);
+            await(facade.unlock(lockPath));
+            Assertions.assertTrue(await(waitFuture));
+            await(otherFacade.unlock(lockPath));
+        } finally {
+            otherFacade.shutdown();
+        }
+    }
+
+    @Test
+    void syncFailureCompleteInAppEventLoop() throws Exception {
+        final String lockPath = "/async/lock";
+        Assertions.assertTrue(await(facade.lock(lockPath, 1, TimeUnit.SECONDS)));
+        try {
+            final CompletableFuture<Boolean> doneOnReturn = new CompletableFuture<>();
+            final CompletableFuture<Boolean> inEventLoop = new CompletableFuture<>();
+            appEventLoop.execute(() -> {
+                // 重复锁定立即失败，但仍然在应用线程的下一个任务中完成
+                final FluentFuture<Boolean> future = facade.lock(lockPath, 1, TimeUnit.SECONDS);
+                doneOnReturn.complete(future.isDone());
+                future.addListener(f -> inEventLoop.complete(appEventLoop.inEventLoop() && f.cause() instanceof IllegalStateException));
+            });
+            Assertions.assertFalse(doneOnReturn.get(10, TimeUnit.SECONDS));
+            Assertions.assertTrue(inEventLoop.get(10, TimeUnit.SECONDS));
+        } finally {
+            await(facade.unlock(lockPath));
+        }
+    }
+
+    @Test
+    void rejectWhenLockExecutorFull() throws Exception {
+        final String lockPath = "/async/lock";
+        final AsyncCuratorFacade boundedFacade = new AsyncCuratorFacade(curatorClientMgr, appEventLoop, 1, 1);
+        try {
+            Assertions.assertTrue(await(facade.lock(lockPath, 1, TimeUnit.SECONDS)));
+
+            // 第一个任务占用唯一的线程等待锁，第二个任务排队，第三个任务被拒绝
+            final FluentFuture<Boolean> waitFuture = boundedFacade.lock(lockPath, 5, TimeUnit.SECONDS);
+            final FluentFuture<Boolean> queuedFuture = boundedFacade.lock("/async/lock2", 5, TimeUnit.SECONDS);
+            final CompletableFuture<Boolean> rejectedInEventLoop = new CompletableFuture<>();
+            appEventLoop.execute(() -> boundedFacade.lock("/async/lock3", 5, TimeUnit.SECONDS)
+                    .addListener(f -> rejectedInEventLoop.complete(appEventLoop.inEventLoop() && f.cause() instanceof RejectedExecutionException)));
+            Assertions.assertTrue(rejectedInEventLoop.get(10, TimeUnit.SECONDS));
+
+            await(facade.unlock(lockPath));
+            Assertions.assertTrue(await(waitFuture));
+            Assertions.assertTrue(await(queuedFuture));
+            await(boundedFacade.unlock(lockPath));
+            await(boundedFacade.unlock("/async/lock2"));
+        } finally {
+            boundedFacade.shutdown();
+        }
+    }
+}
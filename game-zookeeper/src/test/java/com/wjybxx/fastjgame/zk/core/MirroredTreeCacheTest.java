@@ -0,0 +1,270 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.zk.core;
+
+import com.wjybxx.fastjgame.util.CodecUtils;
+import com.wjybxx.fastjgame.util.concurrent.DefaultEventLoop;
+import com.wjybxx.fastjgame.util.concurrent.DefaultThreadFactory;
+import com.wjybxx.fastjgame.util.concurrent.RejectedExecutionHandlers;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.CreateMode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MirroredTreeCache}测试，使用curator的进程内zookeeper服务器。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/11
+ * github - https://github.com/hl845740757
+ */
+class MirroredTreeCacheTest {
+
+    private static final String ROOT = "/mirror";
+    /**
+     * 会话超时时间较短，以便停止服务器后尽快产生{@link TreeCacheEvent.Type#CONNECTION_LOST}事件
+     */
+    private static final int SESSION_TIMEOUT_MS = 5 * 1000;
+
+    private TestingServer testingServer;
+    private CuratorClientMgr curatorClientMgr;
+    private DefaultEventLoop appEventLoop;
+    private CuratorFacade curatorFacade;
+    private MirroredTreeCache treeCache;
+    private final List<TreeCacheEvent> receivedEvents = new CopyOnWriteArrayList<>();
+    /**
+     * 会话丢失后重连、刷新完成之前，在监听器中读取的次数
+     */
+    private long resyncingReads;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        testingServer = new TestingServer(true);
+        final CuratorFrameworkFactory.Builder builder = CuratorFrameworkFactory.builder()
+                .namespace("test")
+                .connectString(testingServer.getConnectString())
+                .connectionTimeoutMs(SESSION_TIMEOUT_MS)
+                .sessionTimeoutMs(SESSION_TIMEOUT_MS)
+                .retryPolicy(new BackoffRetryForever());
+        curatorClientMgr = new CuratorClientMgr(builder, new DefaultThreadFactory("CURATOR_BACKGROUD"));
+        appEventLoop = new DefaultEventLoop(null, new DefaultThreadFactory("APP"), RejectedExecutionHandlers.abort());
+        curatorFacade = new CuratorFacade(curatorClientMgr, appEventLoop);
+        treeCache = new MirroredTreeCache(curatorClientMgr, appEventLoop, ROOT, this::onChanges);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        treeCache.close();
+        curatorFacade.shutdown();
+        appEventLoop.shutdown();
+        curatorClientMgr.shutdown();
+        testingServer.close();
+    }
+
+    /**
+     * 缓存只能在应用线程访问
+     */
+    private <V> V call(Callable<V> task) throws Exception {
+        return appEventLoop.submit(task).get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 应用线程
+     */
+    private void onChanges(List<TreeCacheEvent> events) throws Exception {
+        receivedEvents.addAll(events);
+        // 重连之后，整棵树刷新完成之前
+        if (countEvents(TreeCacheEvent.Type.CONNECTION_LOST) > 0
+                && lastEventType(events) == TreeCacheEvent.Type.CONNECTION_RECONNECTED) {
+            treeCache.getDataIfPresent(ROOT + "/a");
+            resyncingReads++;
+        }
+    }
+
+    private static TreeCacheEvent.Type lastEventType(List<TreeCacheEvent> events) {
+        return events.get(events.size() - 1).getType();
+    }
+
+    private long countEvents(TreeCacheEvent.Type type) {
+        return receivedEvents.stream().filter(e -> e.getType() == type).count();
+    }
+
+    private void waitUntil(Callable<Boolean> condition) throws Exception {
+        waitUntil(condition, 10 * 1000);
+    }
+
+    private void waitUntil(Callable<Boolean> condition, long timeoutMs) throws Exception {
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!call(condition)) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "wait timeout");
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    void failFastBeforeInitialized() throws Exception {
+        curatorFacade.createNode(ROOT + "/a", CreateMode.PERSISTENT, CodecUtils.getBytesUTF8("1"));
+
+        // 不阻塞应用线程访问zookeeper
+        call(() -> Assertions.assertThrows(IllegalStateException.class, () -> treeCache.getDataIfPresent(ROOT + "/a")));
+        Assertions.assertEquals(1, (long) call(treeCache::getUnavailableReads));
+        Assertions.assertEquals(0, (long) call(treeCache::getMemoryReads));
+    }
+
+    @Test
+    void readFromMirror() throws Exception {
+        curatorFacade.createNode(ROOT + "/a", CreateMode.PERSISTENT, CodecUtils.getBytesUTF8("1"));
+        curatorFacade.createNode(ROOT + "/b", CreateMode.PERSISTENT, CodecUtils.getBytesUTF8("2"));
+
+        treeCache.start();
+        waitUntil(treeCache::isInitialized);
+
+        Assertions.assertEquals("1", CodecUtils.newStringUTF8(call(() -> treeCache.getDataIfPresent(ROOT + "/a"))));
+        Assertions.assertNull(call(() -> treeCache.getDataIfPresent(ROOT + "/c")));
+        Assertions.assertEquals(Set.of("a", "b"), new HashSet<>(call(() -> treeCache.getChildren(ROOT))));
+
+        final Map<String, byte[]> childrenData = call(() -> treeCache.getChildrenData(ROOT));
+        Assertions.assertEquals("2", CodecUtils.newStringUTF8(childrenData.get(ROOT + "/b")));
+
+        Assertions.assertEquals(4, (long) call(treeCache::getMemoryReads));
+        Assertions.assertEquals(0, (long) call(treeCache::getStaleReads));
+        Assertions.assertEquals(0, (long) call(treeCache::getUnavailableReads));
+    }
+
+    @Test
+    void changesDeliveredToAppEventLoop() throws Exception {
+        curatorFacade.createNode(ROOT + "/a", CreateMode.PERSISTENT, CodecUtils.getBytesUTF8("1"));
+        treeCache.start();
+        waitUntil(treeCache::isInitialized);
+
+        final MirroredTreeCache.CachedNode oldNode = call(() -> treeCache.getNode(ROOT + "/a"));
+        Assertions.assertNotNull(oldNode);
+
+        receivedEvents.clear();
+        curatorFacade.setData(ROOT + "/a", CodecUtils.getBytesUTF8("2"));
+        waitUntil(() -> {
+            final MirroredTreeCache.CachedNode node = treeCache.getNode(ROOT + "/a");
+            return node != null && node.getVersion() > oldNode.getVersion();
+        });
+
+        final MirroredTreeCache.CachedNode newNode = call(() -> treeCache.getNode(ROOT + "/a"));
+        Assertions.assertEquals("2", CodecUtils.newStringUTF8(newNode.getData()));
+        Assertions.assertTrue(newNode.getMzxid() > oldNode.getMzxid());
+        Assertions.assertTrue(receivedEvents.stream().anyMatch(e -> e.getType() == TreeCacheEvent.Type.NODE_UPDATED));
+
+        curatorFacade.delete(ROOT + "/a");
+        waitUntil(() -> treeCache.getNode(ROOT + "/a") == null);
+        Assertions.assertTrue(call(() -> treeCache.getChildren(ROOT)).isEmpty());
+    }
+
+    @Test
+    void staleReadsWhileSuspended() throws Exception {
+        curatorFacade.createNode(ROOT + "/a", CreateMode.PERSISTENT, CodecUtils.getBytesUTF8("1"));
+        treeCache.start();
+        waitUntil(treeCache::isInitialized);
+
+        treeCache.onEvent(new TreeCacheEvent(TreeCacheEvent.Type.CONNECTION_SUSPENDED, null));
+        waitUntil(() -> countEvents(TreeCacheEvent.Type.CONNECTION_SUSPENDED) == 1);
+        Assertions.assertEquals("1", CodecUtils.newStringUTF8(call(() -> treeCache.getDataIfPresent(ROOT + "/a"))));
+        Assertions.assertEquals(1, (long) call(treeCache::getStaleReads));
+
+        // 会话未丢失，重连后直接恢复
+        treeCache.onEvent(new TreeCacheEvent(TreeCacheEvent.Type.CONNECTION_RECONNECTED, null));
+        waitUntil(() -> countEvents(TreeCacheEvent.Type.CONNECTION_RECONNECTED) == 1);
+        Assertions.assertEquals("1", CodecUtils.newStringUTF8(call(() -> treeCache.getDataIfPresent(ROOT + "/a"))));
+        Assertions.assertEquals(1, (long) call(treeCache::getMemoryReads));
+        Assertions.assertEquals(1, (long) call(treeCache::getStaleReads));
+    }
+
+    @Test
+    void staleUntilResyncedAfterLost() throws Exception {
+        curatorFacade.createNode(ROOT + "/a", CreateMode.PERSISTENT, CodecUtils.getBytesUTF8("1"));
+        treeCache.start();
+        waitUntil(treeCache::isInitialized);
+
+        treeCache.onEvent(new TreeCacheEvent(TreeCacheEvent.Type.CONNECTION_LOST, null));
+        treeCache.onEvent(new TreeCacheEvent(TreeCacheEvent.Type.CONNECTION_RECONNECTED, null));
+        waitUntil(() -> countEvents(TreeCacheEvent.Type.CONNECTION_RECONNECTED) == 1);
+        final long resyncingStaleReads = call(treeCache::getStaleReads);
+        Assertions.assertEquals((long) call(() -> resyncingReads), resyncingStaleReads);
+
+        // 刷新完成之前，仍然读取镜像，但计入过期读取
+        Assertions.assertEquals("1", CodecUtils.newStringUTF8(call(() -> treeCache.getDataIfPresent(ROOT + "/a"))));
+        Assertions.assertEquals(resyncingStaleReads + 1, (long) call(treeCache::getStaleReads));
+        Assertions.assertEquals(0, (long) call(treeCache::getMemoryReads));
+
+        treeCache.onEvent(new TreeCacheEvent(TreeCacheEvent.Type.INITIALIZED, null));
+        waitUntil(() -> countEvents(TreeCacheEvent.Type.INITIALIZED) == 2);
+        Assertions.assertEquals("1", CodecUtils.newStringUTF8(call(() -> treeCache.getDataIfPresent(ROOT + "/a"))));
+        Assertions.assertEquals(1, (long) call(treeCache::getMemoryReads));
+    }
+
+    @Test
+    void resyncAfterServerRestart() throws Exception {
+        curatorFacade.createNode(ROOT + "/a", CreateMode.PERSISTENT, CodecUtils.getBytesUTF8("1"));
+        treeCache.start();
+        waitUntil(treeCache::isInitialized);
+        Assertions.assertEquals("1", CodecUtils.newStringUTF8(call(() -> treeCache.getDataIfPresent(ROOT + "/a"))));
+
+        // 停止服务器直到会话丢失
+        testingServer.stop();
+        waitUntil(() -> countEvents(TreeCacheEvent.Type.CONNECTION_LOST) > 0, 6 * SESSION_TIMEOUT_MS);
+
+        // 服务器不可用时，读取不阻塞，返回镜像中的数据
+        final long startMillis = System.currentTimeMillis();
+        Assertions.assertEquals("1", CodecUtils.newStringUTF8(call(() -> treeCache.getDataIfPresent(ROOT + "/a"))));
+        Assertions.assertTrue(System.currentTimeMillis() - startMillis < 1000);
+        final long lostStaleReads = call(treeCache::getStaleReads);
+
+        // 重连后TreeCache刷新整棵树，完成时再次产生INITIALIZED事件
+        testingServer.restart();
+        waitUntil(() -> countEvents(TreeCacheEvent.Type.INITIALIZED) == 2, 6 * SESSION_TIMEOUT_MS);
+
+        final List<TreeCacheEvent.Type> types = call(() -> {
+            final List<TreeCacheEvent.Type> result = new ArrayList<>();
+            receivedEvents.forEach(e -> result.add(e.getType()));
+            return result;
+        });
+        Assertions.assertTrue(types.indexOf(TreeCacheEvent.Type.CONNECTION_RECONNECTED) < types.lastIndexOf(TreeCacheEvent.Type.INITIALIZED));
+
+        // 重连到刷新完成之间的读取都计入过期读取
+        Assertions.assertEquals(lostStaleReads + call(() -> resyncingReads), (long) call(treeCache::getStaleReads));
+        Assertions.assertEquals(1, (long) call(treeCache::getMemoryReads));
+
+        Assertions.assertEquals("1", CodecUtils.newStringUTF8(call(() -> treeCache.getDataIfPresent(ROOT + "/a"))));
+        Assertions.assertEquals(2, (long) call(treeCache::getMemoryReads));
+
+        // 刷新完成后继续监听变更
+        curatorFacade.setData(ROOT + "/a", CodecUtils.getBytesUTF8("2"));
+        waitUntil(() -> "2".equals(CodecUtils.newStringUTF8(treeCache.getDataIfPresent(ROOT + "/a"))));
+        Assertions.assertEquals(0, (long) call(treeCache::getUnavailableReads));
+    }
+}
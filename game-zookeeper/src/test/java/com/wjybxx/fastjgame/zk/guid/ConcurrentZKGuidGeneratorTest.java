@@ -0,0 +1,130 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.zk.guid;
+
+import com.wjybxx.fastjgame.util.CodecUtils;
+import com.wjybxx.fastjgame.util.concurrent.DefaultThreadFactory;
+import com.wjybxx.fastjgame.zk.core.BackoffRetryForever;
+import com.wjybxx.fastjgame.zk.core.CuratorClientMgr;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.CreateMode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * {@link ZKGuidGenerator}的CAS号段分配测试，使用curator的进程内zookeeper服务器。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/3
+ * github - https://github.com/hl845740757
+ */
+class ConcurrentZKGuidGeneratorTest {
+
+    private TestingServer testingServer;
+    private CuratorClientMgr curatorClientMgr;
+    private ExecutorService prefetchExecutor;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        testingServer = new TestingServer(true);
+        final CuratorFrameworkFactory.Builder builder = CuratorFrameworkFactory.builder()
+                .namespace("test")
+                .connectString(testingServer.getConnectString())
+                .connectionTimeoutMs(30 * 1000)
+                .sessionTimeoutMs(30 * 1000)
+                .retryPolicy(new BackoffRetryForever());
+        curatorClientMgr = new CuratorClientMgr(builder, new DefaultThreadFactory("CURATOR_BACKGROUD"));
+        prefetchExecutor = Executors.newFixedThreadPool(2, new DefaultThreadFactory("GUID_PREFETCH"));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        prefetchExecutor.shutdownNow();
+        curatorClientMgr.shutdown();
+        testingServer.close();
+    }
+
+    @Test
+    void concurrentAllocatorsNeverOverlap() throws Exception {
+        final int allocatorCount = 8;
+        final int guidPerAllocator = 2000;
+        final int cacheSize = 50;
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(allocatorCount);
+        try {
+            final CountDownLatch startLatch = new CountDownLatch(1);
+            final List<Future<List<Long>>> futureList = new ArrayList<>(allocatorCount);
+            for (int index = 0; index < allocatorCount; index++) {
+                futureList.add(executorService.submit(() -> {
+                    startLatch.await();
+                    final List<Long> guidList = new ArrayList<>(guidPerAllocator);
+                    try (ZKGuidGenerator guidGenerator = new ZKGuidGenerator(curatorClientMgr, "game", cacheSize, prefetchExecutor)) {
+                        for (int count = 0; count < guidPerAllocator; count++) {
+                            guidList.add(guidGenerator.next());
+                        }
+                    }
+                    return guidList;
+                }));
+            }
+            startLatch.countDown();
+
+            final Set<Long> guidSet = new HashSet<>(allocatorCount * guidPerAllocator);
+            for (Future<List<Long>> future : futureList) {
+                for (Long guid : future.get(30, TimeUnit.SECONDS)) {
+                    Assertions.assertTrue(guid > 0);
+                    Assertions.assertTrue(guidSet.add(guid), "duplicate guid " + guid);
+                }
+            }
+            Assertions.assertEquals(allocatorCount * guidPerAllocator, guidSet.size());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void continueFromLegacyStringData() throws Exception {
+        curatorClientMgr.getClient().create()
+                .creatingParentsIfNeeded()
+                .withMode(CreateMode.PERSISTENT)
+                .forPath("/_guid/log", CodecUtils.getBytesUTF8("12345678"));
+
+        try (ZKGuidGenerator guidGenerator = new ZKGuidGenerator(curatorClientMgr, "log", 100, prefetchExecutor)) {
+            Assertions.assertEquals(12345679L, guidGenerator.next());
+        }
+
+        final byte[] data = curatorClientMgr.getClient().getData().forPath("/_guid/log");
+        Assertions.assertEquals(Long.BYTES, data.length);
+        Assertions.assertEquals(12345678L + 100, ZKGuidGenerator.decode(data));
+    }
+
+    @Test
+    void encodeDecode() {
+        for (long value : new long[]{0, 1, 255, 256, 1_000_000, Long.MAX_VALUE >>> 8}) {
+            Assertions.assertEquals(value, ZKGuidGenerator.decode(ZKGuidGenerator.encode(value)));
+        }
+    }
+}
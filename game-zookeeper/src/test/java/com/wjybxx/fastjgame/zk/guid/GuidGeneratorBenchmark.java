@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.zk.guid;
+
+import com.wjybxx.fastjgame.guid.core.GuidGenerator;
+import com.wjybxx.fastjgame.guid.core.SnowflakeGuidGeneratorFactory;
+import com.wjybxx.fastjgame.util.concurrent.DefaultThreadFactory;
+import com.wjybxx.fastjgame.zk.core.BackoffRetryForever;
+import com.wjybxx.fastjgame.zk.core.CuratorClientMgr;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.test.TestingServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 比较{@link ZKGuidGenerator}(号段)与snowflake生成器的吞吐量，使用curator的进程内zookeeper服务器。
+ * 号段生成器是非线程安全的，每个线程一个实例；snowflake生成器所有线程共享一个实例。
+ * 注意：snowflake生成器每个workerId每毫秒最多生成4096个id，因此其吞吐量上限约为每秒400万。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2021/1/4
+ * github - https://github.com/hl845740757
+ */
+public class GuidGeneratorBenchmark {
+
+    private static final int THREAD_COUNT = 4;
+    private static final int ITERATIONS = 5_000_000;
+
+    public static void main(String[] args) throws Exception {
+        try (TestingServer testingServer = new TestingServer(true)) {
+            final CuratorFrameworkFactory.Builder builder = CuratorFrameworkFactory.builder()
+                    .namespace("test")
+                    .connectString(testingServer.getConnectString())
+                    .connectionTimeoutMs(30 * 1000)
+                    .sessionTimeoutMs(30 * 1000)
+                    .retryPolicy(new BackoffRetryForever());
+            final CuratorClientMgr curatorClientMgr = new CuratorClientMgr(builder, new DefaultThreadFactory("CURATOR_BACKGROUD"));
+            final ExecutorService prefetchExecutor = Executors.newFixedThreadPool(THREAD_COUNT, new DefaultThreadFactory("GUID_PREFETCH"));
+            try {
+                final SnowflakeGuidGeneratorFactory snowflakeFactory = new SnowflakeGuidGeneratorFactory(
+                        new ZKWorkerIdAllocator(curatorClientMgr, new byte[0]));
+                final GuidGenerator snowflake = snowflakeFactory.newInstance("game");
+
+                for (int round = 0; round < 2; round++) {
+                    // 第一轮为预热
+                    runBenchmark("segment", () -> new ZKGuidGenerator(curatorClientMgr, "game", prefetchExecutor));
+                    runBenchmark("snowflake", () -> snowflake);
+                }
+            } finally {
+                prefetchExecutor.shutdownNow();
+                curatorClientMgr.shutdown();
+            }
+        }
+    }
+
+    private static void runBenchmark(String name, Supplier<GuidGenerator> generatorSupplier) throws InterruptedException {
+        final List<Thread> threadList = new ArrayList<>(THREAD_COUNT);
+        for (int index = 0; index < THREAD_COUNT; index++) {
+            threadList.add(new Thread(() -> {
+                try (GuidGenerator guidGenerator = generatorSupplier.get()) {
+                    for (int count = 0; count < ITERATIONS; count++) {
+                        guidGenerator.next();
+                    }
+                }
+            }, name + "-" + index));
+        }
+
+        final long startNanos = System.nanoTime();
+        threadList.forEach(Thread::start);
+        for (Thread thread : threadList) {
+            thread.join();
+        }
+        final long costMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        final long throughput = (long) THREAD_COUNT * ITERATIONS * 1000 / Math.max(1, costMillis);
+        System.out.println(name + ": threads " + THREAD_COUNT + ", iterations " + ITERATIONS
+                + ", cost " + costMillis + " ms, throughput " + throughput + " ops/s");
+    }
+}
@@ -21,6 +21,9 @@ import com.wjybxx.fastjgame.zk.core.BackoffRetryForever;
 import com.wjybxx.fastjgame.zk.core.CuratorClientMgr;
 import org.apache.curator.framework.CuratorFrameworkFactory;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /**
  * @author wjybxx
  * @version 1.0
@@ -39,17 +42,19 @@ public class ZKGuidGeneratorTest {
 
 
         final CuratorClientMgr curatorClientMgr = new CuratorClientMgr(builder, new DefaultThreadFactory("CURATOR_BACKGROUD"));
+        final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(new DefaultThreadFactory("GUID_PREFETCH"));
         try {
-            doTest(curatorClientMgr, "game");
-            doTest(curatorClientMgr, "log");
+            doTest(curatorClientMgr, prefetchExecutor, "game");
+            doTest(curatorClientMgr, prefetchExecutor, "log");
         } finally {
+            prefetchExecutor.shutdownNow();
             curatorClientMgr.shutdown();
         }
     }
 
-    private static void doTest(CuratorClientMgr curatorClientMgr, String name) {
+    private static void doTest(CuratorClientMgr curatorClientMgr, ExecutorService prefetchExecutor, String name) {
         final int cacheSize = 100;
-        try (final ZKGuidGenerator guidGenerator = new ZKGuidGenerator(curatorClientMgr, name, cacheSize)) {
+        try (final ZKGuidGenerator guidGenerator = new ZKGuidGenerator(curatorClientMgr, name, cacheSize, prefetchExecutor)) {
             for (int index = 0; index < cacheSize * 3; index++) {
                 System.out.println("nameSpace: " + name + ", guid: " + guidGenerator.next());
             }
@@ -0,0 +1,320 @@
+/*
+ *  Copyright 2019 wjybxx
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to iBn writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.wjybxx.fastjgame.zk.rpc;
+
+import com.wjybxx.fastjgame.net.rpc.DefaultRpcMethodSpec;
+import com.wjybxx.fastjgame.net.rpc.RpcInvoker;
+import com.wjybxx.fastjgame.net.session.Session;
+import com.wjybxx.fastjgame.util.CodecUtils;
+import com.wjybxx.fastjgame.util.concurrent.DefaultEventLoop;
+import com.wjybxx.fastjgame.util.concurrent.DefaultThreadFactory;
+import com.wjybxx.fastjgame.util.concurrent.FutureUtils;
+import com.wjybxx.fastjgame.util.concurrent.Promise;
+import com.wjybxx.fastjgame.util.concurrent.RejectedExecutionHandlers;
+import com.wjybxx.fastjgame.zk.core.BackoffRetryForever;
+import com.wjybxx.fastjgame.zk.core.CuratorClientMgr;
+import com.wjybxx.fastjgame.zk.core.CuratorFacade;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.CreateMode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link LoadBalancedRpcInvoker}测试，使用curator的进程内zookeeper服务器。
+ * 连接器返回的是桩session，只测试服务发现和负载均衡。
+ *
+ * @author wjybxx
+ * @version 1.0
+ * date - 2020/12/27
+ * github - https://github.com/hl845740757
+ */
+class LoadBalancedRpcInvokerTest {
+
+    private static final String SERVICE_PATH = "/service/scene";
+
+    private TestingServer testingServer;
+    private CuratorClientMgr curatorClientMgr;
+    private DefaultEventLoop appEventLoop;
+    private CuratorFacade curatorFacade;
+
+    /**
+     * address -> session
+     */
+    private final Map<String, StubSession> sessionMap = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        testingServer = new TestingServer(true);
+        final CuratorFrameworkFactory.Builder builder = CuratorFrameworkFactory.builder()
+                .namespace("test")
+                .connectString(testingServer.getConnectString())
+                .connectionTimeoutMs(30 * 1000)
+                .sessionTimeoutMs(30 * 1000)
+                .retryPolicy(new BackoffRetryForever());
+        curatorClientMgr = new CuratorClientMgr(builder, new DefaultThreadFactory("CURATOR_BACKGROUD"));
+        appEventLoop = new DefaultEventLoop(null, new DefaultThreadFactory("APP"), RejectedExecutionHandlers.abort());
+        curatorFacade = new CuratorFacade(curatorClientMgr, appEventLoop);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        appEventLoop.submit(() -> curatorFacade.shutdown()).get();
+        appEventLoop.shutdown();
+        curatorClientMgr.shutdown();
+        testingServer.close();
+    }
+
+    private LoadBalancedRpcInvoker newStartedInvoker(LoadBalanceStrategy strategy) throws Exception {
+        return newStartedInvoker(strategy, null);
+    }
+
+    private LoadBalancedRpcInvoker newStartedInvoker(LoadBalanceStrategy strategy, RpcInvoker rpcInvoker) throws Exception {
+        final SessionConnector connector = (sessionId, remoteAddress) -> {
+            final StubSession session = new StubSession(sessionId);
+            sessionMap.put(remoteAddress.toString(), session);
+            return FutureUtils.newSucceedFuture(session.proxy);
+        };
+        return appEventLoop.submit(() -> {
+            final LoadBalancedRpcInvoker invoker = new LoadBalancedRpcInvoker(curatorFacade, appEventLoop, rpcInvoker,
+                    connector, SERVICE_PATH, strategy);
+            invoker.start();
+            return invoker;
+        }).get();
+    }
+
+    private void registerInstance(String nodeName, String address) throws Exception {
+        final CuratorFramework client = curatorClientMgr.getClient();
+        client.create()
+                .creatingParentContainersIfNeeded()
+                .withMode(CreateMode.EPHEMERAL)
+                .forPath(SERVICE_PATH + "/" + nodeName, CodecUtils.getBytesUTF8(address));
+    }
+
+    private void unregisterInstance(String nodeName) throws Exception {
+        curatorClientMgr.getClient().delete().forPath(SERVICE_PATH + "/" + nodeName);
+    }
+
+    private <V> V callInLoop(Callable<V> task) throws Exception {
+        return appEventLoop.submit(task).get();
+    }
+
+    private void waitUntil(Callable<Boolean> condition) throws Exception {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (!callInLoop(condition)) {
+            if (System.currentTimeMillis() > deadline) {
+                Assertions.fail("wait condition timeout");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void discoverAndRemoveInstances() throws Exception {
+        final LoadBalancedRpcInvoker invoker = newStartedInvoker(LoadBalanceStrategy.LEAST_PENDING);
+        registerInstance("scene-1", "127.0.0.1:10001");
+        registerInstance("scene-2", "127.0.0.1:10002");
+        registerInstance("scene-3", "127.0.0.1:10003");
+        waitUntil(() -> invoker.readyCount() == 3);
+
+        unregisterInstance("scene-2");
+        waitUntil(() -> invoker.readyCount() == 2);
+        Assertions.assertTrue(sessionMap.get("127.0.0.1:10002").closed.get());
+
+        callInLoop(() -> {
+            invoker.close();
+            return null;
+        });
+        Assertions.assertTrue(sessionMap.get("127.0.0.1:10001").closed.get());
+        Assertions.assertTrue(sessionMap.get("127.0.0.1:10003").closed.get());
+    }
+
+    @Test
+    void selectLeastPending() throws Exception {
+        final LoadBalancedRpcInvoker invoker = newStartedInvoker(LoadBalanceStrategy.LEAST_PENDING);
+        registerInstance("scene-1", "127.0.0.1:10001");
+        registerInstance("scene-2", "127.0.0.1:10002");
+        registerInstance("scene-3", "127.0.0.1:10003");
+        waitUntil(() -> invoker.readyCount() == 3);
+
+        sessionMap.get("127.0.0.1:10001").pendingRpcCalls.set(5);
+        sessionMap.get("127.0.0.1:10002").pendingRpcCalls.set(1);
+        sessionMap.get("127.0.0.1:10003").pendingRpcCalls.set(5);
+
+        final Session expected = sessionMap.get("127.0.0.1:10002").proxy;
+        for (int index = 0; index < 100; index++) {
+            Assertions.assertSame(expected, callInLoop(invoker::select));
+        }
+
+        // 关闭的session不会再被选择
+        sessionMap.get("127.0.0.1:10002").closed.set(true);
+        Assertions.assertNotSame(expected, callInLoop(invoker::select));
+    }
+
+    @Test
+    void selectPowerOfTwoChoices() throws Exception {
+        final LoadBalancedRpcInvoker invoker = newStartedInvoker(LoadBalanceStrategy.POWER_OF_TWO_CHOICES);
+        registerInstance("scene-1", "127.0.0.1:10001");
+        registerInstance("scene-2", "127.0.0.1:10002");
+        waitUntil(() -> invoker.readyCount() == 2);
+
+        // 只有两个实例时，总是比较这两个实例
+        sessionMap.get("127.0.0.1:10001").pendingRpcCalls.set(3);
+        final Session expected = sessionMap.get("127.0.0.1:10002").proxy;
+        for (int index = 0; index < 100; index++) {
+            Assertions.assertSame(expected, callInLoop(invoker::select));
+        }
+    }
+
+    @Test
+    void selectNoneWhenEmpty() throws Exception {
+        final LoadBalancedRpcInvoker invoker = newStartedInvoker(LoadBalanceStrategy.POWER_OF_TWO_CHOICES);
+        Assertions.assertNull(callInLoop(invoker::select));
+    }
+
+    @Test
+    void spreadBurstLeastPending() throws Exception {
+        final StubRpcInvoker rpcInvoker = new StubRpcInvoker();
+        final LoadBalancedRpcInvoker invoker = newStartedInvoker(LoadBalanceStrategy.LEAST_PENDING, rpcInvoker.proxy);
+        registerInstance("scene-1", "127.0.0.1:10001");
+        registerInstance("scene-2", "127.0.0.1:10002");
+        registerInstance("scene-3", "127.0.0.1:10003");
+        waitUntil(() -> invoker.readyCount() == 3);
+
+        assertBurstSpread(invoker, rpcInvoker, 30, 3);
+    }
+
+    @Test
+    void spreadBurstPowerOfTwoChoices() throws Exception {
+        final StubRpcInvoker rpcInvoker = new StubRpcInvoker();
+        final LoadBalancedRpcInvoker invoker = newStartedInvoker(LoadBalanceStrategy.POWER_OF_TWO_CHOICES, rpcInvoker.proxy);
+        registerInstance("scene-1", "127.0.0.1:10001");
+        registerInstance("scene-2", "127.0.0.1:10002");
+        waitUntil(() -> invoker.readyCount() == 2);
+
+        assertBurstSpread(invoker, rpcInvoker, 20, 2);
+    }
+
+    /**
+     * 同一帧内的突发调用：session的{@link Session#pendingRpcCalls()}始终为0，仍然要均匀分布到各个实例上，
+     * 且调用完成之后计数归还，下一次突发仍然均匀分布。
+     */
+    private void assertBurstSpread(LoadBalancedRpcInvoker invoker, StubRpcInvoker rpcInvoker, int calls, int instances) throws Exception {
+        for (int round = 0; round < 2; round++) {
+            final Map<String, Integer> callsPerSession = callInLoop(() -> {
+                rpcInvoker.calls.clear();
+                for (int index = 0; index < calls; index++) {
+                    invoker.call(new DefaultRpcMethodSpec<>((short) 1, (short) 1, new ArrayList<>(), 0, 0), true);
+                }
+                return rpcInvoker.countBySession();
+            });
+            Assertions.assertEquals(instances, callsPerSession.size());
+            for (Integer count : callsPerSession.values()) {
+                Assertions.assertEquals(calls / instances, count.intValue());
+            }
+
+            // 完成所有调用，计数在appEventLoop中归还
+            callInLoop(() -> {
+                rpcInvoker.completeAll();
+                return null;
+            });
+        }
+    }
+
+    /**
+     * 桩rpc调用器，记录每次调用的session，返回的future由测试手动完成
+     */
+    private static class StubRpcInvoker {
+
+        private final List<Session> calls = new ArrayList<>();
+        private final List<Promise<Object>> promises = new ArrayList<>();
+        private final RpcInvoker proxy = (RpcInvoker) Proxy.newProxyInstance(RpcInvoker.class.getClassLoader(),
+                new Class<?>[]{RpcInvoker.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("call") && args.length == 4) {
+                        calls.add((Session) args[0]);
+                        final Promise<Object> promise = FutureUtils.newPromise();
+                        promises.add(promise);
+                        return promise;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        Map<String, Integer> countBySession() {
+            final Map<String, Integer> result = new HashMap<>();
+            for (Session session : calls) {
+                result.merge(session.sessionId(), 1, Integer::sum);
+            }
+            return result;
+        }
+
+        void completeAll() {
+            for (Promise<Object> promise : promises) {
+                promise.trySuccess(null);
+            }
+            promises.clear();
+        }
+    }
+
+    /**
+     * 桩session，只实现负载均衡用到的方法
+     */
+    private static class StubSession {
+
+        private final AtomicInteger pendingRpcCalls = new AtomicInteger();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final Session proxy;
+
+        StubSession(String sessionId) {
+            proxy = (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class<?>[]{Session.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "sessionId":
+                            case "toString":
+                                return sessionId;
+                            case "pendingRpcCalls":
+                                return pendingRpcCalls.get();
+                            case "isClosed":
+                                return closed.get();
+                            case "close":
+                                closed.set(true);
+                                return null;
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "equals":
+                                return proxy == args[0];
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+    }
+}